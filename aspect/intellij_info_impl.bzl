@@ -639,7 +639,7 @@ def build_java_package_manifest(ctx, target, source_files, suffix):
         join_with = ":",
         map_each = _package_manifest_file_argument,
     )
-    args.use_param_file("@%s")
+    args.use_param_file("@%s", use_always = True)
     args.set_param_file_format("multiline")
 
     ctx.actions.run(
@@ -649,6 +649,7 @@ def build_java_package_manifest(ctx, target, source_files, suffix):
         arguments = [args],
         mnemonic = "JavaPackageManifest",
         progress_message = "Parsing java package strings for " + str(target.label),
+        execution_requirements = {"supports-workers": "1"},
     )
     return output
 
@@ -668,26 +669,29 @@ def build_filtered_gen_jar(ctx, target, java, gen_java_sources, srcjars):
 
     filtered_jar = ctx.actions.declare_file(target.label.name + "-filtered-gen.jar")
     filtered_source_jar = ctx.actions.declare_file(target.label.name + "-filtered-gen-src.jar")
-    args = []
+    args = ctx.actions.args()
     for jar in jar_artifacts:
-        args += ["--filter_jar", jar.path]
+        args.add("--filter_jar", jar)
     for jar in source_jar_artifacts:
-        args += ["--filter_source_jar", jar.path]
-    args += ["--filtered_jar", filtered_jar.path]
-    args += ["--filtered_source_jar", filtered_source_jar.path]
+        args.add("--filter_source_jar", jar)
+    args.add("--filtered_jar", filtered_jar)
+    args.add("--filtered_source_jar", filtered_source_jar)
     if gen_java_sources:
         for java_file in gen_java_sources:
-            args += ["--keep_java_file", java_file.path]
+            args.add("--keep_java_file", java_file)
     if srcjars:
         for source_jar in srcjars:
-            args += ["--keep_source_jar", source_jar.path]
+            args.add("--keep_source_jar", source_jar)
+    args.use_param_file("@%s", use_always = True)
+    args.set_param_file_format("multiline")
     ctx.actions.run(
         inputs = jar_artifacts + source_jar_artifacts + gen_java_sources + srcjars,
         outputs = [filtered_jar, filtered_source_jar],
         executable = ctx.executable._jar_filter,
-        arguments = args,
+        arguments = [args],
         mnemonic = "JarFilter",
         progress_message = "Filtering generated code for " + str(target.label),
+        execution_requirements = {"supports-workers": "1"},
     )
     output_jar = struct(
         jar = artifact_location(filtered_jar),
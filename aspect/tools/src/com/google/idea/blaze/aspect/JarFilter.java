@@ -26,15 +26,19 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
@@ -89,7 +93,18 @@ public final class JarFilter {
   private static final Pattern JAVA_PACKAGE_PATTERN =
       Pattern.compile("^\\s*package\\s+([\\w\\.]+);");
 
+  /** Shared between work requests when running as a persistent worker. */
+  private static final ListeningExecutorService executorService =
+      MoreExecutors.listeningDecorator(
+          Executors.newFixedThreadPool(
+              Runtime.getRuntime().availableProcessors(),
+              new ThreadFactoryBuilder().setDaemon(true).build()));
+
   public static void main(String[] args) throws Exception {
+    if (PersistentWorker.isPersistentWorker(args)) {
+      PersistentWorker.run(workArgs -> main(parseArgs(workArgs)));
+      System.exit(0);
+    }
     JarFilterOptions options = parseArgs(args);
     try {
       main(options);
@@ -145,10 +160,6 @@ public final class JarFilter {
 
   /** Finds the expected jar archive file name prefixes for the java files. */
   private static List<String> parseJavaFiles(List<Path> javaFiles) throws IOException {
-    ListeningExecutorService executorService =
-        MoreExecutors.listeningDecorator(
-            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
-
     List<ListenableFuture<String>> futures = Lists.newArrayList();
     for (final Path javaFile : javaFiles) {
       futures.add(
@@ -246,6 +257,61 @@ public final class JarFilter {
   /** Filters a list of jars, keeping anything matching the passed predicate. */
   private static void filterJars(List<Path> jars, Path output, Predicate<String> shouldKeep)
       throws IOException {
+    if (!copyRawEntries(jars, output, shouldKeep)) {
+      recompressEntries(jars, output, shouldKeep);
+    }
+  }
+
+  /**
+   * Copies the kept entries' compressed data directly, without inflating and re-deflating them.
+   * Returns false without writing anything if any jar can't be copied from this way.
+   */
+  @VisibleForTesting
+  static boolean copyRawEntries(List<Path> jars, Path output, Predicate<String> shouldKeep)
+      throws IOException {
+    List<List<RawZipCopier.Entry>> jarEntries = new ArrayList<>();
+    long totalSize = 0;
+    int totalEntries = 0;
+    for (Path jar : jars) {
+      try (FileChannel input = FileChannel.open(jar, StandardOpenOption.READ)) {
+        List<RawZipCopier.Entry> entries = RawZipCopier.readEntries(input);
+        if (entries == null) {
+          return false;
+        }
+        jarEntries.add(entries);
+        totalSize += input.size();
+        totalEntries += entries.size();
+      }
+    }
+    if (totalEntries >= RawZipCopier.MAX_ENTRIES || totalSize >= RawZipCopier.MAX_OFFSET) {
+      // the output could need zip64 extensions
+      return false;
+    }
+
+    Set<String> names = new HashSet<>();
+    try (FileChannel outputChannel =
+            FileChannel.open(
+                output,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        RawZipCopier copier = new RawZipCopier(outputChannel)) {
+      for (int i = 0; i < jars.size(); i++) {
+        try (FileChannel input = FileChannel.open(jars.get(i), StandardOpenOption.READ)) {
+          for (RawZipCopier.Entry entry : jarEntries.get(i)) {
+            // ignore duplicate entries, on the assumption that their contents are identical
+            if (shouldKeep.test(entry.name) && names.add(entry.name)) {
+              copier.copy(input, entry);
+            }
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  private static void recompressEntries(
+      List<Path> jars, Path output, Predicate<String> shouldKeep) throws IOException {
     final int bufferSize = 8 * 1024;
     byte[] buffer = new byte[bufferSize];
     Set<String> names = new HashSet<>();
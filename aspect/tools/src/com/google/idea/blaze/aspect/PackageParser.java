@@ -22,6 +22,7 @@ import com.google.common.io.Files;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.devtools.intellij.aspect.Common.ArtifactLocation;
 import com.google.devtools.intellij.ideinfo.IntellijIdeInfo.JavaSourcePackage;
 import com.google.devtools.intellij.ideinfo.IntellijIdeInfo.PackageManifest;
@@ -68,14 +69,20 @@ public class PackageParser {
 
   private static final Pattern PACKAGE_PATTERN = Pattern.compile("^\\s*package\\s+([\\w\\.]+)");
 
-  public static void main(String[] args) throws Exception {
-    PackageParserOptions options = parseArgs(args);
-    Preconditions.checkNotNull(options.outputManifest);
+  /** Shared between work requests when running as a persistent worker. */
+  private static final ListeningExecutorService executorService =
+      MoreExecutors.listeningDecorator(
+          Executors.newFixedThreadPool(
+              Runtime.getRuntime().availableProcessors(),
+              new ThreadFactoryBuilder().setDaemon(true).build()));
 
+  public static void main(String[] args) throws Exception {
+    if (PersistentWorker.isPersistentWorker(args)) {
+      PersistentWorker.run(PackageParser::run);
+      System.exit(0);
+    }
     try {
-      PackageParser parser = new PackageParser(PackageParserIoProvider.INSTANCE);
-      Map<ArtifactLocation, String> outputMap = parser.parsePackageStrings(options.sources);
-      parser.writeManifest(outputMap, options.outputManifest);
+      run(args);
     } catch (Throwable e) {
       logger.log(Level.SEVERE, "Error parsing package strings", e);
       System.exit(1);
@@ -83,6 +90,15 @@ public class PackageParser {
     System.exit(0);
   }
 
+  private static void run(String[] args) throws Exception {
+    PackageParserOptions options = parseArgs(args);
+    Preconditions.checkNotNull(options.outputManifest);
+
+    PackageParser parser = new PackageParser(PackageParserIoProvider.INSTANCE);
+    Map<ArtifactLocation, String> outputMap = parser.parsePackageStrings(options.sources);
+    parser.writeManifest(outputMap, options.outputManifest);
+  }
+
   private static Path getExecutionPath(ArtifactLocation location) {
     return Paths.get(location.getRootExecutionPathFragment(), location.getRelativePath());
   }
@@ -129,11 +145,6 @@ public class PackageParser {
   @VisibleForTesting
   Map<ArtifactLocation, String> parsePackageStrings(List<ArtifactLocation> sources)
       throws Exception {
-
-    ListeningExecutorService executorService =
-        MoreExecutors.listeningDecorator(
-            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
-
     Map<ArtifactLocation, ListenableFuture<String>> futures = Maps.newHashMap();
     for (final ArtifactLocation source : sources) {
       futures.put(source, executorService.submit(() -> getDeclaredPackageOfJavaFile(source)));
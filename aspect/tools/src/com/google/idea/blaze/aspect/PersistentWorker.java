@@ -0,0 +1,223 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.aspect;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.repackaged.CodedInputStream;
+import com.google.protobuf.repackaged.CodedOutputStream;
+import com.google.protobuf.repackaged.WireFormat;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Runs an aspect tool as a Bazel persistent worker, handling many actions in a single JVM.
+ *
+ * <p>Implements the proto worker protocol: length-delimited WorkRequest messages are read from
+ * stdin, and a WorkResponse is written to stdout for each. Only the fields used here are read or
+ * written, with field numbers matching Bazel's worker_protocol.proto.
+ */
+final class PersistentWorker {
+
+  private static final String PERSISTENT_WORKER_FLAG = "--persistent_worker";
+
+  /** A single invocation of a tool, given the arguments it'd receive on the command line. */
+  interface Action {
+    void run(String[] args) throws Exception;
+  }
+
+  private PersistentWorker() {}
+
+  /** Returns true if Bazel started the tool as a persistent worker. */
+  static boolean isPersistentWorker(String[] args) {
+    return Arrays.asList(args).contains(PERSISTENT_WORKER_FLAG);
+  }
+
+  /** Handles work requests until stdin is closed. */
+  static void run(Action action) throws IOException {
+    PrintStream stdout = System.out;
+    // anything else written to stdout would corrupt the responses
+    System.setOut(System.err);
+    try {
+      run(System.in, stdout, action);
+    } finally {
+      System.setOut(stdout);
+    }
+  }
+
+  @VisibleForTesting
+  static void run(InputStream in, OutputStream out, Action action) throws IOException {
+    WorkRequest request;
+    while ((request = WorkRequest.readDelimited(in)) != null) {
+      StringWriter output = new StringWriter();
+      int exitCode = 0;
+      try {
+        action.run(request.arguments.toArray(new String[0]));
+      } catch (Throwable e) {
+        exitCode = 1;
+        e.printStackTrace(new PrintWriter(output, true));
+      }
+      new WorkResponse(exitCode, output.toString(), request.requestId).writeDelimited(out);
+      out.flush();
+    }
+  }
+
+  /** The fields of blaze.worker.WorkRequest used by the aspect tools. */
+  @VisibleForTesting
+  static final class WorkRequest {
+    private static final int ARGUMENTS_FIELD = 1;
+    private static final int REQUEST_ID_FIELD = 3;
+
+    final List<String> arguments;
+    final int requestId;
+
+    WorkRequest(List<String> arguments, int requestId) {
+      this.arguments = arguments;
+      this.requestId = requestId;
+    }
+
+    /** Reads a length-delimited request, returning null at the end of the stream. */
+    @Nullable
+    static WorkRequest readDelimited(InputStream in) throws IOException {
+      int firstByte = in.read();
+      if (firstByte == -1) {
+        return null;
+      }
+      int size = CodedInputStream.readRawVarint32(firstByte, in);
+      byte[] bytes = new byte[size];
+      try {
+        ByteStreams.readFully(in, bytes);
+      } catch (EOFException e) {
+        throw new IOException("Truncated work request", e);
+      }
+      CodedInputStream input = CodedInputStream.newInstance(bytes);
+      List<String> arguments = new ArrayList<>();
+      int requestId = 0;
+      int tag;
+      while ((tag = input.readTag()) != 0) {
+        switch (WireFormat.getTagFieldNumber(tag)) {
+          case ARGUMENTS_FIELD:
+            arguments.add(input.readString());
+            break;
+          case REQUEST_ID_FIELD:
+            requestId = input.readInt32();
+            break;
+          default:
+            input.skipField(tag);
+        }
+      }
+      return new WorkRequest(arguments, requestId);
+    }
+
+    @VisibleForTesting
+    void writeDelimited(OutputStream out) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      CodedOutputStream message = CodedOutputStream.newInstance(bytes);
+      for (String argument : arguments) {
+        message.writeString(ARGUMENTS_FIELD, argument);
+      }
+      if (requestId != 0) {
+        message.writeInt32(REQUEST_ID_FIELD, requestId);
+      }
+      message.flush();
+      writeDelimited(bytes.toByteArray(), out);
+    }
+  }
+
+  /** The fields of blaze.worker.WorkResponse used by the aspect tools. */
+  @VisibleForTesting
+  static final class WorkResponse {
+    private static final int EXIT_CODE_FIELD = 1;
+    private static final int OUTPUT_FIELD = 2;
+    private static final int REQUEST_ID_FIELD = 3;
+
+    final int exitCode;
+    final String output;
+    final int requestId;
+
+    WorkResponse(int exitCode, String output, int requestId) {
+      this.exitCode = exitCode;
+      this.output = output;
+      this.requestId = requestId;
+    }
+
+    void writeDelimited(OutputStream out) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      CodedOutputStream message = CodedOutputStream.newInstance(bytes);
+      if (exitCode != 0) {
+        message.writeInt32(EXIT_CODE_FIELD, exitCode);
+      }
+      if (!output.isEmpty()) {
+        message.writeString(OUTPUT_FIELD, output);
+      }
+      if (requestId != 0) {
+        message.writeInt32(REQUEST_ID_FIELD, requestId);
+      }
+      message.flush();
+      PersistentWorker.writeDelimited(bytes.toByteArray(), out);
+    }
+
+    /** Reads a length-delimited response, returning null at the end of the stream. */
+    @VisibleForTesting
+    @Nullable
+    static WorkResponse readDelimited(InputStream in) throws IOException {
+      int firstByte = in.read();
+      if (firstByte == -1) {
+        return null;
+      }
+      byte[] bytes = new byte[CodedInputStream.readRawVarint32(firstByte, in)];
+      ByteStreams.readFully(in, bytes);
+      CodedInputStream input = CodedInputStream.newInstance(bytes);
+      int exitCode = 0;
+      String output = "";
+      int requestId = 0;
+      int tag;
+      while ((tag = input.readTag()) != 0) {
+        switch (WireFormat.getTagFieldNumber(tag)) {
+          case EXIT_CODE_FIELD:
+            exitCode = input.readInt32();
+            break;
+          case OUTPUT_FIELD:
+            output = input.readString();
+            break;
+          case REQUEST_ID_FIELD:
+            requestId = input.readInt32();
+            break;
+          default:
+            input.skipField(tag);
+        }
+      }
+      return new WorkResponse(exitCode, output, requestId);
+    }
+  }
+
+  private static void writeDelimited(byte[] message, OutputStream out) throws IOException {
+    CodedOutputStream output = CodedOutputStream.newInstance(out);
+    output.writeUInt32NoTag(message.length);
+    output.writeRawBytes(message);
+    output.flush();
+  }
+}
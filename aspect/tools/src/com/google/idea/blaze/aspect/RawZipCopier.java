@@ -0,0 +1,280 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.aspect;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Writes a zip archive by copying entries from other archives as-is, without inflating and
+ * re-deflating their contents.
+ *
+ * <p>Only plain archives are supported: no zip64 extensions, encryption or multi-disk spanning.
+ * Callers check {@link #readEntries} for null and fall back to a recompressing copy otherwise.
+ */
+final class RawZipCopier implements Closeable {
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xffff;
+
+  private static final int ENCRYPTED_FLAG = 1;
+  private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
+
+  /** Entries and offsets beyond these limits need zip64 extensions. */
+  static final int MAX_ENTRIES = 0xffff;
+
+  static final long MAX_OFFSET = 0xffffffffL;
+
+  /** An entry from an archive's central directory. */
+  static final class Entry {
+    final String name;
+    private final byte[] nameBytes;
+    private final short versionMadeBy;
+    private final short versionNeeded;
+    private final short flags;
+    private final short method;
+    private final int dosTimeAndDate;
+    private final int crc;
+    private final long compressedSize;
+    private final long uncompressedSize;
+    private final short internalAttributes;
+    private final int externalAttributes;
+    private final long localHeaderOffset;
+
+    private Entry(ByteBuffer header, byte[] nameBytes) {
+      this.name = new String(nameBytes, UTF_8);
+      this.nameBytes = nameBytes;
+      this.versionMadeBy = header.getShort(4);
+      this.versionNeeded = header.getShort(6);
+      this.flags = header.getShort(8);
+      this.method = header.getShort(10);
+      this.dosTimeAndDate = header.getInt(12);
+      this.crc = header.getInt(16);
+      this.compressedSize = Integer.toUnsignedLong(header.getInt(20));
+      this.uncompressedSize = Integer.toUnsignedLong(header.getInt(24));
+      this.internalAttributes = header.getShort(36);
+      this.externalAttributes = header.getInt(38);
+      this.localHeaderOffset = Integer.toUnsignedLong(header.getInt(42));
+    }
+
+    private boolean isSupported() {
+      return (flags & ENCRYPTED_FLAG) == 0
+          && compressedSize != MAX_OFFSET
+          && uncompressedSize != MAX_OFFSET
+          && localHeaderOffset != MAX_OFFSET;
+    }
+  }
+
+  private final FileChannel output;
+  private final List<Entry> written = new ArrayList<>();
+  private final List<Long> writtenOffsets = new ArrayList<>();
+
+  RawZipCopier(FileChannel output) {
+    this.output = output;
+  }
+
+  /**
+   * Reads the central directory of the given archive, returning null if it can't be copied from
+   * directly.
+   */
+  @Nullable
+  static List<Entry> readEntries(FileChannel input) throws IOException {
+    ByteBuffer end = findEndOfCentralDirectory(input);
+    if (end == null || end.getShort(4) != 0 || end.getShort(6) != 0) {
+      // missing, or spans multiple disks
+      return null;
+    }
+    int count = Short.toUnsignedInt(end.getShort(10));
+    long size = Integer.toUnsignedLong(end.getInt(12));
+    long offset = Integer.toUnsignedLong(end.getInt(16));
+    if (count == MAX_ENTRIES || size == MAX_OFFSET || offset == MAX_OFFSET) {
+      // zip64 archive
+      return null;
+    }
+    ByteBuffer directory = read(input, offset, (int) size);
+    List<Entry> entries = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      if (directory.remaining() < CENTRAL_HEADER_SIZE
+          || directory.getInt(directory.position()) != CENTRAL_HEADER_SIGNATURE) {
+        return null;
+      }
+      ByteBuffer header = directory.slice().order(ByteOrder.LITTLE_ENDIAN);
+      int nameLength = Short.toUnsignedInt(header.getShort(28));
+      int extraLength = Short.toUnsignedInt(header.getShort(30));
+      int commentLength = Short.toUnsignedInt(header.getShort(32));
+      int entrySize = CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+      if (directory.remaining() < entrySize) {
+        return null;
+      }
+      byte[] nameBytes = new byte[nameLength];
+      header.position(CENTRAL_HEADER_SIZE);
+      header.get(nameBytes);
+      Entry entry = new Entry(header, nameBytes);
+      if (!entry.isSupported()) {
+        return null;
+      }
+      entries.add(entry);
+      directory.position(directory.position() + entrySize);
+    }
+    return entries;
+  }
+
+  /**
+   * Copies an entry's compressed data from the given archive. The local header is rewritten from
+   * the central directory, dropping extra fields and any trailing data descriptor.
+   */
+  void copy(FileChannel input, Entry entry) throws IOException {
+    ByteBuffer localHeader = read(input, entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+    if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+      throw new IOException("Invalid local header for zip entry: " + entry.name);
+    }
+    long dataOffset =
+        entry.localHeaderOffset
+            + LOCAL_HEADER_SIZE
+            + Short.toUnsignedInt(localHeader.getShort(26))
+            + Short.toUnsignedInt(localHeader.getShort(28));
+
+    long offset = output.position();
+    ByteBuffer header = allocate(LOCAL_HEADER_SIZE + entry.nameBytes.length);
+    header
+        .putInt(LOCAL_HEADER_SIGNATURE)
+        .putShort(entry.versionNeeded)
+        .putShort(flagsWithoutDataDescriptor(entry))
+        .putShort(entry.method)
+        .putInt(entry.dosTimeAndDate)
+        .putInt(entry.crc)
+        .putInt((int) entry.compressedSize)
+        .putInt((int) entry.uncompressedSize)
+        .putShort((short) entry.nameBytes.length)
+        .putShort((short) 0)
+        .put(entry.nameBytes);
+    write(header);
+
+    long remaining = entry.compressedSize;
+    long position = dataOffset;
+    while (remaining > 0) {
+      long transferred = input.transferTo(position, remaining, output);
+      if (transferred <= 0) {
+        throw new IOException("Truncated data for zip entry: " + entry.name);
+      }
+      position += transferred;
+      remaining -= transferred;
+    }
+    written.add(entry);
+    writtenOffsets.add(offset);
+  }
+
+  /** Writes the central directory. The output channel is left open. */
+  @Override
+  public void close() throws IOException {
+    long directoryOffset = output.position();
+    for (int i = 0; i < written.size(); i++) {
+      Entry entry = written.get(i);
+      ByteBuffer header = allocate(CENTRAL_HEADER_SIZE + entry.nameBytes.length);
+      header
+          .putInt(CENTRAL_HEADER_SIGNATURE)
+          .putShort(entry.versionMadeBy)
+          .putShort(entry.versionNeeded)
+          .putShort(flagsWithoutDataDescriptor(entry))
+          .putShort(entry.method)
+          .putInt(entry.dosTimeAndDate)
+          .putInt(entry.crc)
+          .putInt((int) entry.compressedSize)
+          .putInt((int) entry.uncompressedSize)
+          .putShort((short) entry.nameBytes.length)
+          .putShort((short) 0) // extra field length
+          .putShort((short) 0) // comment length
+          .putShort((short) 0) // disk number
+          .putShort(entry.internalAttributes)
+          .putInt(entry.externalAttributes)
+          .putInt(writtenOffsets.get(i).intValue())
+          .put(entry.nameBytes);
+      write(header);
+    }
+    long directorySize = output.position() - directoryOffset;
+    if (written.size() >= MAX_ENTRIES || output.position() >= MAX_OFFSET) {
+      throw new IOException("Output is too large to write without zip64 extensions");
+    }
+    ByteBuffer end = allocate(END_OF_CENTRAL_DIRECTORY_SIZE);
+    end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+        .putShort((short) 0)
+        .putShort((short) 0)
+        .putShort((short) written.size())
+        .putShort((short) written.size())
+        .putInt((int) directorySize)
+        .putInt((int) directoryOffset)
+        .putShort((short) 0);
+    write(end);
+  }
+
+  private static short flagsWithoutDataDescriptor(Entry entry) {
+    return (short) (entry.flags & ~DATA_DESCRIPTOR_FLAG);
+  }
+
+  @Nullable
+  private static ByteBuffer findEndOfCentralDirectory(FileChannel input) throws IOException {
+    long fileSize = input.size();
+    if (fileSize < END_OF_CENTRAL_DIRECTORY_SIZE) {
+      return null;
+    }
+    // the record is at the very end, unless followed by an archive comment
+    int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+    ByteBuffer tail = read(input, fileSize - tailSize, tailSize);
+    for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+      if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+        tail.position(i);
+        return tail.slice().order(ByteOrder.LITTLE_ENDIAN);
+      }
+    }
+    return null;
+  }
+
+  private static ByteBuffer read(FileChannel input, long position, int size) throws IOException {
+    ByteBuffer buffer = allocate(size);
+    while (buffer.hasRemaining()) {
+      if (input.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of zip archive");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private void write(ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      output.write(buffer);
+    }
+  }
+
+  private static ByteBuffer allocate(int size) {
+    return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+}
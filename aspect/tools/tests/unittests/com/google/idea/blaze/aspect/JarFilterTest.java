@@ -20,6 +20,8 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.google.idea.blaze.aspect.JarFilter.JarFilterOptions;
 import java.io.File;
@@ -172,4 +174,56 @@ public class JarFilterTest {
             "gen/Gen2.java",
             "gen/Gen3.java");
   }
+
+  @Test
+  public void testRawCopyKeepsCompressedEntries() throws Exception {
+    byte[] contents = "class contents, class contents, class contents".getBytes(UTF_8);
+    File jar = folder.newFile("raw.jar");
+    try (ZipOutputStream zo = new ZipOutputStream(new FileOutputStream(jar))) {
+      zo.putNextEntry(new ZipEntry("com/google/foo/Foo.class"));
+      zo.write(contents);
+      zo.closeEntry();
+      ZipEntry stored = new ZipEntry("com/google/foo/Foo$Inner.class");
+      stored.setMethod(ZipEntry.STORED);
+      stored.setSize(contents.length);
+      stored.setCrc(Hashing.crc32().hashBytes(contents).padToLong());
+      zo.putNextEntry(stored);
+      zo.write(contents);
+      zo.closeEntry();
+      zo.putNextEntry(new ZipEntry("com/google/foo/Foo2.class"));
+      zo.write(contents);
+      zo.closeEntry();
+    }
+
+    File output = folder.newFile("raw-filtered.jar");
+    assertThat(
+            JarFilter.copyRawEntries(
+                ImmutableList.of(jar.toPath(), jar.toPath()),
+                output.toPath(),
+                name -> !name.equals("com/google/foo/Foo2.class")))
+        .isTrue();
+
+    try (ZipFile original = new ZipFile(jar);
+        ZipFile filtered = new ZipFile(output)) {
+      assertThat(filtered.size()).isEqualTo(2);
+      for (String name :
+          ImmutableList.of("com/google/foo/Foo.class", "com/google/foo/Foo$Inner.class")) {
+        ZipEntry entry = filtered.getEntry(name);
+        assertThat(entry.getMethod()).isEqualTo(original.getEntry(name).getMethod());
+        assertThat(entry.getCompressedSize())
+            .isEqualTo(original.getEntry(name).getCompressedSize());
+        assertThat(ByteStreams.toByteArray(filtered.getInputStream(entry))).isEqualTo(contents);
+      }
+    }
+  }
+
+  @Test
+  public void testRawCopyRejectsInvalidJar() throws Exception {
+    File jar = folder.newFile("invalid.jar");
+    Files.write("not a jar".getBytes(UTF_8), jar);
+    File output = folder.newFile("invalid-filtered.jar");
+    assertThat(
+            JarFilter.copyRawEntries(ImmutableList.of(jar.toPath()), output.toPath(), name -> true))
+        .isFalse();
+  }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.aspect;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.aspect.PersistentWorker.WorkRequest;
+import com.google.idea.blaze.aspect.PersistentWorker.WorkResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PersistentWorker}. */
+@RunWith(JUnit4.class)
+public class PersistentWorkerTest {
+
+  @Test
+  public void testIsPersistentWorker() {
+    assertThat(PersistentWorker.isPersistentWorker(new String[] {"--persistent_worker"})).isTrue();
+    assertThat(PersistentWorker.isPersistentWorker(new String[] {"@params"})).isFalse();
+  }
+
+  @Test
+  public void testRunsEachRequest() throws Exception {
+    ByteArrayOutputStream requests = new ByteArrayOutputStream();
+    new WorkRequest(ImmutableList.of("--output_manifest", "out"), 0).writeDelimited(requests);
+    new WorkRequest(ImmutableList.of("@params"), 7).writeDelimited(requests);
+
+    List<List<String>> invocations = new ArrayList<>();
+    ByteArrayOutputStream responses = new ByteArrayOutputStream();
+    PersistentWorker.run(
+        new ByteArrayInputStream(requests.toByteArray()),
+        responses,
+        args -> invocations.add(Arrays.asList(args)));
+
+    assertThat(invocations)
+        .containsExactly(ImmutableList.of("--output_manifest", "out"), ImmutableList.of("@params"))
+        .inOrder();
+    InputStream in = new ByteArrayInputStream(responses.toByteArray());
+    WorkResponse first = WorkResponse.readDelimited(in);
+    assertThat(first.exitCode).isEqualTo(0);
+    assertThat(first.requestId).isEqualTo(0);
+    WorkResponse second = WorkResponse.readDelimited(in);
+    assertThat(second.exitCode).isEqualTo(0);
+    assertThat(second.requestId).isEqualTo(7);
+    assertThat(WorkResponse.readDelimited(in)).isNull();
+  }
+
+  @Test
+  public void testFailedRequestDoesNotStopWorker() throws Exception {
+    ByteArrayOutputStream requests = new ByteArrayOutputStream();
+    new WorkRequest(ImmutableList.of("fail"), 1).writeDelimited(requests);
+    new WorkRequest(ImmutableList.of("succeed"), 2).writeDelimited(requests);
+
+    ByteArrayOutputStream responses = new ByteArrayOutputStream();
+    PersistentWorker.run(
+        new ByteArrayInputStream(requests.toByteArray()),
+        responses,
+        args -> {
+          if (args[0].equals("fail")) {
+            throw new IllegalStateException("Error parsing param file");
+          }
+        });
+
+    InputStream in = new ByteArrayInputStream(responses.toByteArray());
+    WorkResponse failed = WorkResponse.readDelimited(in);
+    assertThat(failed.exitCode).isEqualTo(1);
+    assertThat(failed.requestId).isEqualTo(1);
+    assertThat(failed.output).contains("Error parsing param file");
+    WorkResponse succeeded = WorkResponse.readDelimited(in);
+    assertThat(succeeded.exitCode).isEqualTo(0);
+    assertThat(succeeded.requestId).isEqualTo(2);
+  }
+}
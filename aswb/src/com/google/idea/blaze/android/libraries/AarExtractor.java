@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.android.libraries;
+
+import com.android.SdkConstants;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts the parts of an AAR used by the IDE, reading the archive as a single stream so it
+ * doesn't need to be available as a local file.
+ */
+final class AarExtractor {
+
+  private static final String RES_PREFIX = SdkConstants.FD_RES + "/";
+  private static final String R_TXT = "R.txt";
+  private static final String PUBLIC_TXT = "public.txt";
+
+  private AarExtractor() {}
+
+  /**
+   * Extracts the resources, manifest, R.txt and public.txt from the given AAR stream into {@code
+   * aarDir}. Other entries are skipped; in particular, jars are provided separately from the merged
+   * output jar.
+   */
+  static void extract(InputStream aar, File aarDir) throws IOException {
+    Path root = aarDir.toPath().toAbsolutePath().normalize();
+    ZipInputStream zip = new ZipInputStream(aar);
+    ZipEntry entry;
+    while ((entry = zip.getNextEntry()) != null) {
+      String name = entry.getName();
+      if (entry.isDirectory() || !shouldExtract(name)) {
+        continue;
+      }
+      Path destination = root.resolve(name).normalize();
+      if (!destination.startsWith(root)) {
+        throw new IOException("AAR entry outside the target directory: " + name);
+      }
+      Files.createDirectories(destination.getParent());
+      Files.copy(zip, destination, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  static boolean shouldExtract(String entryName) {
+    return entryName.startsWith(RES_PREFIX)
+        || entryName.equals(R_TXT)
+        || entryName.equals(PUBLIC_TXT)
+        || entryName.equals(SdkConstants.FN_ANDROID_MANIFEST_XML);
+  }
+}
@@ -24,6 +24,8 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.idea.blaze.android.sync.model.AarLibrary;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact.LocalFileArtifact;
@@ -32,6 +34,7 @@ import com.google.idea.blaze.base.command.buildresult.RemoteOutputArtifact;
 import com.google.idea.blaze.base.command.buildresult.SourceArtifact;
 import com.google.idea.blaze.base.filecache.FileCache;
 import com.google.idea.blaze.base.filecache.FileCacheDiffer;
+import com.google.idea.blaze.base.filecache.SharedArtifactStore;
 import com.google.idea.blaze.base.io.FileOperationProvider;
 import com.google.idea.blaze.base.model.BlazeLibrary;
 import com.google.idea.blaze.base.model.BlazeProjectData;
@@ -48,17 +51,18 @@ import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.libraries.BlazeLibraryCollector;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.PathUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.io.ZipUtil;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
@@ -95,6 +99,20 @@ import javax.annotation.Nullable;
 public class UnpackedAars {
   private static final Logger logger = Logger.getInstance(UnpackedAars.class);
 
+  private static final BoolExperiment streamingExtraction =
+      new BoolExperiment("blaze.aar.streaming.extraction", false);
+
+  /**
+   * AAR extraction is dominated by local disk writes, so it's run with much less concurrency than
+   * {@link FetchExecutor}, which is sized for network-bound copies.
+   */
+  private static final int MAX_EXTRACTION_THREADS = 8;
+
+  private static final ListeningExecutorService EXTRACTION_EXECUTOR =
+      MoreExecutors.listeningDecorator(
+          AppExecutorUtil.createBoundedApplicationPoolExecutor(
+              "AarExtractor", MAX_EXTRACTION_THREADS));
+
   private final File cacheDir;
 
   /** The state of the cache as of the last call to {@link #readFileState}. */
@@ -182,6 +200,9 @@ public class UnpackedAars {
       }
 
       Futures.allAsList(futures).get();
+      if (SharedArtifactStore.isEnabled()) {
+        SharedArtifactStore.getInstance().trimToSize();
+      }
       if (!updatedKeys.isEmpty()) {
         context.output(PrintOutput.log(String.format("Copied %d AARs", updatedKeys.size())));
       }
@@ -406,9 +427,10 @@ public class UnpackedAars {
       ImmutableMap<String, AarAndJar> toCache, Set<String> updatedKeys) {
     FileOperationProvider ops = FileOperationProvider.getInstance();
     List<ListenableFuture<?>> futures = new ArrayList<>();
+    ListeningExecutorService executor =
+        streamingExtraction.getValue() ? EXTRACTION_EXECUTOR : FetchExecutor.EXECUTOR;
     updatedKeys.forEach(
-        key ->
-            futures.add(FetchExecutor.EXECUTOR.submit(() -> copyLocally(ops, toCache.get(key)))));
+        key -> futures.add(executor.submit(() -> copyLocally(ops, toCache.get(key)))));
     return futures;
   }
 
@@ -420,21 +442,30 @@ public class UnpackedAars {
         ops.deleteRecursively(aarDir);
       }
       ops.mkdirs(aarDir);
-      // TODO(brendandouglas): decompress via ZipInputStream so we don't require a local file
-      File toCopy = getOrCreateLocalFile(aarAndJar.aar);
-      ZipUtil.extract(
-          toCopy,
-          aarDir,
-          // Skip jars. The merged jar will be synchronized by JarTraits.
-          (dir, name) -> !name.endsWith(".jar"));
+      if (streamingExtraction.getValue()) {
+        try (InputStream stream = aarAndJar.aar.getInputStream()) {
+          AarExtractor.extract(stream, aarDir);
+        }
+      } else {
+        File toCopy = getOrCreateLocalFile(aarAndJar.aar);
+        ZipUtil.extract(
+            toCopy,
+            aarDir,
+            // Skip jars. The merged jar will be synchronized by JarTraits.
+            (dir, name) -> !name.endsWith(".jar"));
+      }
 
       createStampFile(ops, aarDir, aarAndJar.aar);
 
       // copy merged jar
-      try (InputStream stream = aarAndJar.jar.getInputStream()) {
-        Path destination = Paths.get(jarFileForKey(cacheKey).getPath());
-        ops.mkdirs(destination.getParent().toFile());
-        Files.copy(stream, destination, StandardCopyOption.REPLACE_EXISTING);
+      File jar = jarFileForKey(cacheKey);
+      ops.mkdirs(jar.getParentFile());
+      if (SharedArtifactStore.isEnabled()) {
+        SharedArtifactStore.getInstance().materialize(aarAndJar.jar, jar);
+      } else {
+        try (InputStream stream = aarAndJar.jar.getInputStream()) {
+          Files.copy(stream, Paths.get(jar.getPath()), StandardCopyOption.REPLACE_EXISTING);
+        }
       }
 
     } catch (IOException e) {
@@ -481,6 +512,9 @@ public class UnpackedAars {
     if (artifact instanceof LocalFileArtifact) {
       return ((LocalFileArtifact) artifact).getFile();
     }
+    if (SharedArtifactStore.isEnabled()) {
+      return SharedArtifactStore.getInstance().getLocalFile(artifact);
+    }
     File tmpFile =
         FileUtil.createTempFile(
             "local-aar-file",
@@ -0,0 +1,473 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.android.projectsystem;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.android.SdkConstants;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifactResolver;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.prefetch.FetchExecutor;
+import com.google.idea.blaze.base.projectview.ProjectViewSet;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.scope.output.PrintOutput;
+import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
+import com.google.idea.blaze.base.sync.SyncListener;
+import com.google.idea.blaze.base.sync.SyncMode;
+import com.google.idea.blaze.base.sync.SyncResult;
+import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+
+/**
+ * An index from class file path to the project's class jars containing it, used to avoid probing
+ * every jar in a module's transitive closure through the VFS when looking up a class.
+ *
+ * <p>The index is built during sync from the jars' central directories, only re-reading jars
+ * which have changed since the previous sync, and is persisted in the project data directory. Jars
+ * are checked against the file system once per snapshot (when it's built or read back from disk);
+ * after that, jars reported changed by VFS events are treated as unindexed until the next sync.
+ * Class names are stored as 64-bit hashes, so a lookup may return a jar which doesn't actually
+ * contain the class; callers still need to check the jar itself.
+ */
+public final class ClassJarIndex {
+
+  static final BoolExperiment enabled =
+      new BoolExperiment("blaze.class.file.finder.jar.index", false);
+
+  private static final Logger logger = Logger.getInstance(ClassJarIndex.class);
+
+  private static final String INDEX_FILE_NAME = "class_jar_index.dat";
+
+  public static ClassJarIndex getInstance(Project project) {
+    return ServiceManager.getService(project, ClassJarIndex.class);
+  }
+
+  private final Project project;
+  private final Object lock = new Object();
+  private final AtomicBoolean subscribed = new AtomicBoolean(false);
+  private volatile boolean loaded;
+  @Nullable private volatile Snapshot snapshot;
+
+  public ClassJarIndex(Project project) {
+    this.project = project;
+  }
+
+  /** Returns the current index, or null if it's disabled or hasn't been built. */
+  @Nullable
+  Snapshot getSnapshot() {
+    if (!enabled.getValue()) {
+      return null;
+    }
+    if (!loaded) {
+      synchronized (lock) {
+        if (!loaded) {
+          File file = getIndexFile();
+          Snapshot stored = file != null && file.exists() ? readIndex(file) : null;
+          if (stored != null) {
+            // the jars may have been rebuilt since the index was written
+            stored.invalidateChangedJars();
+            subscribe();
+          }
+          snapshot = stored;
+          loaded = true;
+        }
+      }
+    }
+    return snapshot;
+  }
+
+  private void update(BlazeContext context, BlazeProjectData projectData) {
+    List<File> jars = getClassJars(project, projectData);
+    try {
+      // build without holding the lock, so lookups can keep using the previous snapshot
+      Snapshot updated = Snapshot.build(jars, getSnapshot(), FetchExecutor.EXECUTOR);
+      synchronized (lock) {
+        snapshot = updated;
+        loaded = true;
+      }
+      subscribe();
+      File file = getIndexFile();
+      if (file != null) {
+        updated.write(file);
+      }
+      context.output(
+          PrintOutput.log(
+              String.format(
+                  "Indexed %d classes in %d jars", updated.classCount(), updated.jars.size())));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      context.setCancelled();
+    } catch (ExecutionException | IOException e) {
+      logger.warn("Failed to update the class jar index", e);
+    }
+  }
+
+  private void subscribe() {
+    if (subscribed.compareAndSet(false, true)) {
+      project
+          .getMessageBus()
+          .connect(project)
+          .subscribe(VirtualFileManager.VFS_CHANGES, new Listener());
+    }
+  }
+
+  @Nullable
+  private File getIndexFile() {
+    BlazeImportSettings importSettings =
+        BlazeImportSettingsManager.getInstance(project).getImportSettings();
+    return importSettings != null
+        ? new File(BlazeDataStorage.getProjectDataDir(importSettings), INDEX_FILE_NAME)
+        : null;
+  }
+
+  @Nullable
+  private static Snapshot readIndex(File file) {
+    try {
+      return Snapshot.read(file);
+    } catch (IOException e) {
+      logger.warn("Failed to read the class jar index", e);
+      return null;
+    }
+  }
+
+  /** The local class jars of all targets in the project, as searched by the class finders. */
+  private static List<File> getClassJars(Project project, BlazeProjectData projectData) {
+    ArtifactLocationDecoder decoder = projectData.getArtifactLocationDecoder();
+    Set<File> jars = new LinkedHashSet<>();
+    for (TargetIdeInfo target : projectData.getTargetMap().targets()) {
+      if (target.getJavaIdeInfo() == null) {
+        continue;
+      }
+      for (LibraryArtifact jar : target.getJavaIdeInfo().getJars()) {
+        ArtifactLocation classJar = jar.getClassJar();
+        if (classJar == null || classJar.isSource()) {
+          continue;
+        }
+        File file = OutputArtifactResolver.resolve(project, decoder, classJar);
+        if (file != null) {
+          jars.add(file);
+        }
+      }
+    }
+    return new ArrayList<>(jars);
+  }
+
+  /** Returns the key used to look up a class, i.e. its path within a jar. */
+  static String classFilePath(String className) {
+    return className.replace('.', '/') + SdkConstants.DOT_CLASS;
+  }
+
+  /** The classes contained in a single jar, and the jar's state when it was indexed. */
+  @VisibleForTesting
+  static final class JarClasses {
+    final String path;
+    final long modifiedTime;
+    final long size;
+    final long[] classHashes;
+
+    JarClasses(String path, long modifiedTime, long size, long[] classHashes) {
+      this.path = path;
+      this.modifiedTime = modifiedTime;
+      this.size = size;
+      this.classHashes = classHashes;
+    }
+
+    boolean isUnchanged(long modifiedTime, long size) {
+      return this.modifiedTime == modifiedTime && this.size == size;
+    }
+  }
+
+  /** An immutable version of the index. */
+  @VisibleForTesting
+  static final class Snapshot {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private static final int MAGIC = 0x434a4958;
+    private static final int VERSION = 2;
+
+    final ImmutableList<JarClasses> jars;
+    private final ImmutableMap<String, Integer> jarIds;
+
+    /** An open-addressing hash table from class hash to jar ID + 1. Zero marks an empty slot. */
+    private final long[] tableKeys;
+
+    private final int[] tableValues;
+    private final int mask;
+
+    /** Paths of indexed jars which have changed since the snapshot was built. */
+    private final Set<String> staleJars = ConcurrentHashMap.newKeySet();
+
+    private Snapshot(ImmutableList<JarClasses> jars) {
+      this.jars = jars;
+      ImmutableMap.Builder<String, Integer> jarIds = ImmutableMap.builder();
+      int classCount = 0;
+      for (int i = 0; i < jars.size(); i++) {
+        jarIds.put(jars.get(i).path, i);
+        classCount += jars.get(i).classHashes.length;
+      }
+      this.jarIds = jarIds.build();
+      int capacity = Integer.highestOneBit(Math.max(4, classCount * 2 - 1)) << 1;
+      this.tableKeys = new long[capacity];
+      this.tableValues = new int[capacity];
+      this.mask = capacity - 1;
+      for (int i = 0; i < jars.size(); i++) {
+        for (long hash : jars.get(i).classHashes) {
+          int slot = slot(hash);
+          while (tableValues[slot] != 0) {
+            slot = (slot + 1) & mask;
+          }
+          tableKeys[slot] = hash;
+          tableValues[slot] = i + 1;
+        }
+      }
+    }
+
+    /**
+     * Returns true if the given jar was indexed and hasn't been invalidated since, i.e. {@link
+     * #findJars} is complete for it. Doesn't touch the file system.
+     */
+    boolean isIndexed(File jar) {
+      String path = jar.getPath();
+      return jarIds.containsKey(path) && !staleJars.contains(path);
+    }
+
+    /** Marks the given jar as changed, so it's no longer considered indexed. */
+    void invalidate(File jar) {
+      String path = jar.getPath();
+      if (jarIds.containsKey(path)) {
+        staleJars.add(path);
+      }
+    }
+
+    /** Checks each indexed jar against the file system, invalidating those which have changed. */
+    void invalidateChangedJars() {
+      FileOperationProvider ops = FileOperationProvider.getInstance();
+      for (JarClasses classes : jars) {
+        File jar = new File(classes.path);
+        if (!classes.isUnchanged(ops.getFileModifiedTime(jar), ops.getFileSize(jar))) {
+          staleJars.add(classes.path);
+        }
+      }
+    }
+
+    /** Returns the paths of indexed jars which may contain the given class file. */
+    ImmutableSet<String> findJars(String classFilePath) {
+      long hash = hash(classFilePath);
+      ImmutableSet.Builder<String> result = ImmutableSet.builder();
+      for (int slot = slot(hash); tableValues[slot] != 0; slot = (slot + 1) & mask) {
+        if (tableKeys[slot] == hash) {
+          result.add(jars.get(tableValues[slot] - 1).path);
+        }
+      }
+      return result.build();
+    }
+
+    int classCount() {
+      return jars.stream().mapToInt(j -> j.classHashes.length).sum();
+    }
+
+    private int slot(long hash) {
+      return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static long hash(String classFilePath) {
+      return HASH.hashString(classFilePath, UTF_8).asLong();
+    }
+
+    /**
+     * Indexes the given jars, reusing the entries from {@code previous} for any jar whose
+     * modification time and size are unchanged. Jars which can't be read are left out of the index.
+     */
+    static Snapshot build(
+        Collection<File> jars, @Nullable Snapshot previous, ListeningExecutorService executor)
+        throws InterruptedException, ExecutionException {
+      FileOperationProvider ops = FileOperationProvider.getInstance();
+      List<ListenableFuture<JarClasses>> futures = new ArrayList<>();
+      for (File jar : jars) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  long modifiedTime = ops.getFileModifiedTime(jar);
+                  if (modifiedTime == 0) {
+                    return null;
+                  }
+                  long size = ops.getFileSize(jar);
+                  JarClasses old = previous != null ? previous.getJarClasses(jar) : null;
+                  if (old != null && old.isUnchanged(modifiedTime, size)) {
+                    return old;
+                  }
+                  return readJar(jar, modifiedTime, size);
+                }));
+      }
+      return new Snapshot(
+          Futures.allAsList(futures).get().stream()
+              .filter(Objects::nonNull)
+              .collect(ImmutableList.toImmutableList()));
+    }
+
+    @Nullable
+    private JarClasses getJarClasses(File jar) {
+      Integer id = jarIds.get(jar.getPath());
+      return id != null ? jars.get(id) : null;
+    }
+
+    /** Reads the class file entries from the jar's central directory. */
+    @Nullable
+    private static JarClasses readJar(File jar, long modifiedTime, long size) {
+      List<Long> hashes = new ArrayList<>();
+      try (ZipFile zip = new ZipFile(jar)) {
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+          String name = entries.nextElement().getName();
+          if (name.endsWith(SdkConstants.DOT_CLASS)) {
+            hashes.add(hash(name));
+          }
+        }
+      } catch (IOException e) {
+        logger.warn("Failed to index class jar " + jar, e);
+        return null;
+      }
+      return new JarClasses(
+          jar.getPath(),
+          modifiedTime,
+          size,
+          hashes.stream().mapToLong(Long::longValue).toArray());
+    }
+
+    void write(File file) throws IOException {
+      File temp = new File(file.getPath() + ".tmp");
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(jars.size());
+        for (JarClasses jar : jars) {
+          out.writeUTF(jar.path);
+          out.writeLong(jar.modifiedTime);
+          out.writeLong(jar.size);
+          out.writeInt(jar.classHashes.length);
+          for (long hash : jar.classHashes) {
+            out.writeLong(hash);
+          }
+        }
+      }
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Nullable
+    static Snapshot read(File file) throws IOException {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+          return null;
+        }
+        int jarCount = in.readInt();
+        ImmutableList.Builder<JarClasses> jars = ImmutableList.builder();
+        for (int i = 0; i < jarCount; i++) {
+          String path = in.readUTF();
+          long modifiedTime = in.readLong();
+          long size = in.readLong();
+          long[] hashes = new long[in.readInt()];
+          for (int j = 0; j < hashes.length; j++) {
+            hashes[j] = in.readLong();
+          }
+          jars.add(new JarClasses(path, modifiedTime, size, hashes));
+        }
+        return new Snapshot(jars.build());
+      }
+    }
+  }
+
+  /** Invalidates indexed jars which are changed, moved or deleted after the index was built. */
+  private class Listener implements BulkFileListener {
+    @Override
+    public void after(List<? extends VFileEvent> events) {
+      Snapshot current = snapshot;
+      if (current == null) {
+        return;
+      }
+      for (VFileEvent event : events) {
+        current.invalidate(new File(event.getPath()));
+        if (event instanceof VFileMoveEvent) {
+          VFileMoveEvent move = (VFileMoveEvent) event;
+          current.invalidate(new File(move.getOldParent().getPath(), move.getFile().getName()));
+        }
+      }
+    }
+  }
+
+  /** Updates the index after each successful sync. */
+  static class Updater implements SyncListener {
+    @Override
+    public void onSyncComplete(
+        Project project,
+        BlazeContext context,
+        BlazeImportSettings importSettings,
+        ProjectViewSet projectViewSet,
+        ImmutableSet<Integer> buildIds,
+        BlazeProjectData blazeProjectData,
+        SyncMode syncMode,
+        SyncResult syncResult) {
+      if (enabled.getValue()) {
+        getInstance(project).update(context, blazeProjectData);
+      }
+    }
+  }
+}
@@ -18,6 +18,7 @@ package com.google.idea.blaze.android.projectsystem;
 import com.android.SdkConstants;
 import com.android.tools.idea.project.ModuleBasedClassFileFinder;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.idea.blaze.android.sync.model.AndroidResourceModuleRegistry;
 import com.google.idea.blaze.base.command.buildresult.OutputArtifactResolver;
@@ -111,6 +112,14 @@ public class TransitiveClosureClassFileFinder extends ModuleBasedClassFileFinder
             .flatMap(TransitiveClosureClassFileFinder::getNonResourceJars)
             .collect(Collectors.toList()));
 
+    // if the jars have been indexed, only probe those which may contain the class, plus any which
+    // aren't (or are no longer) indexed. Neither check touches the file system.
+    ClassJarIndex.Snapshot jarIndex = ClassJarIndex.getInstance(module.getProject()).getSnapshot();
+    ImmutableSet<String> candidateJars =
+        jarIndex != null
+            ? jarIndex.findJars(ClassJarIndex.classFilePath(className))
+            : ImmutableSet.of();
+
     List<File> missingClassJars = Lists.newArrayList();
     for (LibraryArtifact jar : jarsToSearch) {
       if (jar.getClassJar() == null || jar.getClassJar().isSource()) {
@@ -123,6 +132,11 @@ public class TransitiveClosureClassFileFinder extends ModuleBasedClassFileFinder
               OutputArtifactResolver.resolve(module.getProject(), decoder, classJar),
               "Fail to find file %s",
               classJar.getRelativePath());
+      if (jarIndex != null
+          && jarIndex.isIndexed(classJarFile)
+          && !candidateJars.contains(classJarFile.getPath())) {
+        continue;
+      }
       VirtualFile classJarVF =
           VirtualFileSystemProvider.getInstance().getSystem().findFileByIoFile(classJarFile);
       if (classJarVF == null) {
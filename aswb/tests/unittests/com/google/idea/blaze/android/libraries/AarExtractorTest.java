@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.android.libraries;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link AarExtractor}. */
+@RunWith(JUnit4.class)
+public class AarExtractorTest {
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void testExtractsOnlyFilesUsedByTheIde() throws IOException {
+    byte[] aar =
+        zip(
+            "AndroidManifest.xml", "<manifest/>",
+            "R.txt", "int string app_name 0x7f010000",
+            "res/values/strings.xml", "<resources/>",
+            "classes.jar", "jar",
+            "libs/dep.jar", "jar",
+            "proguard.txt", "-keep class *");
+    File aarDir = tempFolder.newFolder("lib.aar");
+
+    AarExtractor.extract(new ByteArrayInputStream(aar), aarDir);
+
+    assertThat(read(new File(aarDir, "AndroidManifest.xml"))).isEqualTo("<manifest/>");
+    assertThat(read(new File(aarDir, "R.txt"))).isEqualTo("int string app_name 0x7f010000");
+    assertThat(read(new File(aarDir, "res/values/strings.xml"))).isEqualTo("<resources/>");
+    assertThat(new File(aarDir, "classes.jar").exists()).isFalse();
+    assertThat(new File(aarDir, "libs").exists()).isFalse();
+    assertThat(new File(aarDir, "proguard.txt").exists()).isFalse();
+  }
+
+  @Test
+  public void testRejectsEntriesOutsideTargetDirectory() throws IOException {
+    byte[] aar = zip("res/../../evil.xml", "<evil/>");
+    File aarDir = tempFolder.newFolder("lib.aar");
+
+    try {
+      AarExtractor.extract(new ByteArrayInputStream(aar), aarDir);
+      fail("Expected an IOException");
+    } catch (IOException expected) {
+      // expected
+    }
+    assertThat(new File(tempFolder.getRoot(), "evil.xml").exists()).isFalse();
+  }
+
+  private static byte[] zip(String... namesAndContents) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+      for (int i = 0; i < namesAndContents.length; i += 2) {
+        zip.putNextEntry(new ZipEntry(namesAndContents[i]));
+        zip.write(namesAndContents[i + 1].getBytes(UTF_8));
+        zip.closeEntry();
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  private static String read(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()), UTF_8);
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.android.projectsystem;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.idea.blaze.android.projectsystem.ClassJarIndex.Snapshot;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ClassJarIndex}. */
+@RunWith(JUnit4.class)
+public class ClassJarIndexTest extends BlazeTestCase {
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    applicationServices.register(FileOperationProvider.class, new FileOperationProvider());
+  }
+
+  @Test
+  public void testFindJars() throws Exception {
+    File first = jar("first.jar", "com/google/Foo.class", "com/google/Foo$Inner.class");
+    File second = jar("second.jar", "com/google/Bar.class", "com/google/Foo.class");
+
+    Snapshot index = build(ImmutableList.of(first, second), null);
+
+    assertThat(index.findJars(ClassJarIndex.classFilePath("com.google.Foo")))
+        .containsExactly(first.getPath(), second.getPath());
+    assertThat(index.findJars(ClassJarIndex.classFilePath("com.google.Foo$Inner")))
+        .containsExactly(first.getPath());
+    assertThat(index.findJars(ClassJarIndex.classFilePath("com.google.Bar")))
+        .containsExactly(second.getPath());
+    assertThat(index.findJars(ClassJarIndex.classFilePath("com.google.Baz"))).isEmpty();
+    assertThat(index.isIndexed(first)).isTrue();
+    assertThat(index.isIndexed(new File(tempFolder.getRoot(), "other.jar"))).isFalse();
+  }
+
+  @Test
+  public void testUnchangedJarsAreReused() throws Exception {
+    File jar = jar("lib.jar", "com/google/Foo.class");
+    Snapshot previous = build(ImmutableList.of(jar), null);
+
+    // rewrite the jar, keeping the original timestamp and size
+    long modifiedTime = jar.lastModified();
+    jar("lib.jar", "com/google/Bar.class");
+    jar.setLastModified(modifiedTime);
+    Snapshot updated = build(ImmutableList.of(jar), previous);
+
+    assertThat(updated.findJars(ClassJarIndex.classFilePath("com.google.Foo")))
+        .containsExactly(jar.getPath());
+  }
+
+  @Test
+  public void testChangedJarsAreReindexed() throws Exception {
+    File jar = jar("lib.jar", "com/google/Foo.class");
+    Snapshot previous = build(ImmutableList.of(jar), null);
+
+    jar("lib.jar", "com/google/Bar.class");
+    jar.setLastModified(jar.lastModified() + 10_000);
+    Snapshot updated = build(ImmutableList.of(jar), previous);
+
+    assertThat(updated.findJars(ClassJarIndex.classFilePath("com.google.Foo"))).isEmpty();
+    assertThat(updated.findJars(ClassJarIndex.classFilePath("com.google.Bar")))
+        .containsExactly(jar.getPath());
+  }
+
+  @Test
+  public void testJarsWithChangedSizeAreReindexed() throws Exception {
+    File jar = jar("lib.jar", "com/google/Foo.class");
+    Snapshot previous = build(ImmutableList.of(jar), null);
+
+    long modifiedTime = jar.lastModified();
+    jar("lib.jar", "com/google/Foo.class", "com/google/Bar.class");
+    jar.setLastModified(modifiedTime);
+    Snapshot updated = build(ImmutableList.of(jar), previous);
+
+    assertThat(updated.findJars(ClassJarIndex.classFilePath("com.google.Bar")))
+        .containsExactly(jar.getPath());
+  }
+
+  @Test
+  public void testInvalidatedJarsAreNotIndexed() throws Exception {
+    File jar = jar("lib.jar", "com/google/Foo.class");
+    Snapshot index = build(ImmutableList.of(jar), null);
+    assertThat(index.isIndexed(jar)).isTrue();
+
+    index.invalidate(jar);
+
+    assertThat(index.isIndexed(jar)).isFalse();
+  }
+
+  @Test
+  public void testIndexSurvivesSerialization() throws Exception {
+    File jar = jar("lib.jar", "com/google/Foo.class");
+    File indexFile = new File(tempFolder.getRoot(), "index.dat");
+    build(ImmutableList.of(jar), null).write(indexFile);
+
+    Snapshot index = Snapshot.read(indexFile);
+    index.invalidateChangedJars();
+
+    assertThat(index.findJars(ClassJarIndex.classFilePath("com.google.Foo")))
+        .containsExactly(jar.getPath());
+    assertThat(index.isIndexed(jar)).isTrue();
+  }
+
+  @Test
+  public void testJarsChangedSinceSerializationAreNotIndexed() throws Exception {
+    File jar = jar("lib.jar", "com/google/Foo.class");
+    File indexFile = new File(tempFolder.getRoot(), "index.dat");
+    build(ImmutableList.of(jar), null).write(indexFile);
+
+    long modifiedTime = jar.lastModified();
+    jar("lib.jar", "com/google/Foo.class", "com/google/Bar.class");
+    jar.setLastModified(modifiedTime);
+    Snapshot index = Snapshot.read(indexFile);
+    index.invalidateChangedJars();
+
+    assertThat(index.isIndexed(jar)).isFalse();
+  }
+
+  private static Snapshot build(ImmutableList<File> jars, Snapshot previous) throws Exception {
+    return Snapshot.build(jars, previous, MoreExecutors.newDirectExecutorService());
+  }
+
+  private File jar(String name, String... entries) throws IOException {
+    File jar = new File(tempFolder.getRoot(), name);
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+      for (String entry : entries) {
+        out.putNextEntry(new ZipEntry(entry));
+        out.closeEntry();
+      }
+    }
+    return jar;
+  }
+}
@@ -20,6 +20,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 /** An base output stream which marshals output into newline-delimited segments for processing. */
 public final class LineProcessingOutputStream extends OutputStream {
@@ -34,10 +35,23 @@ public final class LineProcessingOutputStream extends OutputStream {
     boolean processLine(String line);
   }
 
-  private final StringBuffer stringBuffer = new StringBuffer();
+  /**
+   * Bytes of the current, incomplete line. Output is split into lines before decoding, so that
+   * multi-byte characters split across writes are decoded correctly. This is safe for UTF-8, in
+   * which '\r' and '\n' bytes never occur within a multi-byte character.
+   */
+  private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+  private int bufferLength = 0;
+
+  /** Whether the last line ended with '\r', in which case a following '\n' is skipped. */
+  private boolean skipLineFeed = false;
+
   private volatile boolean closed;
   private final ImmutableList<LineProcessor> lineProcessors;
 
+  private static final int INITIAL_BUFFER_SIZE = 1024;
+
   LineProcessingOutputStream(ImmutableList<LineProcessor> lineProcessors) {
     this.lineProcessors = lineProcessors;
   }
@@ -52,47 +66,81 @@ public final class LineProcessingOutputStream extends OutputStream {
 
   @Override
   public synchronized void write(byte[] b, int off, int len) {
-    if (!closed) {
-      String text = new String(b, off, len, UTF_8);
-      stringBuffer.append(text);
-
-      while (true) {
-        int lineBreakIndex = -1;
-        int lineBreakLength = 0;
-        for (int i = 0; i < stringBuffer.length(); ++i) {
-          char c = stringBuffer.charAt(i);
-          if (c == '\r' || c == '\n') {
-            lineBreakIndex = i;
-            lineBreakLength = 1;
-            if (c == '\r'
-                && (i + 1) < stringBuffer.length()
-                && stringBuffer.charAt(i + 1) == '\n') {
-              ++lineBreakLength;
-            }
-            break;
-          }
-        }
-
-        if (lineBreakIndex == -1) {
-          return;
-        }
-
-        String line = stringBuffer.substring(0, lineBreakIndex);
-
-        stringBuffer.delete(0, lineBreakIndex + lineBreakLength);
-
-        for (LineProcessor lineProcessor : lineProcessors) {
-          if (!lineProcessor.processLine(line)) {
-            break;
-          }
-        }
+    if (closed) {
+      return;
+    }
+    int end = off + len;
+    int lineStart = off;
+    for (int i = off; i < end; i++) {
+      byte c = b[i];
+      if (c != '\r' && c != '\n') {
+        continue;
       }
+      if (skipLineFeed && c == '\n' && i == lineStart && bufferLength == 0) {
+        // second half of a "\r\n" line break
+        lineStart = i + 1;
+        skipLineFeed = false;
+        continue;
+      }
+      processLine(b, lineStart, i);
+      skipLineFeed = c == '\r';
+      lineStart = i + 1;
+    }
+    if (lineStart < end) {
+      skipLineFeed = false;
+      append(b, lineStart, end);
     }
   }
 
   @Override
-  public void write(int b) throws IOException {
-    write(new byte[] {(byte) b}, 0, 1);
+  public synchronized void write(int b) {
+    if (closed) {
+      return;
+    }
+    if (b == '\r' || b == '\n') {
+      if (skipLineFeed && b == '\n' && bufferLength == 0) {
+        skipLineFeed = false;
+        return;
+      }
+      processLine(buffer, 0, 0);
+      skipLineFeed = b == '\r';
+      return;
+    }
+    skipLineFeed = false;
+    ensureCapacity(bufferLength + 1);
+    buffer[bufferLength++] = (byte) b;
+  }
+
+  /**
+   * Passes a completed line to the line processors, made up of any buffered output followed by
+   * {@code b[start, end)}.
+   */
+  private void processLine(byte[] b, int start, int end) {
+    String line;
+    if (bufferLength == 0) {
+      line = new String(b, start, end - start, UTF_8);
+    } else {
+      append(b, start, end);
+      line = new String(buffer, 0, bufferLength, UTF_8);
+      bufferLength = 0;
+    }
+    for (LineProcessor lineProcessor : lineProcessors) {
+      if (!lineProcessor.processLine(line)) {
+        break;
+      }
+    }
+  }
+
+  private void append(byte[] b, int start, int end) {
+    ensureCapacity(bufferLength + end - start);
+    System.arraycopy(b, start, buffer, bufferLength, end - start);
+    bufferLength += end - start;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+    }
   }
 
   @Override
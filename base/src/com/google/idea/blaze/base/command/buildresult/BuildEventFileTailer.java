@@ -0,0 +1,170 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult;
+
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
+import com.google.protobuf.repackaged.CodedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link BuildEventStreamProvider} reading build events from a BEP output file while blaze is
+ * still writing to it.
+ *
+ * <p>When no complete event is available, polls the file until either more data is written, or the
+ * build is reported as complete. Once the build is complete, the remainder of the file is read and
+ * the stream ends.
+ */
+final class BuildEventFileTailer implements BuildEventStreamProvider, AutoCloseable {
+
+  private static final long POLL_INTERVAL_MILLIS = 50;
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+  private final File file;
+  private final BooleanSupplier buildComplete;
+
+  @Nullable private InputStream stream;
+  private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+  /** The start of the unparsed data in the buffer. */
+  private int start = 0;
+  /** The end of the valid data in the buffer. */
+  private int end = 0;
+  /** Set once the build is complete, after which reaching the end of the file ends the stream. */
+  private boolean finished = false;
+
+  BuildEventFileTailer(File file, BooleanSupplier buildComplete) {
+    this.file = file;
+    this.buildComplete = buildComplete;
+  }
+
+  @Nullable
+  @Override
+  public BuildEventStreamProtos.BuildEvent getNext() throws BuildEventStreamException {
+    try {
+      while (true) {
+        BuildEventStreamProtos.BuildEvent event = parseBufferedEvent();
+        if (event != null) {
+          return event;
+        }
+        if (readMore()) {
+          continue;
+        }
+        if (finished) {
+          if (start == end) {
+            return null;
+          }
+          throw new BuildEventStreamException(
+              "BEP output file ended with an incomplete event: " + file, null);
+        }
+        if (buildComplete.getAsBoolean()) {
+          // the build may have written more events before finishing; read to the end of the file
+          finished = true;
+          continue;
+        }
+        Thread.sleep(POLL_INTERVAL_MILLIS);
+      }
+    } catch (IOException e) {
+      throw new BuildEventStreamException(e.getMessage(), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new BuildEventStreamException("Interrupted while reading BEP output", e);
+    }
+  }
+
+  /**
+   * Returns the next length-delimited event, if it's entirely contained in the buffer, otherwise
+   * returns null.
+   */
+  @Nullable
+  private BuildEventStreamProtos.BuildEvent parseBufferedEvent() throws IOException {
+    int length = 0;
+    int shift = 0;
+    int pos = start;
+    while (true) {
+      if (pos == end) {
+        return null;
+      }
+      byte b = buffer[pos++];
+      length |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        break;
+      }
+      shift += 7;
+      if (shift >= 32) {
+        throw new IOException("Malformed length prefix in BEP output file: " + file);
+      }
+    }
+    if (length < 0) {
+      throw new IOException("Malformed length prefix in BEP output file: " + file);
+    }
+    if (end - pos < length) {
+      ensureCapacity(pos - start + length);
+      return null;
+    }
+    BuildEventStreamProtos.BuildEvent event =
+        BuildEventStreamProtos.BuildEvent.parseFrom(
+            CodedInputStream.newInstance(buffer, pos, length));
+    start = pos + length;
+    return event;
+  }
+
+  /** Makes room for a single event of the given total size, compacting the buffer if necessary. */
+  private void ensureCapacity(int size) {
+    if (buffer.length - start >= size) {
+      return;
+    }
+    byte[] target = buffer.length >= size ? buffer : new byte[Math.max(size, buffer.length * 2)];
+    System.arraycopy(buffer, start, target, 0, end - start);
+    end -= start;
+    start = 0;
+    buffer = target;
+  }
+
+  /** Reads any newly written data into the buffer. Returns false if there was nothing to read. */
+  private boolean readMore() throws IOException {
+    if (stream == null) {
+      if (!file.exists()) {
+        return false;
+      }
+      stream = new FileInputStream(file);
+    }
+    if (end == buffer.length) {
+      if (start == 0) {
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      } else {
+        ensureCapacity(buffer.length);
+      }
+    }
+    int read = stream.read(buffer, end, buffer.length - end);
+    if (read <= 0) {
+      return false;
+    }
+    end += read;
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (stream != null) {
+      stream.close();
+    }
+  }
+}
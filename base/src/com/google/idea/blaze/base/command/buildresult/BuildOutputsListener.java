@@ -0,0 +1,33 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult;
+
+import com.google.common.collect.ImmutableSetMultimap;
+
+/**
+ * Receives build outputs as they're reported in the build event protocol (BEP) stream, while the
+ * build is still running.
+ */
+public interface BuildOutputsListener {
+
+  /**
+   * Called each time a top-level target completes, with the outputs which weren't already reported
+   * for an earlier target, keyed by output group.
+   *
+   * <p>Called on a background thread, in BEP stream order. Implementations shouldn't block.
+   */
+  void targetCompleted(String label, ImmutableSetMultimap<String, OutputArtifact> newOutputs);
+}
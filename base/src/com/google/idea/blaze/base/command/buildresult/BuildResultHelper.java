@@ -36,6 +36,19 @@ public interface BuildResultHelper extends AutoCloseable {
    */
   ParsedBepOutput getBuildOutput() throws GetArtifactsException;
 
+  /**
+   * Starts reading the BEP output while the build is running, passing newly reported outputs to the
+   * given listener. Must be called before the build starts.
+   *
+   * <p>{@link #getBuildOutput} still returns the complete output once the build is finished.
+   *
+   * @return false if streaming isn't supported by this helper, in which case the listener is never
+   *     called.
+   */
+  default boolean streamBuildOutputs(BuildOutputsListener listener) {
+    return false;
+  }
+
   /**
    * Returns the build result. May only be called once, after the build is complete, or no artifacts
    * will be returned.
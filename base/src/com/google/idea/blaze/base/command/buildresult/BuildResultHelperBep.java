@@ -15,6 +15,9 @@
  */
 package com.google.idea.blaze.base.command.buildresult;
 
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.idea.blaze.base.command.buildresult.BuildEventStreamProvider.BuildEventStreamException;
 import com.google.idea.blaze.base.command.info.BlazeInfo;
 import com.intellij.openapi.diagnostic.Logger;
@@ -26,6 +29,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
+import org.jetbrains.ide.PooledThreadExecutor;
 
 /**
  * Build event protocol implementation to get build results.
@@ -38,6 +44,11 @@ class BuildResultHelperBep implements BuildResultHelper {
   private static final Logger logger = Logger.getInstance(BuildResultHelperBep.class);
   private final File outputFile;
 
+  /** The BEP output parsed while the build is running, if streaming was requested. */
+  @Nullable private ListenableFuture<ParsedBepOutput> streamedOutput;
+
+  private volatile boolean buildComplete = false;
+
   BuildResultHelperBep() {
     outputFile = BuildEventProtocolUtils.createTempOutputFile();
   }
@@ -47,8 +58,26 @@ class BuildResultHelperBep implements BuildResultHelper {
     return BuildEventProtocolUtils.getBuildFlags(outputFile);
   }
 
+  @Override
+  public boolean streamBuildOutputs(BuildOutputsListener listener) {
+    Preconditions.checkState(streamedOutput == null, "BEP output is already being streamed");
+    streamedOutput =
+        MoreExecutors.listeningDecorator(PooledThreadExecutor.INSTANCE)
+            .submit(
+                () -> {
+                  try (BuildEventFileTailer tailer =
+                      new BuildEventFileTailer(outputFile, () -> buildComplete)) {
+                    return ParsedBepOutput.parseBepArtifacts(tailer, listener);
+                  }
+                });
+    return true;
+  }
+
   @Override
   public ParsedBepOutput getBuildOutput() throws GetArtifactsException {
+    if (streamedOutput != null) {
+      return getStreamedOutput(streamedOutput);
+    }
     try (InputStream inputStream = new BufferedInputStream(new FileInputStream(outputFile))) {
       return ParsedBepOutput.parseBepArtifacts(inputStream);
     } catch (IOException | BuildEventStreamException e) {
@@ -57,8 +86,34 @@ class BuildResultHelperBep implements BuildResultHelper {
     }
   }
 
+  private ParsedBepOutput getStreamedOutput(ListenableFuture<ParsedBepOutput> output)
+      throws GetArtifactsException {
+    buildComplete = true;
+    try {
+      return output.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GetArtifactsException("Interrupted while reading BEP output");
+    } catch (ExecutionException e) {
+      logger.error(e.getCause());
+      throw new GetArtifactsException(e.getCause().getMessage());
+    }
+  }
+
   @Override
   public void close() {
+    buildComplete = true;
+    if (streamedOutput != null) {
+      // the tailer reads to the end of the file then stops; wait for it to release the file
+      try {
+        streamedOutput.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        streamedOutput.cancel(true);
+      } catch (ExecutionException e) {
+        // already handled in getBuildOutput, or the output was never requested
+      }
+    }
     if (!outputFile.delete()) {
       logger.warn("Could not delete BEP output file: " + outputFile);
     }
@@ -33,12 +33,31 @@ public class LocalFileOutputArtifact implements OutputArtifact, LocalFileArtifac
   private final File file;
   private final String blazeOutRelativePath;
   private final String configurationMnemonic;
+  @Nullable private final String digest;
 
   public LocalFileOutputArtifact(
       File file, String blazeOutRelativePath, String configurationMnemonic) {
+    this(file, blazeOutRelativePath, configurationMnemonic, /* digest= */ null);
+  }
+
+  public LocalFileOutputArtifact(
+      File file,
+      String blazeOutRelativePath,
+      String configurationMnemonic,
+      @Nullable String digest) {
     this.file = file;
     this.blazeOutRelativePath = blazeOutRelativePath;
     this.configurationMnemonic = configurationMnemonic;
+    this.digest = digest;
+  }
+
+  /**
+   * The content digest reported by blaze for this artifact, or null if it wasn't provided. Unlike
+   * the file's timestamp, this is available without touching the file system.
+   */
+  @Nullable
+  public String getDigest() {
+    return digest;
   }
 
   private long getLastModifiedTime() {
@@ -54,7 +73,7 @@ public class LocalFileOutputArtifact implements OutputArtifact, LocalFileArtifac
   @Nullable
   public ArtifactState toArtifactState() {
     long lastModifiedTime = getLastModifiedTime();
-    return lastModifiedTime == 0 ? null : new LocalFileState(getKey(), lastModifiedTime);
+    return lastModifiedTime == 0 ? null : new LocalFileState(getKey(), lastModifiedTime, digest);
   }
 
   @Override
@@ -17,6 +17,7 @@ package com.google.idea.blaze.base.command.buildresult;
 
 import com.google.common.base.Joiner;
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
+import com.google.protobuf.repackaged.Descriptors.FieldDescriptor;
 import com.intellij.openapi.extensions.ExtensionPointName;
 import com.intellij.util.io.URLUtil;
 import java.io.File;
@@ -66,12 +67,39 @@ public interface OutputArtifactParser {
       try {
         File f = new File(new URI(uri));
         return new LocalFileOutputArtifact(
-            f, getBlazeOutRelativePath(file, configurationMnemonic), configurationMnemonic);
+            f,
+            getBlazeOutRelativePath(file, configurationMnemonic),
+            configurationMnemonic,
+            getDigest(file));
       } catch (URISyntaxException | IllegalArgumentException e) {
         return null;
       }
     }
 
+    /**
+     * Returns the content digest (and length, if present) blaze reported for this file, or null if
+     * none was provided.
+     *
+     * <p>Older versions of the build event protocol don't include these fields, so they're looked
+     * up by name rather than through the generated accessors.
+     */
+    @Nullable
+    private static String getDigest(BuildEventStreamProtos.File file) {
+      FieldDescriptor digestField = file.getDescriptorForType().findFieldByName("digest");
+      if (digestField == null || digestField.isRepeated() || !file.hasField(digestField)) {
+        return null;
+      }
+      String digest = String.valueOf(file.getField(digestField));
+      if (digest.isEmpty()) {
+        return null;
+      }
+      FieldDescriptor lengthField = file.getDescriptorForType().findFieldByName("length");
+      if (lengthField == null || lengthField.isRepeated() || !file.hasField(lengthField)) {
+        return digest;
+      }
+      return digest + "/" + file.getField(lengthField);
+    }
+
     private static String getBlazeOutRelativePath(
         BuildEventStreamProtos.File file, String configurationMnemonic) {
       List<String> pathPrefixList = file.getPathPrefixList();
@@ -19,6 +19,7 @@ import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 
+import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -28,6 +29,7 @@ import com.google.common.collect.SetMultimap;
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.NamedSetOfFilesId;
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.NamedSetOfFiles;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.TargetComplete;
 import com.google.idea.blaze.base.command.buildresult.BuildEventStreamProvider.BuildEventStreamException;
 import com.google.idea.blaze.base.model.primitives.Label;
 import java.io.InputStream;
@@ -53,26 +55,54 @@ public final class ParsedBepOutput {
 
   public static ParsedBepOutput parseBepArtifacts(BuildEventStreamProvider stream)
       throws BuildEventStreamException {
-    BuildEventStreamProtos.BuildEvent event;
-    Map<String, String> configIdToMnemonic = new HashMap<>();
-    Set<String> topLevelFileSets = new HashSet<>();
-    Map<String, FileSet.Builder> fileSets = new LinkedHashMap<>();
-    ImmutableSetMultimap.Builder<String, String> targetToFileSets = ImmutableSetMultimap.builder();
-    long startTimeMillis = 0L;
+    return parseBepArtifacts(stream, /* listener= */ null);
+  }
 
+  /**
+   * Parses the BEP stream, passing newly reported outputs to the given listener (if any) as each
+   * top-level target completes.
+   */
+  static ParsedBepOutput parseBepArtifacts(
+      BuildEventStreamProvider stream, @Nullable BuildOutputsListener listener)
+      throws BuildEventStreamException {
+    Parser parser = new Parser(listener);
+    BuildEventStreamProtos.BuildEvent event;
     while ((event = stream.getNext()) != null) {
+      parser.processEvent(event);
+    }
+    return parser.build();
+  }
+
+  /** Incrementally builds a {@link ParsedBepOutput}, one build event at a time. */
+  private static class Parser {
+    @Nullable private final BuildOutputsListener listener;
+    private final Map<String, String> configIdToMnemonic = new HashMap<>();
+    private final Set<String> topLevelFileSets = new HashSet<>();
+    private final Map<String, FileSet.Builder> fileSets = new LinkedHashMap<>();
+    private final ImmutableSetMultimap.Builder<String, String> targetToFileSets =
+        ImmutableSetMultimap.builder();
+    /** The file sets already passed to the listener, per output group. */
+    private final SetMultimap<String, String> reportedFileSets = HashMultimap.create();
+
+    private long startTimeMillis = 0L;
+
+    Parser(@Nullable BuildOutputsListener listener) {
+      this.listener = listener;
+    }
+
+    void processEvent(BuildEventStreamProtos.BuildEvent event) {
       switch (event.getId().getIdCase()) {
         case CONFIGURATION:
           configIdToMnemonic.put(
               event.getId().getConfiguration().getId(), event.getConfiguration().getMnemonic());
-          continue;
+          return;
         case NAMED_SET:
           NamedSetOfFiles namedSet = event.getNamedSetOfFiles();
           fileSets.compute(
               event.getId().getNamedSet().getId(),
               (k, v) ->
                   v != null ? v.setNamedSet(namedSet) : FileSet.builder().setNamedSet(namedSet));
-          continue;
+          return;
         case TARGET_COMPLETED:
           String label = event.getId().getTargetCompleted().getLabel();
           String configId = event.getId().getTargetCompleted().getConfiguration().getId();
@@ -97,17 +127,59 @@ public final class ParsedBepOutput {
                           });
                     }
                   });
-          continue;
+          if (listener != null) {
+            notifyListener(label, configId, event.getCompleted());
+          }
+          return;
         case STARTED:
           startTimeMillis = event.getStarted().getStartTimeMillis();
-          continue;
+          return;
         default: // continue
       }
     }
-    ImmutableMap<String, FileSet> filesMap =
-        fillInTransitiveFileSetData(
-            fileSets, topLevelFileSets, configIdToMnemonic, startTimeMillis);
-    return new ParsedBepOutput(filesMap, targetToFileSets.build(), startTimeMillis);
+
+    /**
+     * Passes the outputs of a newly completed target to the listener, skipping any file sets
+     * already reported for the same output group.
+     *
+     * <p>BEP announces each named set before any event referencing it, so the transitive closure
+     * of file sets is available at this point.
+     */
+    private void notifyListener(String label, String configId, TargetComplete targetComplete) {
+      String mnemonic = configIdToMnemonic.get(configId);
+      if (mnemonic == null) {
+        return;
+      }
+      ImmutableSetMultimap.Builder<String, OutputArtifact> outputs = ImmutableSetMultimap.builder();
+      for (BuildEventStreamProtos.OutputGroup group : targetComplete.getOutputGroupList()) {
+        Queue<String> toVisit = Queues.newArrayDeque(getFileSets(group));
+        while (!toVisit.isEmpty()) {
+          String setId = toVisit.remove();
+          FileSet.Builder fileSet = fileSets.get(setId);
+          if (fileSet == null
+              || fileSet.namedSet == null
+              || !reportedFileSets.put(group.getName(), setId)) {
+            continue;
+          }
+          outputs.putAll(
+              group.getName(), parseFiles(fileSet.namedSet, mnemonic, startTimeMillis));
+          fileSet.namedSet.getFileSetsList().stream()
+              .map(NamedSetOfFilesId::getId)
+              .forEach(toVisit::add);
+        }
+      }
+      ImmutableSetMultimap<String, OutputArtifact> newOutputs = outputs.build();
+      if (!newOutputs.isEmpty()) {
+        listener.targetCompleted(label, newOutputs);
+      }
+    }
+
+    ParsedBepOutput build() {
+      ImmutableMap<String, FileSet> filesMap =
+          fillInTransitiveFileSetData(
+              fileSets, topLevelFileSets, configIdToMnemonic, startTimeMillis);
+      return new ParsedBepOutput(filesMap, targetToFileSets.build(), startTimeMillis);
+    }
   }
 
   private static List<String> getFileSets(BuildEventStreamProtos.OutputGroup group) {
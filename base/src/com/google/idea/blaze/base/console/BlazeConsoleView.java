@@ -16,6 +16,7 @@
 package com.google.idea.blaze.base.console;
 
 import com.google.idea.blaze.base.run.filter.BlazeTargetFilter;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.codeEditor.printing.PrintAction;
 import com.intellij.execution.filters.ConsoleDependentFilterProvider;
 import com.intellij.execution.filters.ConsoleFilterProvider;
@@ -38,22 +39,31 @@ import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.DefaultActionGroup;
 import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.markup.RangeHighlighter;
+import com.intellij.openapi.fileEditor.OpenFileDescriptor;
 import com.intellij.openapi.project.DumbAwareAction;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.ui.content.Content;
 import com.intellij.ui.content.ContentFactory;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import java.awt.Component;
 import java.awt.Container;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 import javax.swing.JComponent;
 import javax.swing.LayoutFocusTraversalPolicy;
@@ -68,9 +78,23 @@ public class BlazeConsoleView implements Disposable {
     PrintAction.class
   };
 
+  private static final BoolExperiment boundedConsole =
+      new BoolExperiment("blaze.console.bounded", false);
+
+  /** Beyond this, the console is truncated to its most recent output. */
+  private static final int MAX_CONSOLE_CHARS = 4 * 1024 * 1024;
+
+  /** Output is passed on to the console once this much has accumulated. */
+  private static final int FLUSH_THRESHOLD_CHARS = 64 * 1024;
+
+  private static final long FLUSH_DELAY_MILLIS = 100;
+
+  private static final Logger logger = Logger.getInstance(BlazeConsoleView.class);
+
   private final Project project;
   private final ConsoleViewImpl consoleView;
   private final CompositeFilter customFilters = new CompositeFilter();
+  @Nullable private final BoundedConsoleSink boundedSink;
 
   private volatile Runnable stopHandler;
 
@@ -88,6 +112,46 @@ public class BlazeConsoleView implements Disposable {
     // add target filter last, so it doesn't override other links containing a target string
     consoleView.addMessageFilter(new BlazeTargetFilter(false));
     Disposer.register(this, consoleView);
+    boundedSink = boundedConsole.getValue() ? createBoundedSink() : null;
+  }
+
+  private BoundedConsoleSink createBoundedSink() {
+    File fullLog;
+    try {
+      fullLog = FileUtil.createTempFile("blaze-console", ".log", /* deleteOnExit= */ true);
+    } catch (IOException e) {
+      logger.warn("Couldn't create console log file", e);
+      fullLog = null;
+    }
+    return new BoundedConsoleSink(
+        new BoundedConsoleSink.Console() {
+          @Override
+          public void print(String text, ConsoleViewContentType contentType) {
+            consoleView.print(text, contentType);
+          }
+
+          @Override
+          public void printHyperlink(String text, @Nullable HyperlinkInfo hyperlinkInfo) {
+            consoleView.printHyperlink(text, hyperlinkInfo);
+          }
+
+          @Override
+          public void clear() {
+            consoleView.clear();
+          }
+        },
+        () ->
+            AppExecutorUtil.getAppScheduledExecutorService()
+                .schedule(this::flushBoundedSink, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS),
+        MAX_CONSOLE_CHARS,
+        FLUSH_THRESHOLD_CHARS,
+        fullLog);
+  }
+
+  private void flushBoundedSink() {
+    if (boundedSink != null) {
+      boundedSink.flush();
+    }
   }
 
   public static BlazeConsoleView getInstance(Project project) {
@@ -181,6 +245,9 @@ public class BlazeConsoleView implements Disposable {
       }
     }
     group.add(new StopAction());
+    if (boundedSink != null && boundedSink.getFullLog() != null) {
+      group.add(new OpenFullLogAction(boundedSink.getFullLog()));
+    }
 
     JComponent layoutComponent = layoutUi.getComponent();
 
@@ -203,19 +270,59 @@ public class BlazeConsoleView implements Disposable {
   }
 
   public void clear() {
-    consoleView.clear();
+    if (boundedSink != null) {
+      boundedSink.clear();
+    } else {
+      consoleView.clear();
+    }
   }
 
   public void print(String text, ConsoleViewContentType contentType) {
-    consoleView.print(text, contentType);
+    if (boundedSink != null) {
+      boundedSink.print(text, contentType);
+    } else {
+      consoleView.print(text, contentType);
+    }
   }
 
   public void printHyperlink(String text, HyperlinkInfo hyperlinkInfo) {
-    consoleView.printHyperlink(text, hyperlinkInfo);
+    if (boundedSink != null) {
+      boundedSink.printHyperlink(text, hyperlinkInfo);
+    } else {
+      consoleView.printHyperlink(text, hyperlinkInfo);
+    }
   }
 
   @Override
-  public void dispose() {}
+  public void dispose() {
+    if (boundedSink != null) {
+      boundedSink.dispose();
+    }
+  }
+
+  private class OpenFullLogAction extends DumbAwareAction {
+    private final File fullLog;
+
+    OpenFullLogAction(File fullLog) {
+      super(
+          "Open Full Log",
+          "Open all output of this console in an editor",
+          AllIcons.FileTypes.Text);
+      this.fullLog = fullLog;
+    }
+
+    @Override
+    public void actionPerformed(AnActionEvent e) {
+      flushBoundedSink();
+      VirtualFile file = VfsUtil.findFileByIoFile(fullLog, /* refreshIfNeeded= */ true);
+      if (file == null) {
+        return;
+      }
+      VfsUtil.markDirtyAndRefresh(
+          /* async= */ false, /* recursive= */ false, /* reloadChildren= */ false, file);
+      new OpenFileDescriptor(project, file).navigate(/* requestFocus= */ true);
+    }
+  }
 
   private class StopAction extends DumbAwareAction {
     public StopAction() {
@@ -249,12 +356,14 @@ public class BlazeConsoleView implements Disposable {
     @Nullable
     @Override
     public Result applyFilter(String line, int entireLength) {
-      return customFilters
-          .stream()
-          .map(f -> f.applyFilter(line, entireLength))
-          .filter(Objects::nonNull)
-          .reduce(this::combine)
-          .orElse(null);
+      Result result = null;
+      for (Filter filter : customFilters) {
+        Result filterResult = filter.applyFilter(line, entireLength);
+        if (filterResult != null) {
+          result = result != null ? combine(result, filterResult) : filterResult;
+        }
+      }
+      return result;
     }
 
     Result combine(Result first, Result second) {
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.console;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.intellij.execution.filters.HyperlinkInfo;
+import com.intellij.execution.ui.ConsoleViewContentType;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Batches console output, and bounds the amount of it kept in the console.
+ *
+ * <p>Output is passed on to the console once enough of it has accumulated, or when the scheduled
+ * flush runs. Once the console has received more than the configured maximum, it's cleared and
+ * only the most recent output is printed again, so filters only ever run over a bounded amount of
+ * text. All output is also appended to a log file, so nothing is lost.
+ */
+final class BoundedConsoleSink {
+
+  private static final Logger logger = Logger.getInstance(BoundedConsoleSink.class);
+
+  /** Where the batched output ends up. */
+  interface Console {
+    void print(String text, ConsoleViewContentType contentType);
+
+    void printHyperlink(String text, @Nullable HyperlinkInfo hyperlinkInfo);
+
+    void clear();
+  }
+
+  private final Console console;
+  private final Runnable scheduleFlush;
+  private final int maxConsoleChars;
+  private final int flushThresholdChars;
+  @Nullable private final File fullLog;
+
+  @GuardedBy("this")
+  private final List<Chunk> pending = new ArrayList<>();
+
+  @GuardedBy("this")
+  private int pendingChars = 0;
+
+  /** The most recent output, printed again when the console is truncated. */
+  @GuardedBy("this")
+  private final Deque<Chunk> recent = new ArrayDeque<>();
+
+  @GuardedBy("this")
+  private int recentChars = 0;
+
+  @GuardedBy("this")
+  private long consoleChars = 0;
+
+  @GuardedBy("this")
+  @Nullable
+  private Writer fullLogWriter;
+
+  /**
+   * @param scheduleFlush called when output starts accumulating, and expected to call {@link
+   *     #flush} shortly afterwards
+   * @param fullLog the file all output is written to, or null if it's not kept
+   */
+  BoundedConsoleSink(
+      Console console,
+      Runnable scheduleFlush,
+      int maxConsoleChars,
+      int flushThresholdChars,
+      @Nullable File fullLog) {
+    this.console = console;
+    this.scheduleFlush = scheduleFlush;
+    this.maxConsoleChars = maxConsoleChars;
+    this.flushThresholdChars = flushThresholdChars;
+    this.fullLog = fullLog;
+    this.fullLogWriter = openFullLog(fullLog);
+  }
+
+  /** The file all output is written to, or null if it's not kept. */
+  @Nullable
+  File getFullLog() {
+    return fullLog;
+  }
+
+  void print(String text, ConsoleViewContentType contentType) {
+    add(new Chunk(text, contentType, null));
+  }
+
+  void printHyperlink(String text, @Nullable HyperlinkInfo hyperlinkInfo) {
+    add(new Chunk(text, ConsoleViewContentType.NORMAL_OUTPUT, hyperlinkInfo));
+  }
+
+  private void add(Chunk chunk) {
+    boolean first;
+    synchronized (this) {
+      writeToFullLog(chunk.text);
+      first = pending.isEmpty();
+      pending.add(chunk);
+      pendingChars += chunk.text.length();
+      if (pendingChars >= flushThresholdChars) {
+        flush();
+        return;
+      }
+    }
+    if (first) {
+      scheduleFlush.run();
+    }
+  }
+
+  /** Passes all accumulated output on to the console. */
+  synchronized void flush() {
+    if (pending.isEmpty()) {
+      return;
+    }
+    List<Chunk> chunks = coalesce(pending);
+    pending.clear();
+    pendingChars = 0;
+    for (Chunk chunk : chunks) {
+      chunk.printTo(console);
+      consoleChars += chunk.text.length();
+      retain(chunk);
+    }
+    if (consoleChars > maxConsoleChars) {
+      truncateConsole();
+    }
+    flushFullLog();
+  }
+
+  /** Clears the console and the full log. */
+  synchronized void clear() {
+    pending.clear();
+    pendingChars = 0;
+    recent.clear();
+    recentChars = 0;
+    consoleChars = 0;
+    closeFullLog();
+    fullLogWriter = openFullLog(fullLog);
+    console.clear();
+  }
+
+  synchronized void dispose() {
+    closeFullLog();
+    if (fullLog != null && !fullLog.delete()) {
+      logger.warn("Couldn't delete console log " + fullLog);
+    }
+  }
+
+  @GuardedBy("this")
+  private void truncateConsole() {
+    console.clear();
+    String notice =
+        fullLog != null
+            ? "Earlier output was truncated. Use 'Open Full Log' to see all of it.\n"
+            : "Earlier output was truncated.\n";
+    console.print(notice, ConsoleViewContentType.SYSTEM_OUTPUT);
+    consoleChars = notice.length();
+    for (Chunk chunk : recent) {
+      chunk.printTo(console);
+      consoleChars += chunk.text.length();
+    }
+  }
+
+  /** Keeps the most recent output, up to half the console's maximum size. */
+  @GuardedBy("this")
+  private void retain(Chunk chunk) {
+    int budget = maxConsoleChars / 2;
+    if (chunk.text.length() > budget) {
+      if (chunk.hyperlinkInfo != null) {
+        return;
+      }
+      chunk = new Chunk(tail(chunk.text, budget), chunk.contentType, null);
+    }
+    recent.addLast(chunk);
+    recentChars += chunk.text.length();
+    while (recentChars > budget) {
+      recentChars -= recent.removeFirst().text.length();
+    }
+  }
+
+  /** Returns the end of the text, starting at a line boundary where possible. */
+  private static String tail(String text, int maxLength) {
+    int start = text.length() - maxLength;
+    int lineStart = text.indexOf('\n', start);
+    return lineStart != -1 && lineStart + 1 < text.length()
+        ? text.substring(lineStart + 1)
+        : text.substring(start);
+  }
+
+  /** Merges adjacent plain text with the same content type. */
+  private static List<Chunk> coalesce(List<Chunk> chunks) {
+    List<Chunk> result = new ArrayList<>();
+    StringBuilder text = new StringBuilder();
+    ConsoleViewContentType contentType = null;
+    for (Chunk chunk : chunks) {
+      if (chunk.hyperlinkInfo == null && chunk.contentType.equals(contentType)) {
+        text.append(chunk.text);
+        continue;
+      }
+      if (contentType != null) {
+        result.add(new Chunk(text.toString(), contentType, null));
+        text.setLength(0);
+        contentType = null;
+      }
+      if (chunk.hyperlinkInfo != null) {
+        result.add(chunk);
+      } else {
+        text.append(chunk.text);
+        contentType = chunk.contentType;
+      }
+    }
+    if (contentType != null) {
+      result.add(new Chunk(text.toString(), contentType, null));
+    }
+    return result;
+  }
+
+  @Nullable
+  private static Writer openFullLog(@Nullable File file) {
+    if (file == null) {
+      return null;
+    }
+    try {
+      return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF_8));
+    } catch (IOException e) {
+      logger.warn("Couldn't open console log " + file, e);
+      return null;
+    }
+  }
+
+  @GuardedBy("this")
+  private void writeToFullLog(String text) {
+    if (fullLogWriter == null) {
+      return;
+    }
+    try {
+      fullLogWriter.write(text);
+    } catch (IOException e) {
+      logger.warn("Couldn't write to console log " + fullLog, e);
+      closeFullLog();
+    }
+  }
+
+  @GuardedBy("this")
+  private void flushFullLog() {
+    if (fullLogWriter == null) {
+      return;
+    }
+    try {
+      fullLogWriter.flush();
+    } catch (IOException e) {
+      logger.warn("Couldn't write to console log " + fullLog, e);
+      closeFullLog();
+    }
+  }
+
+  @GuardedBy("this")
+  private void closeFullLog() {
+    if (fullLogWriter == null) {
+      return;
+    }
+    try {
+      fullLogWriter.close();
+    } catch (IOException e) {
+      logger.warn("Couldn't close console log " + fullLog, e);
+    }
+    fullLogWriter = null;
+  }
+
+  private static final class Chunk {
+    final String text;
+    final ConsoleViewContentType contentType;
+    @Nullable final HyperlinkInfo hyperlinkInfo;
+
+    Chunk(String text, ConsoleViewContentType contentType, @Nullable HyperlinkInfo hyperlinkInfo) {
+      this.text = text;
+      this.contentType = contentType;
+      this.hyperlinkInfo = hyperlinkInfo;
+    }
+
+    void printTo(Console console) {
+      if (hyperlinkInfo != null) {
+        console.printHyperlink(text, hyperlinkInfo);
+      } else {
+        console.print(text, contentType);
+      }
+    }
+  }
+}
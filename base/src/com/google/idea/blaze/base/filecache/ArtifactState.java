@@ -15,6 +15,7 @@
  */
 package com.google.idea.blaze.base.filecache;
 
+import com.google.common.base.Strings;
 import com.google.devtools.intellij.model.ProjectData;
 import com.google.devtools.intellij.model.ProjectData.LocalFile;
 import com.google.devtools.intellij.model.ProjectData.LocalFileOrOutputArtifact;
@@ -71,7 +72,8 @@ public interface ArtifactState {
           !local.getRelativePath().isEmpty()
               ? local.getRelativePath()
               : migrateOldKeyFormat(local.getPath());
-      return new LocalFileState(blazeOutPath, proto.getLocalFile().getTimestamp());
+      return new LocalFileState(
+          blazeOutPath, local.getTimestamp(), Strings.emptyToNull(local.getDigest()));
     }
     if (proto.hasArtifact()) {
       ProjectData.OutputArtifact output = proto.getArtifact();
@@ -85,10 +87,22 @@ public interface ArtifactState {
   class LocalFileState implements ArtifactState {
     private final String blazeOutPath;
     private final long timestamp;
+    @Nullable private final String digest;
 
     public LocalFileState(String blazeOutPath, long timestamp) {
+      this(blazeOutPath, timestamp, /* digest= */ null);
+    }
+
+    public LocalFileState(String blazeOutPath, long timestamp, @Nullable String digest) {
       this.blazeOutPath = blazeOutPath;
       this.timestamp = timestamp;
+      this.digest = digest;
+    }
+
+    /** The content digest reported by blaze, or null if it wasn't provided. */
+    @Nullable
+    public String getDigest() {
+      return digest;
     }
 
     @Override
@@ -98,14 +112,24 @@ public interface ArtifactState {
 
     @Override
     public boolean isMoreRecent(ArtifactState output) {
-      return !(output instanceof LocalFileState) || timestamp < ((LocalFileState) output).timestamp;
+      if (!(output instanceof LocalFileState)) {
+        return true;
+      }
+      LocalFileState state = (LocalFileState) output;
+      if (digest != null && state.digest != null && ArtifactsDiff.trustBepDigests.getValue()) {
+        return !digest.equals(state.digest);
+      }
+      return timestamp < state.timestamp;
     }
 
     @Override
     public LocalFileOrOutputArtifact serializeToProto() {
-      return LocalFileOrOutputArtifact.newBuilder()
-          .setLocalFile(LocalFile.newBuilder().setPath(blazeOutPath).setTimestamp(timestamp))
-          .build();
+      LocalFile.Builder builder =
+          LocalFile.newBuilder().setPath(blazeOutPath).setTimestamp(timestamp);
+      if (digest != null) {
+        builder.setDigest(digest);
+      }
+      return LocalFileOrOutputArtifact.newBuilder().setLocalFile(builder).build();
     }
 
     @Override
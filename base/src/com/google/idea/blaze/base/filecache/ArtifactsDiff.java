@@ -23,11 +23,16 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact.LocalFileArtifact;
+import com.google.idea.blaze.base.command.buildresult.LocalFileOutputArtifact;
 import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
+import com.google.idea.blaze.base.filecache.ArtifactState.LocalFileState;
 import com.google.idea.blaze.base.io.FileAttributeScanner;
 import com.google.idea.blaze.base.prefetch.FetchExecutor;
+import com.google.idea.common.experiments.BoolExperiment;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
@@ -37,11 +42,19 @@ import javax.annotation.Nullable;
  * A data class representing the diff between two sets of output artifacts.
  *
  * <p>We serialize the last modified time for local files to avoid recomputing it when calculating
- * the diff.
+ * the diff. Where blaze reports a content digest for a local file, and it matches the digest
+ * recorded by the previous sync, the file isn't stat'ed at all.
  */
 @AutoValue
 public abstract class ArtifactsDiff {
 
+  /**
+   * Whether content digests reported by blaze are used to skip stat'ing unchanged local files, and
+   * to compare local file states.
+   */
+  static final BoolExperiment trustBepDigests =
+      new BoolExperiment("blaze.sync.trust.bep.artifact.digests", false);
+
   public abstract ImmutableMap<String, ArtifactState> getNewState();
 
   public abstract ImmutableList<OutputArtifact> getUpdatedOutputs();
@@ -60,10 +73,10 @@ public abstract class ArtifactsDiff {
       @Nullable ImmutableMap<String, ArtifactState> oldState,
       ImmutableMap<String, OutputArtifact> newArtifacts)
       throws InterruptedException, ExecutionException {
-    ImmutableMap<String, ArtifactState> newState = computeState(newArtifacts.values());
-    // Find new/updated
     final ImmutableMap<String, ArtifactState> previous =
         oldState != null ? oldState : ImmutableMap.of();
+    ImmutableMap<String, ArtifactState> newState = computeState(newArtifacts.values(), previous);
+    // Find new/updated
     ImmutableList<OutputArtifact> updated =
         newState.entrySet().stream()
             .filter(
@@ -81,6 +94,49 @@ public abstract class ArtifactsDiff {
     return new AutoValue_ArtifactsDiff(newState, updated, ImmutableSet.copyOf(removed));
   }
 
+  private static ImmutableMap<String, ArtifactState> computeState(
+      Collection<OutputArtifact> artifacts, ImmutableMap<String, ArtifactState> previous)
+      throws InterruptedException, ExecutionException {
+    if (!trustBepDigests.getValue()) {
+      return computeState(artifacts);
+    }
+    // reuse the previous state of local files whose blaze-reported digest is unchanged
+    ImmutableMap.Builder<String, ArtifactState> unchanged = ImmutableMap.builder();
+    List<OutputArtifact> toScan = new ArrayList<>();
+    for (OutputArtifact artifact : artifacts) {
+      ArtifactState old = getUnchangedState(artifact, previous);
+      if (old != null) {
+        unchanged.put(artifact.getKey(), old);
+      } else {
+        toScan.add(artifact);
+      }
+    }
+    return ImmutableMap.<String, ArtifactState>builder()
+        .putAll(unchanged.build())
+        .putAll(computeState(toScan))
+        .build();
+  }
+
+  /**
+   * Returns the previous state of the given artifact if blaze reported a digest for it which
+   * matches the previous one, otherwise null.
+   */
+  @Nullable
+  private static ArtifactState getUnchangedState(
+      OutputArtifact artifact, ImmutableMap<String, ArtifactState> previous) {
+    if (!(artifact instanceof LocalFileOutputArtifact)) {
+      return null;
+    }
+    String digest = ((LocalFileOutputArtifact) artifact).getDigest();
+    if (digest == null) {
+      return null;
+    }
+    ArtifactState old = previous.get(artifact.getKey());
+    return old instanceof LocalFileState && digest.equals(((LocalFileState) old).getDigest())
+        ? old
+        : null;
+  }
+
   private static ImmutableMap<String, ArtifactState> computeState(
       Collection<OutputArtifact> artifacts) throws InterruptedException, ExecutionException {
     boolean hasLocalFiles = artifacts.stream().anyMatch(a -> a instanceof LocalFileArtifact);
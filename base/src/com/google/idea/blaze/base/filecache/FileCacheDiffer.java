@@ -83,7 +83,12 @@ public final class FileCacheDiffer {
       Map<File, Long> timestamps,
       Map<String, File> cachedFiles) {
     if (newOutput instanceof LocalFileArtifact) {
-      return shouldUpdateLocal((LocalFileArtifact) newOutput, cachedFiles.get(key), timestamps);
+      File cached = cachedFiles.get(key);
+      if (cached != null && isLinkedToSharedStore(newOutput, cached)) {
+        // the timestamps of shared files don't necessarily match this particular artifact
+        return false;
+      }
+      return shouldUpdateLocal((LocalFileArtifact) newOutput, cached, timestamps);
     }
     return !cachedFiles.containsKey(key)
         || shouldUpdateRemote((RemoteOutputArtifact) newOutput, previousOutputs);
@@ -100,6 +105,11 @@ public final class FileCacheDiffer {
     return previousState == null || (newState != null && previousState.isMoreRecent(newState));
   }
 
+  private static boolean isLinkedToSharedStore(BlazeArtifact newOutput, File cachedFile) {
+    return SharedArtifactStore.isEnabled()
+        && SharedArtifactStore.getInstance().isLinkedCopy(newOutput, cachedFile);
+  }
+
   private static boolean shouldUpdateLocal(
       LocalFileArtifact newOutput, @Nullable File localFile, Map<File, Long> timestamps) {
     Long oldTimestamp = localFile != null ? timestamps.get(localFile) : null;
@@ -49,7 +49,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
@@ -167,6 +166,9 @@ public final class RemoteOutputsCache {
       futures.addAll(deleteCacheFiles(removed));
 
       Futures.allAsList(futures).get();
+      if (SharedArtifactStore.isEnabled()) {
+        SharedArtifactStore.getInstance().trimToSize();
+      }
 
       this.cachedFiles =
           newState.keySet().stream()
@@ -223,9 +225,9 @@ public final class RemoteOutputsCache {
             futures.add(
                 FetchExecutor.EXECUTOR.submit(
                     () -> {
-                      Path destination = Paths.get(new File(cacheDir, key).getPath());
-                      try (InputStream stream = artifact.getInputStream()) {
-                        Files.copy(stream, destination, StandardCopyOption.REPLACE_EXISTING);
+                      File destination = new File(cacheDir, key);
+                      try {
+                        copyLocally(artifact, destination);
                       } catch (IOException e) {
                         logger.warn(e);
                       }
@@ -233,6 +235,17 @@ public final class RemoteOutputsCache {
     return futures;
   }
 
+  private static void copyLocally(RemoteOutputArtifact artifact, File destination)
+      throws IOException {
+    if (SharedArtifactStore.isEnabled()) {
+      SharedArtifactStore.getInstance().materialize(artifact, destination);
+      return;
+    }
+    try (InputStream stream = artifact.getInputStream()) {
+      Files.copy(stream, Paths.get(destination.getPath()), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
   private Collection<ListenableFuture<?>> deleteCacheFiles(Collection<File> files) {
     return files.stream()
         .map(
@@ -0,0 +1,421 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.filecache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
+import com.google.idea.blaze.base.command.buildresult.BlazeArtifact.LocalFileArtifact;
+import com.google.idea.blaze.base.command.buildresult.LocalFileOutputArtifact;
+import com.google.idea.blaze.base.command.buildresult.RemoteOutputArtifact;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.google.idea.common.experiments.IntExperiment;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+
+/**
+ * A content-addressed store of output artifacts, shared by all projects.
+ *
+ * <p>Artifacts are keyed by their digest: the digest reported by blaze for local outputs, the hash
+ * ID of remote outputs, or otherwise a hash of their contents. The per-project caches ({@link
+ * RemoteOutputsCache}, the jar cache, the AAR cache) hard-link files from the store into their own
+ * directories, so an artifact shared between configurations or projects is only stored once.
+ * Linked files share their contents with the store, and must not be modified in place.
+ *
+ * <p>Stored files keep the timestamp of the artifact first stored under their digest. Cached
+ * copies of artifacts with a blaze-reported digest are therefore compared by digest rather than by
+ * timestamp (see {@link #isLinkedCopy}), while artifacts without one are keyed by both their
+ * contents and their timestamp.
+ *
+ * <p>The store is kept under a byte budget, evicting the least recently used entries which are no
+ * longer linked into any project. An index of the store's contents is persisted alongside it, so
+ * the store directory never needs to be listed.
+ */
+public final class SharedArtifactStore {
+
+  private static final BoolExperiment enabled =
+      new BoolExperiment("blaze.shared.artifact.store", false);
+
+  private static final IntExperiment maxSizeMegabytes =
+      new IntExperiment("blaze.shared.artifact.store.max.size.mb", 20 * 1024);
+
+  public static boolean isEnabled() {
+    return enabled.getValue();
+  }
+
+  public static SharedArtifactStore getInstance() {
+    return ServiceManager.getService(SharedArtifactStore.class);
+  }
+
+  private static final Logger logger = Logger.getInstance(SharedArtifactStore.class);
+
+  private static final String INDEX_FILE_NAME = "index";
+  private static final String TEMP_DIR_NAME = "tmp";
+  private static final int INDEX_MAGIC = 0x42415253;
+  private static final int INDEX_VERSION = 1;
+
+  /** An artifact in the store. */
+  private static final class Entry {
+    final long size;
+    volatile long lastAccessMillis;
+
+    Entry(long size, long lastAccessMillis) {
+      this.size = size;
+      this.lastAccessMillis = lastAccessMillis;
+    }
+  }
+
+  private final File storeDir;
+  private final LongSupplier clock;
+  private final Object indexLock = new Object();
+
+  /**
+   * Held for reading while a stored file is being linked or copied, and for writing while evicting
+   * files, so a file can't be evicted between being looked up and being linked.
+   */
+  private final ReadWriteLock evictionLock = new ReentrantReadWriteLock();
+
+  /** The contents of the store, keyed by file name. Lazily read from the index. */
+  @Nullable private volatile Map<String, Entry> entries;
+
+  public SharedArtifactStore() {
+    this(new File(PathManager.getSystemPath(), "blaze/artifacts"), System::currentTimeMillis);
+  }
+
+  @VisibleForTesting
+  SharedArtifactStore(File storeDir, LongSupplier clock) {
+    this.storeDir = storeDir;
+    this.clock = clock;
+  }
+
+  /**
+   * Places the contents of the given artifact at {@code destination}, replacing any existing file.
+   * The destination is hard-linked to the store where possible, and copied otherwise.
+   */
+  public void materialize(BlazeArtifact artifact, File destination) throws IOException {
+    evictionLock.readLock().lock();
+    try {
+      Path stored = getLocalFile(artifact).toPath();
+      Path target = destination.toPath();
+      Files.deleteIfExists(target);
+      try {
+        Files.createLink(target, stored);
+      } catch (IOException | UnsupportedOperationException e) {
+        // e.g. the destination is on a different file system
+        Files.copy(stored, target, StandardCopyOption.REPLACE_EXISTING);
+        if (artifact instanceof LocalFileArtifact) {
+          // unlike a link, the copy can carry the timestamp of this particular source
+          Path source = ((LocalFileArtifact) artifact).getFile().toPath();
+          Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+        }
+      }
+    } finally {
+      evictionLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns true if {@code cachedFile} is a link to the stored copy of the given artifact, as
+   * identified by the digest blaze reported for it. Such a file is up to date, whatever its
+   * timestamp.
+   */
+  public boolean isLinkedCopy(BlazeArtifact artifact, File cachedFile) {
+    String digest = getKnownDigest(artifact);
+    if (digest == null) {
+      return false;
+    }
+    try {
+      return Files.isSameFile(
+          new File(storeDir, getStoredName(digest)).toPath(), cachedFile.toPath());
+    } catch (IOException e) {
+      // e.g. either file doesn't exist
+      return false;
+    }
+  }
+
+  /**
+   * Returns a file in the store with the contents of the given artifact, adding it to the store if
+   * necessary. The returned file must not be modified.
+   */
+  public File getLocalFile(BlazeArtifact artifact) throws IOException {
+    Map<String, Entry> entries = getEntries();
+    String digest = getKnownDigest(artifact);
+    if (digest == null) {
+      return addByContent(entries, artifact);
+    }
+    String name = getStoredName(digest);
+    File file = new File(storeDir, name);
+    Entry entry = entries.get(name);
+    if (entry != null && file.exists()) {
+      entry.lastAccessMillis = clock.getAsLong();
+      return file;
+    }
+    Path temp = writeTempFile(artifact, /* hashContents= */ false).file;
+    return addFile(entries, name, temp);
+  }
+
+  /**
+   * Removes least recently used artifacts until the store fits in its byte budget, then persists
+   * the index. Artifacts still linked into a project are never removed, as that wouldn't free any
+   * space.
+   */
+  public void trimToSize() {
+    trimToSize(maxSizeMegabytes.getValue() * 1024L * 1024L);
+  }
+
+  @VisibleForTesting
+  void trimToSize(long maxSizeBytes) {
+    Map<String, Entry> entries = getEntries();
+    evictionLock.writeLock().lock();
+    try {
+      evict(entries, maxSizeBytes);
+    } finally {
+      evictionLock.writeLock().unlock();
+    }
+  }
+
+  private void evict(Map<String, Entry> entries, long maxSizeBytes) {
+    synchronized (indexLock) {
+      long total = entries.values().stream().mapToLong(e -> e.size).sum();
+      if (total > maxSizeBytes) {
+        List<Map.Entry<String, Entry>> lru = new ArrayList<>(entries.entrySet());
+        lru.sort(Comparator.comparingLong(e -> e.getValue().lastAccessMillis));
+        for (Map.Entry<String, Entry> e : lru) {
+          if (total <= maxSizeBytes) {
+            break;
+          }
+          Path path = new File(storeDir, e.getKey()).toPath();
+          if (isLinked(path)) {
+            continue;
+          }
+          try {
+            Files.deleteIfExists(path);
+            entries.remove(e.getKey());
+            total -= e.getValue().size;
+          } catch (IOException ex) {
+            logger.warn("Failed to evict " + path, ex);
+          }
+        }
+      }
+      writeIndex(entries);
+    }
+  }
+
+  /**
+   * Returns the digest blaze provided for this artifact, or null if its contents need to be hashed.
+   */
+  @Nullable
+  private static String getKnownDigest(BlazeArtifact artifact) {
+    if (artifact instanceof RemoteOutputArtifact) {
+      return "remote:" + ((RemoteOutputArtifact) artifact).getHashId();
+    }
+    if (artifact instanceof LocalFileOutputArtifact) {
+      String digest = ((LocalFileOutputArtifact) artifact).getDigest();
+      return digest != null ? "bep:" + digest : null;
+    }
+    return null;
+  }
+
+  private static String getStoredName(String digest) {
+    return Hashing.sha256().hashString(digest, UTF_8).toString();
+  }
+
+  private File addByContent(Map<String, Entry> entries, BlazeArtifact artifact)
+      throws IOException {
+    TempFile temp = writeTempFile(artifact, /* hashContents= */ true);
+    // the timestamp is part of the key, so the stored file's timestamp matches the source's
+    String name =
+        artifact instanceof LocalFileArtifact
+            ? temp.hash + "-" + Files.getLastModifiedTime(temp.file).toMillis()
+            : temp.hash.toString();
+    File file = new File(storeDir, name);
+    Entry entry = entries.get(name);
+    if (entry != null && file.exists()) {
+      Files.deleteIfExists(temp.file);
+      entry.lastAccessMillis = clock.getAsLong();
+      return file;
+    }
+    return addFile(entries, name, temp.file);
+  }
+
+  private File addFile(Map<String, Entry> entries, String name, Path temp) throws IOException {
+    File file = new File(storeDir, name);
+    long size = Files.size(temp);
+    // identical contents may be added concurrently, in which case either copy can win
+    Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    entries.put(name, new Entry(size, clock.getAsLong()));
+    return file;
+  }
+
+  private static final class TempFile {
+    final Path file;
+    @Nullable final HashCode hash;
+
+    TempFile(Path file, @Nullable HashCode hash) {
+      this.file = file;
+      this.hash = hash;
+    }
+  }
+
+  private TempFile writeTempFile(BlazeArtifact artifact, boolean hashContents)
+      throws IOException {
+    File tempDir = new File(storeDir, TEMP_DIR_NAME);
+    if (!tempDir.isDirectory() && !tempDir.mkdirs()) {
+      throw new IOException("Could not create directory " + tempDir);
+    }
+    Path temp = Files.createTempFile(tempDir.toPath(), "artifact", ".tmp");
+    try {
+      HashCode hash = null;
+      try (InputStream stream = artifact.getInputStream()) {
+        if (hashContents) {
+          HashingInputStream hashing = new HashingInputStream(Hashing.sha256(), stream);
+          Files.copy(hashing, temp, StandardCopyOption.REPLACE_EXISTING);
+          hash = hashing.hash();
+        } else {
+          Files.copy(stream, temp, StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+      if (artifact instanceof LocalFileArtifact) {
+        // the file caches compare timestamps to find out-of-date local files
+        Path source = ((LocalFileArtifact) artifact).getFile().toPath();
+        Files.setLastModifiedTime(temp, Files.getLastModifiedTime(source));
+      }
+      return new TempFile(temp, hash);
+    } catch (IOException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+  }
+
+  /** Returns true if the file has other hard links, i.e. it's still used by some project. */
+  private static boolean isLinked(Path path) {
+    try {
+      Object links = Files.getAttribute(path, "unix:nlink");
+      return links instanceof Integer && (Integer) links > 1;
+    } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  private Map<String, Entry> getEntries() {
+    Map<String, Entry> entries = this.entries;
+    if (entries != null) {
+      return entries;
+    }
+    synchronized (indexLock) {
+      if (this.entries == null) {
+        this.entries = readIndex();
+      }
+      return this.entries;
+    }
+  }
+
+  private Map<String, Entry> readIndex() {
+    Map<String, Entry> entries = new ConcurrentHashMap<>();
+    File index = new File(storeDir, INDEX_FILE_NAME);
+    if (!index.exists()) {
+      return rebuildIndex(entries);
+    }
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+      if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+        return rebuildIndex(entries);
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String name = in.readUTF();
+        long size = in.readLong();
+        long lastAccessMillis = in.readLong();
+        entries.put(name, new Entry(size, lastAccessMillis));
+      }
+      return entries;
+    } catch (IOException e) {
+      logger.warn("Failed to read shared artifact store index", e);
+      entries.clear();
+      return rebuildIndex(entries);
+    }
+  }
+
+  /**
+   * Recreates the index from the contents of the store directory. Only needed if the index is
+   * missing or unreadable.
+   */
+  private Map<String, Entry> rebuildIndex(Map<String, Entry> entries) {
+    File[] files = storeDir.listFiles();
+    if (files == null) {
+      return entries;
+    }
+    long now = clock.getAsLong();
+    for (File file : files) {
+      if (file.isFile() && !file.getName().startsWith(INDEX_FILE_NAME)) {
+        entries.put(file.getName(), new Entry(file.length(), now));
+      }
+    }
+    return entries;
+  }
+
+  private void writeIndex(Map<String, Entry> entries) {
+    if (!storeDir.isDirectory() && !storeDir.mkdirs()) {
+      logger.warn("Could not create shared artifact store directory " + storeDir);
+      return;
+    }
+    File index = new File(storeDir, INDEX_FILE_NAME);
+    File temp = new File(storeDir, INDEX_FILE_NAME + ".tmp");
+    try {
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+        out.writeInt(INDEX_MAGIC);
+        out.writeInt(INDEX_VERSION);
+        List<Map.Entry<String, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+        out.writeInt(snapshot.size());
+        for (Map.Entry<String, Entry> e : snapshot) {
+          out.writeUTF(e.getKey());
+          out.writeLong(e.getValue().size);
+          out.writeLong(e.getValue().lastAccessMillis);
+        }
+      }
+      Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      logger.warn("Failed to write shared artifact store index", e);
+    }
+  }
+}
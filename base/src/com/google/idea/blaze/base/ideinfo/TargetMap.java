@@ -18,16 +18,54 @@ package com.google.idea.blaze.base.ideinfo;
 import com.google.common.base.Functions;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.devtools.intellij.model.ProjectData;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 import javax.annotation.Nullable;
 
 /** Map of configured targets (and soon aspects). */
 public final class TargetMap implements ProtoWrapper<ProjectData.TargetMap> {
-  private final ImmutableMap<TargetKey, TargetIdeInfo> targetMap;
+
+  /** Decodes individual targets on demand from some backing storage. */
+  public interface TargetLoader {
+    /** The keys of all targets, in their original order. */
+    ImmutableSet<TargetKey> keys();
+
+    /** Decodes the target with the given key, or returns null if it can't be decoded. */
+    @Nullable
+    TargetIdeInfo load(TargetKey key);
+  }
+
+  /** All targets, or null if they haven't all been decoded yet. */
+  @Nullable private volatile ImmutableMap<TargetKey, TargetIdeInfo> targetMap;
+
+  /** Non-null only for lazily-decoded target maps. */
+  @Nullable private final TargetLoader loader;
+
+  /** Targets already decoded, for lazily-decoded target maps. */
+  @Nullable private final Map<TargetKey, TargetIdeInfo> loadedTargets;
 
   public TargetMap(ImmutableMap<TargetKey, TargetIdeInfo> targetMap) {
     this.targetMap = targetMap;
+    this.loader = null;
+    this.loadedTargets = null;
+  }
+
+  private TargetMap(TargetLoader loader) {
+    this.targetMap = null;
+    this.loader = loader;
+    this.loadedTargets = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Returns a {@link TargetMap} which decodes each target the first time it's requested via {@link
+   * #get}. Methods returning the full set of targets decode them all.
+   */
+  public static TargetMap lazy(TargetLoader loader) {
+    return new TargetMap(loader);
   }
 
   public static TargetMap fromProto(ProjectData.TargetMap proto) {
@@ -41,25 +79,89 @@ public final class TargetMap implements ProtoWrapper<ProjectData.TargetMap> {
   @Override
   public ProjectData.TargetMap toProto() {
     ProjectData.TargetMap.Builder builder = ProjectData.TargetMap.newBuilder();
-    targetMap.values().stream().map(TargetIdeInfo::toProto).forEach(builder::addTargets);
+    map().values().stream().map(TargetIdeInfo::toProto).forEach(builder::addTargets);
     return builder.build();
   }
 
   @Nullable
   public TargetIdeInfo get(TargetKey key) {
-    return targetMap.get(key);
+    ImmutableMap<TargetKey, TargetIdeInfo> map = targetMap;
+    if (map != null) {
+      return map.get(key);
+    }
+    if (!loader.keys().contains(key)) {
+      return null;
+    }
+    return loadedTargets.computeIfAbsent(key, loader::load);
   }
 
   public boolean contains(TargetKey key) {
-    return targetMap.containsKey(key);
+    ImmutableMap<TargetKey, TargetIdeInfo> map = targetMap;
+    return map != null ? map.containsKey(key) : loader.keys().contains(key);
+  }
+
+  /** The keys of all targets. Doesn't decode any targets. */
+  public ImmutableSet<TargetKey> keys() {
+    ImmutableMap<TargetKey, TargetIdeInfo> map = targetMap;
+    return map != null ? map.keySet() : loader.keys();
+  }
+
+  /**
+   * Passes each target to the given consumer. Unlike {@link #map}, targets of a lazily-decoded map
+   * which haven't been requested yet are decoded one at a time, and aren't retained by this map.
+   */
+  public void forEachTarget(BiConsumer<TargetKey, TargetIdeInfo> consumer) {
+    ImmutableMap<TargetKey, TargetIdeInfo> map = targetMap;
+    if (map != null) {
+      map.forEach(consumer);
+      return;
+    }
+    for (TargetKey key : loader.keys()) {
+      TargetIdeInfo target = decode(key);
+      if (target != null) {
+        consumer.accept(key, target);
+      }
+    }
+  }
+
+  /** Returns the target with the given key, without retaining it if it wasn't already decoded. */
+  @Nullable
+  private TargetIdeInfo decode(TargetKey key) {
+    ImmutableMap<TargetKey, TargetIdeInfo> map = targetMap;
+    if (map != null) {
+      return map.get(key);
+    }
+    TargetIdeInfo target = loadedTargets.get(key);
+    return target != null ? target : loader.load(key);
   }
 
   public ImmutableCollection<TargetIdeInfo> targets() {
-    return targetMap.values();
+    return map().values();
   }
 
   public ImmutableMap<TargetKey, TargetIdeInfo> map() {
-    return targetMap;
+    ImmutableMap<TargetKey, TargetIdeInfo> map = targetMap;
+    if (map != null) {
+      return map;
+    }
+    synchronized (this) {
+      if (targetMap == null) {
+        targetMap = loadAllTargets();
+        loadedTargets.clear();
+      }
+      return targetMap;
+    }
+  }
+
+  private ImmutableMap<TargetKey, TargetIdeInfo> loadAllTargets() {
+    ImmutableMap.Builder<TargetKey, TargetIdeInfo> builder = ImmutableMap.builder();
+    for (TargetKey key : loader.keys()) {
+      TargetIdeInfo target = get(key);
+      if (target != null) {
+        builder.put(key, target);
+      }
+    }
+    return builder.build();
   }
 
   @Override
@@ -71,11 +173,23 @@ public final class TargetMap implements ProtoWrapper<ProjectData.TargetMap> {
       return false;
     }
     TargetMap other = (TargetMap) o;
-    return Objects.equals(targetMap, other.targetMap);
+    if (loader != null && loader == other.loader) {
+      return true;
+    }
+    if (!keys().equals(other.keys())) {
+      return false;
+    }
+    for (TargetKey key : keys()) {
+      if (!Objects.equals(decode(key), other.decode(key))) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(targetMap);
+    // consistent with equals, without decoding any targets
+    return keys().hashCode();
   }
 }
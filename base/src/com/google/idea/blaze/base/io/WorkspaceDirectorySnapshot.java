@@ -0,0 +1,296 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.io;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.sync.SyncListener;
+import com.google.idea.blaze.base.sync.SyncMode;
+import com.google.idea.blaze.base.sync.SyncResult;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+
+/**
+ * Directory listings of the workspace, shared by the code walking it during sync (project
+ * structure, wildcard target expansion) and by BUILD file glob resolution.
+ *
+ * <p>While a sync is running, each directory is listed at most once. Between syncs, listings are
+ * dropped when the VFS reports children being created, deleted, moved or renamed, and are otherwise
+ * revalidated against the directory's modification time before reuse. That costs a single stat,
+ * rather than a readdir plus a stat per child.
+ *
+ * <p>When a sync completes successfully, listings it didn't use are dropped. The snapshot only
+ * holds the directories walked by the last sync and those listed since.
+ */
+public final class WorkspaceDirectorySnapshot {
+
+  private static final BoolExperiment enabled =
+      new BoolExperiment("blaze.workspace.directory.snapshot", false);
+
+  /**
+   * A directory modified this soon before being listed could change again without its
+   * modification time moving on, given coarse file system timestamps. Such listings are only
+   * trusted for the sync which produced them.
+   */
+  private static final long RACY_INTERVAL_MILLIS = 2000;
+
+  public static WorkspaceDirectorySnapshot getInstance(Project project) {
+    return ServiceManager.getService(project, WorkspaceDirectorySnapshot.class);
+  }
+
+  private final Project project;
+  private final Map<File, DirectoryListing> listings = new ConcurrentHashMap<>();
+  private final AtomicBoolean subscribed = new AtomicBoolean();
+  private volatile int syncGeneration = 0;
+  private volatile boolean syncInProgress = false;
+
+  WorkspaceDirectorySnapshot(Project project) {
+    this.project = project;
+  }
+
+  /**
+   * Returns the children of the given directory, or null if it isn't a directory or can't be
+   * read.
+   */
+  @Nullable
+  public DirectoryListing list(File directory) {
+    if (!enabled.getValue()) {
+      return listUncached(directory);
+    }
+    subscribe();
+    DirectoryListing listing = getValidListing(directory);
+    if (listing != null) {
+      return listing;
+    }
+    listing = readListing(directory, /* cached= */ true);
+    if (listing != null) {
+      listing.validatedGeneration = currentGeneration();
+      listings.put(directory, listing);
+    } else {
+      listings.remove(directory);
+    }
+    return listing;
+  }
+
+  /** Lists the given directory without going through a snapshot. */
+  @Nullable
+  public static DirectoryListing listUncached(File directory) {
+    return readListing(directory, /* cached= */ false);
+  }
+
+  @Nullable
+  private DirectoryListing getValidListing(File directory) {
+    DirectoryListing listing = listings.get(directory);
+    if (listing == null) {
+      return null;
+    }
+    int generation = currentGeneration();
+    if (generation >= 0 && listing.validatedGeneration == generation) {
+      return listing;
+    }
+    if (listing.isRacy()
+        || FileOperationProvider.getInstance().getFileModifiedTime(directory)
+            != listing.modifiedTime) {
+      listings.remove(directory, listing);
+      return null;
+    }
+    listing.validatedGeneration = generation;
+    return listing;
+  }
+
+  /** The current sync generation, or -1 if no sync is running. */
+  private int currentGeneration() {
+    return syncInProgress ? syncGeneration : -1;
+  }
+
+  @Nullable
+  private static DirectoryListing readListing(File directory, boolean cached) {
+    FileOperationProvider fileOperationProvider = FileOperationProvider.getInstance();
+    long listedTime = System.currentTimeMillis();
+    // read before listing, so any later change is caught by the next revalidation
+    long modifiedTime = cached ? fileOperationProvider.getFileModifiedTime(directory) : 0;
+    File[] children = fileOperationProvider.listFiles(directory);
+    if (children == null) {
+      return null;
+    }
+    ImmutableList.Builder<String> names = ImmutableList.builder();
+    ImmutableSet.Builder<String> directoryNames = ImmutableSet.builder();
+    for (File child : children) {
+      names.add(child.getName());
+      if (fileOperationProvider.isDirectory(child)) {
+        directoryNames.add(child.getName());
+      }
+    }
+    return new DirectoryListing(
+        directory, names.build(), directoryNames.build(), modifiedTime, listedTime);
+  }
+
+  void syncStarted() {
+    syncGeneration++;
+    syncInProgress = true;
+  }
+
+  void syncFinished(boolean successful) {
+    syncInProgress = false;
+    if (successful) {
+      int generation = syncGeneration;
+      listings.values().removeIf(listing -> listing.validatedGeneration != generation);
+    }
+  }
+
+  private void subscribe() {
+    if (subscribed.compareAndSet(false, true)) {
+      project
+          .getMessageBus()
+          .connect(project)
+          .subscribe(VirtualFileManager.VFS_CHANGES, new Listener());
+    }
+  }
+
+  /** The children of a single directory. */
+  public static final class DirectoryListing {
+    private final File directory;
+    private final ImmutableList<String> names;
+    private final ImmutableSet<String> directoryNames;
+    private final long modifiedTime;
+    private final long listedTime;
+    private volatile int validatedGeneration = -1;
+
+    private DirectoryListing(
+        File directory,
+        ImmutableList<String> names,
+        ImmutableSet<String> directoryNames,
+        long modifiedTime,
+        long listedTime) {
+      this.directory = directory;
+      this.names = names;
+      this.directoryNames = directoryNames;
+      this.modifiedTime = modifiedTime;
+      this.listedTime = listedTime;
+    }
+
+    /** The files and directories directly under this directory. */
+    public List<File> getChildren() {
+      List<File> children = new ArrayList<>(names.size());
+      for (String name : names) {
+        children.add(new File(directory, name));
+      }
+      return children;
+    }
+
+    /** Whether the given child of this directory is itself a directory. */
+    public boolean isDirectory(File child) {
+      return directoryNames.contains(child.getName());
+    }
+
+    private boolean isRacy() {
+      return listedTime - modifiedTime < RACY_INTERVAL_MILLIS;
+    }
+  }
+
+  private class Listener implements BulkFileListener {
+    @Override
+    public void after(List<? extends VFileEvent> events) {
+      if (listings.isEmpty()) {
+        return;
+      }
+      List<File> removedDirectories = new ArrayList<>();
+      for (VFileEvent event : events) {
+        if (event instanceof VFileContentChangeEvent) {
+          continue;
+        }
+        String oldPath = getOldPath(event);
+        if (oldPath != null) {
+          removedDirectories.add(new File(oldPath));
+          invalidateParent(new File(oldPath));
+        } else if (event instanceof VFileDeleteEvent) {
+          removedDirectories.add(new File(event.getPath()));
+        } else if (event instanceof VFilePropertyChangeEvent) {
+          // other than renames, property changes don't affect directory listings
+          continue;
+        }
+        invalidateParent(new File(event.getPath()));
+      }
+      if (!removedDirectories.isEmpty()) {
+        listings
+            .keySet()
+            .removeIf(
+                directory ->
+                    removedDirectories.stream()
+                        .anyMatch(removed -> FileUtil.isAncestor(removed, directory, false)));
+      }
+    }
+
+    private void invalidateParent(File file) {
+      File parent = file.getParentFile();
+      if (parent != null) {
+        listings.remove(parent);
+      }
+    }
+  }
+
+  /** Returns the path a moved or renamed file had before the event, if any. */
+  @Nullable
+  private static String getOldPath(VFileEvent event) {
+    if (event instanceof VFileMoveEvent) {
+      VFileMoveEvent move = (VFileMoveEvent) event;
+      return move.getOldParent().getPath() + "/" + move.getFile().getName();
+    }
+    if (event instanceof VFilePropertyChangeEvent) {
+      VFilePropertyChangeEvent change = (VFilePropertyChangeEvent) event;
+      VirtualFile parent = change.getFile().getParent();
+      if (VirtualFile.PROP_NAME.equals(change.getPropertyName()) && parent != null) {
+        return parent.getPath() + "/" + change.getOldValue();
+      }
+    }
+    return null;
+  }
+
+  static class Updater implements SyncListener {
+    @Override
+    public void onSyncStart(Project project, BlazeContext context, SyncMode syncMode) {
+      getInstance(project).syncStarted();
+    }
+
+    @Override
+    public void afterSync(
+        Project project,
+        BlazeContext context,
+        SyncMode syncMode,
+        SyncResult syncResult,
+        ImmutableSet<Integer> buildIds) {
+      getInstance(project).syncFinished(syncResult.successful());
+    }
+  }
+}
@@ -19,7 +19,6 @@ import static com.google.common.base.Preconditions.checkState;
 
 import com.google.common.base.Ascii;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
 import com.google.idea.blaze.base.command.BlazeInvocationContext;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
@@ -66,13 +65,19 @@ public class BlazeIssueParser {
                 new BlazeIssueParser.LinelessBuildParser(),
                 new BlazeIssueParser.ProjectViewLabelParser(projectViewSet),
                 new BlazeIssueParser.InvalidTargetProjectViewPackageParser(
-                    projectViewSet, "no such package '(.*)': BUILD file not found on package path"),
+                    projectViewSet,
+                    "no such package '(.*)': BUILD file not found on package path",
+                    "no such package '"),
                 new BlazeIssueParser.InvalidTargetProjectViewPackageParser(
-                    projectViewSet, "no targets found beneath '(.*?)'"),
+                    projectViewSet,
+                    "no targets found beneath '(.*?)'",
+                    "no targets found beneath '"),
                 new BlazeIssueParser.InvalidTargetProjectViewPackageParser(
-                    projectViewSet, "ERROR: invalid target format '(.*?)'"),
+                    projectViewSet,
+                    "ERROR: invalid target format '(.*?)'",
+                    "ERROR: invalid target format '"),
                 new BlazeIssueParser.InvalidTargetProjectViewPackageParser(
-                    projectViewSet, "ERROR: Skipping '(.*?)'"),
+                    projectViewSet, "ERROR: Skipping '(.*?)'", "ERROR: Skipping '"),
                 new BlazeIssueParser.FileNotFoundBuildParser(workspaceRoot))
             .addAll(BlazeIssueParserProvider.getAllIssueParsers(project));
     if (invocationContext == BlazeInvocationContext.ContextType.Sync) {
@@ -104,14 +109,42 @@ public class BlazeIssueParser {
   /** Used by BlazeIssueParser. Generally implemented by subclassing SingleLineParser */
   public interface Parser {
     ParseResult parse(String currentLine, List<String> previousLines);
+
+    /**
+     * A substring of every line this parser can match, or begin a multi-line match with, or null
+     * if there's no such substring. Lines without it are never passed to this parser.
+     *
+     * <p>Parsers sharing the same substring have it checked once per line, so this is much
+     * cheaper than running every parser's regex on every line.
+     */
+    @Nullable
+    default String getRequiredSubstring() {
+      return null;
+    }
   }
 
   /** Base for a Parser that consumes a single contextless line at a time, matched via regex */
   public abstract static class SingleLineParser implements Parser {
     final Pattern pattern;
+    @Nullable private final String requiredSubstring;
 
     public SingleLineParser(String regex) {
+      this(regex, null);
+    }
+
+    /**
+     * @param requiredSubstring a substring of every line matching the regex, used to skip this
+     *     parser cheaply for other lines. See {@link Parser#getRequiredSubstring}.
+     */
+    public SingleLineParser(String regex, @Nullable String requiredSubstring) {
       pattern = Pattern.compile(regex);
+      this.requiredSubstring = requiredSubstring;
+    }
+
+    @Nullable
+    @Override
+    public String getRequiredSubstring() {
+      return requiredSubstring;
     }
 
     @Override
@@ -134,6 +167,8 @@ public class BlazeIssueParser {
     protected abstract IssueOutput createIssue(Matcher matcher);
   }
 
+  private static final String ERROR_PREFIX = "ERROR: ";
+
   public static File fileFromAbsolutePath(String absolutePath) {
     return new File(absolutePath);
   }
@@ -188,10 +223,26 @@ public class BlazeIssueParser {
               + "(?::| -)? " // colon or hyphen separator
               + "(?i:(fatal error|error|warning|note))" // message type (case insensitive)
               + "(?:[^:-]+)?[:-] " // optional error code with colon or hyphen separator
-              + "(.*)$"); // message
+              + "(.*)$", // message
+          ":");
       this.project = project;
     }
 
+    /**
+     * The message type is matched case-insensitively after an optional separator, so there's no
+     * more specific required substring. Instead, lines whose first colon isn't followed by a line
+     * number are skipped without running the regex.
+     */
+    @Override
+    ParseResult parse(String line) {
+      int colon = line.indexOf(':');
+      if (colon == -1 || colon + 1 == line.length()) {
+        return ParseResult.NO_RESULT;
+      }
+      char next = line.charAt(colon + 1);
+      return next >= '0' && next <= '9' ? super.parse(line) : ParseResult.NO_RESULT;
+    }
+
     @Override
     protected IssueOutput createIssue(Matcher matcher) {
       final File file = FileResolver.resolveToFile(project, matcher.group(1));
@@ -225,6 +276,11 @@ public class BlazeIssueParser {
         Pattern.compile(
             "(ERROR): (.*?):([0-9]+):([0-9]+): (Traceback \\(most recent call last\\):)");
 
+    @Override
+    public String getRequiredSubstring() {
+      return "Traceback (most recent call last):";
+    }
+
     @Override
     public ParseResult parse(String currentLine, List<String> previousLines) {
       if (previousLines.isEmpty()) {
@@ -258,7 +314,7 @@ public class BlazeIssueParser {
 
   static class BuildParser extends SingleLineParser {
     BuildParser() {
-      super("^ERROR: (/.*?BUILD):([0-9]+):([0-9]+): (.*)$");
+      super("^ERROR: (/.*?BUILD):([0-9]+):([0-9]+): (.*)$", ERROR_PREFIX);
     }
 
     @Nullable
@@ -281,7 +337,7 @@ public class BlazeIssueParser {
 
   static class SkylarkErrorParser extends SingleLineParser {
     SkylarkErrorParser() {
-      super("^ERROR: (/.*?\\.bzl):([0-9]+):([0-9]+): (.*)$");
+      super("^ERROR: (/.*?\\.bzl):([0-9]+):([0-9]+): (.*)$", ERROR_PREFIX);
     }
 
     @Override
@@ -299,7 +355,7 @@ public class BlazeIssueParser {
 
   static class LinelessBuildParser extends SingleLineParser {
     LinelessBuildParser() {
-      super("^ERROR: (.*?):char offsets [0-9]+--[0-9]+: (.*)$");
+      super("^ERROR: (.*?):char offsets [0-9]+--[0-9]+: (.*)$", ":char offsets ");
     }
 
     @Override
@@ -315,7 +371,7 @@ public class BlazeIssueParser {
     private final WorkspaceRoot workspaceRoot;
 
     FileNotFoundBuildParser(WorkspaceRoot workspaceRoot) {
-      super("^ERROR: .*? Unable to load file '(.*?)': (.*)$");
+      super("^ERROR: .*? Unable to load file '(.*?)': (.*)$", " Unable to load file '");
       this.workspaceRoot = workspaceRoot;
     }
 
@@ -334,7 +390,9 @@ public class BlazeIssueParser {
     @Nullable private final ProjectViewSet projectViewSet;
 
     ProjectViewLabelParser(@Nullable ProjectViewSet projectViewSet) {
-      super("no such target '(.*)': target .*? not declared in package .*? defined by");
+      super(
+          "no such target '(.*)': target .*? not declared in package .*? defined by",
+          "no such target '");
       this.projectViewSet = projectViewSet;
     }
 
@@ -364,7 +422,12 @@ public class BlazeIssueParser {
     private final ProjectViewSet projectViewSet;
 
     InvalidTargetProjectViewPackageParser(ProjectViewSet projectViewSet, String regex) {
-      super(regex);
+      this(projectViewSet, regex, null);
+    }
+
+    InvalidTargetProjectViewPackageParser(
+        ProjectViewSet projectViewSet, String regex, @Nullable String requiredSubstring) {
+      super(regex, requiredSubstring);
       this.projectViewSet = projectViewSet;
     }
 
@@ -407,7 +470,7 @@ public class BlazeIssueParser {
             + "(.*))$";
 
     private GenericErrorParser() {
-      super(PATTERN);
+      super(PATTERN, ERROR_PREFIX);
     }
 
     @Nullable
@@ -440,6 +503,19 @@ public class BlazeIssueParser {
   }
 
   private ImmutableList<Parser> parsers;
+
+  /** The distinct required substrings of all parsers. */
+  private final ImmutableList<String> requiredSubstrings;
+
+  /**
+   * For each parser, the index of its required substring in {@link #requiredSubstrings}, or -1 if
+   * it has none.
+   */
+  private final int[] requiredSubstringIndex;
+
+  /** Whether each required substring occurs in the current line; reused across lines. */
+  private final boolean[] substringPresent;
+
   /**
    * The parser that requested more lines of input during the last call to {@link
    * #parseIssue(String)}.
@@ -450,35 +526,61 @@ public class BlazeIssueParser {
 
   public BlazeIssueParser(ImmutableList<Parser> parsers) {
     this.parsers = parsers;
+    List<String> substrings = new ArrayList<>();
+    requiredSubstringIndex = new int[parsers.size()];
+    for (int i = 0; i < parsers.size(); i++) {
+      String substring = parsers.get(i).getRequiredSubstring();
+      int index = substring != null ? substrings.indexOf(substring) : -1;
+      if (substring != null && index == -1) {
+        index = substrings.size();
+        substrings.add(substring);
+      }
+      requiredSubstringIndex[i] = index;
+    }
+    requiredSubstrings = ImmutableList.copyOf(substrings);
+    substringPresent = new boolean[substrings.size()];
   }
 
   @Nullable
   public IssueOutput parseIssue(String line) {
-
-    List<Parser> parsers = this.parsers;
     if (multilineMatchingParser != null) {
-      parsers = Lists.newArrayList(multilineMatchingParser);
+      return parseIssue(multilineMatchingParser, line);
     }
-
-    for (Parser parser : parsers) {
-      ParseResult issue = parser.parse(line, multilineMatchResult);
-      if (issue.needsMoreInput) {
-        multilineMatchingParser = parser;
-        multilineMatchResult.add(line);
-        return null;
-      } else {
-        multilineMatchingParser = null;
-        multilineMatchResult = new ArrayList<>();
+    for (int i = 0; i < requiredSubstrings.size(); i++) {
+      substringPresent[i] = line.contains(requiredSubstrings.get(i));
+    }
+    for (int i = 0; i < parsers.size(); i++) {
+      int substringIndex = requiredSubstringIndex[i];
+      if (substringIndex != -1 && !substringPresent[substringIndex]) {
+        continue;
       }
-
-      if (issue.output != null) {
-        return issue.output;
+      IssueOutput output = parseIssue(parsers.get(i), line);
+      if (output != null || multilineMatchingParser != null) {
+        return output;
       }
     }
-
     return null;
   }
 
+  /**
+   * Passes the line to a single parser, updating the multi-line state. Returns null if there's no
+   * issue, or the parser needs more input.
+   */
+  @Nullable
+  private IssueOutput parseIssue(Parser parser, String line) {
+    ParseResult issue = parser.parse(line, multilineMatchResult);
+    if (issue.needsMoreInput) {
+      multilineMatchingParser = parser;
+      multilineMatchResult.add(line);
+      return null;
+    }
+    multilineMatchingParser = null;
+    if (!multilineMatchResult.isEmpty()) {
+      multilineMatchResult = new ArrayList<>();
+    }
+    return issue.output;
+  }
+
   /**
    * The union of the two ranges. If one of the ranges is null, returns the other. If both are null,
    * returns null.
@@ -15,12 +15,16 @@
  */
 package com.google.idea.blaze.base.lang.buildfile.completion;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
 import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
 import com.google.idea.blaze.base.lang.buildfile.references.LabelUtils;
 import com.google.idea.blaze.base.lang.buildfile.references.QuoteType;
+import com.google.idea.blaze.base.lang.buildfile.search.PackageTargetIndex;
+import icons.BlazeIcons;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import javax.annotation.Nullable;
 import javax.swing.Icon;
@@ -43,6 +47,21 @@ public class LabelRuleLookupElement extends BuildLookupElement {
 
     String ruleFragment = LabelUtils.getRuleComponent(originalString);
     List<BuildLookupElement> lookups = Lists.newArrayList();
+    ImmutableMap<String, String> indexedTargets =
+        PackageTargetIndex.getInstance(file.getProject()).getTargets(file);
+    if (indexedTargets != null) {
+      for (Map.Entry<String, String> target : indexedTargets.entrySet()) {
+        String targetName = target.getKey();
+        if (!targetName.equals(excluded) && targetName.startsWith(ruleFragment)) {
+          lookups.add(
+              new LabelRuleLookupElement(
+                  packagePrefix, BlazeIcons.BuildRule, targetName, target.getValue(), quoteType));
+        }
+      }
+      return lookups.isEmpty()
+          ? BuildLookupElement.EMPTY_ARRAY
+          : lookups.toArray(new BuildLookupElement[lookups.size()]);
+    }
     for (FuncallExpression target : file.findChildrenByClass(FuncallExpression.class)) {
       String targetName = target.getName();
       if (targetName == null
@@ -55,25 +74,26 @@ public class LabelRuleLookupElement extends BuildLookupElement {
         continue;
       }
       lookups.add(
-          new LabelRuleLookupElement(packagePrefix, target, targetName, ruleType, quoteType));
+          new LabelRuleLookupElement(
+              packagePrefix, target.getIcon(0), targetName, ruleType, quoteType));
     }
     return lookups.isEmpty()
         ? BuildLookupElement.EMPTY_ARRAY
         : lookups.toArray(new BuildLookupElement[lookups.size()]);
   }
 
-  private final FuncallExpression target;
+  @Nullable private final Icon icon;
   private final String targetName;
   private final String ruleType;
 
   private LabelRuleLookupElement(
       String packagePrefix,
-      FuncallExpression target,
+      @Nullable Icon icon,
       String targetName,
       String ruleType,
       QuoteType quoteType) {
     super(packagePrefix + targetName, quoteType);
-    this.target = target;
+    this.icon = icon;
     this.targetName = targetName;
     this.ruleType = ruleType;
 
@@ -82,7 +102,7 @@ public class LabelRuleLookupElement extends BuildLookupElement {
 
   @Override
   public Icon getIcon() {
-    return target.getIcon(0);
+    return icon;
   }
 
   @Override
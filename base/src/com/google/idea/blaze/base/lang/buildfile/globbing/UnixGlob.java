@@ -29,6 +29,8 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.io.WorkspaceDirectorySnapshot;
+import com.google.idea.blaze.base.io.WorkspaceDirectorySnapshot.DirectoryListing;
 import com.google.idea.blaze.base.lang.buildfile.validation.GlobPatternValidator;
 import com.intellij.openapi.progress.ProgressManager;
 import java.io.File;
@@ -65,10 +67,11 @@ public final class UnixGlob {
       Collection<String> patterns,
       boolean excludeDirectories,
       Predicate<File> dirPred,
-      ThreadPoolExecutor threadPool)
+      @Nullable ThreadPoolExecutor threadPool,
+      @Nullable WorkspaceDirectorySnapshot directorySnapshot)
       throws IOException, InterruptedException {
 
-    GlobVisitor visitor = (threadPool == null) ? new GlobVisitor() : new GlobVisitor(threadPool);
+    GlobVisitor visitor = new GlobVisitor(threadPool, directorySnapshot);
     return visitor.glob(base, patterns, excludeDirectories, dirPred);
   }
 
@@ -216,6 +219,7 @@ public final class UnixGlob {
     private boolean excludeDirectories;
     private Predicate<File> pathFilter;
     private ThreadPoolExecutor threadPool;
+    private WorkspaceDirectorySnapshot directorySnapshot;
 
     /** Creates a glob builder with the given base path. */
     public Builder(File base) {
@@ -289,6 +293,15 @@ public final class UnixGlob {
       return this;
     }
 
+    /**
+     * Sets the directory listings to glob against. If unset, directories are listed directly each
+     * time they're visited.
+     */
+    public Builder setDirectorySnapshot(WorkspaceDirectorySnapshot directorySnapshot) {
+      this.directorySnapshot = directorySnapshot;
+      return this;
+    }
+
     /**
      * If set, the given predicate is called for every directory encountered. If it returns false,
      * the corresponding item is not returned in the output and directories are not traversed
@@ -305,8 +318,12 @@ public final class UnixGlob {
      * @throws InterruptedException if the thread is interrupted.
      */
     public List<File> glob() throws IOException, InterruptedException {
-      Set<File> included = globInternal(base, patterns, excludeDirectories, pathFilter, threadPool);
-      Set<File> excluded = globInternal(base, excludes, excludeDirectories, pathFilter, threadPool);
+      Set<File> included =
+          globInternal(
+              base, patterns, excludeDirectories, pathFilter, threadPool, directorySnapshot);
+      Set<File> excluded =
+          globInternal(
+              base, excludes, excludeDirectories, pathFilter, threadPool, directorySnapshot);
       included.removeAll(excluded);
       return Ordering.<File>natural().immutableSortedCopy(included);
     }
@@ -373,17 +390,17 @@ public final class UnixGlob {
     private final AtomicLong pendingOps = new AtomicLong(0);
     private final AtomicReference<IOException> failure = new AtomicReference<>();
     private final FileOperationProvider fileOperationProvider = FileOperationProvider.getInstance();
+    @Nullable private final WorkspaceDirectorySnapshot directorySnapshot;
     private volatile boolean canceled = false;
 
-    private GlobVisitor(ThreadPoolExecutor executor) {
+    private GlobVisitor(
+        @Nullable ThreadPoolExecutor executor,
+        @Nullable WorkspaceDirectorySnapshot directorySnapshot) {
       this.executor = executor;
+      this.directorySnapshot = directorySnapshot;
       this.result = new GlobFuture(this);
     }
 
-    private GlobVisitor() {
-      this(null);
-    }
-
     /**
      * Performs wildcard globbing: returns the sorted list of filenames that match any of {@code
      * patterns} relative to {@code base}. Directories are traversed if and only if they match
@@ -569,12 +586,12 @@ public final class UnixGlob {
         return;
       }
 
-      File[] children = getChildren(base);
-      if (children == null) {
+      DirectoryListing listing = list(base);
+      if (listing == null) {
         return;
       }
-      for (File child : children) {
-        boolean childIsDir = fileOperationProvider.isDirectory(child);
+      for (File child : listing.getChildren()) {
+        boolean childIsDir = listing.isDirectory(child);
 
         if ("**".equals(pattern)) {
           // Recurse without shifting the pattern.
@@ -606,8 +623,10 @@ public final class UnixGlob {
     }
 
     @Nullable
-    private File[] getChildren(File file) {
-      return FileOperationProvider.getInstance().listFiles(file);
+    private DirectoryListing list(File directory) {
+      return directorySnapshot != null
+          ? directorySnapshot.list(directory)
+          : WorkspaceDirectorySnapshot.listUncached(directory);
     }
   }
 }
@@ -18,6 +18,8 @@ package com.google.idea.blaze.base.lang.buildfile.psi;
 import com.google.idea.blaze.base.lang.buildfile.language.BuildFileType;
 import com.google.idea.blaze.base.lang.buildfile.references.QuoteType;
 import com.google.idea.blaze.base.lang.buildfile.search.BlazePackage;
+import com.google.idea.blaze.base.lang.buildfile.search.BuildSymbolIndex;
+import com.google.idea.blaze.base.lang.buildfile.search.BuildSymbolIndex.Kind;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.sync.workspace.WorkspaceHelper;
 import com.intellij.extapi.psi.PsiFileBase;
@@ -131,6 +133,17 @@ public class BuildFile extends PsiFileBase implements BuildElement, DocStringOwn
   /** Finds a top-level rule with a "name" keyword argument with the given value. */
   @Nullable
   public FuncallExpression findRule(String name) {
+    return BuildSymbolIndex.find(
+        this,
+        Kind.RULE,
+        name,
+        FuncallExpression.class,
+        expr -> expr.getParent() == this && name.equals(expr.getNameArgumentValue()),
+        () -> searchRule(name));
+  }
+
+  @Nullable
+  private FuncallExpression searchRule(String name) {
     for (FuncallExpression expr : findChildrenByClass(FuncallExpression.class)) {
       String ruleName = expr.getNameArgumentValue();
       if (name.equals(ruleName)) {
@@ -142,6 +155,17 @@ public class BuildFile extends PsiFileBase implements BuildElement, DocStringOwn
 
   @Nullable
   public FunctionStatement findDeclaredFunction(String name) {
+    return BuildSymbolIndex.find(
+        this,
+        Kind.FUNCTION,
+        name,
+        FunctionStatement.class,
+        fn -> fn.getParent() == this && name.equals(fn.getName()),
+        () -> searchDeclaredFunction(name));
+  }
+
+  @Nullable
+  private FunctionStatement searchDeclaredFunction(String name) {
     for (FunctionStatement fn : getFunctionDeclarations()) {
       if (name.equals(fn.getName())) {
         return fn;
@@ -152,11 +176,30 @@ public class BuildFile extends PsiFileBase implements BuildElement, DocStringOwn
 
   @Nullable
   public FunctionStatement findLoadedFunction(String name) {
+    LoadedSymbol loadedSymbol =
+        BuildSymbolIndex.find(
+            this,
+            Kind.LOADED_SYMBOL,
+            name,
+            LoadedSymbol.class,
+            symbol ->
+                symbol.getParent() instanceof LoadStatement
+                    && symbol.getParent().getParent() == this
+                    && name.equals(symbol.getSymbolString()),
+            () -> searchLoadedSymbol(name));
+    if (loadedSymbol == null) {
+      return null;
+    }
+    PsiElement element = loadedSymbol.getLoadedElement();
+    return element instanceof FunctionStatement ? (FunctionStatement) element : null;
+  }
+
+  @Nullable
+  private LoadedSymbol searchLoadedSymbol(String name) {
     for (LoadStatement loadStatement : findChildrenByClass(LoadStatement.class)) {
       for (LoadedSymbol loadedSymbol : loadStatement.getImportedSymbolElements()) {
         if (name.equals(loadedSymbol.getSymbolString())) {
-          PsiElement element = loadedSymbol.getLoadedElement();
-          return element instanceof FunctionStatement ? (FunctionStatement) element : null;
+          return loadedSymbol;
         }
       }
     }
@@ -164,6 +207,10 @@ public class BuildFile extends PsiFileBase implements BuildElement, DocStringOwn
   }
 
   public BuildElement findSymbolInScope(String name) {
+    if (!BuildSymbolIndex.mayDeclare(
+        this, name, Kind.ASSIGNMENT, Kind.FUNCTION, Kind.LOADED_SYMBOL)) {
+      return null;
+    }
     BuildElement[] resultHolder = new BuildElement[1];
     Processor<BuildElement> processor =
         buildElement -> {
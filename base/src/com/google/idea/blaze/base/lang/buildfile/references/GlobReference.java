@@ -18,6 +18,7 @@ package com.google.idea.blaze.base.lang.buildfile.references;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.idea.blaze.base.bazel.BuildSystemProvider;
+import com.google.idea.blaze.base.io.WorkspaceDirectorySnapshot;
 import com.google.idea.blaze.base.lang.buildfile.globbing.UnixGlob;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
 import com.google.idea.blaze.base.lang.buildfile.psi.Expression;
@@ -119,6 +120,7 @@ public class GlobReference extends PsiPolyVariantCachingReference {
               .addExcludes(excludes)
               .setExcludeDirectories(directoriesExcluded)
               .setDirectoryFilter(directoryFilter(project, containingDirectory.getPath()))
+              .setDirectorySnapshot(WorkspaceDirectorySnapshot.getInstance(project))
               .glob();
 
       List<ResolveResult> results = Lists.newArrayListWithCapacity(files.size());
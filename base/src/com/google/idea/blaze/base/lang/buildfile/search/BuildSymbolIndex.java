@@ -0,0 +1,251 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.search;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.lang.buildfile.language.BuildFileType;
+import com.google.idea.blaze.base.lang.buildfile.psi.AssignmentStatement;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildElement;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
+import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.google.idea.blaze.base.lang.buildfile.psi.FunctionStatement;
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadStatement;
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadedSymbol;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.IndexNotReadyException;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.DefaultFileTypeSpecificInputFilter;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorIntegerDescriptor;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * Indexes the top-level symbols of BUILD and Skylark files: rule names, function definitions,
+ * assignments and loaded symbols, each mapped to the offset of the declaring element.
+ *
+ * <p>Lets {@link BuildFile} find a single rule or symbol without walking every top-level statement,
+ * and answer 'not declared here' without parsing the file at all.
+ */
+public class BuildSymbolIndex extends FileBasedIndexExtension<String, Integer> {
+
+  private static final ID<String, Integer> NAME = ID.create("BuildSymbolIndex");
+  private static final int VERSION = 2;
+
+  private static final BoolExperiment enabled =
+      new BoolExperiment("blaze.build.file.symbol.index", false);
+
+  /** The kinds of top-level symbol in the index. */
+  public enum Kind {
+    RULE('r'),
+    FUNCTION('f'),
+    ASSIGNMENT('a'),
+    LOADED_SYMBOL('l');
+
+    private final char prefix;
+
+    Kind(char prefix) {
+      this.prefix = prefix;
+    }
+
+    String key(String name) {
+      return prefix + ":" + name;
+    }
+  }
+
+  /**
+   * Present for every indexed file, to tell 'not declared' apart from 'not indexed'. Maps to the
+   * number of distinct rule names the file declares.
+   */
+  private static final String INDEXED_FILE_KEY = "#";
+
+  @Override
+  public ID<String, Integer> getName() {
+    return NAME;
+  }
+
+  @Override
+  public DataIndexer<String, Integer, FileContent> getIndexer() {
+    return BuildSymbolIndex::indexFile;
+  }
+
+  @Override
+  public KeyDescriptor<String> getKeyDescriptor() {
+    return EnumeratorStringDescriptor.INSTANCE;
+  }
+
+  @Override
+  public DataExternalizer<Integer> getValueExternalizer() {
+    return EnumeratorIntegerDescriptor.INSTANCE;
+  }
+
+  @Override
+  public int getVersion() {
+    return VERSION;
+  }
+
+  @Override
+  public FileBasedIndex.InputFilter getInputFilter() {
+    return new DefaultFileTypeSpecificInputFilter(BuildFileType.INSTANCE);
+  }
+
+  @Override
+  public boolean dependsOnFileContent() {
+    return true;
+  }
+
+  private static Map<String, Integer> indexFile(FileContent content) {
+    PsiFile psiFile = content.getPsiFile();
+    if (!(psiFile instanceof BuildFile)) {
+      return ImmutableMap.of();
+    }
+    Map<String, Integer> symbols = new HashMap<>();
+    for (BuildElement child : ((BuildFile) psiFile).findChildrenByClass(BuildElement.class)) {
+      int offset = child.getTextOffset();
+      if (child instanceof FuncallExpression) {
+        addSymbol(symbols, Kind.RULE, ((FuncallExpression) child).getNameArgumentValue(), offset);
+      } else if (child instanceof FunctionStatement) {
+        addSymbol(symbols, Kind.FUNCTION, child.getName(), offset);
+      } else if (child instanceof AssignmentStatement) {
+        addSymbol(symbols, Kind.ASSIGNMENT, child.getName(), offset);
+      } else if (child instanceof LoadStatement) {
+        for (LoadedSymbol symbol : ((LoadStatement) child).getImportedSymbolElements()) {
+          addSymbol(symbols, Kind.LOADED_SYMBOL, symbol.getSymbolString(), symbol.getTextOffset());
+        }
+      }
+    }
+    String rulePrefix = Kind.RULE.key("");
+    symbols.put(
+        INDEXED_FILE_KEY,
+        (int) symbols.keySet().stream().filter(key -> key.startsWith(rulePrefix)).count());
+    return symbols;
+  }
+
+  private static void addSymbol(
+      Map<String, Integer> symbols, Kind kind, @Nullable String name, int offset) {
+    if (name != null) {
+      // the first declaration wins, matching a top-down search of the file
+      symbols.putIfAbsent(kind.key(name), offset);
+    }
+  }
+
+  /**
+   * Looks up a top-level symbol of {@code file} in the index.
+   *
+   * <p>Falls back to {@code search} if the index can't be used (it's disabled, the file isn't
+   * indexed, or indices are being updated), or if the indexed offset no longer points at a
+   * matching element.
+   */
+  @Nullable
+  public static <T extends PsiElement> T find(
+      BuildFile file,
+      Kind kind,
+      String name,
+      Class<T> elementClass,
+      Predicate<T> matches,
+      Supplier<T> search) {
+    List<Integer> offsets = getValues(file, kind.key(name));
+    if (offsets == null) {
+      return search.get();
+    }
+    if (offsets.isEmpty()) {
+      return null;
+    }
+    for (int offset : offsets) {
+      T element = PsiTreeUtil.getParentOfType(file.findElementAt(offset), elementClass, false);
+      if (element != null && matches.test(element)) {
+        return element;
+      }
+    }
+    // the index is out of date with respect to the PSI
+    return search.get();
+  }
+
+  /**
+   * Returns false if the index shows {@code file} declares no top-level symbol of any of the given
+   * kinds named {@code name}. Returns true if it might.
+   */
+  public static boolean mayDeclare(BuildFile file, String name, Kind... kinds) {
+    for (Kind kind : kinds) {
+      List<Integer> offsets = getValues(file, kind.key(name));
+      if (offsets == null || !offsets.isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if the index shows every top-level rule declared in {@code file} is named in
+   * {@code ruleNames}. Returns false if some rule isn't, or if the index can't tell.
+   */
+  public static boolean declaresOnlyRules(BuildFile file, Collection<String> ruleNames) {
+    List<Integer> ruleCount = getValues(file, INDEXED_FILE_KEY);
+    if (ruleCount == null || ruleCount.isEmpty()) {
+      return false;
+    }
+    int undeclared = ruleCount.get(0);
+    for (String name : ruleNames) {
+      if (undeclared == 0) {
+        break;
+      }
+      List<Integer> offsets = getValues(file, Kind.RULE.key(name));
+      if (offsets == null) {
+        return false;
+      }
+      if (!offsets.isEmpty()) {
+        undeclared--;
+      }
+    }
+    return undeclared == 0;
+  }
+
+  /** Returns null if the index can't answer queries about this file. */
+  @Nullable
+  private static List<Integer> getValues(BuildFile file, String key) {
+    if (!enabled.getValue() || !file.isPhysical() || DumbService.isDumb(file.getProject())) {
+      return null;
+    }
+    VirtualFile vf = file.getViewProvider().getVirtualFile();
+    GlobalSearchScope scope = GlobalSearchScope.fileScope(file.getProject(), vf);
+    try {
+      FileBasedIndex index = FileBasedIndex.getInstance();
+      if (index.getValues(NAME, INDEXED_FILE_KEY, scope).isEmpty()) {
+        return null;
+      }
+      return index.getValues(NAME, key, scope);
+    } catch (IndexNotReadyException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.search;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile.BlazeFileType;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.projectview.ProjectViewSet;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
+import com.google.idea.blaze.base.sync.SyncListener;
+import com.google.idea.blaze.base.sync.SyncMode;
+import com.google.idea.blaze.base.sync.SyncResult;
+import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+
+/**
+ * The names and kinds of the targets in each blaze package known to the last sync, used to offer
+ * rule completions for a package without parsing its BUILD file.
+ *
+ * <p>The TargetMap covers every package the project depends on, including those outside the
+ * project view, but only holds the targets the sync actually loaded. A package's entry is only used
+ * while its BUILD file is unchanged since the sync started, and while {@link BuildSymbolIndex}
+ * shows that it includes every rule the BUILD file declares; otherwise callers fall back to reading
+ * the BUILD file.
+ */
+public final class PackageTargetIndex {
+
+  private static final BoolExperiment enabled =
+      new BoolExperiment("blaze.label.completion.target.index", false);
+
+  private static final Logger logger = Logger.getInstance(PackageTargetIndex.class);
+
+  private static final String INDEX_FILE_NAME = "package_targets.dat";
+
+  public static PackageTargetIndex getInstance(Project project) {
+    return ServiceManager.getService(project, PackageTargetIndex.class);
+  }
+
+  private final Project project;
+  private final Object lock = new Object();
+  private volatile boolean loaded;
+  @Nullable private volatile Snapshot snapshot;
+  private volatile long syncStartTime;
+
+  public PackageTargetIndex(Project project) {
+    this.project = project;
+  }
+
+  /**
+   * Returns the targets declared by the package of the given BUILD file, mapped to their rule
+   * kinds. Returns null if the index is disabled, doesn't know the package, the BUILD file has
+   * changed since the index was built, or the sync didn't load every rule the BUILD file declares.
+   */
+  @Nullable
+  public ImmutableMap<String, String> getTargets(BuildFile buildFile) {
+    if (!enabled.getValue() || buildFile.getBlazeFileType() != BlazeFileType.BuildPackage) {
+      return null;
+    }
+    Snapshot snapshot = getSnapshot();
+    if (snapshot == null) {
+      return null;
+    }
+    PsiFile originalFile = buildFile.getOriginalFile();
+    BuildFile file = originalFile instanceof BuildFile ? (BuildFile) originalFile : buildFile;
+    VirtualFile vf = file.getViewProvider().getVirtualFile();
+    if (vf.getTimeStamp() > snapshot.builtAt
+        || FileDocumentManager.getInstance().isFileModified(vf)) {
+      return null;
+    }
+    Label packageLabel = file.getPackageLabel();
+    if (packageLabel == null || packageLabel.isExternal()) {
+      return null;
+    }
+    ImmutableMap<String, String> targets =
+        snapshot.packages.get(packageLabel.blazePackage().relativePath());
+    if (targets == null || !BuildSymbolIndex.declaresOnlyRules(file, targets.keySet())) {
+      // the sync may only have loaded some of the package's targets
+      return null;
+    }
+    return targets;
+  }
+
+  @Nullable
+  private Snapshot getSnapshot() {
+    if (!loaded) {
+      synchronized (lock) {
+        if (!loaded) {
+          File file = getIndexFile();
+          snapshot = file != null && file.exists() ? readIndex(file) : null;
+          loaded = true;
+        }
+      }
+    }
+    return snapshot;
+  }
+
+  private void update(BlazeProjectData projectData) {
+    long builtAt = syncStartTime != 0 ? syncStartTime : System.currentTimeMillis();
+    Snapshot updated = Snapshot.build(projectData.getTargetMap(), builtAt);
+    synchronized (lock) {
+      snapshot = updated;
+      loaded = true;
+    }
+    File file = getIndexFile();
+    if (file == null) {
+      return;
+    }
+    try {
+      updated.write(file);
+    } catch (IOException e) {
+      logger.warn("Failed to write the package target index", e);
+    }
+  }
+
+  @Nullable
+  private File getIndexFile() {
+    BlazeImportSettings importSettings =
+        BlazeImportSettingsManager.getInstance(project).getImportSettings();
+    return importSettings != null
+        ? new File(BlazeDataStorage.getProjectDataDir(importSettings), INDEX_FILE_NAME)
+        : null;
+  }
+
+  @Nullable
+  private static Snapshot readIndex(File file) {
+    try {
+      return Snapshot.read(file);
+    } catch (IOException e) {
+      logger.warn("Failed to read the package target index", e);
+      return null;
+    }
+  }
+
+  /** An immutable map from package path to its targets' names and kinds. */
+  @VisibleForTesting
+  static final class Snapshot {
+    private static final int MAGIC = 0x504b4754; // "PKGT"
+    private static final int VERSION = 1;
+
+    /** Index entries are only trusted for BUILD files last modified before this time. */
+    final long builtAt;
+
+    final ImmutableMap<String, ImmutableMap<String, String>> packages;
+
+    private Snapshot(long builtAt, ImmutableMap<String, ImmutableMap<String, String>> packages) {
+      this.builtAt = builtAt;
+      this.packages = packages;
+    }
+
+    static Snapshot build(TargetMap targetMap, long builtAt) {
+      Map<String, Map<String, String>> packages = new HashMap<>();
+      for (TargetIdeInfo target : targetMap.targets()) {
+        if (!target.getKey().isPlainTarget()) {
+          continue;
+        }
+        Label label = target.getKey().getLabel();
+        if (label.isExternal()) {
+          continue;
+        }
+        packages
+            .computeIfAbsent(label.blazePackage().relativePath(), p -> new TreeMap<>())
+            .put(label.targetName().toString(), target.getKind().getKindString());
+      }
+      ImmutableMap.Builder<String, ImmutableMap<String, String>> builder = ImmutableMap.builder();
+      packages.forEach((pkg, targets) -> builder.put(pkg, ImmutableMap.copyOf(targets)));
+      return new Snapshot(builtAt, builder.build());
+    }
+
+    void write(File file) throws IOException {
+      File temp = new File(file.getPath() + ".tmp");
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(builtAt);
+        out.writeInt(packages.size());
+        for (Map.Entry<String, ImmutableMap<String, String>> pkg : packages.entrySet()) {
+          out.writeUTF(pkg.getKey());
+          out.writeInt(pkg.getValue().size());
+          for (Map.Entry<String, String> target : pkg.getValue().entrySet()) {
+            out.writeUTF(target.getKey());
+            out.writeUTF(target.getValue());
+          }
+        }
+      }
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Nullable
+    static Snapshot read(File file) throws IOException {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+          return null;
+        }
+        long builtAt = in.readLong();
+        int packageCount = in.readInt();
+        // rule kinds repeat a lot, so share their strings
+        Map<String, String> kinds = new HashMap<>();
+        ImmutableMap.Builder<String, ImmutableMap<String, String>> packages =
+            ImmutableMap.builder();
+        for (int i = 0; i < packageCount; i++) {
+          String pkg = in.readUTF();
+          int targetCount = in.readInt();
+          ImmutableMap.Builder<String, String> targets = ImmutableMap.builder();
+          for (int j = 0; j < targetCount; j++) {
+            String name = in.readUTF();
+            String kind = in.readUTF();
+            targets.put(name, kinds.computeIfAbsent(kind, k -> k));
+          }
+          packages.put(pkg, targets.build());
+        }
+        return new Snapshot(builtAt, packages.build());
+      }
+    }
+  }
+
+  /** Rebuilds the index from the TargetMap after each successful sync. */
+  static class Updater implements SyncListener {
+    @Override
+    public void onSyncStart(Project project, BlazeContext context, SyncMode syncMode) {
+      if (enabled.getValue()) {
+        // documents have just been saved, so BUILD files edited after this may not be reflected
+        getInstance(project).syncStartTime = System.currentTimeMillis();
+      }
+    }
+
+    @Override
+    public void onSyncComplete(
+        Project project,
+        BlazeContext context,
+        BlazeImportSettings importSettings,
+        ProjectViewSet projectViewSet,
+        ImmutableSet<Integer> buildIds,
+        BlazeProjectData blazeProjectData,
+        SyncMode syncMode,
+        SyncResult syncResult) {
+      if (enabled.getValue()) {
+        getInstance(project).update(blazeProjectData);
+      }
+    }
+  }
+}
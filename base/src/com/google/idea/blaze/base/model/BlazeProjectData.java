@@ -68,10 +68,21 @@ public final class BlazeProjectData implements ProtoWrapper<ProjectData.BlazePro
   @VisibleForTesting
   public static BlazeProjectData fromProto(
       BuildSystem buildSystem, ProjectData.BlazeProjectData proto) {
+    return fromProto(buildSystem, proto, parseTargetData(proto));
+  }
+
+  /** Parses the given proto, using a target map stored separately. */
+  static BlazeProjectData fromProto(
+      BuildSystem buildSystem, ProjectData.BlazeProjectData proto, TargetMap targetMap) {
+    return fromProto(
+        buildSystem, proto, ProjectTargetData.fromProto(proto.getTargetData(), targetMap));
+  }
+
+  private static BlazeProjectData fromProto(
+      BuildSystem buildSystem, ProjectData.BlazeProjectData proto, ProjectTargetData targetData) {
     BlazeInfo blazeInfo = BlazeInfo.fromProto(buildSystem, proto.getBlazeInfo());
     WorkspacePathResolver workspacePathResolver =
         WorkspacePathResolver.fromProto(proto.getWorkspacePathResolver());
-    ProjectTargetData targetData = parseTargetData(proto);
     return new BlazeProjectData(
         targetData,
         blazeInfo,
@@ -99,8 +110,13 @@ public final class BlazeProjectData implements ProtoWrapper<ProjectData.BlazePro
 
   @Override
   public ProjectData.BlazeProjectData toProto() {
+    return toProto(/* includeTargets= */ true);
+  }
+
+  /** Returns the proto form, optionally leaving out the target map to be stored separately. */
+  ProjectData.BlazeProjectData toProto(boolean includeTargets) {
     return ProjectData.BlazeProjectData.newBuilder()
-        .setTargetData(targetData.toProto())
+        .setTargetData(targetData.toProto(includeTargets))
         .setBlazeInfo(blazeInfo.toProto())
         .setBlazeVersionData(blazeVersionData.toProto())
         .setWorkspacePathResolver(workspacePathResolver.toProto())
@@ -159,6 +175,23 @@ public final class BlazeProjectData implements ProtoWrapper<ProjectData.BlazePro
     }
   }
 
+  /**
+   * Loads project data saved via {@link #saveToIndexedFile}. The file is memory-mapped, and
+   * individual targets are only decoded when first accessed.
+   */
+  public static BlazeProjectData loadFromIndexedFile(BuildSystem buildSystem, File file)
+      throws IOException {
+    return IndexedProjectDataFile.read(buildSystem, file);
+  }
+
+  /**
+   * Saves this project data in an uncompressed format with an index of per-target records. The
+   * file must not be overwritten in place while a previous version is loaded.
+   */
+  public void saveToIndexedFile(File file) throws IOException {
+    IndexedProjectDataFile.write(this, file);
+  }
+
   @Override
   public boolean equals(Object o) {
     if (o == this) {
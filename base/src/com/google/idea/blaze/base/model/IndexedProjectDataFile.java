@@ -0,0 +1,183 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.model;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.settings.BuildSystem;
+import com.google.protobuf.repackaged.CodedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import javax.annotation.Nullable;
+
+/**
+ * An uncompressed on-disk format for {@link BlazeProjectData}, with a separate record per target.
+ *
+ * <p>The file is memory-mapped when read, and individual targets are only decoded when first
+ * requested from the {@link TargetMap}, so loading the project data doesn't require decoding every
+ * target.
+ *
+ * <p>File layout (all integers big-endian):
+ *
+ * <pre>
+ *   int magic, int version
+ *   int length, BlazeProjectData proto without targets
+ *   target records: IntellijIdeInfo.TargetIdeInfo protos, back to back
+ *   int count, then per target: int key length, IntellijIdeInfo.TargetKey proto, int offset,
+ *       int length
+ *   int index offset
+ * </pre>
+ */
+final class IndexedProjectDataFile {
+
+  private static final int MAGIC = 0x424c5a44;
+  private static final int VERSION = 1;
+
+  private IndexedProjectDataFile() {}
+
+  static void write(BlazeProjectData projectData, File file) throws IOException {
+    ProjectData.BlazeProjectData proto = projectData.toProto(/* includeTargets= */ false);
+    TargetMap targetMap = projectData.getTargetMap();
+    int[] offsets = new int[targetMap.map().size()];
+    int[] lengths = new int[offsets.length];
+
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      byte[] metadata = proto.toByteArray();
+      out.writeInt(metadata.length);
+      out.write(metadata);
+
+      int i = 0;
+      for (TargetIdeInfo target : targetMap.targets()) {
+        byte[] bytes = target.toProto().toByteArray();
+        offsets[i] = checkedOffset(out);
+        lengths[i] = bytes.length;
+        out.write(bytes);
+        i++;
+      }
+
+      int indexOffset = checkedOffset(out);
+      out.writeInt(offsets.length);
+      i = 0;
+      for (TargetKey key : targetMap.map().keySet()) {
+        byte[] keyBytes = key.toProto().toByteArray();
+        out.writeInt(keyBytes.length);
+        out.write(keyBytes);
+        out.writeInt(offsets[i]);
+        out.writeInt(lengths[i]);
+        i++;
+      }
+      out.writeInt(indexOffset);
+    }
+  }
+
+  /** Returns the current file position, failing if the file is too large to memory-map. */
+  private static int checkedOffset(DataOutputStream out) throws IOException {
+    int size = out.size();
+    if (size == Integer.MAX_VALUE) {
+      throw new IOException("Project data is too large for the indexed format");
+    }
+    return size;
+  }
+
+  static BlazeProjectData read(BuildSystem buildSystem, File file) throws IOException {
+    MappedByteBuffer buffer;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel()) {
+      // the mapping remains valid after the channel is closed
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (buffer.limit() < 16 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      throw new IOException("Unrecognized project data format: " + file);
+    }
+    int metadataLength = buffer.getInt(8);
+    ProjectData.BlazeProjectData proto =
+        ProjectData.BlazeProjectData.parseFrom(slice(buffer, 12, metadataLength));
+
+    int position = buffer.getInt(buffer.limit() - 4);
+    int count = buffer.getInt(position);
+    position += 4;
+    ImmutableMap.Builder<TargetKey, Long> index = ImmutableMap.builder();
+    for (int i = 0; i < count; i++) {
+      int keyLength = buffer.getInt(position);
+      TargetKey key =
+          TargetKey.fromProto(
+              IntellijIdeInfo.TargetKey.parseFrom(slice(buffer, position + 4, keyLength)));
+      position += 4 + keyLength;
+      long offset = buffer.getInt(position);
+      long length = buffer.getInt(position + 4);
+      position += 8;
+      index.put(key, (offset << 32) | length);
+    }
+    TargetMap targetMap = TargetMap.lazy(new MappedTargetLoader(buffer, index.build()));
+    return BlazeProjectData.fromProto(buildSystem, proto, targetMap);
+  }
+
+  private static CodedInputStream slice(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer slice = buffer.duplicate();
+    slice.position(offset);
+    slice.limit(offset + length);
+    return CodedInputStream.newInstance(slice);
+  }
+
+  /** Decodes targets from the memory-mapped file. */
+  private static class MappedTargetLoader implements TargetMap.TargetLoader {
+    private final MappedByteBuffer buffer;
+    /** Target key to (record offset << 32 | record length). */
+    private final ImmutableMap<TargetKey, Long> index;
+
+    MappedTargetLoader(MappedByteBuffer buffer, ImmutableMap<TargetKey, Long> index) {
+      this.buffer = buffer;
+      this.index = index;
+    }
+
+    @Override
+    public ImmutableSet<TargetKey> keys() {
+      return index.keySet();
+    }
+
+    @Nullable
+    @Override
+    public TargetIdeInfo load(TargetKey key) {
+      Long location = index.get(key);
+      if (location == null) {
+        return null;
+      }
+      int offset = (int) (location >>> 32);
+      int length = (int) (location & 0xffffffffL);
+      try {
+        return TargetIdeInfo.fromProto(
+            IntellijIdeInfo.TargetIdeInfo.parseFrom(slice(buffer, offset, length)));
+      } catch (IOException e) {
+        throw new IllegalStateException("Corrupt project data for target " + key, e);
+      }
+    }
+  }
+}
@@ -45,7 +45,11 @@ public final class ProjectTargetData implements ProtoWrapper<ProjectData.TargetD
   }
 
   public static ProjectTargetData fromProto(ProjectData.TargetData proto) {
-    TargetMap targetMap = TargetMap.fromProto(proto.getTargetMap());
+    return fromProto(proto, TargetMap.fromProto(proto.getTargetMap()));
+  }
+
+  /** Parses the given proto, using a target map stored separately. */
+  static ProjectTargetData fromProto(ProjectData.TargetData proto, TargetMap targetMap) {
     BlazeIdeInterfaceState ideInterfaceState =
         proto.hasIdeInterfaceState()
             ? BlazeIdeInterfaceState.fromProto(proto.getIdeInterfaceState())
@@ -56,10 +60,16 @@ public final class ProjectTargetData implements ProtoWrapper<ProjectData.TargetD
 
   @Override
   public TargetData toProto() {
+    return toProto(/* includeTargetMap= */ true);
+  }
+
+  /** Returns the proto form, optionally leaving out the target map to be stored separately. */
+  TargetData toProto(boolean includeTargetMap) {
     ProjectData.TargetData.Builder builder =
-        ProjectData.TargetData.newBuilder()
-            .setTargetMap(targetMap.toProto())
-            .setRemoteOutputs(remoteOutputs.toProto());
+        ProjectData.TargetData.newBuilder().setRemoteOutputs(remoteOutputs.toProto());
+    if (includeTargetMap) {
+      builder.setTargetMap(targetMap.toProto());
+    }
     ProtoWrapper.unwrapAndSetIfNotNull(builder::setIdeInterfaceState, ideInterfaceState);
     return builder.build();
   }
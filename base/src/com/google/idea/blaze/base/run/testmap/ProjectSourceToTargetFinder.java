@@ -22,18 +22,22 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.Futures;
 import com.google.idea.blaze.base.dependencies.TargetInfo;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.primitives.RuleType;
 import com.google.idea.blaze.base.run.SourceToTargetFinder;
 import com.google.idea.blaze.base.sync.SyncCache;
+import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.intellij.openapi.project.Project;
 import java.io.File;
 import java.util.Collection;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Future;
+import javax.annotation.Nullable;
 
 /**
  * Used to locate tests from source files for things like right-clicks.
@@ -45,6 +49,12 @@ public class ProjectSourceToTargetFinder implements SourceToTargetFinder {
   @Override
   public Future<Collection<TargetInfo>> targetsForSourceFiles(
       Project project, Set<File> sourceFiles, Optional<RuleType> ruleType) {
+    if (ruleType.equals(Optional.of(RuleType.TEST)) && TestTargetIndex.enabled.getValue()) {
+      ImmutableSet<TargetInfo> tests = testsFromIndex(project, sourceFiles);
+      if (tests != null) {
+        return Futures.immediateFuture(tests);
+      }
+    }
     FilteredTargetMap targetMap =
         SyncCache.getInstance(project)
             .get(ProjectSourceToTargetFinder.class, ProjectSourceToTargetFinder::computeTargetMap);
@@ -59,6 +69,27 @@ public class ProjectSourceToTargetFinder implements SourceToTargetFinder {
     return Futures.immediateFuture(targets);
   }
 
+  /** Returns the tests for the given files from the {@link TestTargetIndex}, if it's available. */
+  @Nullable
+  private static ImmutableSet<TargetInfo> testsFromIndex(Project project, Set<File> sourceFiles) {
+    BlazeProjectData projectData =
+        BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    if (projectData == null) {
+      return null;
+    }
+    TargetMap targetMap = projectData.getTargetMap();
+    ImmutableSet<TargetKey> tests =
+        TestTargetIndex.getInstance(project).testsForSourceFiles(targetMap, sourceFiles);
+    if (tests == null) {
+      return null;
+    }
+    return tests.stream()
+        .map(targetMap::get)
+        .filter(Objects::nonNull)
+        .map(TargetIdeInfo::toTargetInfo)
+        .collect(toImmutableSet());
+  }
+
   private static FilteredTargetMap computeTargetMap(Project project, BlazeProjectData projectData) {
     return computeTargetMap(
         project, projectData.getArtifactLocationDecoder(), projectData.getTargetMap());
@@ -0,0 +1,483 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.run.testmap;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import com.google.idea.blaze.base.dependencies.TargetInfo;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.Dependency;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.primitives.RuleType;
+import com.google.idea.blaze.base.projectview.ProjectViewSet;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.scope.Scope;
+import com.google.idea.blaze.base.scope.scopes.TimingScope;
+import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
+import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.sync.SyncListener;
+import com.google.idea.blaze.base.sync.SyncMode;
+import com.google.idea.blaze.base.sync.SyncResult;
+import com.google.idea.blaze.base.sync.aspects.BlazeIdeInterfaceState;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
+
+/**
+ * Maps source files to the test targets depending on them, either directly or through reverse
+ * dependencies.
+ *
+ * <p>Computed in parallel when sync completes, so that finding the tests for a source file is a
+ * single map lookup. Only the interned map is kept: the tests for each set of targets owning a
+ * source file are found by walking reverse dependencies. After a partial or incremental sync,
+ * entries are reused for source files which can't reach any updated target's reverse dependencies.
+ */
+final class TestTargetIndex {
+  private static final Logger logger = Logger.getInstance(TestTargetIndex.class);
+
+  static final BoolExperiment enabled = new BoolExperiment("blaze.test.target.index", false);
+
+  private static final int BATCH_SIZE = 256;
+
+  static TestTargetIndex getInstance(Project project) {
+    return ServiceManager.getService(project, TestTargetIndex.class);
+  }
+
+  @Nullable private volatile Snapshot snapshot;
+
+  /**
+   * Returns the test targets reachable from the given source files, or null if the index wasn't
+   * computed for the given target map.
+   */
+  @Nullable
+  ImmutableSet<TargetKey> testsForSourceFiles(TargetMap targetMap, Collection<File> sourceFiles) {
+    Snapshot snapshot = this.snapshot;
+    if (snapshot == null || snapshot.targetMap != targetMap) {
+      return null;
+    }
+    if (sourceFiles.size() == 1) {
+      return snapshot.sourceToTests.getOrDefault(
+          sourceFiles.iterator().next(), ImmutableSet.of());
+    }
+    ImmutableSet.Builder<TargetKey> tests = ImmutableSet.builder();
+    for (File file : sourceFiles) {
+      tests.addAll(snapshot.sourceToTests.getOrDefault(file, ImmutableSet.of()));
+    }
+    return tests.build();
+  }
+
+  /** The index computed for a single target map. */
+  @VisibleForTesting
+  static final class Snapshot {
+    private final TargetMap targetMap;
+    @Nullable private final BlazeIdeInterfaceState ideInterfaceState;
+    private final ImmutableMap<File, ImmutableSet<TargetKey>> sourceToTests;
+
+    private Snapshot(
+        TargetMap targetMap,
+        @Nullable BlazeIdeInterfaceState ideInterfaceState,
+        ImmutableMap<File, ImmutableSet<TargetKey>> sourceToTests) {
+      this.targetMap = targetMap;
+      this.ideInterfaceState = ideInterfaceState;
+      this.sourceToTests = sourceToTests;
+    }
+
+    @VisibleForTesting
+    ImmutableMap<File, ImmutableSet<TargetKey>> getSourceToTests() {
+      return sourceToTests;
+    }
+
+    /**
+     * Computes the index for the given target map. Entries are reused from {@code previous} for
+     * source files which no target updated since then can reach.
+     */
+    static Snapshot compute(
+        @Nullable Snapshot previous,
+        TargetMap targetMap,
+        @Nullable BlazeIdeInterfaceState ideInterfaceState,
+        ArtifactLocationDecoder decoder)
+        throws InterruptedException, ExecutionException {
+      Set<TargetKey> updatedTargets =
+          previous != null && previous.ideInterfaceState != null && ideInterfaceState != null
+              ? ideInterfaceState.getUpdatedTargets(previous.ideInterfaceState)
+              : null;
+      return compute(previous, targetMap, ideInterfaceState, updatedTargets, decoder);
+    }
+
+    /**
+     * Computes the index, reusing entries from {@code previous} for source files whose targets
+     * don't depend, in either target map, on a target in {@code updatedTargets} or a target which
+     * was added or removed. If {@code updatedTargets} is null, all entries are recomputed.
+     */
+    @VisibleForTesting
+    static Snapshot compute(
+        @Nullable Snapshot previous,
+        TargetMap targetMap,
+        @Nullable BlazeIdeInterfaceState ideInterfaceState,
+        @Nullable Set<TargetKey> updatedTargets,
+        ArtifactLocationDecoder decoder)
+        throws InterruptedException, ExecutionException {
+      DependencyGraph graph = DependencyGraph.create(targetMap);
+      Map<File, int[]> sourceOwners = getSourceOwners(graph, decoder);
+      Set<File> affectedFiles =
+          previous != null && updatedTargets != null
+              ? getAffectedFiles(previous, graph, updatedTargets, decoder)
+              : null;
+
+      // walk the reverse dependencies once for each distinct set of targets owning a source file
+      Map<List<Integer>, ImmutableSet<TargetKey>> ownerTests = new LinkedHashMap<>();
+      sourceOwners.forEach(
+          (file, owners) -> {
+            if (affectedFiles == null || affectedFiles.contains(file)) {
+              ownerTests.put(Ints.asList(owners), ImmutableSet.of());
+            }
+          });
+      List<List<Integer>> ownerSets = new ArrayList<>(ownerTests.keySet());
+      List<ListenableFuture<List<ImmutableSet<TargetKey>>>> futures = new ArrayList<>();
+      for (List<List<Integer>> batch : Lists.partition(ownerSets, BATCH_SIZE)) {
+        futures.add(
+            BlazeExecutor.getInstance()
+                .submit(
+                    () -> {
+                      // scratch space for the breadth-first walks, shared by the whole batch
+                      long[] visited = new long[(graph.keys.length + 63) >>> 6];
+                      int[] queue = new int[graph.keys.length];
+                      int[] levelTests = new int[graph.keys.length];
+                      List<ImmutableSet<TargetKey>> tests = new ArrayList<>(batch.size());
+                      for (List<Integer> owners : batch) {
+                        tests.add(findTests(owners, graph, visited, queue, levelTests));
+                      }
+                      return tests;
+                    }));
+      }
+      Interner<ImmutableSet<TargetKey>> interner = Interners.newStrongInterner();
+      int index = 0;
+      for (List<ImmutableSet<TargetKey>> batch : Futures.allAsList(futures).get()) {
+        for (ImmutableSet<TargetKey> tests : batch) {
+          ownerTests.put(ownerSets.get(index++), interner.intern(tests));
+        }
+      }
+
+      ImmutableMap.Builder<File, ImmutableSet<TargetKey>> sourceToTests = ImmutableMap.builder();
+      sourceOwners.forEach(
+          (file, owners) -> {
+            ImmutableSet<TargetKey> tests =
+                affectedFiles == null || affectedFiles.contains(file)
+                    ? ownerTests.get(Ints.asList(owners))
+                    : previous.sourceToTests.get(file);
+            if (tests != null && !tests.isEmpty()) {
+              sourceToTests.put(file, interner.intern(tests));
+            }
+          });
+      return new Snapshot(targetMap, ideInterfaceState, sourceToTests.build());
+    }
+
+    /** Returns the targets owning each source file, in target map order. */
+    private static Map<File, int[]> getSourceOwners(
+        DependencyGraph graph, ArtifactLocationDecoder decoder) {
+      Map<File, int[]> sourceOwners = new LinkedHashMap<>();
+      for (int target = 0; target < graph.keys.length; target++) {
+        for (ArtifactLocation source : graph.targets.get(target).getSources()) {
+          File file = decoder.resolveSource(source);
+          if (file == null) {
+            continue;
+          }
+          int[] owners = sourceOwners.get(file);
+          if (owners == null) {
+            sourceOwners.put(file, new int[] {target});
+          } else if (owners[owners.length - 1] != target) {
+            int[] merged = Arrays.copyOf(owners, owners.length + 1);
+            merged[owners.length] = target;
+            sourceOwners.put(file, merged);
+          }
+        }
+      }
+      return sourceOwners;
+    }
+
+    /**
+     * Returns the source files whose tests may have changed since {@code previous}, i.e. the
+     * sources of every target which, in the old or new target map, is a transitive dependency of
+     * a target which was updated, added or removed. Any other file's reverse dependencies are
+     * unchanged.
+     */
+    private static Set<File> getAffectedFiles(
+        Snapshot previous,
+        DependencyGraph graph,
+        Set<TargetKey> updatedTargets,
+        ArtifactLocationDecoder decoder) {
+      TargetMap oldTargetMap = previous.targetMap;
+      Set<TargetKey> changed = new HashSet<>(updatedTargets);
+      for (TargetKey key : graph.keys) {
+        if (!oldTargetMap.contains(key)) {
+          changed.add(key);
+        }
+      }
+      for (TargetKey key : oldTargetMap.keys()) {
+        if (!graph.ids.containsKey(key)) {
+          changed.add(key);
+        }
+      }
+
+      Set<File> files = new HashSet<>();
+      int[] queue = new int[graph.keys.length];
+      BitSet visited = new BitSet(graph.keys.length);
+      int tail = 0;
+      for (TargetKey key : changed) {
+        Integer id = graph.ids.get(key);
+        if (id != null && !visited.get(id)) {
+          visited.set(id);
+          queue[tail++] = id;
+        }
+      }
+      for (int head = 0; head < tail; head++) {
+        int node = queue[head];
+        addSources(graph.targets.get(node), decoder, files);
+        for (int i = graph.depOffsets[node]; i < graph.depOffsets[node + 1]; i++) {
+          int dep = graph.deps[i];
+          if (!visited.get(dep)) {
+            visited.set(dep);
+            queue[tail++] = dep;
+          }
+        }
+      }
+
+      // dependencies which were removed only show up in the old target map
+      Set<TargetKey> oldVisited = new HashSet<>();
+      ArrayDeque<TargetKey> oldQueue = new ArrayDeque<>();
+      for (TargetKey key : changed) {
+        if (oldTargetMap.contains(key) && oldVisited.add(key)) {
+          oldQueue.add(key);
+        }
+      }
+      while (!oldQueue.isEmpty()) {
+        TargetIdeInfo target = oldTargetMap.get(oldQueue.remove());
+        addSources(target, decoder, files);
+        for (Dependency dep : target.getDependencies()) {
+          TargetKey key = dep.getTargetKey();
+          if (oldTargetMap.contains(key) && oldVisited.add(key)) {
+            oldQueue.add(key);
+          }
+        }
+      }
+      return files;
+    }
+
+    private static void addSources(
+        TargetIdeInfo target, ArtifactLocationDecoder decoder, Set<File> files) {
+      for (ArtifactLocation source : target.getSources()) {
+        File file = decoder.resolveSource(source);
+        if (file != null) {
+          files.add(file);
+        }
+      }
+    }
+
+    /**
+     * Walks the reverse dependencies of the given targets breadth-first, returning the tests found
+     * ordered by distance, then by target map order. {@code visited}, {@code queue} and {@code
+     * levelTests} are scratch space sized for the graph; {@code visited} is left cleared.
+     */
+    private static ImmutableSet<TargetKey> findTests(
+        List<Integer> owners,
+        DependencyGraph graph,
+        long[] visited,
+        int[] queue,
+        int[] levelTests) {
+      ImmutableSet.Builder<TargetKey> tests = ImmutableSet.builder();
+      int head = 0;
+      int tail = 0;
+      for (int owner : owners) {
+        visited[owner >>> 6] |= 1L << owner;
+        queue[tail++] = owner;
+      }
+      while (head < tail) {
+        int levelEnd = tail;
+        int testCount = 0;
+        while (head < levelEnd) {
+          int node = queue[head++];
+          if (graph.tests.get(node)) {
+            levelTests[testCount++] = node;
+          }
+          for (int i = graph.rdepOffsets[node]; i < graph.rdepOffsets[node + 1]; i++) {
+            int rdep = graph.rdeps[i];
+            if ((visited[rdep >>> 6] & (1L << rdep)) == 0) {
+              visited[rdep >>> 6] |= 1L << rdep;
+              queue[tail++] = rdep;
+            }
+          }
+        }
+        Arrays.sort(levelTests, 0, testCount);
+        for (int i = 0; i < testCount; i++) {
+          tests.add(graph.keys[levelTests[i]]);
+        }
+      }
+      for (int i = 0; i < tail; i++) {
+        visited[queue[i] >>> 6] = 0;
+      }
+      return tests.build();
+    }
+
+    private static boolean isTest(TargetIdeInfo target) {
+      // reuse TargetInfo's handling of rule types for unrecognized kinds
+      return TargetInfo.builder(target.getKey().getLabel(), target.getKind().getKindString())
+              .build()
+              .getRuleType()
+          == RuleType.TEST;
+    }
+  }
+
+  /**
+   * The dependencies between the targets of a target map, stored as compressed sparse rows in both
+   * directions: the dependencies of target {@code i} are {@code deps[depOffsets[i]]} to {@code
+   * deps[depOffsets[i + 1] - 1]}, and likewise for its reverse dependencies in {@code rdeps}.
+   * Dependencies missing from the target map are left out.
+   */
+  private static final class DependencyGraph {
+    final List<TargetIdeInfo> targets;
+    final TargetKey[] keys;
+    final Map<TargetKey, Integer> ids;
+    final BitSet tests;
+    final int[] depOffsets;
+    final int[] deps;
+    final int[] rdepOffsets;
+    final int[] rdeps;
+
+    private DependencyGraph(
+        List<TargetIdeInfo> targets,
+        TargetKey[] keys,
+        Map<TargetKey, Integer> ids,
+        BitSet tests,
+        int[] depOffsets,
+        int[] deps) {
+      this.targets = targets;
+      this.keys = keys;
+      this.ids = ids;
+      this.tests = tests;
+      this.depOffsets = depOffsets;
+      this.deps = deps;
+      this.rdepOffsets = new int[keys.length + 1];
+      for (int dep : deps) {
+        rdepOffsets[dep + 1]++;
+      }
+      for (int i = 0; i < keys.length; i++) {
+        rdepOffsets[i + 1] += rdepOffsets[i];
+      }
+      this.rdeps = new int[deps.length];
+      int[] next = Arrays.copyOf(rdepOffsets, keys.length);
+      for (int i = 0; i < keys.length; i++) {
+        for (int j = depOffsets[i]; j < depOffsets[i + 1]; j++) {
+          rdeps[next[deps[j]]++] = i;
+        }
+      }
+    }
+
+    static DependencyGraph create(TargetMap targetMap) {
+      List<TargetIdeInfo> targets = targetMap.targets().asList();
+      TargetKey[] keys = new TargetKey[targets.size()];
+      Map<TargetKey, Integer> ids = new HashMap<>();
+      BitSet tests = new BitSet(keys.length);
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = targets.get(i).getKey();
+        ids.put(keys[i], i);
+        tests.set(i, Snapshot.isTest(targets.get(i)));
+      }
+      int[] depOffsets = new int[keys.length + 1];
+      int[] deps = new int[16];
+      int count = 0;
+      for (int i = 0; i < keys.length; i++) {
+        depOffsets[i] = count;
+        for (Dependency dep : targets.get(i).getDependencies()) {
+          Integer id = ids.get(dep.getTargetKey());
+          if (id != null) {
+            if (count == deps.length) {
+              deps = Arrays.copyOf(deps, count * 2);
+            }
+            deps[count++] = id;
+          }
+        }
+      }
+      depOffsets[keys.length] = count;
+      return new DependencyGraph(
+          targets, keys, ids, tests, depOffsets, Arrays.copyOf(deps, count));
+    }
+  }
+
+  static class Updater implements SyncListener {
+    @Override
+    public void onSyncComplete(
+        Project project,
+        BlazeContext context,
+        BlazeImportSettings importSettings,
+        ProjectViewSet projectViewSet,
+        ImmutableSet<Integer> buildIds,
+        BlazeProjectData blazeProjectData,
+        SyncMode syncMode,
+        SyncResult syncResult) {
+      TestTargetIndex index = getInstance(project);
+      if (!enabled.getValue()) {
+        index.snapshot = null;
+        return;
+      }
+      Scope.push(
+          context,
+          childContext -> {
+            childContext.push(new TimingScope("TestTargetIndex", EventType.Other));
+            try {
+              index.snapshot =
+                  Snapshot.compute(
+                      index.snapshot,
+                      blazeProjectData.getTargetMap(),
+                      blazeProjectData.getTargetData().ideInterfaceState,
+                      blazeProjectData.getArtifactLocationDecoder());
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              index.snapshot = null;
+            } catch (ExecutionException e) {
+              logger.warn("Failed to compute test target index", e);
+              index.snapshot = null;
+            }
+          });
+    }
+  }
+}
@@ -58,6 +58,7 @@ import com.google.idea.blaze.base.sync.projectstructure.ModuleEditorImpl;
 import com.google.idea.blaze.base.sync.projectstructure.ModuleEditorProvider;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoderImpl;
+import com.google.idea.blaze.base.targetmaps.TargetIndexState;
 import com.google.idea.blaze.base.util.SaveUtil;
 import com.google.idea.common.experiments.BoolExperiment;
 import com.google.idea.common.transactions.Transactions;
@@ -204,6 +205,20 @@ final class ProjectUpdateSyncTask {
                 syncMode);
           }
         });
+    if (TargetIndexState.enabled.getValue()) {
+      Scope.push(
+          context,
+          childContext -> {
+            childContext.push(new TimingScope("UpdateTargetIndexes", EventType.Other));
+            syncStateBuilder.put(
+                TargetIndexState.compute(
+                    oldProjectData,
+                    targetData,
+                    projectState.getBlazeInfo(),
+                    projectState.getWorkspacePathResolver(),
+                    artifactLocationDecoder));
+          });
+    }
     if (context.isCancelled()) {
       throw new SyncCanceledException();
     }
@@ -15,9 +15,11 @@
  */
 package com.google.idea.blaze.base.sync;
 
+import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.scope.BlazeContext;
@@ -25,10 +27,20 @@ import com.google.idea.blaze.base.settings.BlazeImportSettings;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.project.Project;
-import java.util.Map;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 
-/** Computes a cache on the project data. */
+/**
+ * Computes a cache on the project data.
+ *
+ * <p>Each entry is computed at most once per sync, by the first thread requesting it. Other
+ * threads requesting the same entry wait for that computation, but entries never block each other.
+ */
 public class SyncCache {
   /** Computes a value based on the sync project data. */
   public interface SyncCacheComputable<T> {
@@ -36,8 +48,32 @@ public class SyncCache {
     T compute(Project project, BlazeProjectData projectData);
   }
 
+  /** A snapshot of the usage statistics for a single cache key, accumulated across syncs. */
+  @AutoValue
+  public abstract static class KeyStats {
+    /** The number of requests served from the cache, including those waiting on a computation. */
+    public abstract long getHits();
+
+    /** The number of requests which computed the value. */
+    public abstract long getMisses();
+
+    /** The total time spent computing the value. */
+    public abstract Duration getComputeTime();
+
+    static KeyStats create(long hits, long misses, long computeTimeNanos) {
+      return new AutoValue_SyncCache_KeyStats(hits, misses, Duration.ofNanos(computeTimeNanos));
+    }
+  }
+
+  private static class Counters {
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+    final AtomicLong computeTimeNanos = new AtomicLong();
+  }
+
   private final Project project;
-  private final Map<Object, Object> cache = Maps.newHashMap();
+  private final ConcurrentMap<Object, CompletableFuture<Object>> cache = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Object, Counters> stats = new ConcurrentHashMap<>();
 
   public SyncCache(Project project) {
     this.project = project;
@@ -50,22 +86,72 @@ public class SyncCache {
   /** Computes a value derived from the sync project data and caches it until the next sync. */
   @Nullable
   @SuppressWarnings("unchecked")
-  public synchronized <T> T get(Object key, SyncCacheComputable<T> computable) {
-    if (cache.containsKey(key)) {
-      return (T) cache.get(key);
+  public <T> T get(Object key, SyncCacheComputable<T> computable) {
+    Counters counters = stats.computeIfAbsent(key, k -> new Counters());
+    while (true) {
+      CompletableFuture<Object> future = cache.get(key);
+      if (future == null) {
+        CompletableFuture<Object> newFuture = new CompletableFuture<>();
+        future = cache.putIfAbsent(key, newFuture);
+        if (future == null) {
+          return compute(key, newFuture, computable, counters);
+        }
+      }
+      try {
+        T value = (T) Uninterruptibles.getUninterruptibly(future);
+        counters.hits.incrementAndGet();
+        return value;
+      } catch (ExecutionException e) {
+        // the computation failed or was cancelled in another thread; try again in this one
+      }
     }
+  }
+
+  @Nullable
+  private <T> T compute(
+      Object key,
+      CompletableFuture<Object> future,
+      SyncCacheComputable<T> computable,
+      Counters counters) {
     BlazeProjectData blazeProjectData =
         BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
     if (blazeProjectData == null) {
+      cache.remove(key, future);
+      future.complete(null);
       return null;
     }
-    T value = computable.compute(project, blazeProjectData);
-    cache.put(key, value);
+    counters.misses.incrementAndGet();
+    long start = System.nanoTime();
+    T value;
+    try {
+      value = computable.compute(project, blazeProjectData);
+    } catch (Throwable t) {
+      cache.remove(key, future);
+      future.completeExceptionally(t);
+      throw t;
+    } finally {
+      counters.computeTimeNanos.addAndGet(System.nanoTime() - start);
+    }
+    future.complete(value);
     return value;
   }
 
+  /** Returns the hit, miss and computation time statistics for each key requested so far. */
+  public ImmutableMap<Object, KeyStats> getStats() {
+    ImmutableMap.Builder<Object, KeyStats> builder = ImmutableMap.builder();
+    stats.forEach(
+        (key, counters) ->
+            builder.put(
+                key,
+                KeyStats.create(
+                    counters.hits.get(),
+                    counters.misses.get(),
+                    counters.computeTimeNanos.get())));
+    return builder.build();
+  }
+
   @VisibleForTesting
-  public synchronized void clear() {
+  public void clear() {
     cache.clear();
   }
 
@@ -28,17 +28,18 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
 /** The result of the blaze build sync step. */
 public class BlazeBuildOutputs {
 
   public static BlazeBuildOutputs noOutputs(BuildResult buildResult) {
-    return new BlazeBuildOutputs(buildResult, ImmutableMap.of());
+    return new BlazeBuildOutputs(buildResult, ImmutableMap.of(), null);
   }
 
   public static BlazeBuildOutputs fromParsedBepOutput(
       BuildResult result, ParsedBepOutput parsedOutput) {
-    return new BlazeBuildOutputs(result, parsedOutput.getFullArtifactData());
+    return new BlazeBuildOutputs(result, parsedOutput.getFullArtifactData(), null);
   }
 
   public final BuildResult buildResult;
@@ -48,9 +49,16 @@ public class BlazeBuildOutputs {
   /** The artifacts transitively associated with each top-level target. */
   private final ImmutableSetMultimap<String, OutputArtifact> perTargetArtifacts;
 
-  private BlazeBuildOutputs(BuildResult buildResult, Map<String, BepArtifactData> artifacts) {
+  /** Aspect output files parsed while the build was running, if sync was pipelined. */
+  @Nullable final PipelinedAspectOutputParser pipelinedParser;
+
+  private BlazeBuildOutputs(
+      BuildResult buildResult,
+      Map<String, BepArtifactData> artifacts,
+      @Nullable PipelinedAspectOutputParser pipelinedParser) {
     this.buildResult = buildResult;
     this.artifacts = ImmutableMap.copyOf(artifacts);
+    this.pipelinedParser = pipelinedParser;
 
     ImmutableSetMultimap.Builder<String, OutputArtifact> perTarget = ImmutableSetMultimap.builder();
     artifacts.values().forEach(a -> a.topLevelTargets.forEach(t -> perTarget.put(t, a.artifact)));
@@ -66,6 +74,11 @@ public class BlazeBuildOutputs {
         .collect(toImmutableList());
   }
 
+  /** Returns a copy of these outputs, with the aspect output files parsed during the build. */
+  BlazeBuildOutputs withPipelinedParser(@Nullable PipelinedAspectOutputParser pipelinedParser) {
+    return new BlazeBuildOutputs(buildResult, artifacts, pipelinedParser);
+  }
+
   /** Merges this {@link BlazeBuildOutputs} with a newer set of outputs. */
   public BlazeBuildOutputs updateOutputs(BlazeBuildOutputs nextOutputs) {
 
@@ -103,6 +116,8 @@ public class BlazeBuildOutputs {
       }
     }
     return new BlazeBuildOutputs(
-        BuildResult.combine(buildResult, nextOutputs.buildResult), combined);
+        BuildResult.combine(buildResult, nextOutputs.buildResult),
+        combined,
+        pipelinedParser != null ? pipelinedParser : nextOutputs.pipelinedParser);
   }
 }
@@ -22,6 +22,7 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
@@ -29,6 +30,7 @@ import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
 import com.google.idea.blaze.base.async.FutureUtil;
 import com.google.idea.blaze.base.async.executor.BlazeExecutor;
@@ -40,6 +42,7 @@ import com.google.idea.blaze.base.command.BlazeFlags;
 import com.google.idea.blaze.base.command.BlazeInvocationContext;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact.LocalFileArtifact;
+import com.google.idea.blaze.base.command.buildresult.BuildOutputsListener;
 import com.google.idea.blaze.base.command.buildresult.BuildResultHelper;
 import com.google.idea.blaze.base.command.buildresult.BuildResultHelper.GetArtifactsException;
 import com.google.idea.blaze.base.command.buildresult.BuildResultHelperProvider;
@@ -82,10 +85,12 @@ import com.google.idea.blaze.base.sync.SyncProjectState;
 import com.google.idea.blaze.base.sync.aspects.BuildResult.Status;
 import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategy;
 import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategy.OutputGroup;
+import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.projectview.ImportRoots;
 import com.google.idea.blaze.base.sync.projectview.LanguageSupport;
 import com.google.idea.blaze.base.sync.projectview.WorkspaceLanguageSettings;
 import com.google.idea.blaze.base.sync.sharding.ShardedTargetList;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
@@ -114,6 +119,20 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
 
   private static final Logger logger = Logger.getInstance(BlazeIdeInterfaceAspectsImpl.class);
 
+  /**
+   * If true, the BEP output is read while the sync build is running, and aspect output files are
+   * prefetched as soon as they're reported.
+   */
+  private static final BoolExperiment streamBepOutput =
+      new BoolExperiment("blaze.sync.stream.bep.output", false);
+
+  /**
+   * If true, the aspect output of each build shard is parsed as soon as that shard is built, while
+   * subsequent shards are building.
+   */
+  private static final BoolExperiment pipelineAspectOutputParsing =
+      new BoolExperiment("blaze.sync.pipeline.aspect.parsing", false);
+
   @Override
   public BlazeBuildOutputs buildIdeArtifacts(
       Project project,
@@ -126,6 +145,11 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       ShardedTargetList shardedTargets,
       WorkspaceLanguageSettings workspaceLanguageSettings) {
     AspectStrategy aspectStrategy = AspectStrategy.getInstance(blazeVersion);
+    PipelinedAspectOutputParser pipelinedParser =
+        pipelineAspectOutputParsing.getValue()
+            ? createPipelinedParser(
+                project, workspaceRoot, projectViewSet, workspaceLanguageSettings, aspectStrategy)
+            : null;
     return runBlazeBuild(
         project,
         context,
@@ -135,7 +159,30 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
         blazeInfo,
         workspaceLanguageSettings.getActiveLanguages(),
         shardedTargets,
-        aspectStrategy);
+        aspectStrategy,
+        pipelinedParser);
+  }
+
+  private static PipelinedAspectOutputParser createPipelinedParser(
+      Project project,
+      WorkspaceRoot workspaceRoot,
+      ProjectViewSet projectViewSet,
+      WorkspaceLanguageSettings languageSettings,
+      AspectStrategy aspectStrategy) {
+    ImportRoots importRoots =
+        ImportRoots.builder(workspaceRoot, Blaze.getBuildSystem(project))
+            .add(projectViewSet)
+            .build();
+    // only used to skip parsing unchanged files; the real diff happens after the build
+    BlazeProjectData oldProjectData =
+        BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    BlazeIdeInterfaceState prevState =
+        oldProjectData != null ? oldProjectData.getTargetData().ideInterfaceState : null;
+    return new PipelinedAspectOutputParser(
+        aspectStrategy,
+        languageSettings,
+        importRoots,
+        prevState != null ? prevState.ideInfoFileState : null);
   }
 
   @Override
@@ -276,7 +323,8 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
             projectState.getLanguageSettings(),
             importRoots,
             mergeWithOldState,
-            oldTargetMap);
+            oldTargetMap,
+            buildResult.pipelinedParser);
     if (state == null) {
       return null;
     }
@@ -303,7 +351,8 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       BlazeInfo blazeInfo,
       ImmutableSet<LanguageClass> activeLanguages,
       ShardedTargetList shardedTargets,
-      AspectStrategy aspectStrategy) {
+      AspectStrategy aspectStrategy,
+      @Nullable PipelinedAspectOutputParser pipelinedParser) {
 
     final Ref<BlazeBuildOutputs> combinedResult = new Ref<>();
 
@@ -327,6 +376,9 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                   targets,
                   aspectStrategy);
           if (!result.buildResult.outOfMemory()) {
+            if (pipelinedParser != null) {
+              pipelinedParser.parseShardOutputs(result);
+            }
             combinedResult.set(
                 combinedResult.isNull() ? result : combinedResult.get().updateOutputs(result));
           }
@@ -338,7 +390,7 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
     if (combinedResult.isNull() || result.status == Status.FATAL_ERROR) {
       return BlazeBuildOutputs.noOutputs(result);
     }
-    return combinedResult.get();
+    return combinedResult.get().withPipelinedParser(pipelinedParser);
   }
 
   /**
@@ -360,6 +412,9 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
 
     try (BuildResultHelper buildResultHelper =
         BuildResultHelperProvider.createForSync(project, blazeInfo)) {
+      if (streamBepOutput.getValue()) {
+        buildResultHelper.streamBuildOutputs(new AspectOutputPrefetcher());
+      }
 
       BlazeCommand.Builder builder =
           BlazeCommand.builder(buildParams.blazeBinaryPath(), BlazeCommandName.BUILD)
@@ -403,6 +458,33 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
     }
   }
 
+  /**
+   * Starts prefetching aspect output files as they're reported in the BEP stream, so they're
+   * available locally by the time the build completes and the target map is updated.
+   */
+  private static class AspectOutputPrefetcher implements BuildOutputsListener {
+    @Override
+    public void targetCompleted(
+        String label, ImmutableSetMultimap<String, OutputArtifact> newOutputs) {
+      List<File> localFiles = new ArrayList<>();
+      for (Map.Entry<String, OutputArtifact> entry : newOutputs.entries()) {
+        OutputArtifact file = entry.getValue();
+        if (!entry.getKey().startsWith(OutputGroup.INFO.prefix)
+            || !AspectStrategy.ASPECT_OUTPUT_FILE_PREDICATE.test(file.getKey())) {
+          continue;
+        }
+        if (file instanceof RemoteOutputArtifact) {
+          FetchExecutor.EXECUTOR.submit(((RemoteOutputArtifact) file)::prefetch);
+        } else if (file instanceof LocalFileArtifact) {
+          localFiles.add(((LocalFileArtifact) file).getFile());
+        }
+      }
+      if (!localFiles.isEmpty()) {
+        PrefetchService.getInstance().prefetchFiles(localFiles, true, false);
+      }
+    }
+  }
+
   private static class TargetMapAndInterfaceState {
     private final TargetMap targetMap;
     private final BlazeIdeInterfaceState state;
@@ -434,7 +516,8 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       WorkspaceLanguageSettings languageSettings,
       ImportRoots importRoots,
       boolean mergeWithOldState,
-      @Nullable TargetMap oldTargetMap) {
+      @Nullable TargetMap oldTargetMap,
+      @Nullable PipelinedAspectOutputParser pipelinedParser) {
     AspectStrategy aspectStrategy = AspectStrategy.getInstance(versionData);
     Result<TargetMapAndInterfaceState> result =
         Scope.push(
@@ -459,7 +542,7 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
 
               Map<TargetKey, TargetIdeInfo> targetMap = Maps.newHashMap();
               if (prevState != null && oldTargetMap != null) {
-                targetMap.putAll(oldTargetMap.map());
+                oldTargetMap.forEachTarget(targetMap::put);
                 state.ideInfoToTargetKey.putAll(prevState.ideInfoFileToTargetKey);
               }
 
@@ -478,9 +561,38 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
 
               ListeningExecutorService executor = BlazeExecutor.getInstance().getExecutor();
 
+              ImmutableMap<String, PipelinedAspectOutputParser.ParsedOutput> parsedOutputs;
+              try {
+                parsedOutputs =
+                    pipelinedParser != null
+                        ? pipelinedParser.getParsedOutputs()
+                        : ImmutableMap.of();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Result.error(null);
+              }
+              if (pipelinedParser != null) {
+                ignoredLanguages.addAll(pipelinedParser.getIgnoredLanguages());
+              }
+              int pipelinedCount = 0;
+
               // Read protos from any new files
               List<ListenableFuture<TargetFilePair>> futures = Lists.newArrayList();
               for (OutputArtifact file : fileState.getUpdatedOutputs()) {
+                PipelinedAspectOutputParser.ParsedOutput parsed = parsedOutputs.get(file.getKey());
+                ArtifactState currentState = fileState.getNewState().get(file.getKey());
+                if (parsed != null
+                    && currentState != null
+                    && !parsed.state.isMoreRecent(currentState)) {
+                  // already parsed during the build, and unchanged since then
+                  pipelinedCount++;
+                  futures.add(
+                      Futures.transform(
+                          parsed.target,
+                          target -> new TargetFilePair(file, target),
+                          MoreExecutors.directExecutor()));
+                  continue;
+                }
                 futures.add(
                     executor.submit(
                         () -> {
@@ -537,6 +649,12 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                       String.format(
                           "Loaded %d aspect files, total size %dkB",
                           fileState.getUpdatedOutputs().size(), totalSizeLoaded.get() / 1024)));
+              if (pipelinedParser != null) {
+                context.output(
+                    PrintOutput.log(
+                        String.format(
+                            "%d aspect files were parsed during the build", pipelinedCount)));
+              }
               if (duplicateTargetLabels > 0) {
                 context.output(
                     new PerformanceWarning(
@@ -601,7 +719,7 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
   }
 
   @Nullable
-  private static TargetIdeInfo protoToTarget(
+  static TargetIdeInfo protoToTarget(
       WorkspaceLanguageSettings languageSettings,
       ImportRoots importRoots,
       IntellijIdeInfo.TargetIdeInfo message,
@@ -20,6 +20,7 @@ import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.devtools.intellij.model.ProjectData;
 import com.google.devtools.intellij.model.ProjectData.LocalFileOrOutputArtifact;
@@ -80,6 +81,26 @@ public final class BlazeIdeInterfaceState
     return proto.build();
   }
 
+  /**
+   * Returns the targets which were added or re-read from updated aspect output since {@code
+   * previous}. Only compares the recorded artifact states, without touching the file system.
+   */
+  public ImmutableSet<TargetKey> getUpdatedTargets(BlazeIdeInterfaceState previous) {
+    ImmutableSet.Builder<TargetKey> updated = ImmutableSet.builder();
+    for (Map.Entry<String, TargetKey> entry : ideInfoFileToTargetKey.entrySet()) {
+      String artifactKey = entry.getKey();
+      ArtifactState oldState = previous.ideInfoFileState.get(artifactKey);
+      ArtifactState newState = ideInfoFileState.get(artifactKey);
+      if (!artifactKey.equals(previous.ideInfoFileToTargetKey.inverse().get(entry.getValue()))
+          || oldState == null
+          || newState == null
+          || oldState.isMoreRecent(newState)) {
+        updated.add(entry.getValue());
+      }
+    }
+    return updated.build();
+  }
+
   public BlazeIdeInterfaceState filter(Predicate<TargetKey> targetsToKeep) {
     BiMap<String, TargetKey> filteredBiMap =
         Maps.filterValues(ideInfoFileToTargetKey, targetsToKeep::test);
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.aspects;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
+import com.google.idea.blaze.base.filecache.ArtifactState;
+import com.google.idea.blaze.base.filecache.ArtifactsDiff;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.model.primitives.LanguageClass;
+import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategy;
+import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategy.OutputGroup;
+import com.google.idea.blaze.base.sync.projectview.ImportRoots;
+import com.google.idea.blaze.base.sync.projectview.WorkspaceLanguageSettings;
+import com.intellij.openapi.diagnostic.Logger;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
+
+/**
+ * Parses the aspect output files of each build shard as soon as that shard's build completes, so
+ * parsing overlaps with the build of subsequent shards.
+ *
+ * <p>Only files which changed since the previous sync are parsed. The parsed targets are later
+ * merged into the target map by {@link BlazeIdeInterfaceAspectsImpl}, which falls back to reading
+ * any files not handled here.
+ */
+final class PipelinedAspectOutputParser {
+
+  private static final Logger logger = Logger.getInstance(PipelinedAspectOutputParser.class);
+
+  /** An aspect output file parsed during the build, and the file state at that time. */
+  static final class ParsedOutput {
+    final ArtifactState state;
+    final ListenableFuture<TargetIdeInfo> target;
+
+    private ParsedOutput(ArtifactState state, ListenableFuture<TargetIdeInfo> target) {
+      this.state = state;
+      this.target = target;
+    }
+  }
+
+  private final AspectStrategy aspectStrategy;
+  private final WorkspaceLanguageSettings languageSettings;
+  private final ImportRoots importRoots;
+  @Nullable private final ImmutableMap<String, ArtifactState> previousState;
+  private final Instant syncTime = Instant.now();
+
+  private final Map<String, ParsedOutput> parsedOutputs = new ConcurrentHashMap<>();
+  private final Set<LanguageClass> ignoredLanguages = Sets.newConcurrentHashSet();
+  private final List<ListenableFuture<?>> shardTasks = new ArrayList<>();
+
+  PipelinedAspectOutputParser(
+      AspectStrategy aspectStrategy,
+      WorkspaceLanguageSettings languageSettings,
+      ImportRoots importRoots,
+      @Nullable ImmutableMap<String, ArtifactState> previousState) {
+    this.aspectStrategy = aspectStrategy;
+    this.languageSettings = languageSettings;
+    this.importRoots = importRoots;
+    this.previousState = previousState;
+  }
+
+  /**
+   * Asynchronously diffs and parses the aspect output files of a single build shard. Doesn't block
+   * the calling thread, so the next shard can start building immediately.
+   */
+  void parseShardOutputs(BlazeBuildOutputs shardOutputs) {
+    parseOutputs(
+        shardOutputs.getOutputGroupArtifacts(group -> group.startsWith(OutputGroup.INFO.prefix))
+            .stream()
+            .filter(f -> AspectStrategy.ASPECT_OUTPUT_FILE_PREDICATE.test(f.getKey()))
+            .distinct()
+            .collect(toImmutableList()));
+  }
+
+  @VisibleForTesting
+  void parseOutputs(ImmutableList<OutputArtifact> files) {
+    if (files.isEmpty()) {
+      return;
+    }
+    ListeningExecutorService executor = BlazeExecutor.getInstance().getExecutor();
+    ListenableFuture<?> task =
+        executor.submit(
+            () -> {
+              ArtifactsDiff diff = ArtifactsDiff.diffArtifacts(previousState, files);
+              for (OutputArtifact file : diff.getUpdatedOutputs()) {
+                ArtifactState state = diff.getNewState().get(file.getKey());
+                ListenableFuture<TargetIdeInfo> target =
+                    executor.submit(
+                        () ->
+                            BlazeIdeInterfaceAspectsImpl.protoToTarget(
+                                languageSettings,
+                                importRoots,
+                                aspectStrategy.readAspectFile(file),
+                                ignoredLanguages,
+                                syncTime));
+                parsedOutputs.put(file.getKey(), new ParsedOutput(state, target));
+              }
+              return null;
+            });
+    synchronized (shardTasks) {
+      shardTasks.add(task);
+    }
+  }
+
+  /**
+   * Waits for all shards to be diffed and all their files to be parsed, then returns the aspect
+   * output files parsed during the build, keyed by artifact key. Shards which couldn't be diffed
+   * are ignored.
+   */
+  ImmutableMap<String, ParsedOutput> getParsedOutputs() throws InterruptedException {
+    ImmutableList<ListenableFuture<?>> tasks;
+    synchronized (shardTasks) {
+      tasks = ImmutableList.copyOf(shardTasks);
+    }
+    try {
+      Futures.successfulAsList(tasks).get();
+      // every shard has been diffed, so no more parse tasks will be added
+      Futures.successfulAsList(
+              parsedOutputs.values().stream().map(p -> p.target).collect(toImmutableList()))
+          .get();
+    } catch (ExecutionException e) {
+      // successfulAsList never fails; failures are reported when the targets are read
+      logger.warn(e);
+    }
+    return ImmutableMap.copyOf(parsedOutputs);
+  }
+
+  /**
+   * The languages of targets ignored while parsing, because their language isn't active. Only
+   * complete once {@link #getParsedOutputs} has returned.
+   */
+  ImmutableSet<LanguageClass> getIgnoredLanguages() {
+    return ImmutableSet.copyOf(ignoredLanguages);
+  }
+}
@@ -15,7 +15,11 @@
  */
 package com.google.idea.blaze.base.sync.data;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.idea.blaze.base.async.executor.ProgressiveTaskWithProgressIndicator;
@@ -24,6 +28,7 @@ import com.google.idea.blaze.base.logging.EventLoggingService;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.settings.BlazeImportSettings;
 import com.google.idea.common.concurrency.ConcurrencyUtil;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressIndicator;
@@ -32,7 +37,14 @@ import com.intellij.openapi.util.Disposer;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import javax.annotation.Nullable;
 
 /** Stores a cache of blaze project data and issues any side effects when that data is updated. */
@@ -41,6 +53,15 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
   private static final Logger logger =
       Logger.getInstance(BlazeProjectDataManagerImpl.class.getName());
 
+  /**
+   * If true, project data is saved in the uncompressed indexed format, which is memory-mapped on
+   * load with targets decoded on first access.
+   */
+  private static final BoolExperiment useIndexedFormat =
+      new BoolExperiment("blaze.project.data.indexed.format", false);
+
+  private static final Pattern INDEXED_CACHE_FILE = Pattern.compile("cache\\.(\\d{1,18})\\.idx");
+
   private final Project project;
   // a per-project single-threaded executor to write project data to disk
   private final ListeningExecutorService writeDataExecutor;
@@ -81,8 +102,16 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
   @Nullable
   private synchronized BlazeProjectData loadProject(BlazeImportSettings importSettings) {
     try {
-      File file = getCacheFile(project, importSettings);
-      projectData = BlazeProjectData.loadFromDisk(importSettings.getBuildSystem(), file);
+      File cacheFile = getCacheFile(project, importSettings);
+      File indexedFile = Iterables.getFirst(getIndexedCacheFiles(project, importSettings), null);
+      // an indexed file older than the compressed one is left over from a failed delete
+      boolean useIndexedFile =
+          indexedFile != null
+              && (!cacheFile.exists() || indexedFile.lastModified() >= cacheFile.lastModified());
+      projectData =
+          useIndexedFile
+              ? BlazeProjectData.loadFromIndexedFile(importSettings.getBuildSystem(), indexedFile)
+              : BlazeProjectData.loadFromDisk(importSettings.getBuildSystem(), cacheFile);
       return projectData;
     } catch (Throwable e) {
       if (!(e instanceof FileNotFoundException)) {
@@ -103,9 +132,12 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
         .submitTask(
             (ProgressIndicator indicator) -> {
               try {
-                File file = getCacheFile(project, importSettings);
+                File file;
                 synchronized (this) {
-                  projectData.saveToDisk(file);
+                  file =
+                      useIndexedFormat.getValue()
+                          ? saveIndexedFormat(importSettings, projectData)
+                          : saveCompressedFormat(importSettings, projectData);
                 }
                 logFileSize(projectData, file);
 
@@ -115,6 +147,46 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
             });
   }
 
+  private File saveCompressedFormat(
+      BlazeImportSettings importSettings, BlazeProjectData projectData) throws IOException {
+    File file = getCacheFile(project, importSettings);
+    projectData.saveToDisk(file);
+    deleteIndexedCacheFiles(getIndexedCacheFiles(project, importSettings));
+    return file;
+  }
+
+  private File saveIndexedFormat(BlazeImportSettings importSettings, BlazeProjectData projectData)
+      throws IOException {
+    // the previous file may still be memory-mapped, and on Windows can't be replaced or deleted
+    // until it's unmapped, so each save writes a new generation
+    ImmutableList<File> previousFiles = getIndexedCacheFiles(project, importSettings);
+    long generation = previousFiles.isEmpty() ? 0 : getGeneration(previousFiles.get(0)) + 1;
+    File file =
+        new File(
+            BlazeDataStorage.getProjectCacheDir(project, importSettings),
+            String.format("cache.%d.idx", generation));
+    File tempFile = new File(file.getPath() + ".tmp");
+    projectData.saveToIndexedFile(tempFile);
+    Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    deleteIndexedCacheFiles(previousFiles);
+    Files.deleteIfExists(getCacheFile(project, importSettings).toPath());
+    return file;
+  }
+
+  /**
+   * Deletes the given indexed cache files where possible. Files which are still memory-mapped on
+   * Windows are left in place, and removed by a later save.
+   */
+  private static void deleteIndexedCacheFiles(List<File> files) {
+    for (File file : files) {
+      try {
+        Files.deleteIfExists(file.toPath());
+      } catch (IOException e) {
+        logger.info("Couldn't delete old project data file: " + file, e);
+      }
+    }
+  }
+
   private static void logFileSize(BlazeProjectData projectData, File cacheFile) {
     ImmutableMap.Builder<String, String> data = ImmutableMap.builder();
     data.put("size", Long.toString(FileOperationProvider.getInstance().getFileSize(cacheFile)));
@@ -137,4 +209,23 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
   private static File getCacheFile(Project project, BlazeImportSettings importSettings) {
     return new File(BlazeDataStorage.getProjectCacheDir(project, importSettings), "cache.dat.gz");
   }
+
+  /** Returns the indexed cache files in the project cache directory, newest first. */
+  private static ImmutableList<File> getIndexedCacheFiles(
+      Project project, BlazeImportSettings importSettings) {
+    File[] files = BlazeDataStorage.getProjectCacheDir(project, importSettings).listFiles();
+    if (files == null) {
+      return ImmutableList.of();
+    }
+    return Arrays.stream(files)
+        .filter(f -> getGeneration(f) >= 0)
+        .sorted(Comparator.comparingLong(BlazeProjectDataManagerImpl::getGeneration).reversed())
+        .collect(toImmutableList());
+  }
+
+  /** The generation of an indexed cache file, or -1 if it isn't one. */
+  private static long getGeneration(File file) {
+    Matcher matcher = INDEXED_CACHE_FILE.matcher(file.getName());
+    return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+  }
 }
@@ -24,6 +24,8 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.io.WorkspaceDirectorySnapshot;
+import com.google.idea.blaze.base.io.WorkspaceDirectorySnapshot.DirectoryListing;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
 import com.google.idea.blaze.base.prefetch.FetchExecutor;
@@ -76,6 +78,7 @@ public class DirectoryStructure {
       AtomicBoolean cancelled)
       throws ExecutionException, InterruptedException {
     FileOperationProvider fileOperationProvider = FileOperationProvider.getInstance();
+    WorkspaceDirectorySnapshot directorySnapshot = WorkspaceDirectorySnapshot.getInstance(project);
     ImportRoots importRoots =
         ImportRoots.builder(workspaceRoot, Blaze.getBuildSystem(project))
             .add(projectViewSet)
@@ -85,11 +88,14 @@ public class DirectoryStructure {
     List<ListenableFuture<PathStructurePair>> futures =
         Lists.newArrayListWithExpectedSize(rootDirectories.size());
     for (WorkspacePath rootDirectory : rootDirectories) {
+      if (!fileOperationProvider.isDirectory(workspaceRoot.fileForPath(rootDirectory))) {
+        continue;
+      }
       futures.add(
           walkDirectoryStructure(
               workspaceRoot,
               excludeDirectories,
-              fileOperationProvider,
+              directorySnapshot,
               FetchExecutor.EXECUTOR,
               rootDirectory,
               cancelled));
@@ -106,7 +112,7 @@ public class DirectoryStructure {
   private static ListenableFuture<PathStructurePair> walkDirectoryStructure(
       WorkspaceRoot workspaceRoot,
       Set<WorkspacePath> excludeDirectories,
-      FileOperationProvider fileOperationProvider,
+      WorkspaceDirectorySnapshot directorySnapshot,
       ListeningExecutorService executorService,
       WorkspacePath workspacePath,
       AtomicBoolean cancelled) {
@@ -114,20 +120,21 @@ public class DirectoryStructure {
       return Futures.immediateFuture(null);
     }
     File file = workspaceRoot.fileForPath(workspacePath);
-    if (!fileOperationProvider.isDirectory(file)) {
-      return Futures.immediateFuture(null);
-    }
-    ListenableFuture<File[]> childrenFuture =
-        executorService.submit(() -> fileOperationProvider.listFiles(file));
+    ListenableFuture<DirectoryListing> listingFuture =
+        executorService.submit(() -> directorySnapshot.list(file));
     return Futures.transformAsync(
-        childrenFuture,
-        children -> {
-          if (cancelled.get() || children == null) {
+        listingFuture,
+        listing -> {
+          if (cancelled.get() || listing == null) {
             return Futures.immediateFuture(null);
           }
+          List<File> children = listing.getChildren();
           List<ListenableFuture<PathStructurePair>> futures =
-              Lists.newArrayListWithExpectedSize(children.length);
+              Lists.newArrayListWithExpectedSize(children.size());
           for (File child : children) {
+            if (!listing.isDirectory(child)) {
+              continue;
+            }
             WorkspacePath childWorkspacePath;
             try {
               childWorkspacePath = workspaceRoot.workspacePathFor(child);
@@ -139,7 +146,7 @@ public class DirectoryStructure {
                 walkDirectoryStructure(
                     workspaceRoot,
                     excludeDirectories,
-                    fileOperationProvider,
+                    directorySnapshot,
                     executorService,
                     childWorkspacePath,
                     cancelled));
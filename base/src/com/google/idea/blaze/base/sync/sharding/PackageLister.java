@@ -24,6 +24,8 @@ import com.google.idea.blaze.base.async.FutureUtil;
 import com.google.idea.blaze.base.async.FutureUtil.FutureResult;
 import com.google.idea.blaze.base.bazel.BuildSystemProvider;
 import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.io.WorkspaceDirectorySnapshot;
+import com.google.idea.blaze.base.io.WorkspaceDirectorySnapshot.DirectoryListing;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
 import com.google.idea.blaze.base.model.primitives.WildcardTargetPattern;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
@@ -80,6 +82,7 @@ class PackageLister {
   @Nullable
   static Map<TargetExpression, List<TargetExpression>> expandPackageTargets(
       BuildSystemProvider provider,
+      WorkspaceDirectorySnapshot directorySnapshot,
       BlazeContext context,
       WorkspacePathResolver pathResolver,
       Collection<WildcardTargetPattern> wildcardPatterns) {
@@ -97,7 +100,8 @@ class PackageLister {
           FetchExecutor.EXECUTOR.submit(
               () -> {
                 List<TargetExpression> expandedTargets = new ArrayList<>();
-                traversePackageRecursively(provider, pathResolver, dir, expandedTargets);
+                traversePackageRecursively(
+                    provider, directorySnapshot, pathResolver, dir, expandedTargets);
                 return Maps.immutableEntry(pattern.originalPattern, expandedTargets);
               }));
     }
@@ -121,6 +125,7 @@ class PackageLister {
 
   private static void traversePackageRecursively(
       BuildSystemProvider provider,
+      WorkspaceDirectorySnapshot directorySnapshot,
       WorkspacePathResolver pathResolver,
       File dir,
       List<TargetExpression> output) {
@@ -131,14 +136,13 @@ class PackageLister {
     if (provider.findBuildFileInDirectory(dir) != null) {
       output.add(TargetExpression.allFromPackageNonRecursive(path));
     }
-    FileOperationProvider fileOperationProvider = FileOperationProvider.getInstance();
-    File[] children = fileOperationProvider.listFiles(dir);
-    if (children == null) {
+    DirectoryListing listing = directorySnapshot.list(dir);
+    if (listing == null) {
       return;
     }
-    for (File child : children) {
-      if (fileOperationProvider.isDirectory(child)) {
-        traversePackageRecursively(provider, pathResolver, child, output);
+    for (File child : listing.getChildren()) {
+      if (listing.isDirectory(child)) {
+        traversePackageRecursively(provider, directorySnapshot, pathResolver, child, output);
       }
     }
   }
@@ -25,6 +25,7 @@ import com.google.idea.blaze.base.command.BlazeCommandName;
 import com.google.idea.blaze.base.command.BlazeFlags;
 import com.google.idea.blaze.base.command.BlazeInvocationContext;
 import com.google.idea.blaze.base.console.BlazeConsoleLineProcessorProvider;
+import com.google.idea.blaze.base.io.WorkspaceDirectorySnapshot;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
 import com.google.idea.blaze.base.model.primitives.WildcardTargetPattern;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
@@ -123,7 +124,11 @@ public class WildcardTargetExpander {
     }
 
     return PackageLister.expandPackageTargets(
-        Blaze.getBuildSystemProvider(project), context, pathResolver, includes);
+        Blaze.getBuildSystemProvider(project),
+        WorkspaceDirectorySnapshot.getInstance(project),
+        context,
+        pathResolver,
+        includes);
   }
 
   /** Runs a sharded blaze query to expand wildcard targets to individual blaze targets */
@@ -30,10 +30,18 @@ public class ReverseDependencyMap {
   public static ImmutableMultimap<TargetKey, TargetKey> get(Project project) {
     ImmutableMultimap<TargetKey, TargetKey> map =
         SyncCache.getInstance(project)
-            .get(ReverseDependencyMap.class, ReverseDependencyMap::createRdepsMap);
+            .get(ReverseDependencyMap.class, ReverseDependencyMap::getOrCreateRdepsMap);
     return map != null ? map : ImmutableMultimap.of();
   }
 
+  private static ImmutableMultimap<TargetKey, TargetKey> getOrCreateRdepsMap(
+      Project project, BlazeProjectData projectData) {
+    TargetIndexState indexState = projectData.getSyncState().get(TargetIndexState.class);
+    return indexState != null
+        ? indexState.getReverseDependencies(projectData.getTargetMap())
+        : createRdepsMap(project, projectData);
+  }
+
   @VisibleForTesting
   static ImmutableMultimap<TargetKey, TargetKey> createRdepsMap(
       Project project, BlazeProjectData projectData) {
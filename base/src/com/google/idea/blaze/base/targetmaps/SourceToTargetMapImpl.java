@@ -69,7 +69,7 @@ public class SourceToTargetMapImpl implements SourceToTargetMap {
   }
 
   @Nullable
-  private synchronized ImmutableMultimap<File, TargetKey> getSourceToTargetMap() {
+  private ImmutableMultimap<File, TargetKey> getSourceToTargetMap() {
     return SyncCache.getInstance(project)
         .get(SourceToTargetMapImpl.class, SourceToTargetMapImpl::computeSourceToTargetMap);
   }
@@ -77,6 +77,10 @@ public class SourceToTargetMapImpl implements SourceToTargetMap {
   @SuppressWarnings("unused")
   private static ImmutableMultimap<File, TargetKey> computeSourceToTargetMap(
       Project project, BlazeProjectData blazeProjectData) {
+    TargetIndexState indexState = blazeProjectData.getSyncState().get(TargetIndexState.class);
+    if (indexState != null) {
+      return indexState.getSourceToTargetMap();
+    }
     ArtifactLocationDecoder decoder = blazeProjectData.getArtifactLocationDecoder();
     ImmutableMultimap.Builder<File, TargetKey> sourceToTargetMap = ImmutableMultimap.builder();
     for (TargetIdeInfo target : blazeProjectData.getTargetMap().targets()) {
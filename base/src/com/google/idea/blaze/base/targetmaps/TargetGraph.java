@@ -0,0 +1,226 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.ideinfo.Dependency;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the dependency graph of a {@link TargetMap}.
+ *
+ * <p>Each target is assigned an int id, and dependencies and reverse dependencies are stored as
+ * compressed sparse rows: the edges of node {@code i} are {@code edges[offsets[i]]} to {@code
+ * edges[offsets[i + 1] - 1]}. Traversals reuse per-thread scratch space, so queries don't allocate
+ * beyond their results.
+ *
+ * <p>As in {@link TransitiveDependencyMap#getTransitiveDependenciesStream}, dependencies are
+ * normalized to plain targets, and include those missing from the target map.
+ */
+final class TargetGraph {
+
+  final TargetMap targetMap;
+  private final TargetKey[] keys;
+  private final Map<TargetKey, Integer> ids;
+  private final int[] depOffsets;
+  private final int[] deps;
+  private final int[] rdepOffsets;
+  private final int[] rdeps;
+  private final ThreadLocal<Traversal> traversal;
+
+  private TargetGraph(
+      TargetMap targetMap,
+      TargetKey[] keys,
+      Map<TargetKey, Integer> ids,
+      int[] depOffsets,
+      int[] deps,
+      int[] rdepOffsets,
+      int[] rdeps) {
+    this.targetMap = targetMap;
+    this.keys = keys;
+    this.ids = ids;
+    this.depOffsets = depOffsets;
+    this.deps = deps;
+    this.rdepOffsets = rdepOffsets;
+    this.rdeps = rdeps;
+    this.traversal = ThreadLocal.withInitial(() -> new Traversal(keys.length));
+  }
+
+  static TargetGraph create(TargetMap targetMap) {
+    Map<TargetKey, Integer> ids = new HashMap<>();
+    List<TargetKey> keys = new ArrayList<>();
+    ImmutableList<TargetIdeInfo> targets = targetMap.targets().asList();
+    for (TargetIdeInfo target : targets) {
+      idFor(target.getKey(), ids, keys);
+    }
+    // node ids for targets in the map match their index in 'targets'
+    int edgeCount = 0;
+    int[][] targetDeps = new int[targets.size()][];
+    for (int i = 0; i < targets.size(); i++) {
+      List<Dependency> dependencies = targets.get(i).getDependencies();
+      int[] row = new int[dependencies.size()];
+      for (int j = 0; j < row.length; j++) {
+        TargetKey dep = TargetKey.forPlainTarget(dependencies.get(j).getTargetKey().getLabel());
+        row[j] = idFor(dep, ids, keys);
+      }
+      targetDeps[i] = row;
+      edgeCount += row.length;
+    }
+
+    int nodeCount = keys.size();
+    int[] depOffsets = new int[nodeCount + 1];
+    int[] deps = new int[edgeCount];
+    int[] rdepCounts = new int[nodeCount];
+    int pos = 0;
+    for (int i = 0; i < nodeCount; i++) {
+      depOffsets[i] = pos;
+      if (i < targetDeps.length) {
+        for (int dep : targetDeps[i]) {
+          deps[pos++] = dep;
+          rdepCounts[dep]++;
+        }
+      }
+    }
+    depOffsets[nodeCount] = pos;
+
+    int[] rdepOffsets = new int[nodeCount + 1];
+    for (int i = 0; i < nodeCount; i++) {
+      rdepOffsets[i + 1] = rdepOffsets[i] + rdepCounts[i];
+    }
+    int[] rdeps = new int[edgeCount];
+    int[] next = new int[nodeCount];
+    System.arraycopy(rdepOffsets, 0, next, 0, nodeCount);
+    for (int i = 0; i < nodeCount; i++) {
+      for (int j = depOffsets[i]; j < depOffsets[i + 1]; j++) {
+        rdeps[next[deps[j]]++] = i;
+      }
+    }
+    return new TargetGraph(
+        targetMap,
+        keys.toArray(new TargetKey[0]),
+        ids,
+        depOffsets,
+        deps,
+        rdepOffsets,
+        rdeps);
+  }
+
+  private static int idFor(TargetKey key, Map<TargetKey, Integer> ids, List<TargetKey> keys) {
+    Integer id = ids.get(key);
+    if (id == null) {
+      id = keys.size();
+      ids.put(key, id);
+      keys.add(key);
+    }
+    return id;
+  }
+
+  /** Returns true if {@code dependent} transitively depends on {@code dependency}. */
+  boolean hasTransitiveDependency(TargetKey dependent, TargetKey dependency) {
+    Integer from = ids.get(dependent);
+    Integer to = ids.get(dependency);
+    if (from == null || to == null) {
+      return false;
+    }
+    return traversal.get().run(from, to, depOffsets, deps) < 0;
+  }
+
+  /**
+   * Returns the transitive dependencies of the given target, in breadth-first order. The target
+   * itself is only included if it's part of a dependency cycle.
+   */
+  ImmutableSet<TargetKey> getTransitiveDependencies(TargetKey key) {
+    return closure(key, depOffsets, deps);
+  }
+
+  /** Returns all targets transitively depending on the given target, in breadth-first order. */
+  ImmutableSet<TargetKey> getTransitiveReverseDependencies(TargetKey key) {
+    return closure(key, rdepOffsets, rdeps);
+  }
+
+  private ImmutableSet<TargetKey> closure(TargetKey key, int[] offsets, int[] edges) {
+    Integer from = ids.get(key);
+    if (from == null) {
+      return ImmutableSet.of();
+    }
+    Traversal traversal = this.traversal.get();
+    int count = traversal.run(from, -1, offsets, edges);
+    ImmutableSet.Builder<TargetKey> builder = ImmutableSet.builder();
+    for (int i = 0; i < count; i++) {
+      builder.add(keys[traversal.queue[i]]);
+    }
+    return builder.build();
+  }
+
+  /** Per-thread scratch space for a breadth-first traversal. */
+  private static class Traversal {
+    private final long[] visited;
+    private final int[] queue;
+
+    Traversal(int nodeCount) {
+      visited = new long[(nodeCount + 63) >>> 6];
+      queue = new int[nodeCount];
+    }
+
+    /**
+     * Visits all nodes reachable from {@code from}, in breadth-first order, leaving them at the
+     * start of {@link #queue}. Stops early if {@code target} is reached.
+     *
+     * @return the number of nodes visited, or -1 if {@code target} was reached
+     */
+    int run(int from, int target, int[] offsets, int[] edges) {
+      int head = 0;
+      int tail = 0;
+      try {
+        for (int j = offsets[from]; j < offsets[from + 1]; j++) {
+          tail = enqueue(edges[j], tail);
+        }
+        while (head < tail) {
+          int node = queue[head++];
+          if (node == target) {
+            return -1;
+          }
+          for (int j = offsets[node]; j < offsets[node + 1]; j++) {
+            tail = enqueue(edges[j], tail);
+          }
+        }
+        return tail;
+      } finally {
+        for (int i = 0; i < tail; i++) {
+          visited[queue[i] >>> 6] = 0;
+        }
+      }
+    }
+
+    private int enqueue(int node, int tail) {
+      long bit = 1L << node;
+      int word = node >>> 6;
+      if ((visited[word] & bit) != 0) {
+        return tail;
+      }
+      visited[word] |= bit;
+      queue[tail] = node;
+      return tail + 1;
+    }
+  }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.idea.blaze.base.command.info.BlazeInfo;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.Dependency;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.ProjectTargetData;
+import com.google.idea.blaze.base.model.SyncData;
+import com.google.idea.blaze.base.sync.aspects.BlazeIdeInterfaceState;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
+import com.google.idea.common.experiments.BoolExperiment;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * The reverse dependency and source to target maps, stored in the sync state so they can be
+ * updated from the targets which changed during sync, rather than recomputed from the entire
+ * target map.
+ */
+public final class TargetIndexState implements SyncData<ProjectData.TargetIndexState> {
+
+  public static final BoolExperiment enabled =
+      new BoolExperiment("blaze.sync.incremental.target.indexes", false);
+
+  /**
+   * Maps each dependency to the targets depending on it. Unlike {@link ReverseDependencyMap}, this
+   * includes dependencies which aren't in the target map, so that later syncs adding those
+   * dependencies don't need to revisit their unchanged dependents.
+   */
+  private final ImmutableListMultimap<TargetKey, TargetKey> reverseDependencies;
+
+  private final ImmutableListMultimap<File, TargetKey> sourceToTargets;
+
+  private TargetIndexState(
+      ImmutableListMultimap<TargetKey, TargetKey> reverseDependencies,
+      ImmutableListMultimap<File, TargetKey> sourceToTargets) {
+    this.reverseDependencies = reverseDependencies;
+    this.sourceToTargets = sourceToTargets;
+  }
+
+  /**
+   * Computes the indexes for a newly synced target map, updating those from the previous sync if
+   * possible. The previous indexes are only reused if paths resolve the same way as before.
+   */
+  public static TargetIndexState compute(
+      @Nullable BlazeProjectData oldProjectData,
+      ProjectTargetData targetData,
+      BlazeInfo blazeInfo,
+      WorkspacePathResolver pathResolver,
+      ArtifactLocationDecoder decoder) {
+    TargetIndexState previous =
+        oldProjectData != null ? oldProjectData.getSyncState().get(TargetIndexState.class) : null;
+    BlazeIdeInterfaceState oldState =
+        oldProjectData != null ? oldProjectData.getTargetData().ideInterfaceState : null;
+    BlazeIdeInterfaceState newState = targetData.ideInterfaceState;
+    if (previous == null
+        || oldState == null
+        || newState == null
+        || !resolvesPathsAsBefore(oldProjectData, blazeInfo, pathResolver)) {
+      return create(targetData.targetMap, decoder);
+    }
+    return previous.update(targetData.targetMap, decoder, newState.getUpdatedTargets(oldState));
+  }
+
+  /**
+   * Whether artifacts resolve to the same files as in the previous sync. Only the execution root is
+   * compared, as the {@link BlazeInfo} also holds values unrelated to path resolution.
+   */
+  private static boolean resolvesPathsAsBefore(
+      BlazeProjectData oldProjectData, BlazeInfo blazeInfo, WorkspacePathResolver pathResolver) {
+    return oldProjectData.getWorkspacePathResolver().equals(pathResolver)
+        && oldProjectData.getBlazeInfo().getExecutionRoot().equals(blazeInfo.getExecutionRoot());
+  }
+
+  /** Computes the indexes from scratch. */
+  static TargetIndexState create(TargetMap targetMap, ArtifactLocationDecoder decoder) {
+    ImmutableListMultimap.Builder<TargetKey, TargetKey> rdeps = ImmutableListMultimap.builder();
+    ImmutableListMultimap.Builder<File, TargetKey> sources = ImmutableListMultimap.builder();
+    for (TargetIdeInfo target : targetMap.targets()) {
+      addTarget(target, decoder, rdeps, sources);
+    }
+    return new TargetIndexState(rdeps.build(), sources.build());
+  }
+
+  /**
+   * Returns the indexes for a new target map, in which only {@code changedTargets} were added or
+   * modified. Any other target missing from the new target map is assumed to have been removed.
+   *
+   * <p>Only the changed targets are read from the target map.
+   */
+  TargetIndexState update(
+      TargetMap targetMap, ArtifactLocationDecoder decoder, Set<TargetKey> changedTargets) {
+    ImmutableListMultimap.Builder<TargetKey, TargetKey> rdeps = ImmutableListMultimap.builder();
+    ImmutableListMultimap.Builder<File, TargetKey> sources = ImmutableListMultimap.builder();
+    reverseDependencies.forEach(
+        (dep, dependent) -> {
+          if (isUnchanged(dependent, targetMap, changedTargets)) {
+            rdeps.put(dep, dependent);
+          }
+        });
+    sourceToTargets.forEach(
+        (source, target) -> {
+          if (isUnchanged(target, targetMap, changedTargets)) {
+            sources.put(source, target);
+          }
+        });
+    for (TargetKey key : changedTargets) {
+      TargetIdeInfo target = targetMap.get(key);
+      if (target != null) {
+        addTarget(target, decoder, rdeps, sources);
+      }
+    }
+    return new TargetIndexState(rdeps.build(), sources.build());
+  }
+
+  private static boolean isUnchanged(
+      TargetKey key, TargetMap targetMap, Set<TargetKey> changedTargets) {
+    return !changedTargets.contains(key) && targetMap.contains(key);
+  }
+
+  private static void addTarget(
+      TargetIdeInfo target,
+      ArtifactLocationDecoder decoder,
+      ImmutableListMultimap.Builder<TargetKey, TargetKey> rdeps,
+      ImmutableListMultimap.Builder<File, TargetKey> sources) {
+    TargetKey key = target.getKey();
+    for (Dependency dep : target.getDependencies()) {
+      rdeps.put(dep.getTargetKey(), key);
+    }
+    for (ArtifactLocation sourceArtifact : target.getSources()) {
+      File file = decoder.resolveSource(sourceArtifact);
+      if (file != null) {
+        sources.put(file, key);
+      }
+    }
+  }
+
+  /** Returns the reverse dependency map, restricted to targets in the given target map. */
+  ImmutableMultimap<TargetKey, TargetKey> getReverseDependencies(TargetMap targetMap) {
+    ImmutableListMultimap.Builder<TargetKey, TargetKey> builder = ImmutableListMultimap.builder();
+    for (Map.Entry<TargetKey, Collection<TargetKey>> entry :
+        reverseDependencies.asMap().entrySet()) {
+      if (targetMap.contains(entry.getKey())) {
+        builder.putAll(entry.getKey(), entry.getValue());
+      }
+    }
+    return builder.build();
+  }
+
+  ImmutableMultimap<File, TargetKey> getSourceToTargetMap() {
+    return sourceToTargets;
+  }
+
+  private static TargetIndexState fromProto(ProjectData.TargetIndexState proto) {
+    List<TargetKey> targets = new ArrayList<>(proto.getTargetsCount());
+    for (ProjectData.TargetKey key : proto.getTargetsList()) {
+      targets.add(TargetKey.fromProto(key));
+    }
+    ImmutableListMultimap.Builder<TargetKey, TargetKey> rdeps = ImmutableListMultimap.builder();
+    for (ProjectData.TargetIndexState.ReverseDependencies entry :
+        proto.getReverseDependenciesList()) {
+      TargetKey dep = targets.get(entry.getTarget());
+      for (int dependent : entry.getDependentsList()) {
+        rdeps.put(dep, targets.get(dependent));
+      }
+    }
+    ImmutableListMultimap.Builder<File, TargetKey> sources = ImmutableListMultimap.builder();
+    for (ProjectData.TargetIndexState.SourceTargets entry : proto.getSourceTargetsList()) {
+      File source = new File(entry.getSource());
+      for (int target : entry.getTargetsList()) {
+        sources.put(source, targets.get(target));
+      }
+    }
+    return new TargetIndexState(rdeps.build(), sources.build());
+  }
+
+  @Override
+  public ProjectData.TargetIndexState toProto() {
+    ProjectData.TargetIndexState.Builder builder = ProjectData.TargetIndexState.newBuilder();
+    Map<TargetKey, Integer> indices = new HashMap<>();
+    for (Map.Entry<TargetKey, Collection<TargetKey>> entry :
+        reverseDependencies.asMap().entrySet()) {
+      builder.addReverseDependencies(
+          ProjectData.TargetIndexState.ReverseDependencies.newBuilder()
+              .setTarget(index(entry.getKey(), indices, builder))
+              .addAllDependents(indices(entry.getValue(), indices, builder)));
+    }
+    for (Map.Entry<File, Collection<TargetKey>> entry : sourceToTargets.asMap().entrySet()) {
+      builder.addSourceTargets(
+          ProjectData.TargetIndexState.SourceTargets.newBuilder()
+              .setSource(entry.getKey().getPath())
+              .addAllTargets(indices(entry.getValue(), indices, builder)));
+    }
+    return builder.build();
+  }
+
+  private static List<Integer> indices(
+      Collection<TargetKey> keys,
+      Map<TargetKey, Integer> indices,
+      ProjectData.TargetIndexState.Builder builder) {
+    List<Integer> list = new ArrayList<>(keys.size());
+    for (TargetKey key : keys) {
+      list.add(index(key, indices, builder));
+    }
+    return list;
+  }
+
+  private static int index(
+      TargetKey key,
+      Map<TargetKey, Integer> indices,
+      ProjectData.TargetIndexState.Builder builder) {
+    Integer index = indices.get(key);
+    if (index == null) {
+      index = indices.size();
+      indices.put(key, index);
+      builder.addTargets(key.toProto());
+    }
+    return index;
+  }
+
+  @Override
+  public void insert(ProjectData.SyncState.Builder builder) {
+    builder.setTargetIndexState(toProto());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    TargetIndexState that = (TargetIndexState) o;
+    return reverseDependencies.equals(that.reverseDependencies)
+        && sourceToTargets.equals(that.sourceToTargets);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(reverseDependencies, sourceToTargets);
+  }
+
+  static class Extractor implements SyncData.Extractor<TargetIndexState> {
+    @Nullable
+    @Override
+    public TargetIndexState extract(ProjectData.SyncState syncState) {
+      return syncState.hasTargetIndexState()
+          ? TargetIndexState.fromProto(syncState.getTargetIndexState())
+          : null;
+    }
+  }
+}
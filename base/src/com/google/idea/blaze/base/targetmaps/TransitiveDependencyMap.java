@@ -34,11 +34,15 @@ import java.util.LinkedHashSet;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 
 /** Handy class to find all transitive dependencies of a given target */
 public class TransitiveDependencyMap {
   private final Project project;
 
+  /** Built on demand for the current target map, and replaced once that changes. */
+  @Nullable private volatile TargetGraph graph;
+
   public static TransitiveDependencyMap getInstance(Project project) {
     return ServiceManager.getService(project, TransitiveDependencyMap.class);
   }
@@ -60,8 +64,8 @@ public class TransitiveDependencyMap {
       return false;
     }
 
-    return getTransitiveDependenciesStream(possibleDependent, blazeProjectData.getTargetMap())
-        .anyMatch(possibleDependency::equals);
+    return getGraph(blazeProjectData.getTargetMap())
+        .hasTransitiveDependency(possibleDependent, possibleDependency);
   }
 
   public ImmutableCollection<TargetKey> getTransitiveDependencies(TargetKey targetKey) {
@@ -70,8 +74,23 @@ public class TransitiveDependencyMap {
     if (blazeProjectData == null) {
       return ImmutableSet.of();
     }
-    // TODO: see if we need caching.
-    return getTransitiveDependencies(targetKey, blazeProjectData.getTargetMap());
+    return getGraph(blazeProjectData.getTargetMap()).getTransitiveDependencies(targetKey);
+  }
+
+  /** Returns the dependency graph for the given target map, building it if necessary. */
+  private TargetGraph getGraph(TargetMap targetMap) {
+    TargetGraph graph = this.graph;
+    if (graph != null && graph.targetMap == targetMap) {
+      return graph;
+    }
+    synchronized (this) {
+      graph = this.graph;
+      if (graph == null || graph.targetMap != targetMap) {
+        graph = TargetGraph.create(targetMap);
+        this.graph = graph;
+      }
+      return graph;
+    }
   }
 
   public static ImmutableCollection<TargetKey> getTransitiveDependencies(
@@ -61,7 +61,8 @@ public class GitBlazeVcsHandler implements BlazeVcsHandler {
           if (upstreamSha == null) {
             return null;
           }
-          return GitWorkingSetProvider.calculateWorkingSet(workspaceRoot, upstreamSha, context);
+          return GitWorkingSetCache.getInstance(project)
+              .getWorkingSet(workspaceRoot, upstreamSha, context);
         });
   }
 
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.vcs.git;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.scope.Scope;
+import com.google.idea.blaze.base.scope.output.PrintOutput;
+import com.google.idea.blaze.base.scope.scopes.TimingScope;
+import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
+import com.google.idea.blaze.base.sync.workspace.WorkingSet;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import java.io.File;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Caches the most recently computed git working set, keyed by the HEAD and upstream SHAs.
+ *
+ * <p>Between syncs, workspace paths touched by VFS events are recorded. While HEAD and upstream
+ * are unchanged, the next working set is derived from the cached one by re-querying git for just
+ * those paths, avoiding a full 'git diff' and untracked file scan. Any change to HEAD or upstream,
+ * to a .gitignore file, or too many touched paths, falls back to the full computation.
+ *
+ * <p>The VFS doesn't report files created in directories it never loaded, so git is queried for
+ * the parent directory of each touched path rather than just the path itself. Files modified
+ * outside the IDE are only picked up once the VFS has been refreshed.
+ */
+final class GitWorkingSetCache {
+
+  private static final BoolExperiment enabled =
+      new BoolExperiment("blaze.git.working.set.cache", false);
+
+  /** Beyond this many touched paths, a full recomputation is cheaper than a scoped query. */
+  @VisibleForTesting static final int MAX_CHANGED_PATHS = 500;
+
+  static GitWorkingSetCache getInstance(Project project) {
+    return ServiceManager.getService(project, GitWorkingSetCache.class);
+  }
+
+  private final Project project;
+
+  @GuardedBy("this")
+  @Nullable
+  private WorkspaceRoot subscribedRoot;
+
+  @GuardedBy("this")
+  @Nullable
+  private CachedWorkingSet cached;
+
+  @GuardedBy("this")
+  private final Set<WorkspacePath> changedPaths = new LinkedHashSet<>();
+
+  /** Set when the changed paths can't be trusted to cover every change to the working set. */
+  @GuardedBy("this")
+  private boolean fullComputationNeeded;
+
+  GitWorkingSetCache(Project project) {
+    this.project = project;
+  }
+
+  /**
+   * Returns the working set relative to the given upstream SHA, reusing the cached working set
+   * where possible. Returns null if an error occurred.
+   */
+  @Nullable
+  WorkingSet getWorkingSet(WorkspaceRoot workspaceRoot, String upstreamSha, BlazeContext context) {
+    if (!enabled.getValue()) {
+      return GitWorkingSetProvider.calculateWorkingSet(workspaceRoot, upstreamSha, context);
+    }
+    subscribe(workspaceRoot);
+    String headSha = GitWorkingSetProvider.getHeadSha(workspaceRoot);
+    if (headSha == null) {
+      return GitWorkingSetProvider.calculateWorkingSet(workspaceRoot, upstreamSha, context);
+    }
+    Key key = new Key(workspaceRoot, headSha, upstreamSha);
+
+    CachedWorkingSet previous;
+    ImmutableSet<WorkspacePath> refreshPaths;
+    synchronized (this) {
+      // take the changed paths before querying git; any later events are handled next time
+      previous =
+          cached != null && cached.key.equals(key) && !fullComputationNeeded ? cached : null;
+      refreshPaths = withParentDirectories(changedPaths);
+      changedPaths.clear();
+      fullComputationNeeded = false;
+      cached = null;
+    }
+
+    WorkingSet workingSet =
+        previous != null
+            ? updateWorkingSet(previous.workingSet, refreshPaths, key, context)
+            : Scope.push(
+                context,
+                childContext -> {
+                  childContext.push(new TimingScope("GitWorkingSetFull", EventType.Other));
+                  return GitWorkingSetProvider.calculateWorkingSet(
+                      workspaceRoot, upstreamSha, childContext);
+                });
+    if (workingSet != null) {
+      synchronized (this) {
+        cached = new CachedWorkingSet(key, workingSet);
+      }
+    }
+    return workingSet;
+  }
+
+  @Nullable
+  private static WorkingSet updateWorkingSet(
+      WorkingSet previous,
+      ImmutableSet<WorkspacePath> refreshPaths,
+      Key key,
+      BlazeContext context) {
+    return Scope.push(
+        context,
+        childContext -> {
+          childContext.push(new TimingScope("GitWorkingSetCached", EventType.Other));
+          childContext.output(
+              PrintOutput.log(
+                  String.format(
+                      "Reusing cached working set, refreshing %d changed path(s)",
+                      refreshPaths.size())));
+          if (refreshPaths.isEmpty()) {
+            return previous;
+          }
+          WorkingSet refreshed =
+              GitWorkingSetProvider.calculateWorkingSet(
+                  key.workspaceRoot, key.upstreamSha, childContext, refreshPaths);
+          return refreshed != null ? merge(previous, refreshPaths, refreshed) : null;
+        });
+  }
+
+  /**
+   * Replaces all entries of the previous working set lying under one of the refreshed paths with
+   * the freshly computed entries for those paths.
+   */
+  @VisibleForTesting
+  static WorkingSet merge(
+      WorkingSet previous, Collection<WorkspacePath> refreshedPaths, WorkingSet refreshed) {
+    Predicate<WorkspacePath> stale =
+        path -> refreshedPaths.stream().anyMatch(refreshedPath -> isUnder(path, refreshedPath));
+    return new WorkingSet(
+        merge(previous.addedFiles, stale, refreshed.addedFiles),
+        merge(previous.modifiedFiles, stale, refreshed.modifiedFiles),
+        merge(previous.deletedFiles, stale, refreshed.deletedFiles));
+  }
+
+  private static ImmutableList<WorkspacePath> merge(
+      List<WorkspacePath> previous,
+      Predicate<WorkspacePath> stale,
+      List<WorkspacePath> refreshed) {
+    Set<WorkspacePath> result = new LinkedHashSet<>();
+    previous.stream().filter(stale.negate()).forEach(result::add);
+    result.addAll(refreshed);
+    return ImmutableList.copyOf(result);
+  }
+
+  /**
+   * Replaces each path with its parent directory, unless that's the workspace root, so untracked
+   * files in neighbouring directories the VFS never loaded are picked up too. Drops paths lying
+   * under another path in the result, since git already queries directories recursively.
+   */
+  @VisibleForTesting
+  static ImmutableSet<WorkspacePath> withParentDirectories(Collection<WorkspacePath> paths) {
+    Set<WorkspacePath> directories = new LinkedHashSet<>();
+    for (WorkspacePath path : paths) {
+      WorkspacePath parent = path.getParent();
+      directories.add(parent != null && !parent.isWorkspaceRoot() ? parent : path);
+    }
+    return directories.stream()
+        .filter(
+            path ->
+                directories.stream()
+                    .noneMatch(other -> !other.equals(path) && isUnder(path, other)))
+        .collect(toImmutableSet());
+  }
+
+  private static boolean isUnder(WorkspacePath path, WorkspacePath directory) {
+    return path.equals(directory)
+        || path.relativePath().startsWith(directory.relativePath() + "/");
+  }
+
+  /** Records a workspace path touched since the working set was last computed. */
+  @VisibleForTesting
+  synchronized void pathChanged(WorkspacePath path) {
+    if (fullComputationNeeded) {
+      return;
+    }
+    if (path.isWorkspaceRoot()
+        || changesIgnoreRules(path)
+        || changedPaths.size() >= MAX_CHANGED_PATHS) {
+      fullComputationNeeded = true;
+      changedPaths.clear();
+      return;
+    }
+    changedPaths.add(path);
+  }
+
+  /**
+   * Returns the recorded changed paths, or null if the next working set needs a full computation.
+   */
+  @VisibleForTesting
+  @Nullable
+  synchronized ImmutableSet<WorkspacePath> getChangedPaths() {
+    return fullComputationNeeded ? null : ImmutableSet.copyOf(changedPaths);
+  }
+
+  private synchronized void subscribe(WorkspaceRoot workspaceRoot) {
+    if (subscribedRoot == null) {
+      project
+          .getMessageBus()
+          .connect(project)
+          .subscribe(VirtualFileManager.VFS_CHANGES, new Listener());
+    }
+    subscribedRoot = workspaceRoot;
+  }
+
+  private class Listener implements BulkFileListener {
+    @Override
+    public void after(List<? extends VFileEvent> events) {
+      WorkspaceRoot workspaceRoot;
+      synchronized (GitWorkingSetCache.this) {
+        if (subscribedRoot == null || fullComputationNeeded) {
+          return;
+        }
+        workspaceRoot = subscribedRoot;
+      }
+      for (VFileEvent event : events) {
+        String oldPath = getOldPath(event);
+        if (oldPath != null) {
+          recordPath(workspaceRoot, oldPath);
+        }
+        recordPath(workspaceRoot, event.getPath());
+      }
+    }
+
+    private void recordPath(WorkspaceRoot workspaceRoot, String path) {
+      WorkspacePath workspacePath = workspaceRoot.workspacePathForSafe(new File(path));
+      if (workspacePath == null
+          || (isGitMetadata(workspacePath) && !changesIgnoreRules(workspacePath))) {
+        return;
+      }
+      pathChanged(workspacePath);
+    }
+  }
+
+  /** Returns the path a moved or renamed file had before the event, if any. */
+  @Nullable
+  private static String getOldPath(VFileEvent event) {
+    if (event instanceof VFileMoveEvent) {
+      VFileMoveEvent move = (VFileMoveEvent) event;
+      return move.getOldParent().getPath() + "/" + move.getFile().getName();
+    }
+    if (event instanceof VFilePropertyChangeEvent) {
+      VFilePropertyChangeEvent change = (VFilePropertyChangeEvent) event;
+      VirtualFile parent = change.getFile().getParent();
+      if (VirtualFile.PROP_NAME.equals(change.getPropertyName()) && parent != null) {
+        return parent.getPath() + "/" + change.getOldValue();
+      }
+    }
+    return null;
+  }
+
+  private static boolean isGitMetadata(WorkspacePath path) {
+    return isUnder(path, new WorkspacePath(".git"));
+  }
+
+  /** Whether a change to this path may change which files git considers untracked. */
+  private static boolean changesIgnoreRules(WorkspacePath path) {
+    String relativePath = path.relativePath();
+    return relativePath.equals(".gitignore")
+        || relativePath.endsWith("/.gitignore")
+        || relativePath.equals(".git/info/exclude");
+  }
+
+  private static class CachedWorkingSet {
+    final Key key;
+    final WorkingSet workingSet;
+
+    CachedWorkingSet(Key key, WorkingSet workingSet) {
+      this.key = key;
+      this.workingSet = workingSet;
+    }
+  }
+
+  private static class Key {
+    final WorkspaceRoot workspaceRoot;
+    final String headSha;
+    final String upstreamSha;
+
+    Key(WorkspaceRoot workspaceRoot, String headSha, String upstreamSha) {
+      this.workspaceRoot = workspaceRoot;
+      this.headSha = headSha;
+      this.upstreamSha = upstreamSha;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return workspaceRoot.equals(other.workspaceRoot)
+          && headSha.equals(other.headSha)
+          && upstreamSha.equals(other.upstreamSha);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(workspaceRoot, headSha, upstreamSha);
+    }
+  }
+}
@@ -28,7 +28,9 @@ import com.google.idea.blaze.base.sync.workspace.WorkingSet;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.text.StringUtil;
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
@@ -45,6 +47,21 @@ public class GitWorkingSetProvider {
   @Nullable
   public static WorkingSet calculateWorkingSet(
       WorkspaceRoot workspaceRoot, String upstreamSha, BlazeContext context) {
+    return calculateWorkingSet(workspaceRoot, upstreamSha, context, ImmutableList.of());
+  }
+
+  /**
+   * Finds all changes between HEAD and the git commit specified by the provided SHA, restricted to
+   * the given workspace paths (and their children, for directories). An empty collection means no
+   * restriction.<br>
+   * Returns null if an error occurred.
+   */
+  @Nullable
+  static WorkingSet calculateWorkingSet(
+      WorkspaceRoot workspaceRoot,
+      String upstreamSha,
+      BlazeContext context,
+      Collection<WorkspacePath> paths) {
 
     String gitRoot = getConsoleOutput(workspaceRoot, "git", "rev-parse", "--show-toplevel");
     if (gitRoot == null) {
@@ -56,7 +73,9 @@ public class GitWorkingSetProvider {
     // Do a git diff to find all modified files we know about
     int retVal =
         ExternalTask.builder(workspaceRoot)
-            .args("git", "diff", "--name-status", "--no-renames", upstreamSha)
+            .args(
+                withPathspecs(
+                    paths, "git", "diff", "--name-status", "--no-renames", upstreamSha))
             .context(context)
             .stdout(LineProcessingOutputStream.of(processor))
             .stderr(stderr)
@@ -69,7 +88,9 @@ public class GitWorkingSetProvider {
 
     // Finally list all untracked files, as they're not caught by the git diff step above
     String untrackedFilesOutput =
-        getConsoleOutput(workspaceRoot, "git", "ls-files", "--others", "--exclude-standard");
+        getConsoleOutput(
+            workspaceRoot,
+            withPathspecs(paths, "git", "ls-files", "--others", "--exclude-standard"));
     if (untrackedFilesOutput == null) {
       return null;
     }
@@ -91,6 +112,29 @@ public class GitWorkingSetProvider {
         ImmutableList.copyOf(processor.deletedFiles));
   }
 
+  /** Returns the SHA of the current HEAD commit, or null if it couldn't be determined. */
+  @Nullable
+  static String getHeadSha(WorkspaceRoot workspaceRoot) {
+    return getConsoleOutput(workspaceRoot, "git", "rev-parse", "HEAD");
+  }
+
+  /**
+   * Appends the given workspace paths to a git command as literal pathspecs. Paths are relative to
+   * the workspace root, which is the working directory of all git invocations.
+   */
+  private static String[] withPathspecs(Collection<WorkspacePath> paths, String... command) {
+    if (paths.isEmpty()) {
+      return command;
+    }
+    List<String> args = new ArrayList<>();
+    args.add(command[0]);
+    args.add("--literal-pathspecs");
+    args.addAll(Arrays.asList(command).subList(1, command.length));
+    args.add("--");
+    paths.forEach(p -> args.add(p.relativePath()));
+    return args.toArray(new String[0]);
+  }
+
   /** @return the console output, in string form, or null if there was a non-zero exit code. */
   @Nullable
   private static String getConsoleOutput(WorkspaceRoot workspaceRoot, String... commands) {
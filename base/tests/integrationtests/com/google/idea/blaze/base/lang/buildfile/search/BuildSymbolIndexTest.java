@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.search;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.lang.buildfile.BuildFileIntegrationTestCase;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildElement;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
+import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.google.idea.blaze.base.lang.buildfile.psi.FunctionStatement;
+import com.google.idea.blaze.base.lang.buildfile.psi.TargetExpression;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.common.experiments.ExperimentService;
+import com.google.idea.common.experiments.MockExperimentService;
+import com.intellij.openapi.command.WriteCommandAction;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests that top-level symbol lookups via {@link BuildSymbolIndex} match a search of the PSI. */
+@RunWith(JUnit4.class)
+public class BuildSymbolIndexTest extends BuildFileIntegrationTestCase {
+
+  @Before
+  public final void enableIndex() {
+    MockExperimentService experimentService = new MockExperimentService();
+    experimentService.setExperimentRaw("blaze.build.file.symbol.index", true);
+    registerApplicationComponent(ExperimentService.class, experimentService);
+  }
+
+  @Test
+  public void testFindRule() {
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/BUILD"),
+            "java_library(name = 'lib')",
+            "java_library(",
+            "    name = 'other',",
+            "    deps = [':lib'],",
+            ")");
+
+    FuncallExpression other = file.findRule("other");
+
+    assertThat(other).isNotNull();
+    assertThat(other.getNameArgumentValue()).isEqualTo("other");
+    assertThat(file.findRule("lib").getNameArgumentValue()).isEqualTo("lib");
+    assertThat(file.findRule("missing")).isNull();
+  }
+
+  @Test
+  public void testFindRuleReturnsFirstDeclaration() {
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/BUILD"),
+            "java_library(name = 'lib')",
+            "java_binary(name = 'lib')");
+
+    assertThat(file.findRule("lib").getFunctionName()).isEqualTo("java_library");
+  }
+
+  @Test
+  public void testFindDeclaredFunction() {
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/build_defs.bzl"),
+            "def function(name):",
+            "    return name",
+            "def other():",
+            "    pass");
+
+    FunctionStatement function = file.findDeclaredFunction("other");
+
+    assertThat(function).isNotNull();
+    assertThat(function.getName()).isEqualTo("other");
+    assertThat(file.findDeclaredFunction("missing")).isNull();
+  }
+
+  @Test
+  public void testFindSymbolInScope() {
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/build_defs.bzl"),
+            "VALUE = 1",
+            "def function():",
+            "    pass");
+
+    BuildElement value = file.findSymbolInScope("VALUE");
+
+    assertThat(value).isInstanceOf(TargetExpression.class);
+    assertThat(value.getName()).isEqualTo("VALUE");
+    assertThat(file.findSymbolInScope("function")).isInstanceOf(FunctionStatement.class);
+    assertThat(file.findSymbolInScope("missing")).isNull();
+  }
+
+  @Test
+  public void testDeclaresOnlyRules() {
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/BUILD"),
+            "java_library(name = 'lib')",
+            "java_binary(name = 'lib')",
+            "java_library(name = 'other')");
+
+    assertThat(BuildSymbolIndex.declaresOnlyRules(file, ImmutableList.of("lib", "other")))
+        .isTrue();
+    assertThat(
+            BuildSymbolIndex.declaresOnlyRules(
+                file, ImmutableList.of("lib", "other", "generated_by_macro")))
+        .isTrue();
+    assertThat(BuildSymbolIndex.declaresOnlyRules(file, ImmutableList.of("lib"))).isFalse();
+  }
+
+  @Test
+  public void testLookupsSurviveEdits() {
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/BUILD"),
+            "java_library(name = 'lib')",
+            "java_library(name = 'other')");
+    assertThat(file.findRule("other")).isNotNull();
+
+    WriteCommandAction.runWriteCommandAction(
+        getProject(), () -> file.findRule("lib").setName("renamed"));
+
+    assertThat(file.findRule("lib")).isNull();
+    assertThat(file.findRule("renamed").getFunctionName()).isEqualTo("java_library");
+    assertThat(file.findRule("other").getNameArgumentValue()).isEqualTo("other");
+  }
+}
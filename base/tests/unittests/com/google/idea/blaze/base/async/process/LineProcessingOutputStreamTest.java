@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.async.process;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link LineProcessingOutputStream}. */
+@RunWith(JUnit4.class)
+public final class LineProcessingOutputStreamTest {
+  private final List<String> lines = new ArrayList<>();
+  private LineProcessingOutputStream stream;
+
+  @Before
+  public void setUp() {
+    stream = LineProcessingOutputStream.of(line -> lines.add(line));
+  }
+
+  @Test
+  public void testSplitsLinesWithinSingleWrite() {
+    write("first\nsecond\r\nthird\rfourth");
+    assertThat(lines).containsExactly("first", "second", "third").inOrder();
+  }
+
+  @Test
+  public void testJoinsLineSplitAcrossWrites() {
+    write("fir");
+    write("st\nsec");
+    write("ond\n");
+    assertThat(lines).containsExactly("first", "second").inOrder();
+  }
+
+  @Test
+  public void testCarriageReturnLineFeedSplitAcrossWrites() {
+    write("first\r");
+    write("\nsecond\n");
+    assertThat(lines).containsExactly("first", "second").inOrder();
+  }
+
+  @Test
+  public void testEmptyLines() {
+    write("\n\r\r\n\n");
+    assertThat(lines).containsExactly("", "", "", "").inOrder();
+  }
+
+  @Test
+  public void testMultiByteCharacterSplitAcrossWrites() {
+    byte[] bytes = "caf\u00e9 \u2603\n".getBytes(UTF_8);
+    for (int i = 0; i < bytes.length; i++) {
+      stream.write(bytes, i, 1);
+    }
+    assertThat(lines).containsExactly("caf\u00e9 \u2603");
+  }
+
+  @Test
+  public void testSingleByteWrites() {
+    for (byte b : "one\r\ntwo\n".getBytes(UTF_8)) {
+      stream.write(b);
+    }
+    assertThat(lines).containsExactly("one", "two").inOrder();
+  }
+
+  @Test
+  public void testLongLine() {
+    char[] chars = new char[100_000];
+    Arrays.fill(chars, 'x');
+    String longLine = new String(chars);
+    write(longLine.substring(0, 50_000));
+    write(longLine.substring(50_000) + "\n");
+    assertThat(lines).containsExactly(longLine);
+  }
+
+  @Test
+  public void testIgnoresOutputAfterClose() throws Exception {
+    write("first\n");
+    stream.close();
+    write("second\n");
+    assertThat(lines).containsExactly("first");
+  }
+
+  private void write(String text) {
+    byte[] bytes = text.getBytes(UTF_8);
+    stream.write(bytes, 0, bytes.length);
+  }
+}
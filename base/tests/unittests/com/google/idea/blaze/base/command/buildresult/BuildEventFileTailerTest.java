@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEvent;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildStarted;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.Progress;
+import com.google.idea.blaze.base.command.buildresult.BuildEventStreamProvider.BuildEventStreamException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link BuildEventFileTailer}. */
+@RunWith(JUnit4.class)
+public class BuildEventFileTailerTest {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void getNext_completeFile_returnsAllEvents() throws Exception {
+    File file = tmpFolder.newFile();
+    byte[] data = serialize(startedEvent(1L), progressEvent("stdout"));
+    append(file, data);
+
+    try (BuildEventFileTailer tailer = new BuildEventFileTailer(file, () -> true)) {
+      assertThat(tailer.getNext()).isEqualTo(startedEvent(1L));
+      assertThat(tailer.getNext()).isEqualTo(progressEvent("stdout"));
+      assertThat(tailer.getNext()).isNull();
+    }
+  }
+
+  @Test
+  public void getNext_eventSplitAcrossWrites_waitsForRemainder() throws Exception {
+    File file = tmpFolder.newFile();
+    byte[] data = serialize(startedEvent(1L), progressEvent("some output"));
+    int splitIndex = data.length - 3;
+    append(file, Arrays.copyOfRange(data, 0, splitIndex));
+
+    // the first time the tailer runs out of data, the remainder is written
+    AtomicInteger polls = new AtomicInteger();
+    try (BuildEventFileTailer tailer =
+        new BuildEventFileTailer(
+            file,
+            () -> {
+              if (polls.getAndIncrement() == 0) {
+                append(file, Arrays.copyOfRange(data, splitIndex, data.length));
+                return false;
+              }
+              return true;
+            })) {
+      assertThat(tailer.getNext()).isEqualTo(startedEvent(1L));
+      assertThat(tailer.getNext()).isEqualTo(progressEvent("some output"));
+      assertThat(tailer.getNext()).isNull();
+    }
+  }
+
+  @Test
+  public void getNext_fileNotYetCreated_waitsForFile() throws Exception {
+    File file = new File(tmpFolder.getRoot(), "bep-output");
+    AtomicInteger polls = new AtomicInteger();
+    try (BuildEventFileTailer tailer =
+        new BuildEventFileTailer(
+            file,
+            () -> {
+              if (polls.getAndIncrement() == 0) {
+                append(file, serialize(startedEvent(5L)));
+                return false;
+              }
+              return true;
+            })) {
+      assertThat(tailer.getNext()).isEqualTo(startedEvent(5L));
+      assertThat(tailer.getNext()).isNull();
+    }
+  }
+
+  @Test
+  public void getNext_truncatedFileAfterBuildComplete_throwsException() throws Exception {
+    File file = tmpFolder.newFile();
+    byte[] data = serialize(startedEvent(1L));
+    append(file, Arrays.copyOfRange(data, 0, data.length - 1));
+
+    try (BuildEventFileTailer tailer = new BuildEventFileTailer(file, () -> true)) {
+      tailer.getNext();
+      fail("Expected BuildEventStreamException");
+    } catch (BuildEventStreamException expected) {
+      // expected
+    }
+  }
+
+  private static BuildEvent startedEvent(long startTimeMillis) {
+    return BuildEvent.newBuilder()
+        .setStarted(BuildStarted.newBuilder().setStartTimeMillis(startTimeMillis))
+        .build();
+  }
+
+  private static BuildEvent progressEvent(String stdout) {
+    return BuildEvent.newBuilder().setProgress(Progress.newBuilder().setStdout(stdout)).build();
+  }
+
+  private static byte[] serialize(BuildEvent... events) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    for (BuildEvent event : events) {
+      event.writeDelimitedTo(output);
+    }
+    return output.toByteArray();
+  }
+
+  private static void append(File file, byte[] data) {
+    try (FileOutputStream output = new FileOutputStream(file, /* append= */ true)) {
+      output.write(data);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
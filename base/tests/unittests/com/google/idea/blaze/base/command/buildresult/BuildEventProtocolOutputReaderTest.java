@@ -54,7 +54,9 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -138,6 +140,44 @@ public class BuildEventProtocolOutputReaderTest extends BlazeTestCase {
         .containsExactly(new File("/usr/local/lib/File.py"));
   }
 
+  @Test
+  public void parseAllOutputs_withListener_reportsNewOutputsPerTarget() throws Exception {
+    ImmutableList<String> sharedFiles = ImmutableList.of("/usr/local/lib/Shared.java");
+    ImmutableList<String> target1Files = ImmutableList.of("/usr/local/lib/First.java");
+    ImmutableList<String> target2Files = ImmutableList.of("/usr/local/lib/Second.java");
+    List<BuildEvent.Builder> events =
+        ImmutableList.of(
+            configuration("config-id", "k8-opt"),
+            setOfFiles(sharedFiles, "shared-set"),
+            setOfFiles(target1Files, "set-1", ImmutableList.of("shared-set")),
+            targetComplete(
+                "//some:target1",
+                "config-id",
+                ImmutableList.of(outputGroup("group", ImmutableList.of("set-1")))),
+            setOfFiles(target2Files, "set-2", ImmutableList.of("shared-set")),
+            targetComplete(
+                "//some:target2",
+                "config-id",
+                ImmutableList.of(outputGroup("group", ImmutableList.of("set-2")))));
+
+    Map<String, Set<File>> reported = new LinkedHashMap<>();
+    BuildOutputsListener listener =
+        (label, outputs) ->
+            reported.put(
+                label, ImmutableSet.copyOf(BlazeArtifact.getLocalFiles(outputs.get("group"))));
+    ParsedBepOutput output =
+        ParsedBepOutput.parseBepArtifacts(
+            BuildEventStreamProvider.fromInputStream(asInputStream(events)), listener);
+
+    assertThat(reported.keySet()).containsExactly("//some:target1", "//some:target2").inOrder();
+    assertThat(reported.get("//some:target1"))
+        .containsExactly(
+            new File("/usr/local/lib/First.java"), new File("/usr/local/lib/Shared.java"));
+    assertThat(reported.get("//some:target2"))
+        .containsExactly(new File("/usr/local/lib/Second.java"));
+    assertThat(BlazeArtifact.getLocalFiles(output.getAllOutputArtifacts(path -> true))).hasSize(3);
+  }
+
   @Test
   public void parseAllOutputs_nonFileEvent_returnsEmptyList() throws Exception {
     BuildEvent.Builder targetFinishedEvent =
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.console;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.intellij.execution.filters.HyperlinkInfo;
+import com.intellij.execution.ui.ConsoleViewContentType;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link BoundedConsoleSink} */
+@RunWith(JUnit4.class)
+public class BoundedConsoleSinkTest extends BlazeTestCase {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private final RecordingConsole console = new RecordingConsole();
+  private int scheduledFlushes = 0;
+
+  @Test
+  public void testOutputBatchedUntilFlush() {
+    BoundedConsoleSink sink = createSink(/* maxConsoleChars= */ 1000, null);
+    sink.print("first\n", ConsoleViewContentType.NORMAL_OUTPUT);
+    sink.print("second\n", ConsoleViewContentType.NORMAL_OUTPUT);
+    sink.print("error\n", ConsoleViewContentType.ERROR_OUTPUT);
+
+    assertThat(console.printed).isEmpty();
+    assertThat(scheduledFlushes).isEqualTo(1);
+
+    sink.flush();
+    assertThat(console.printed).containsExactly("first\nsecond\n", "error\n").inOrder();
+  }
+
+  @Test
+  public void testFlushedOnceThresholdReached() {
+    BoundedConsoleSink sink = createSink(/* maxConsoleChars= */ 1000, null);
+    sink.print(Strings.repeat("x", 100), ConsoleViewContentType.NORMAL_OUTPUT);
+
+    assertThat(console.printed).containsExactly(Strings.repeat("x", 100));
+  }
+
+  @Test
+  public void testConsoleTruncatedToRecentOutput() {
+    BoundedConsoleSink sink = createSink(/* maxConsoleChars= */ 100, null);
+    for (int i = 0; i < 20; i++) {
+      sink.print(String.format("line %02d\n", i), ConsoleViewContentType.NORMAL_OUTPUT);
+      sink.flush();
+    }
+
+    assertThat(console.clears).isAtLeast(1);
+    String text = String.join("", console.printed);
+    assertThat(text).startsWith("Earlier output was truncated.");
+    assertThat(text).endsWith("line 19\n");
+    assertThat(text).doesNotContain("line 00");
+    assertThat(text.length()).isAtMost(100);
+  }
+
+  @Test
+  public void testFullLogKeepsAllOutput() throws Exception {
+    File fullLog = folder.newFile("console.log");
+    BoundedConsoleSink sink = createSink(/* maxConsoleChars= */ 100, fullLog);
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 20; i++) {
+      String line = String.format("line %02d\n", i);
+      expected.append(line);
+      sink.print(line, ConsoleViewContentType.NORMAL_OUTPUT);
+      sink.flush();
+    }
+
+    assertThat(new String(Files.readAllBytes(fullLog.toPath()), UTF_8))
+        .isEqualTo(expected.toString());
+
+    sink.clear();
+    sink.print("after clear\n", ConsoleViewContentType.NORMAL_OUTPUT);
+    sink.flush();
+    assertThat(new String(Files.readAllBytes(fullLog.toPath()), UTF_8))
+        .isEqualTo("after clear\n");
+  }
+
+  private BoundedConsoleSink createSink(int maxConsoleChars, @Nullable File fullLog) {
+    return new BoundedConsoleSink(
+        console,
+        () -> scheduledFlushes++,
+        maxConsoleChars,
+        /* flushThresholdChars= */ 100,
+        fullLog);
+  }
+
+  private static class RecordingConsole implements BoundedConsoleSink.Console {
+    private final List<String> printed = new ArrayList<>();
+    private int clears = 0;
+
+    @Override
+    public void print(String text, ConsoleViewContentType contentType) {
+      printed.add(text);
+    }
+
+    @Override
+    public void printHyperlink(String text, @Nullable HyperlinkInfo hyperlinkInfo) {
+      printed.add(text);
+    }
+
+    @Override
+    public void clear() {
+      printed.clear();
+      clears++;
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.filecache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.command.buildresult.LocalFileOutputArtifact;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
+import com.google.idea.blaze.base.filecache.ArtifactState.LocalFileState;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.google.idea.common.experiments.ExperimentService;
+import com.google.idea.common.experiments.MockExperimentService;
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ArtifactsDiff} */
+@RunWith(JUnit4.class)
+public class ArtifactsDiffTest extends BlazeTestCase {
+
+  private static final BoolExperiment trustBepDigests =
+      new BoolExperiment("blaze.sync.trust.bep.artifact.digests", false);
+
+  private MockExperimentService experimentService;
+  private MockFileOperationProvider fileOperationProvider;
+
+  private static class MockFileOperationProvider extends FileOperationProvider {
+    final Map<File, Long> times = new ConcurrentHashMap<>();
+    final Set<File> statted = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public long getFileModifiedTime(@NotNull File file) {
+      statted.add(file);
+      return times.getOrDefault(file, 0L);
+    }
+  }
+
+  @Override
+  protected void initTest(
+      @NotNull Container applicationServices, @NotNull Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    experimentService = new MockExperimentService();
+    applicationServices.register(ExperimentService.class, experimentService);
+
+    fileOperationProvider = new MockFileOperationProvider();
+    applicationServices.register(FileOperationProvider.class, fileOperationProvider);
+  }
+
+  @Test
+  public void testUnchangedDigestIsNotStatted() throws Exception {
+    experimentService.setExperiment(trustBepDigests, true);
+    OutputArtifact unchanged = artifact("k8-fastbuild/bin/a.jar", "digest-a");
+    OutputArtifact changed = artifact("k8-fastbuild/bin/b.jar", "digest-b2");
+    OutputArtifact added = artifact("k8-fastbuild/bin/c.jar", "digest-c");
+    fileOperationProvider.times.put(new File("/out/k8-fastbuild/bin/a.jar"), 10L);
+    fileOperationProvider.times.put(new File("/out/k8-fastbuild/bin/b.jar"), 20L);
+    fileOperationProvider.times.put(new File("/out/k8-fastbuild/bin/c.jar"), 30L);
+
+    ImmutableMap<String, ArtifactState> oldState =
+        ImmutableMap.of(
+            "k8-fastbuild/bin/a.jar",
+            new LocalFileState("k8-fastbuild/bin/a.jar", 10L, "digest-a"),
+            "k8-fastbuild/bin/b.jar",
+            new LocalFileState("k8-fastbuild/bin/b.jar", 20L, "digest-b1"));
+
+    ArtifactsDiff diff =
+        ArtifactsDiff.diffArtifacts(oldState, ImmutableList.of(unchanged, changed, added));
+
+    assertThat(diff.getUpdatedOutputs()).containsExactly(changed, added);
+    assertThat(diff.getRemovedOutputs()).isEmpty();
+    assertThat(diff.getNewState().keySet())
+        .containsExactly(
+            "k8-fastbuild/bin/a.jar", "k8-fastbuild/bin/b.jar", "k8-fastbuild/bin/c.jar");
+    assertThat(fileOperationProvider.statted)
+        .containsExactly(
+            new File("/out/k8-fastbuild/bin/b.jar"), new File("/out/k8-fastbuild/bin/c.jar"));
+  }
+
+  @Test
+  public void testArtifactsWithoutDigestAreStatted() throws Exception {
+    experimentService.setExperiment(trustBepDigests, true);
+    OutputArtifact artifact = artifact("k8-fastbuild/bin/a.jar", null);
+    fileOperationProvider.times.put(new File("/out/k8-fastbuild/bin/a.jar"), 15L);
+
+    ArtifactsDiff diff =
+        ArtifactsDiff.diffArtifacts(
+            ImmutableMap.of(
+                "k8-fastbuild/bin/a.jar", new LocalFileState("k8-fastbuild/bin/a.jar", 10L)),
+            ImmutableList.of(artifact));
+
+    assertThat(diff.getUpdatedOutputs()).containsExactly(artifact);
+    assertThat(fileOperationProvider.statted)
+        .containsExactly(new File("/out/k8-fastbuild/bin/a.jar"));
+  }
+
+  @Test
+  public void testDigestsIgnoredWhenExperimentDisabled() throws Exception {
+    OutputArtifact artifact = artifact("k8-fastbuild/bin/a.jar", "digest-a");
+    fileOperationProvider.times.put(new File("/out/k8-fastbuild/bin/a.jar"), 10L);
+
+    ArtifactsDiff diff =
+        ArtifactsDiff.diffArtifacts(
+            ImmutableMap.of(
+                "k8-fastbuild/bin/a.jar",
+                new LocalFileState("k8-fastbuild/bin/a.jar", 10L, "digest-a")),
+            ImmutableList.of(artifact));
+
+    assertThat(diff.getUpdatedOutputs()).isEmpty();
+    assertThat(fileOperationProvider.statted)
+        .containsExactly(new File("/out/k8-fastbuild/bin/a.jar"));
+  }
+
+  @Test
+  public void testChangedDigestComparedOnlyWhenExperimentEnabled() {
+    LocalFileState oldState = new LocalFileState("k8-fastbuild/bin/a.jar", 10L, "digest-a");
+    LocalFileState newState = new LocalFileState("k8-fastbuild/bin/a.jar", 10L, "digest-b");
+
+    assertThat(oldState.isMoreRecent(newState)).isFalse();
+
+    experimentService.setExperiment(trustBepDigests, true);
+    assertThat(oldState.isMoreRecent(newState)).isTrue();
+  }
+
+  @Test
+  public void testDigestSurvivesSerialization() {
+    LocalFileState state = new LocalFileState("k8-fastbuild/bin/a.jar", 10L, "digest-a");
+    ArtifactState deserialized = ArtifactState.fromProto(state.serializeToProto());
+
+    assertThat(deserialized).isInstanceOf(LocalFileState.class);
+    assertThat(((LocalFileState) deserialized).getDigest()).isEqualTo("digest-a");
+  }
+
+  private static OutputArtifact artifact(String relativePath, @Nullable String digest) {
+    return new LocalFileOutputArtifact(
+        new File("/out/" + relativePath), relativePath, "k8-fastbuild", digest);
+  }
+}
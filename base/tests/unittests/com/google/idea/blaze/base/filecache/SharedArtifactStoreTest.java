@@ -0,0 +1,170 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.filecache;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.idea.blaze.base.command.buildresult.LocalFileOutputArtifact;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SharedArtifactStore}. */
+@RunWith(JUnit4.class)
+public class SharedArtifactStoreTest {
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private final AtomicLong clock = new AtomicLong();
+  private File storeDir;
+  private File projectDir;
+  private SharedArtifactStore store;
+
+  @Before
+  public void setUp() throws IOException {
+    storeDir = tempFolder.newFolder("store");
+    projectDir = tempFolder.newFolder("project");
+    store = new SharedArtifactStore(storeDir, clock::incrementAndGet);
+  }
+
+  @Test
+  public void testArtifactsWithSameDigestAreStoredOnce() throws IOException {
+    LocalFileOutputArtifact first = artifact("k8-opt/bin/lib.jar", "contents", "digest");
+    LocalFileOutputArtifact second = artifact("k8-fastbuild/bin/lib.jar", "contents", "digest");
+
+    store.materialize(first, new File(projectDir, "first.jar"));
+    store.materialize(second, new File(projectDir, "second.jar"));
+
+    assertThat(storedFiles()).hasLength(1);
+    assertThat(read(new File(projectDir, "first.jar"))).isEqualTo("contents");
+    assertThat(read(new File(projectDir, "second.jar"))).isEqualTo("contents");
+  }
+
+  @Test
+  public void testArtifactsWithoutDigestAreHashed() throws IOException {
+    File first = store.getLocalFile(artifact("a/lib.jar", "contents", null, 1000L));
+    File second = store.getLocalFile(artifact("b/lib.jar", "contents", null, 1000L));
+    File third = store.getLocalFile(artifact("c/lib.jar", "other contents", null, 1000L));
+
+    assertThat(first).isEqualTo(second);
+    assertThat(third).isNotEqualTo(first);
+    assertThat(storedFiles()).hasLength(2);
+  }
+
+  @Test
+  public void testArtifactsWithoutDigestKeepTheirTimestamp() throws IOException {
+    File first = store.getLocalFile(artifact("a/lib.jar", "contents", null, 1000L));
+    File second = store.getLocalFile(artifact("b/lib.jar", "contents", null, 2000L));
+
+    assertThat(first).isNotEqualTo(second);
+    assertThat(first.lastModified()).isEqualTo(1000L);
+    assertThat(second.lastModified()).isEqualTo(2000L);
+  }
+
+  @Test
+  public void testLinkedCopiesAreIdentifiedByDigest() throws IOException {
+    LocalFileOutputArtifact first = artifact("k8-opt/bin/lib.jar", "contents", "digest", 1000L);
+    LocalFileOutputArtifact second =
+        artifact("k8-fastbuild/bin/lib.jar", "contents", "digest", 2000L);
+    LocalFileOutputArtifact changed =
+        artifact("k8-fastbuild/bin/lib.jar", "new contents", "new-digest", 3000L);
+    File cached = new File(projectDir, "lib.jar");
+
+    store.materialize(first, cached);
+
+    assertThat(store.isLinkedCopy(first, cached)).isTrue();
+    assertThat(store.isLinkedCopy(second, cached)).isTrue();
+    assertThat(store.isLinkedCopy(changed, cached)).isFalse();
+    assertThat(store.isLinkedCopy(artifact("a/lib.jar", "contents", null), cached)).isFalse();
+  }
+
+  @Test
+  public void testIndexIsPersisted() throws IOException {
+    File stored = store.getLocalFile(artifact("a/lib.jar", "contents", "digest"));
+    store.trimToSize(Long.MAX_VALUE);
+
+    // files missing from the index aren't managed by the store
+    File untracked = new File(storeDir, "untracked");
+    Files.write(untracked.toPath(), "untracked".getBytes(UTF_8));
+
+    SharedArtifactStore reloaded = new SharedArtifactStore(storeDir, clock::incrementAndGet);
+    reloaded.trimToSize(0);
+
+    assertThat(stored.exists()).isFalse();
+    assertThat(untracked.exists()).isTrue();
+  }
+
+  @Test
+  public void testLeastRecentlyUsedArtifactsAreEvicted() throws IOException {
+    LocalFileOutputArtifact old = artifact("a/old.jar", "0123456789", "old");
+    LocalFileOutputArtifact recent = artifact("a/recent.jar", "0123456789", "recent");
+    File oldFile = store.getLocalFile(old);
+    File recentFile = store.getLocalFile(recent);
+
+    store.trimToSize(15);
+
+    assertThat(oldFile.exists()).isFalse();
+    assertThat(recentFile.exists()).isTrue();
+  }
+
+  @Test
+  public void testAccessUpdatesRecency() throws IOException {
+    LocalFileOutputArtifact first = artifact("a/first.jar", "0123456789", "first");
+    LocalFileOutputArtifact second = artifact("a/second.jar", "0123456789", "second");
+    File firstFile = store.getLocalFile(first);
+    File secondFile = store.getLocalFile(second);
+    store.getLocalFile(first);
+
+    store.trimToSize(15);
+
+    assertThat(firstFile.exists()).isTrue();
+    assertThat(secondFile.exists()).isFalse();
+  }
+
+  private LocalFileOutputArtifact artifact(
+      String relativePath, String contents, @Nullable String digest) throws IOException {
+    File file = new File(tempFolder.getRoot(), "blaze-out/" + relativePath);
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), contents.getBytes(UTF_8));
+    return new LocalFileOutputArtifact(file, relativePath, "k8-fastbuild", digest);
+  }
+
+  private LocalFileOutputArtifact artifact(
+      String relativePath, String contents, @Nullable String digest, long timestamp)
+      throws IOException {
+    LocalFileOutputArtifact artifact = artifact(relativePath, contents, digest);
+    Files.setLastModifiedTime(artifact.getFile().toPath(), FileTime.fromMillis(timestamp));
+    return artifact;
+  }
+
+  private File[] storedFiles() {
+    return storeDir.listFiles(File::isFile);
+  }
+
+  private static String read(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()), UTF_8);
+  }
+}
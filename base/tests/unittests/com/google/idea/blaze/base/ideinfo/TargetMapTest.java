@@ -0,0 +1,129 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for lazily-decoded {@link TargetMap}s. */
+@RunWith(JUnit4.class)
+public class TargetMapTest extends BlazeTestCase {
+
+  private static final TargetKey LIB = key("//foo:lib");
+  private static final TargetKey TEST = key("//foo:test");
+
+  private TargetMap eagerMap;
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Kind.Provider> ep =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    ep.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+
+    eagerMap =
+        TargetMapBuilder.builder()
+            .addTarget(TargetIdeInfo.builder().setLabel("//foo:lib").setKind("sh_library"))
+            .addTarget(TargetIdeInfo.builder().setLabel("//foo:test").setKind("sh_test"))
+            .build();
+  }
+
+  @Test
+  public void testGetDecodesOnlyRequestedTarget() {
+    CountingLoader loader = new CountingLoader(eagerMap.map());
+    TargetMap targetMap = TargetMap.lazy(loader);
+
+    assertThat(targetMap.contains(LIB)).isTrue();
+    assertThat(targetMap.keys()).containsExactly(LIB, TEST).inOrder();
+    assertThat(loader.loaded).isEmpty();
+
+    assertThat(targetMap.get(LIB)).isEqualTo(eagerMap.get(LIB));
+    assertThat(targetMap.get(LIB)).isEqualTo(eagerMap.get(LIB));
+    assertThat(loader.loaded).containsExactly(LIB);
+  }
+
+  @Test
+  public void testForEachTargetDoesNotRetainTargets() {
+    CountingLoader loader = new CountingLoader(eagerMap.map());
+    TargetMap targetMap = TargetMap.lazy(loader);
+
+    ImmutableMap.Builder<TargetKey, TargetIdeInfo> visited = ImmutableMap.builder();
+    targetMap.forEachTarget(visited::put);
+    targetMap.forEachTarget((key, target) -> {});
+
+    assertThat(visited.build()).isEqualTo(eagerMap.map());
+    assertThat(loader.loaded).containsExactly(LIB, TEST, LIB, TEST).inOrder();
+  }
+
+  @Test
+  public void testEqualToEagerMap() {
+    TargetMap targetMap = TargetMap.lazy(new CountingLoader(eagerMap.map()));
+
+    assertThat(targetMap).isEqualTo(eagerMap);
+    assertThat(targetMap.hashCode()).isEqualTo(eagerMap.hashCode());
+    assertThat(targetMap)
+        .isNotEqualTo(TargetMapBuilder.builder().addTarget(eagerMap.get(LIB)).build());
+  }
+
+  @Test
+  public void testHashCodeDoesNotDecodeTargets() {
+    CountingLoader loader = new CountingLoader(eagerMap.map());
+    TargetMap targetMap = TargetMap.lazy(loader);
+
+    assertThat(targetMap.hashCode()).isEqualTo(eagerMap.hashCode());
+    assertThat(loader.loaded).isEmpty();
+  }
+
+  private static TargetKey key(String label) {
+    return TargetKey.forPlainTarget(Label.create(label));
+  }
+
+  /** Loads targets from an in-memory map, recording each load. */
+  private static class CountingLoader implements TargetMap.TargetLoader {
+    private final ImmutableMap<TargetKey, TargetIdeInfo> targets;
+    private final List<TargetKey> loaded = new ArrayList<>();
+
+    CountingLoader(ImmutableMap<TargetKey, TargetIdeInfo> targets) {
+      this.targets = targets;
+    }
+
+    @Override
+    public ImmutableSet<TargetKey> keys() {
+      return targets.keySet();
+    }
+
+    @Nullable
+    @Override
+    public TargetIdeInfo load(TargetKey key) {
+      loaded.add(key);
+      return targets.get(key);
+    }
+  }
+}
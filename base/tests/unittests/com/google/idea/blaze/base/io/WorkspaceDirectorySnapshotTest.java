@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.io;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.io.WorkspaceDirectorySnapshot.DirectoryListing;
+import com.google.idea.common.experiments.ExperimentService;
+import com.google.idea.common.experiments.MockExperimentService;
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link WorkspaceDirectorySnapshot} */
+@RunWith(JUnit4.class)
+public class WorkspaceDirectorySnapshotTest extends BlazeTestCase {
+
+  private static final long OLD_MODIFIED_TIME = 1000;
+
+  private final FakeFileOperationProvider files = new FakeFileOperationProvider();
+  private WorkspaceDirectorySnapshot snapshot;
+
+  @Override
+  protected void initTest(
+      @NotNull Container applicationServices, @NotNull Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    MockExperimentService experimentService = new MockExperimentService();
+    experimentService.setExperimentRaw("blaze.workspace.directory.snapshot", true);
+    applicationServices.register(ExperimentService.class, experimentService);
+    applicationServices.register(FileOperationProvider.class, files);
+    snapshot = new WorkspaceDirectorySnapshot(project);
+  }
+
+  @Test
+  public void testListingReportsChildDirectories() {
+    File root = new File("/workspace");
+    files.addDirectory(root, OLD_MODIFIED_TIME, "java", "BUILD");
+    files.addDirectory(new File(root, "java"), OLD_MODIFIED_TIME);
+
+    DirectoryListing listing = snapshot.list(root);
+
+    assertThat(listing.getChildren())
+        .containsExactly(new File(root, "java"), new File(root, "BUILD"));
+    assertThat(listing.isDirectory(new File(root, "java"))).isTrue();
+    assertThat(listing.isDirectory(new File(root, "BUILD"))).isFalse();
+    assertThat(snapshot.list(new File(root, "BUILD"))).isNull();
+  }
+
+  @Test
+  public void testDirectoryListedOncePerSync() {
+    File root = new File("/workspace");
+    files.addDirectory(root, System.currentTimeMillis(), "BUILD");
+
+    snapshot.syncStarted();
+    snapshot.list(root);
+    snapshot.list(root);
+    assertThat(files.listCalls).isEqualTo(1);
+    snapshot.syncFinished(/* successful= */ true);
+
+    // a recently modified directory can't be revalidated by its modification time
+    snapshot.list(root);
+    assertThat(files.listCalls).isEqualTo(2);
+  }
+
+  @Test
+  public void testUnmodifiedDirectoryReusedBetweenSyncs() {
+    File root = new File("/workspace");
+    files.addDirectory(root, OLD_MODIFIED_TIME, "BUILD");
+
+    snapshot.list(root);
+    snapshot.list(root);
+    assertThat(files.listCalls).isEqualTo(1);
+  }
+
+  @Test
+  public void testModifiedDirectoryRelisted() {
+    File root = new File("/workspace");
+    files.addDirectory(root, OLD_MODIFIED_TIME, "BUILD");
+    snapshot.list(root);
+
+    files.addDirectory(root, OLD_MODIFIED_TIME + 1, "BUILD", "Foo.java");
+    DirectoryListing listing = snapshot.list(root);
+
+    assertThat(files.listCalls).isEqualTo(2);
+    assertThat(listing.getChildren())
+        .containsExactly(new File(root, "BUILD"), new File(root, "Foo.java"));
+  }
+
+  @Test
+  public void testListingsUnusedBySyncDropped() {
+    File used = new File("/workspace/used");
+    File unused = new File("/workspace/unused");
+    files.addDirectory(used, OLD_MODIFIED_TIME, "BUILD");
+    files.addDirectory(unused, OLD_MODIFIED_TIME, "BUILD");
+    snapshot.list(used);
+    snapshot.list(unused);
+
+    snapshot.syncStarted();
+    snapshot.list(used);
+    snapshot.syncFinished(/* successful= */ true);
+    assertThat(files.listCalls).isEqualTo(2);
+
+    snapshot.list(used);
+    assertThat(files.listCalls).isEqualTo(2);
+    snapshot.list(unused);
+    assertThat(files.listCalls).isEqualTo(3);
+  }
+
+  @Test
+  public void testListingsKeptAfterFailedSync() {
+    File root = new File("/workspace");
+    files.addDirectory(root, OLD_MODIFIED_TIME, "BUILD");
+    snapshot.list(root);
+
+    snapshot.syncStarted();
+    snapshot.syncFinished(/* successful= */ false);
+
+    snapshot.list(root);
+    assertThat(files.listCalls).isEqualTo(1);
+  }
+
+  private static class FakeFileOperationProvider extends FileOperationProvider {
+    private final Map<File, List<String>> directories = new HashMap<>();
+    private final Map<File, Long> modifiedTimes = new HashMap<>();
+    private int listCalls = 0;
+
+    void addDirectory(File directory, long modifiedTime, String... children) {
+      directories.put(directory, ImmutableList.copyOf(children));
+      modifiedTimes.put(directory, modifiedTime);
+    }
+
+    @Override
+    public boolean isDirectory(File file) {
+      return directories.containsKey(file);
+    }
+
+    @Override
+    public long getFileModifiedTime(File file) {
+      return modifiedTimes.getOrDefault(file, 0L);
+    }
+
+    @Nullable
+    @Override
+    public File[] listFiles(File directory) {
+      listCalls++;
+      List<String> children = directories.get(directory);
+      return children != null
+          ? children.stream().map(name -> new File(directory, name)).toArray(File[]::new)
+          : null;
+    }
+  }
+}
@@ -21,6 +21,7 @@ import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableList;
 import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.issueparser.BlazeIssueParser.ParseResult;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
 import com.google.idea.blaze.base.model.MockBlazeProjectDataManager;
@@ -40,6 +41,8 @@ import com.google.idea.common.experiments.ExperimentService;
 import com.google.idea.common.experiments.MockExperimentService;
 import com.intellij.openapi.util.TextRange;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -223,6 +226,17 @@ public class BlazeIssueParserTest extends BlazeTestCase {
         .isEqualTo(TextRange.create(0, "java/com/google/foo/bar/baz.ts:123:45".length()));
   }
 
+  @Test
+  public void testCompileParserSkipsLinesWithoutLineNumberAfterFirstColon() {
+    BlazeIssueParser.CompileParser parser = new BlazeIssueParser.CompileParser(project);
+    assertThat(parser.parse("INFO: foo/bar.cc:12: error: unused", ImmutableList.of()))
+        .isSameAs(BlazeIssueParser.ParseResult.NO_RESULT);
+    assertThat(parser.parse("foo/bar.cc:", ImmutableList.of()))
+        .isSameAs(BlazeIssueParser.ParseResult.NO_RESULT);
+    assertThat(parser.parse("foo/bar.cc:12: WARNING: unused", ImmutableList.of()))
+        .isNotSameAs(BlazeIssueParser.ParseResult.NO_RESULT);
+  }
+
   @Test
   public void testParseBuildError() {
     BlazeIssueParser blazeIssueParser = new BlazeIssueParser(parsers);
@@ -481,6 +495,43 @@ public class BlazeIssueParserTest extends BlazeTestCase {
     assertThat(blazeIssueParser.parseIssue(lines[4])).isNotNull();
   }
 
+  @Test
+  public void testParserSkippedForLinesWithoutRequiredSubstring() {
+    List<String> parsedLines = new ArrayList<>();
+    BlazeIssueParser.Parser parser =
+        new BlazeIssueParser.Parser() {
+          @Override
+          public ParseResult parse(String currentLine, List<String> previousLines) {
+            parsedLines.add(currentLine);
+            return ParseResult.NO_RESULT;
+          }
+
+          @Override
+          public String getRequiredSubstring() {
+            return "ERROR: ";
+          }
+        };
+    BlazeIssueParser blazeIssueParser = new BlazeIssueParser(ImmutableList.of(parser));
+
+    assertThat(blazeIssueParser.parseIssue("INFO: Build completed successfully")).isNull();
+    assertThat(blazeIssueParser.parseIssue("ERROR: something went wrong")).isNull();
+
+    assertThat(parsedLines).containsExactly("ERROR: something went wrong");
+  }
+
+  @Test
+  public void testParserOrderPreservedWithRequiredSubstrings() {
+    BlazeIssueParser blazeIssueParser =
+        new BlazeIssueParser(
+            ImmutableList.of(
+                new BlazeIssueParser.SkylarkErrorParser(),
+                BlazeIssueParser.GenericErrorParser.INSTANCE));
+    IssueOutput issue =
+        blazeIssueParser.parseIssue("ERROR: /root/foo/defs.bzl:12:3: name 'x' is not defined");
+    assertThat(issue).isNotNull();
+    assertThat(issue.getFile()).isEqualTo(new File("/root/foo/defs.bzl"));
+  }
+
   /** Simple Parser for testing */
   private static class TestParser extends BlazeIssueParser.SingleLineParser {
 
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.search;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.lang.buildfile.search.PackageTargetIndex.Snapshot;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Kind.Provider;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.io.File;
+import java.io.IOException;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PackageTargetIndex}. */
+@RunWith(JUnit4.class)
+public class PackageTargetIndexTest extends BlazeTestCase {
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Override
+  protected void initTest(
+      @NotNull Container applicationServices, @NotNull Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Provider> kindProvider =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    kindProvider.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+  }
+
+  @Test
+  public void testBuild_groupsTargetsByPackage() {
+    Snapshot snapshot = Snapshot.build(targetMap(), 42L);
+
+    assertThat(snapshot.builtAt).isEqualTo(42L);
+    assertThat(snapshot.packages.keySet()).containsExactly("foo", "foo/bar");
+    assertThat(snapshot.packages.get("foo"))
+        .isEqualTo(ImmutableMap.of("lib", "proto_library", "other", "sh_binary"));
+    assertThat(snapshot.packages.get("foo/bar")).isEqualTo(ImmutableMap.of("lib", "proto_library"));
+  }
+
+  @Test
+  public void testBuild_skipsExternalTargets() {
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(TargetIdeInfo.builder().setLabel("@repo//foo:lib").setKind("sh_binary"))
+            .build();
+
+    assertThat(Snapshot.build(targetMap, 0L).packages).isEmpty();
+  }
+
+  @Test
+  public void testWriteAndRead() throws IOException {
+    Snapshot snapshot = Snapshot.build(targetMap(), 42L);
+    File file = new File(tempFolder.getRoot(), "package_targets.dat");
+
+    snapshot.write(file);
+    Snapshot read = Snapshot.read(file);
+
+    assertThat(read.builtAt).isEqualTo(42L);
+    assertThat(read.packages).isEqualTo(snapshot.packages);
+  }
+
+  private static TargetMap targetMap() {
+    return TargetMapBuilder.builder()
+        .addTarget(TargetIdeInfo.builder().setLabel("//foo:lib").setKind("proto_library"))
+        .addTarget(TargetIdeInfo.builder().setLabel("//foo:other").setKind("sh_binary"))
+        .addTarget(TargetIdeInfo.builder().setLabel("//foo/bar:lib").setKind("proto_library"))
+        .build();
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.model;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.settings.BuildSystem;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.io.File;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link IndexedProjectDataFile}. */
+@RunWith(JUnit4.class)
+public class IndexedProjectDataFileTest extends BlazeTestCase {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Kind.Provider> ep =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    ep.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+  }
+
+  @Test
+  public void testUnchangedFromSerializationRoundTrip() throws Exception {
+    BlazeProjectData projectData =
+        MockBlazeProjectDataBuilder.builder()
+            .setTargetMap(
+                TargetMapBuilder.builder()
+                    .addTarget(target("//foo:lib").addDependency("//bar:lib"))
+                    .addTarget(target("//bar:lib"))
+                    .addTarget(target("//baz:test").setKind("sh_test"))
+                    .build())
+            .build();
+
+    BlazeProjectData loaded = roundTrip(projectData);
+
+    assertThat(loaded.toProto()).isEqualTo(projectData.toProto());
+    assertThat(loaded.getTargetMap()).isEqualTo(projectData.getTargetMap());
+    assertThat(loaded.getTargetMap().keys())
+        .containsExactlyElementsIn(projectData.getTargetMap().keys())
+        .inOrder();
+  }
+
+  @Test
+  public void testTargetsDecodedIndividually() throws Exception {
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(target("//foo:lib").addDependency("//bar:lib"))
+            .addTarget(target("//bar:lib"))
+            .build();
+    BlazeProjectData projectData =
+        MockBlazeProjectDataBuilder.builder().setTargetMap(targetMap).build();
+
+    TargetMap loaded = roundTrip(projectData).getTargetMap();
+
+    TargetKey key = TargetKey.forPlainTarget(Label.create("//foo:lib"));
+    assertThat(loaded.contains(key)).isTrue();
+    assertThat(loaded.get(key)).isEqualTo(targetMap.get(key));
+    assertThat(loaded.get(TargetKey.forPlainTarget(Label.create("//missing:lib")))).isNull();
+  }
+
+  @Test
+  public void testEmptyTargetMap() throws Exception {
+    BlazeProjectData projectData = MockBlazeProjectDataBuilder.builder().build();
+
+    BlazeProjectData loaded = roundTrip(projectData);
+
+    assertThat(loaded.getTargetMap().keys()).isEmpty();
+    assertThat(loaded.toProto()).isEqualTo(projectData.toProto());
+  }
+
+  private BlazeProjectData roundTrip(BlazeProjectData projectData) throws Exception {
+    File file = tmpFolder.newFile("cache.0.idx");
+    IndexedProjectDataFile.write(projectData, file);
+    return IndexedProjectDataFile.read(BuildSystem.Bazel, file);
+  }
+
+  private static TargetIdeInfo.Builder target(String label) {
+    return TargetIdeInfo.builder()
+        .setBuildFile(
+            ArtifactLocation.builder()
+                .setRelativePath(Label.create(label).blazePackage() + "/BUILD")
+                .setIsSource(true)
+                .build())
+        .setLabel(label)
+        .setKind("sh_library");
+  }
+}
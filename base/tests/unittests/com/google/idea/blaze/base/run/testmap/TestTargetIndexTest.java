@@ -0,0 +1,214 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.run.testmap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import com.google.idea.blaze.base.async.executor.MockBlazeExecutor;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.run.testmap.TestTargetIndex.Snapshot;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.base.sync.workspace.MockArtifactLocationDecoder;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.io.File;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link TestTargetIndex}. */
+@RunWith(JUnit4.class)
+public class TestTargetIndexTest extends BlazeTestCase {
+  private final ArtifactLocationDecoder decoder = new MockArtifactLocationDecoder();
+
+  @Override
+  protected void initTest(
+      @NotNull Container applicationServices, @NotNull Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    applicationServices.register(BlazeExecutor.class, new MockBlazeExecutor());
+    ExtensionPointImpl<Kind.Provider> kindProvider =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    kindProvider.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+  }
+
+  @Test
+  public void testDirectAndTransitiveTestsOrderedByDistance() throws Exception {
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(target("//test:lib", "sh_library").addSource(source("test/Lib.sh")))
+            .addTarget(target("//test:lib2", "sh_library").addDependency("//test:lib"))
+            .addTarget(target("//test:test2", "sh_test").addDependency("//test:lib2"))
+            .addTarget(target("//test:test", "sh_test").addDependency("//test:lib"))
+            .addTarget(target("//other:test", "sh_test").addSource(source("other/Test.sh")))
+            .build();
+
+    Snapshot snapshot = Snapshot.compute(null, targetMap, null, null, decoder);
+
+    assertThat(snapshot.getSourceToTests().get(new File("test/Lib.sh")))
+        .containsExactly(key("//test:test"), key("//test:test2"))
+        .inOrder();
+    assertThat(snapshot.getSourceToTests().get(new File("other/Test.sh")))
+        .containsExactly(key("//other:test"));
+  }
+
+  @Test
+  public void testSourceInMultipleTargetsUsesClosestDistance() throws Exception {
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(target("//test:lib", "sh_library").addSource(source("test/Lib.sh")))
+            .addTarget(
+                target("//test:lib2", "sh_library")
+                    .addSource(source("test/Lib.sh"))
+                    .addDependency("//test:lib"))
+            .addTarget(target("//test:test", "sh_test").addDependency("//test:lib"))
+            .addTarget(target("//test:test2", "sh_test").addDependency("//test:lib2"))
+            .build();
+
+    Snapshot snapshot = Snapshot.compute(null, targetMap, null, null, decoder);
+
+    assertThat(snapshot.getSourceToTests().get(new File("test/Lib.sh")))
+        .containsExactly(key("//test:test"), key("//test:test2"));
+  }
+
+  @Test
+  public void testUnaffectedEntriesReused() throws Exception {
+    TargetMap oldTargets =
+        TargetMapBuilder.builder()
+            .addTarget(target("//a:lib", "sh_library").addSource(source("a/Lib.sh")))
+            .addTarget(target("//a:test", "sh_test").addDependency("//a:lib"))
+            .addTarget(target("//b:lib", "sh_library").addSource(source("b/Lib.sh")))
+            .addTarget(target("//b:test", "sh_test").addDependency("//b:lib"))
+            .addTarget(target("//c:lib", "sh_library").addSource(source("c/Lib.sh")))
+            .addTarget(target("//c:test", "sh_test").addDependency("//c:lib"))
+            .build();
+    TargetMap newTargets =
+        TargetMapBuilder.builder()
+            .addTarget(target("//a:lib", "sh_library").addSource(source("a/Lib.sh")))
+            .addTarget(target("//a:test", "sh_test").addDependency("//a:lib"))
+            .addTarget(
+                target("//b:lib", "sh_library")
+                    .addSource(source("b/Lib.sh"))
+                    .addDependency("//a:lib"))
+            .addTarget(target("//b:test", "sh_test").addDependency("//b:lib"))
+            .addTarget(target("//c:lib", "sh_library").addSource(source("c/Lib.sh")))
+            .addTarget(target("//c:test", "sh_test").addDependency("//c:lib"))
+            .build();
+
+    Snapshot previous = Snapshot.compute(null, oldTargets, null, null, decoder);
+    Snapshot updated =
+        Snapshot.compute(previous, newTargets, null, ImmutableSet.of(key("//b:lib")), decoder);
+
+    assertThat(updated.getSourceToTests().get(new File("c/Lib.sh")))
+        .isSameAs(previous.getSourceToTests().get(new File("c/Lib.sh")));
+    assertThat(updated.getSourceToTests().get(new File("a/Lib.sh")))
+        .containsExactly(key("//a:test"), key("//b:test"))
+        .inOrder();
+  }
+
+  @Test
+  public void testRemovedDependenciesInvalidateEntries() throws Exception {
+    TargetMap oldTargets =
+        TargetMapBuilder.builder()
+            .addTarget(target("//a:lib", "sh_library").addSource(source("a/Lib.sh")))
+            .addTarget(target("//b:lib", "sh_library").addDependency("//a:lib"))
+            .addTarget(target("//b:test", "sh_test").addDependency("//b:lib"))
+            .build();
+    TargetMap newTargets =
+        TargetMapBuilder.builder()
+            .addTarget(target("//a:lib", "sh_library").addSource(source("a/Lib.sh")))
+            .addTarget(target("//b:lib", "sh_library"))
+            .addTarget(target("//b:test", "sh_test").addDependency("//b:lib"))
+            .build();
+
+    Snapshot previous = Snapshot.compute(null, oldTargets, null, null, decoder);
+    Snapshot updated =
+        Snapshot.compute(previous, newTargets, null, ImmutableSet.of(key("//b:lib")), decoder);
+
+    assertThat(previous.getSourceToTests().get(new File("a/Lib.sh")))
+        .containsExactly(key("//b:test"));
+    assertThat(updated.getSourceToTests()).doesNotContainKey(new File("a/Lib.sh"));
+  }
+
+  @Test
+  public void testReusedEntriesFollowNewTargetOrder() throws Exception {
+    TargetMap oldTargets =
+        TargetMapBuilder.builder()
+            .addTarget(target("//a:lib", "sh_library").addSource(source("a/Lib.sh")))
+            .addTarget(target("//a:test", "sh_test").addDependency("//a:lib"))
+            .build();
+    TargetMap newTargets =
+        TargetMapBuilder.builder()
+            .addTarget(target("//b:lib", "sh_library").addSource(source("b/Lib.sh")))
+            .addTarget(target("//b:test", "sh_test").addDependency("//b:lib"))
+            .addTarget(target("//a:lib", "sh_library").addSource(source("a/Lib.sh")))
+            .addTarget(target("//a:test", "sh_test").addDependency("//a:lib"))
+            .build();
+
+    Snapshot previous = Snapshot.compute(null, oldTargets, null, null, decoder);
+    Snapshot updated =
+        Snapshot.compute(
+            previous, newTargets, null, ImmutableSet.of(key("//b:lib"), key("//b:test")), decoder);
+
+    assertThat(updated.getSourceToTests().get(new File("a/Lib.sh")))
+        .containsExactly(key("//a:test"));
+    assertThat(updated.getSourceToTests().get(new File("b/Lib.sh")))
+        .containsExactly(key("//b:test"));
+  }
+
+  @Test
+  public void testRemovedTargetsDropped() throws Exception {
+    TargetMap oldTargets =
+        TargetMapBuilder.builder()
+            .addTarget(target("//a:lib", "sh_library").addSource(source("a/Lib.sh")))
+            .addTarget(target("//a:test", "sh_test").addDependency("//a:lib"))
+            .build();
+    TargetMap newTargets =
+        TargetMapBuilder.builder()
+            .addTarget(target("//a:lib", "sh_library").addSource(source("a/Lib.sh")))
+            .build();
+
+    Snapshot previous = Snapshot.compute(null, oldTargets, null, null, decoder);
+    Snapshot updated = Snapshot.compute(previous, newTargets, null, ImmutableSet.of(), decoder);
+
+    assertThat(updated.getSourceToTests()).isEmpty();
+  }
+
+  private static TargetIdeInfo.Builder target(String label, String kind) {
+    return TargetIdeInfo.builder()
+        .setBuildFile(source(Label.create(label).blazePackage() + "/BUILD"))
+        .setLabel(label)
+        .setKind(kind);
+  }
+
+  private static ArtifactLocation source(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+
+  private static TargetKey key(String label) {
+    return TargetKey.forPlainTarget(Label.create(label));
+  }
+}
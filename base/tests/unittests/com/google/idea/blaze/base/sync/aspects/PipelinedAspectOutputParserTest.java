@@ -0,0 +1,209 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.aspects;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
+import com.google.idea.blaze.base.filecache.ArtifactState;
+import com.google.idea.blaze.base.filecache.ArtifactState.LocalFileState;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.model.primitives.LanguageClass;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.model.primitives.WorkspaceType;
+import com.google.idea.blaze.base.projectview.section.sections.DirectoryEntry;
+import com.google.idea.blaze.base.settings.BuildSystem;
+import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategyBazel;
+import com.google.idea.blaze.base.sync.projectview.ImportRoots;
+import com.google.idea.blaze.base.sync.projectview.WorkspaceLanguageSettings;
+import com.google.idea.common.experiments.ExperimentService;
+import com.google.idea.common.experiments.MockExperimentService;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import javax.annotation.Nullable;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PipelinedAspectOutputParser}. */
+@RunWith(JUnit4.class)
+public class PipelinedAspectOutputParserTest extends BlazeTestCase {
+
+  private static final WorkspaceLanguageSettings LANGUAGE_SETTINGS =
+      new WorkspaceLanguageSettings(WorkspaceType.JAVA, ImmutableSet.of(LanguageClass.GENERIC));
+
+  private final ImportRoots importRoots =
+      ImportRoots.builder(new WorkspaceRoot(new File("/root")), BuildSystem.Blaze)
+          .add(DirectoryEntry.include(new WorkspacePath("foo")))
+          .build();
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Kind.Provider> ep =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    ep.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+    applicationServices.register(ExperimentService.class, new MockExperimentService());
+    applicationServices.register(BlazeExecutor.class, new ThreadPoolBlazeExecutor());
+  }
+
+  @Test
+  public void testParsesAllShards() throws Exception {
+    PipelinedAspectOutputParser parser = createParser(/* previousState= */ null);
+    parser.parseOutputs(ImmutableList.of(aspectFile("//foo:lib1", "sh_library", 1)));
+    parser.parseOutputs(ImmutableList.of(aspectFile("//foo:lib2", "sh_library", 1)));
+
+    ImmutableMap<String, PipelinedAspectOutputParser.ParsedOutput> parsed =
+        parser.getParsedOutputs();
+
+    assertThat(parsed.keySet()).containsExactly(key("//foo:lib1"), key("//foo:lib2"));
+    assertThat(parsed.get(key("//foo:lib1")).target.isDone()).isTrue();
+    assertThat(parsed.get(key("//foo:lib1")).target.get().getKey())
+        .isEqualTo(TargetKey.forPlainTarget(Label.create("//foo:lib1")));
+    ArtifactState state = parsed.get(key("//foo:lib1")).state;
+    assertThat(state.isMoreRecent(new LocalFileState(key("//foo:lib1"), 1))).isFalse();
+    assertThat(state.isMoreRecent(new LocalFileState(key("//foo:lib1"), 2))).isTrue();
+  }
+
+  @Test
+  public void testSkipsFilesUnchangedSincePreviousSync() throws Exception {
+    PipelinedAspectOutputParser parser =
+        createParser(
+            ImmutableMap.of(
+                key("//foo:lib1"), new LocalFileState(key("//foo:lib1"), /* timestamp= */ 2)));
+    parser.parseOutputs(
+        ImmutableList.of(
+            aspectFile("//foo:lib1", "sh_library", 2), aspectFile("//foo:lib2", "sh_library", 2)));
+
+    assertThat(parser.getParsedOutputs().keySet()).containsExactly(key("//foo:lib2"));
+  }
+
+  @Test
+  public void testIgnoredLanguagesCompleteAfterGettingParsedOutputs() throws Exception {
+    PipelinedAspectOutputParser parser = createParser(/* previousState= */ null);
+    ImmutableList.Builder<OutputArtifact> files = ImmutableList.builder();
+    for (int i = 0; i < 100; i++) {
+      files.add(aspectFile("//foo:plugin" + i, "intellij_plugin_debug_target", 1));
+    }
+    parser.parseOutputs(files.build());
+
+    ImmutableMap<String, PipelinedAspectOutputParser.ParsedOutput> parsed =
+        parser.getParsedOutputs();
+
+    assertThat(parsed).hasSize(100);
+    for (PipelinedAspectOutputParser.ParsedOutput output : parsed.values()) {
+      assertThat(output.target.isDone()).isTrue();
+      assertThat(output.target.get()).isNull();
+    }
+    assertThat(parser.getIgnoredLanguages()).containsExactly(LanguageClass.JAVA);
+  }
+
+  @Test
+  public void testNoShardsReturnsEmptyResults() throws Exception {
+    PipelinedAspectOutputParser parser = createParser(/* previousState= */ null);
+    parser.parseOutputs(ImmutableList.of());
+
+    assertThat(parser.getParsedOutputs()).isEmpty();
+    assertThat(parser.getIgnoredLanguages()).isEmpty();
+  }
+
+  private PipelinedAspectOutputParser createParser(
+      @Nullable ImmutableMap<String, ArtifactState> previousState) {
+    return new PipelinedAspectOutputParser(
+        new AspectStrategyBazel(), LANGUAGE_SETTINGS, importRoots, previousState);
+  }
+
+  private static String key(String label) {
+    return "k8-opt/bin/" + label.substring(2).replace(':', '/') + ".intellij-info.txt";
+  }
+
+  private static OutputArtifact aspectFile(String label, String kind, long timestamp) {
+    String contents =
+        String.format("key {\n  label: \"%s\"\n}\nkind_string: \"%s\"\n", label, kind);
+    return new FakeAspectFile(key(label), contents, timestamp);
+  }
+
+  private static class FakeAspectFile implements OutputArtifact {
+    private final String key;
+    private final byte[] contents;
+    private final long timestamp;
+
+    FakeAspectFile(String key, String contents, long timestamp) {
+      this.key = key;
+      this.contents = contents.getBytes(UTF_8);
+      this.timestamp = timestamp;
+    }
+
+    @Override
+    public long getLength() {
+      return contents.length;
+    }
+
+    @Override
+    public String getConfigurationMnemonic() {
+      return "k8-opt";
+    }
+
+    @Override
+    public String getRelativePath() {
+      return key;
+    }
+
+    @Override
+    public ArtifactState toArtifactState() {
+      return new LocalFileState(key, timestamp);
+    }
+
+    @Override
+    public BufferedInputStream getInputStream() {
+      return new BufferedInputStream(new ByteArrayInputStream(contents));
+    }
+  }
+
+  /** Runs tasks on a real thread pool, so parsing runs concurrently with the test thread. */
+  private static class ThreadPoolBlazeExecutor extends BlazeExecutor {
+    private final ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+
+    @Override
+    public <T> ListenableFuture<T> submit(Callable<T> callable) {
+      return executor.submit(callable);
+    }
+
+    @Override
+    public ListeningExecutorService getExecutor() {
+      return executor;
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link TargetGraph}. */
+@RunWith(JUnit4.class)
+public class TargetGraphTest extends BlazeTestCase {
+  private static final TargetKey A = key("//l:a");
+  private static final TargetKey B = key("//l:b");
+  private static final TargetKey C = key("//l:c");
+  private static final TargetKey MISSING = key("//l:missing");
+
+  @Override
+  protected void initTest(
+      @NotNull Container applicationServices, @NotNull Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Kind.Provider> ep =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    ep.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+  }
+
+  @Test
+  public void testCycle() {
+    TargetGraph graph =
+        TargetGraph.create(
+            TargetMapBuilder.builder()
+                .addTarget(target(A).addDependency(B.getLabel()))
+                .addTarget(target(B).addDependency(C.getLabel()))
+                .addTarget(target(C).addDependency(A.getLabel()))
+                .build());
+
+    assertThat(graph.getTransitiveDependencies(A)).containsExactly(B, C, A).inOrder();
+    assertThat(graph.hasTransitiveDependency(A, A)).isTrue();
+    assertThat(graph.hasTransitiveDependency(C, B)).isTrue();
+  }
+
+  @Test
+  public void testReverseDependencies() {
+    TargetGraph graph =
+        TargetGraph.create(
+            TargetMapBuilder.builder()
+                .addTarget(target(A).addDependency(B.getLabel()))
+                .addTarget(target(B).addDependency(C.getLabel()))
+                .addTarget(target(C))
+                .build());
+
+    assertThat(graph.getTransitiveReverseDependencies(C)).containsExactly(B, A).inOrder();
+    assertThat(graph.getTransitiveReverseDependencies(A)).isEmpty();
+    assertThat(graph.hasTransitiveDependency(C, A)).isFalse();
+  }
+
+  @Test
+  public void testDependenciesMissingFromTargetMap() {
+    TargetGraph graph =
+        TargetGraph.create(
+            TargetMapBuilder.builder()
+                .addTarget(target(A).addDependency(MISSING.getLabel()))
+                .build());
+
+    assertThat(graph.getTransitiveDependencies(A)).containsExactly(MISSING);
+    assertThat(graph.hasTransitiveDependency(A, MISSING)).isTrue();
+    assertThat(graph.getTransitiveDependencies(MISSING)).isEmpty();
+    assertThat(graph.getTransitiveDependencies(key("//l:unknown"))).isEmpty();
+    assertThat(graph.hasTransitiveDependency(key("//l:unknown"), A)).isFalse();
+  }
+
+  private static TargetIdeInfo.Builder target(TargetKey key) {
+    return TargetIdeInfo.builder()
+        .setBuildFile(
+            ArtifactLocation.builder().setRelativePath("l/BUILD").setIsSource(true).build())
+        .setLabel(key.getLabel())
+        .setKind("proto_library");
+  }
+
+  private static TargetKey key(String label) {
+    return TargetKey.forPlainTarget(Label.create(label));
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Kind.Provider;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.base.sync.workspace.MockArtifactLocationDecoder;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.io.File;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link TargetIndexState}. */
+@RunWith(JUnit4.class)
+public class TargetIndexStateTest extends BlazeTestCase {
+  private final ArtifactLocationDecoder decoder = new MockArtifactLocationDecoder();
+
+  @Override
+  protected void initTest(
+      @NotNull Container applicationServices, @NotNull Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Provider> kindProvider =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    kindProvider.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+  }
+
+  @Test
+  public void testUpdateChangedTarget() {
+    TargetMap oldTargets =
+        TargetMapBuilder.builder()
+            .addTarget(target("//l:l1", "l/A.java").addDependency("//l:l2"))
+            .addTarget(target("//l:l2", "l/B.java"))
+            .addTarget(target("//l:l3", "l/C.java"))
+            .build();
+    TargetMap newTargets =
+        TargetMapBuilder.builder()
+            .addTarget(target("//l:l1", "l/A.java").addDependency("//l:l3"))
+            .addTarget(target("//l:l2", "l/B.java"))
+            .addTarget(target("//l:l3", "l/C.java"))
+            .build();
+
+    TargetIndexState state =
+        TargetIndexState.create(oldTargets, decoder)
+            .update(newTargets, decoder, ImmutableSet.of(key("//l:l1")));
+
+    assertThat(state.getReverseDependencies(newTargets))
+        .containsExactly(key("//l:l3"), key("//l:l1"));
+    assertThat(state.getSourceToTargetMap())
+        .containsExactly(
+            new File("l/A.java"), key("//l:l1"),
+            new File("l/B.java"), key("//l:l2"),
+            new File("l/C.java"), key("//l:l3"));
+  }
+
+  @Test
+  public void testUpdateRemovedTarget() {
+    TargetMap oldTargets =
+        TargetMapBuilder.builder()
+            .addTarget(target("//l:l1", "l/A.java").addDependency("//l:l2"))
+            .addTarget(target("//l:l2", "l/B.java"))
+            .build();
+    TargetMap newTargets =
+        TargetMapBuilder.builder().addTarget(target("//l:l2", "l/B.java")).build();
+
+    TargetIndexState state =
+        TargetIndexState.create(oldTargets, decoder)
+            .update(newTargets, decoder, ImmutableSet.of());
+
+    assertThat(state.getReverseDependencies(newTargets)).isEmpty();
+    assertThat(state.getSourceToTargetMap())
+        .containsExactly(new File("l/B.java"), key("//l:l2"));
+  }
+
+  @Test
+  public void testUpdateAddedDependencyKeepsEdgesFromUnchangedTargets() {
+    TargetMap oldTargets =
+        TargetMapBuilder.builder()
+            .addTarget(target("//l:l1", "l/A.java").addDependency("//l:l2"))
+            .build();
+    TargetMap newTargets =
+        TargetMapBuilder.builder()
+            .addTarget(target("//l:l1", "l/A.java").addDependency("//l:l2"))
+            .addTarget(target("//l:l2", "l/B.java"))
+            .build();
+
+    TargetIndexState oldState = TargetIndexState.create(oldTargets, decoder);
+    TargetIndexState state = oldState.update(newTargets, decoder, ImmutableSet.of(key("//l:l2")));
+
+    assertThat(oldState.getReverseDependencies(oldTargets)).isEmpty();
+    assertThat(state.getReverseDependencies(newTargets))
+        .containsExactly(key("//l:l2"), key("//l:l1"));
+  }
+
+  @Test
+  public void testProtoRoundTrip() {
+    TargetMap targets =
+        TargetMapBuilder.builder()
+            .addTarget(
+                target("//l:l1", "l/A.java").addDependency("//l:l2").addDependency("//l:l3"))
+            .addTarget(target("//l:l2", "l/B.java").addDependency("//l:l3"))
+            .addTarget(target("//l:l3", "l/A.java"))
+            .build();
+    TargetIndexState state = TargetIndexState.create(targets, decoder);
+
+    TargetIndexState extracted =
+        new TargetIndexState.Extractor()
+            .extract(
+                ProjectData.SyncState.newBuilder()
+                    .setTargetIndexState(state.toProto())
+                    .build());
+
+    assertThat(extracted).isEqualTo(state);
+  }
+
+  private static TargetIdeInfo.Builder target(String label, String source) {
+    return TargetIdeInfo.builder()
+        .setBuildFile(sourceRoot("l/BUILD"))
+        .setLabel(label)
+        .setKind("proto_library")
+        .addSource(sourceRoot(source));
+  }
+
+  private static TargetKey key(String label) {
+    return TargetKey.forPlainTarget(Label.create(label));
+  }
+
+  private static ArtifactLocation sourceRoot(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.vcs.git;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.sync.workspace.WorkingSet;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link GitWorkingSetCache} */
+@RunWith(JUnit4.class)
+public class GitWorkingSetCacheTest extends BlazeTestCase {
+
+  @Test
+  public void testMergeReplacesEntriesUnderRefreshedPaths() {
+    WorkingSet previous =
+        new WorkingSet(
+            ImmutableList.of(path("java/com/foo/New.java"), path("java/com/bar/Other.java")),
+            ImmutableList.of(path("java/com/foo/Changed.java"), path("java/com/foobar/A.java")),
+            ImmutableList.of(path("README")));
+    WorkingSet refreshed =
+        new WorkingSet(
+            ImmutableList.of(path("java/com/foo/Added.java")),
+            ImmutableList.of(path("README")),
+            ImmutableList.of());
+
+    WorkingSet merged =
+        GitWorkingSetCache.merge(
+            previous, ImmutableList.of(path("java/com/foo"), path("README")), refreshed);
+
+    assertThat(merged.addedFiles)
+        .containsExactly(path("java/com/bar/Other.java"), path("java/com/foo/Added.java"))
+        .inOrder();
+    assertThat(merged.modifiedFiles)
+        .containsExactly(path("java/com/foobar/A.java"), path("README"))
+        .inOrder();
+    assertThat(merged.deletedFiles).isEmpty();
+  }
+
+  @Test
+  public void testMergeKeepsEntriesOutsideRefreshedPaths() {
+    WorkingSet previous =
+        new WorkingSet(
+            ImmutableList.of(path("a/New.java")),
+            ImmutableList.of(path("b/Changed.java")),
+            ImmutableList.of(path("c/Gone.java")));
+
+    WorkingSet merged =
+        GitWorkingSetCache.merge(
+            previous,
+            ImmutableList.of(path("d/Reverted.java")),
+            new WorkingSet(ImmutableList.of(), ImmutableList.of(), ImmutableList.of()));
+
+    assertThat(merged.addedFiles).containsExactly(path("a/New.java"));
+    assertThat(merged.modifiedFiles).containsExactly(path("b/Changed.java"));
+    assertThat(merged.deletedFiles).containsExactly(path("c/Gone.java"));
+  }
+
+  @Test
+  public void testChangedPathsAreRecorded() {
+    GitWorkingSetCache cache = new GitWorkingSetCache(project);
+    cache.pathChanged(path("java/com/foo/A.java"));
+    cache.pathChanged(path("java/com/foo/A.java"));
+    cache.pathChanged(path("java/com/bar"));
+
+    assertThat(cache.getChangedPaths())
+        .containsExactly(path("java/com/foo/A.java"), path("java/com/bar"));
+  }
+
+  @Test
+  public void testTooManyChangedPathsStopsTracking() {
+    GitWorkingSetCache cache = new GitWorkingSetCache(project);
+    for (int i = 0; i <= GitWorkingSetCache.MAX_CHANGED_PATHS; i++) {
+      cache.pathChanged(path("pkg/File" + i + ".java"));
+    }
+    assertThat(cache.getChangedPaths()).isNull();
+  }
+
+  @Test
+  public void testWorkspaceRootChangeStopsTracking() {
+    GitWorkingSetCache cache = new GitWorkingSetCache(project);
+    cache.pathChanged(path("pkg/File.java"));
+    cache.pathChanged(path(""));
+    assertThat(cache.getChangedPaths()).isNull();
+  }
+
+  @Test
+  public void testGitignoreChangeStopsTracking() {
+    GitWorkingSetCache cache = new GitWorkingSetCache(project);
+    cache.pathChanged(path("pkg/File.java"));
+    cache.pathChanged(path("pkg/.gitignore"));
+    assertThat(cache.getChangedPaths()).isNull();
+  }
+
+  @Test
+  public void testRefreshedPathsIncludeParentDirectories() {
+    assertThat(
+            GitWorkingSetCache.withParentDirectories(
+                ImmutableList.of(
+                    path("java/com/foo/A.java"),
+                    path("java/com/foo/sub/B.java"),
+                    path("java/com/bar"),
+                    path("README"))))
+        .containsExactly(path("java/com"), path("README"));
+  }
+
+  private static WorkspacePath path(String relativePath) {
+    return new WorkspacePath(relativePath);
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.fastbuild;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+
+/**
+ * The ABI of every class compiled from the sources of a fast build, as of the last successful
+ * compile. Used to work out which dependents of a recompiled source also need recompiling.
+ *
+ * <p>The index starts out from the class files in the deploy jar produced by blaze, and is updated
+ * with the output of each incremental compile.
+ */
+final class FastBuildAbiIndex {
+
+  private final File deployJar;
+  private final long deployJarModified;
+  private final Map<String, FastBuildClassAbi> classes = new HashMap<>();
+  /** Maps a class name to the classes whose bytecode mentions it. */
+  private final SetMultimap<String, String> referencedBy = HashMultimap.create();
+
+  private FastBuildAbiIndex(File deployJar, long deployJarModified) {
+    this.deployJar = deployJar;
+    this.deployJarModified = deployJarModified;
+  }
+
+  /**
+   * Reads the ABI of the classes in {@code deployJar} whose package directory is accepted by
+   * {@code includePackage}. Everything else in the deploy jar (third-party libraries, mostly) can't
+   * be recompiled by the fast build, so there's no point indexing it.
+   */
+  static FastBuildAbiIndex create(File deployJar, Predicate<String> includePackage)
+      throws IOException {
+    FastBuildAbiIndex index = new FastBuildAbiIndex(deployJar, deployJar.lastModified());
+    List<FastBuildClassAbi> abis = new ArrayList<>();
+    try (ZipFile zipFile = new ZipFile(deployJar)) {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        String name = entry.getName();
+        if (entry.isDirectory() || !name.endsWith(".class") || name.startsWith("META-INF/")) {
+          continue;
+        }
+        int packageEnd = name.lastIndexOf('/');
+        if (packageEnd < 0 || !includePackage.test(name.substring(0, packageEnd))) {
+          continue;
+        }
+        try (InputStream in = zipFile.getInputStream(entry)) {
+          abis.add(FastBuildClassAbi.read(ByteStreams.toByteArray(in)));
+        }
+      }
+    }
+    index.apply(abis, sourcePath -> false);
+    return index;
+  }
+
+  /**
+   * Reads the ABI of every class file under {@code directory} written at or after {@code since}
+   * (in milliseconds since the epoch, rounded down to the second to allow for coarse file system
+   * timestamps).
+   */
+  static ImmutableList<FastBuildClassAbi> readClassFiles(File directory, long since)
+      throws IOException {
+    long threshold = since / 1000 * 1000;
+    ImmutableList.Builder<FastBuildClassAbi> abis = ImmutableList.builder();
+    try (Stream<Path> paths = Files.walk(directory.toPath())) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        if (path.toString().endsWith(".class")
+            && Files.isRegularFile(path)
+            && Files.getLastModifiedTime(path).toMillis() >= threshold) {
+          abis.add(FastBuildClassAbi.read(Files.readAllBytes(path)));
+        }
+      }
+    }
+    return abis.build();
+  }
+
+  /** Whether this index was built from the current contents of {@code deployJar}. */
+  boolean isUpToDate(File deployJar) {
+    return this.deployJar.equals(deployJar) && deployJar.lastModified() == deployJarModified;
+  }
+
+  /**
+   * Compares freshly compiled classes against the index, without updating it.
+   *
+   * @param recompiled the classes produced by compiling some set of sources
+   * @param isRecompiledSource whether a {@link FastBuildClassAbi#sourcePath()} belongs to one of
+   *     those sources. Indexed classes from those sources that weren't produced again were removed.
+   */
+  synchronized AbiChanges diff(
+      Collection<FastBuildClassAbi> recompiled, Predicate<String> isRecompiledSource) {
+    Set<String> changed = new HashSet<>();
+    Set<String> constantsChanged = new HashSet<>();
+    Set<String> produced = new HashSet<>();
+    for (FastBuildClassAbi abi : recompiled) {
+      produced.add(abi.className());
+      FastBuildClassAbi previous = classes.get(abi.className());
+      if (previous == null) {
+        // A new class can change how names resolve in its package.
+        changed.add(abi.className());
+        continue;
+      }
+      if (!previous.abiHash().equals(abi.abiHash())) {
+        changed.add(abi.className());
+      }
+      if (!previous.constantsHash().equals(abi.constantsHash())) {
+        constantsChanged.add(abi.className());
+      }
+    }
+    for (FastBuildClassAbi previous : classes.values()) {
+      if (isRecompiledSource.test(previous.sourcePath())
+          && !produced.contains(previous.className())) {
+        changed.add(previous.className());
+        constantsChanged.add(previous.className());
+      }
+    }
+    return new AbiChanges(changed, constantsChanged);
+  }
+
+  /** Records freshly compiled classes, replacing whatever their sources produced before. */
+  synchronized void apply(
+      Collection<FastBuildClassAbi> recompiled, Predicate<String> isRecompiledSource) {
+    List<String> removed = new ArrayList<>();
+    for (FastBuildClassAbi previous : classes.values()) {
+      if (isRecompiledSource.test(previous.sourcePath())) {
+        removed.add(previous.className());
+      }
+    }
+    removed.forEach(this::remove);
+    for (FastBuildClassAbi abi : recompiled) {
+      remove(abi.className());
+      classes.put(abi.className(), abi);
+      for (String reference : abi.referencedClasses()) {
+        referencedBy.put(reference, abi.className());
+      }
+    }
+  }
+
+  private void remove(String className) {
+    FastBuildClassAbi previous = classes.remove(className);
+    if (previous != null) {
+      for (String reference : previous.referencedClasses()) {
+        referencedBy.remove(reference, className);
+      }
+    }
+  }
+
+  /** Returns the source paths of every indexed class that mentions one of {@code classNames}. */
+  synchronized ImmutableSet<String> sourcesReferencing(Collection<String> classNames) {
+    ImmutableSet.Builder<String> sources = ImmutableSet.builder();
+    for (String className : classNames) {
+      for (String dependent : referencedBy.get(className)) {
+        sources.add(classes.get(dependent).sourcePath());
+      }
+    }
+    return sources.build();
+  }
+
+  /** Returns the source path of an indexed class, or null if it isn't indexed. */
+  @Nullable
+  synchronized String sourceOf(String className) {
+    FastBuildClassAbi abi = classes.get(className);
+    return abi != null ? abi.sourcePath() : null;
+  }
+
+  /** The classes whose ABI changed in a compile. */
+  static final class AbiChanges {
+    /** Classes whose signatures changed, or which were added or removed. */
+    final ImmutableSet<String> changedClasses;
+    /** Classes whose compile-time constants changed, which callers may have inlined. */
+    final ImmutableSet<String> changedConstants;
+
+    private AbiChanges(Set<String> changedClasses, Set<String> changedConstants) {
+      this.changedClasses = ImmutableSet.copyOf(changedClasses);
+      this.changedConstants = ImmutableSet.copyOf(changedConstants);
+    }
+
+    boolean isEmpty() {
+      return changedClasses.isEmpty() && changedConstants.isEmpty();
+    }
+  }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.fastbuild;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * The parts of a compiled class that other classes can compile against, read straight from the
+ * class file.
+ *
+ * <p>Two class files with the same {@link #abiHash()} can be swapped without recompiling the
+ * classes that use them. Method bodies, private and synthetic members are not part of the ABI.
+ * Compile-time constants are tracked separately in {@link #constantsHash()}, because javac inlines
+ * them and leaves no reference to the declaring class behind.
+ */
+final class FastBuildClassAbi {
+
+  private static final int MAGIC = 0xCAFEBABE;
+
+  private static final int ACC_PRIVATE = 0x0002;
+  private static final int ACC_STATIC = 0x0008;
+  private static final int ACC_FINAL = 0x0010;
+  private static final int ACC_SUPER = 0x0020;
+  private static final int ACC_SYNTHETIC = 0x1000;
+
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_INTEGER = 3;
+  private static final int CONSTANT_FLOAT = 4;
+  private static final int CONSTANT_LONG = 5;
+  private static final int CONSTANT_DOUBLE = 6;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_STRING = 8;
+  private static final int CONSTANT_FIELDREF = 9;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_INTERFACE_METHODREF = 11;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+  private static final int CONSTANT_METHOD_HANDLE = 15;
+  private static final int CONSTANT_METHOD_TYPE = 16;
+  private static final int CONSTANT_DYNAMIC = 17;
+  private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+  private static final int CONSTANT_MODULE = 19;
+  private static final int CONSTANT_PACKAGE = 20;
+
+  /** Matches class names embedded in field, method and generic signature descriptors. */
+  private static final Pattern DESCRIPTOR_CLASS = Pattern.compile("L([\\w/$]+)[;<]");
+
+  private final String className;
+  private final String sourcePath;
+  private final HashCode abiHash;
+  private final HashCode constantsHash;
+  private final ImmutableSet<String> referencedClasses;
+
+  private FastBuildClassAbi(
+      String className,
+      String sourcePath,
+      HashCode abiHash,
+      HashCode constantsHash,
+      ImmutableSet<String> referencedClasses) {
+    this.className = className;
+    this.sourcePath = sourcePath;
+    this.abiHash = abiHash;
+    this.constantsHash = constantsHash;
+    this.referencedClasses = referencedClasses;
+  }
+
+  /** The internal name of the class, e.g. {@code com/google/Foo$Bar}. */
+  String className() {
+    return className;
+  }
+
+  /** The workspace-relative suffix of the source file, e.g. {@code com/google/Foo.java}. */
+  String sourcePath() {
+    return sourcePath;
+  }
+
+  HashCode abiHash() {
+    return abiHash;
+  }
+
+  HashCode constantsHash() {
+    return constantsHash;
+  }
+
+  /** The internal names of every other class this class's bytecode mentions. */
+  ImmutableSet<String> referencedClasses() {
+    return referencedClasses;
+  }
+
+  static FastBuildClassAbi read(byte[] classFile) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a class file");
+    }
+    in.readUnsignedShort(); // minor_version
+    in.readUnsignedShort(); // major_version
+    ConstantPool pool = ConstantPool.read(in);
+
+    int access = in.readUnsignedShort() & ~ACC_SUPER;
+    String className = pool.className(in.readUnsignedShort());
+    int superIndex = in.readUnsignedShort();
+    String superName = superIndex == 0 ? "" : pool.className(superIndex);
+    List<String> interfaces = new ArrayList<>();
+    for (int i = in.readUnsignedShort(); i > 0; i--) {
+      interfaces.add(pool.className(in.readUnsignedShort()));
+    }
+    Collections.sort(interfaces);
+
+    List<String> members = new ArrayList<>();
+    List<String> constants = new ArrayList<>();
+    readMembers(in, pool, 'F', members, constants);
+    readMembers(in, pool, 'M', members, /* constants= */ null);
+    Collections.sort(members);
+    Collections.sort(constants);
+
+    String sourceFile = null;
+    String signature = null;
+    for (int i = in.readUnsignedShort(); i > 0; i--) {
+      String name = pool.utf8(in.readUnsignedShort());
+      int length = in.readInt();
+      if (name.equals("SourceFile")) {
+        sourceFile = pool.utf8(in.readUnsignedShort());
+      } else if (name.equals("Signature")) {
+        signature = pool.utf8(in.readUnsignedShort());
+      } else {
+        in.skipBytes(length);
+      }
+    }
+
+    Hasher abi = Hashing.murmur3_128().newHasher();
+    putString(abi, "C " + access + " " + className + " " + superName + " " + signature);
+    interfaces.forEach(iface -> putString(abi, "I " + iface));
+    members.forEach(member -> putString(abi, member));
+    Hasher constantsHasher = Hashing.murmur3_128().newHasher();
+    constants.forEach(constant -> putString(constantsHasher, constant));
+
+    return new FastBuildClassAbi(
+        className,
+        sourcePath(className, sourceFile),
+        abi.hash(),
+        constantsHasher.hash(),
+        pool.referencedClasses(className));
+  }
+
+  private static void readMembers(
+      DataInputStream in,
+      ConstantPool pool,
+      char kind,
+      List<String> members,
+      @Nullable List<String> constants)
+      throws IOException {
+    for (int i = in.readUnsignedShort(); i > 0; i--) {
+      int access = in.readUnsignedShort();
+      String name = pool.utf8(in.readUnsignedShort());
+      String descriptor = pool.utf8(in.readUnsignedShort());
+      String signature = null;
+      String constantValue = null;
+      List<String> exceptions = new ArrayList<>();
+      for (int j = in.readUnsignedShort(); j > 0; j--) {
+        String attribute = pool.utf8(in.readUnsignedShort());
+        int length = in.readInt();
+        if (attribute.equals("Signature")) {
+          signature = pool.utf8(in.readUnsignedShort());
+        } else if (attribute.equals("ConstantValue")) {
+          constantValue = pool.constantValue(in.readUnsignedShort());
+        } else if (attribute.equals("Exceptions")) {
+          for (int k = in.readUnsignedShort(); k > 0; k--) {
+            exceptions.add(pool.className(in.readUnsignedShort()));
+          }
+        } else {
+          in.skipBytes(length);
+        }
+      }
+      if ((access & (ACC_PRIVATE | ACC_SYNTHETIC)) != 0) {
+        continue;
+      }
+      Collections.sort(exceptions);
+      members.add(
+          kind + " " + access + " " + name + " " + descriptor + " " + signature + " " + exceptions);
+      if (constants != null
+          && constantValue != null
+          && (access & (ACC_STATIC | ACC_FINAL)) == (ACC_STATIC | ACC_FINAL)) {
+        constants.add(name + "=" + constantValue);
+      }
+    }
+  }
+
+  private static void putString(Hasher hasher, String value) {
+    hasher.putString(value, StandardCharsets.UTF_8).putByte((byte) 0);
+  }
+
+  private static String sourcePath(String className, @Nullable String sourceFile) {
+    int packageEnd = className.lastIndexOf('/');
+    String packagePrefix = className.substring(0, packageEnd + 1);
+    if (sourceFile == null) {
+      String simpleName = className.substring(packageEnd + 1);
+      int nested = simpleName.indexOf('$');
+      sourceFile = (nested > 0 ? simpleName.substring(0, nested) : simpleName) + ".java";
+    }
+    return packagePrefix + sourceFile;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof FastBuildClassAbi)) {
+      return false;
+    }
+    FastBuildClassAbi that = (FastBuildClassAbi) o;
+    return className.equals(that.className)
+        && sourcePath.equals(that.sourcePath)
+        && abiHash.equals(that.abiHash)
+        && constantsHash.equals(that.constantsHash)
+        && referencedClasses.equals(that.referencedClasses);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(className, sourcePath, abiHash, constantsHash, referencedClasses);
+  }
+
+  @Override
+  public String toString() {
+    return className + " (" + sourcePath + ")";
+  }
+
+  /** Just enough of the constant pool to resolve names, descriptors and constant values. */
+  private static final class ConstantPool {
+    private final int[] tags;
+    private final int[] refs;
+    private final Object[] values;
+
+    private ConstantPool(int size) {
+      tags = new int[size];
+      refs = new int[size];
+      values = new Object[size];
+    }
+
+    static ConstantPool read(DataInputStream in) throws IOException {
+      ConstantPool pool = new ConstantPool(in.readUnsignedShort());
+      for (int i = 1; i < pool.tags.length; i++) {
+        int tag = in.readUnsignedByte();
+        pool.tags[i] = tag;
+        switch (tag) {
+          case CONSTANT_UTF8:
+            pool.values[i] = in.readUTF();
+            break;
+          case CONSTANT_INTEGER:
+            pool.values[i] = in.readInt();
+            break;
+          case CONSTANT_FLOAT:
+            pool.values[i] = in.readFloat();
+            break;
+          case CONSTANT_LONG:
+            pool.values[i] = in.readLong();
+            i++; // longs take up two slots
+            break;
+          case CONSTANT_DOUBLE:
+            pool.values[i] = in.readDouble();
+            i++; // doubles take up two slots
+            break;
+          case CONSTANT_CLASS:
+          case CONSTANT_STRING:
+          case CONSTANT_METHOD_TYPE:
+          case CONSTANT_MODULE:
+          case CONSTANT_PACKAGE:
+            pool.refs[i] = in.readUnsignedShort();
+            break;
+          case CONSTANT_FIELDREF:
+          case CONSTANT_METHODREF:
+          case CONSTANT_INTERFACE_METHODREF:
+          case CONSTANT_NAME_AND_TYPE:
+          case CONSTANT_DYNAMIC:
+          case CONSTANT_INVOKE_DYNAMIC:
+            in.readInt();
+            break;
+          case CONSTANT_METHOD_HANDLE:
+            in.skipBytes(3);
+            break;
+          default:
+            throw new IOException("Unknown constant pool tag " + tag + " at index " + i);
+        }
+      }
+      return pool;
+    }
+
+    String utf8(int index) throws IOException {
+      if (tags[index] != CONSTANT_UTF8) {
+        throw new IOException("Expected a UTF8 constant at index " + index);
+      }
+      return (String) values[index];
+    }
+
+    String className(int index) throws IOException {
+      if (tags[index] != CONSTANT_CLASS) {
+        throw new IOException("Expected a class constant at index " + index);
+      }
+      return utf8(refs[index]);
+    }
+
+    String constantValue(int index) throws IOException {
+      if (tags[index] == CONSTANT_STRING) {
+        return "\"" + utf8(refs[index]) + "\"";
+      }
+      if (values[index] == null) {
+        throw new IOException("Expected a constant value at index " + index);
+      }
+      return String.valueOf(values[index]);
+    }
+
+    /**
+     * Collects class names from class constants and from every descriptor-shaped UTF8 constant.
+     * This over-approximates (a string literal can look like a descriptor), which only ever costs
+     * an unnecessary recompile.
+     */
+    ImmutableSet<String> referencedClasses(String self) throws IOException {
+      ImmutableSet.Builder<String> classes = ImmutableSet.builder();
+      for (int i = 1; i < tags.length; i++) {
+        if (tags[i] == CONSTANT_CLASS) {
+          String name = utf8(refs[i]);
+          if (name.startsWith("[")) {
+            addDescriptorClasses(name, classes);
+          } else {
+            classes.add(name);
+          }
+        } else if (tags[i] == CONSTANT_UTF8) {
+          addDescriptorClasses((String) values[i], classes);
+        }
+      }
+      return classes.build().stream()
+          .filter(name -> !name.equals(self))
+          .collect(ImmutableSet.toImmutableSet());
+    }
+
+    private static void addDescriptorClasses(String value, ImmutableSet.Builder<String> classes) {
+      if (value.indexOf(';') < 0) {
+        return;
+      }
+      Matcher matcher = DESCRIPTOR_CLASS.matcher(value);
+      while (matcher.find()) {
+        classes.add(matcher.group(1));
+      }
+    }
+  }
+}
@@ -17,11 +17,13 @@ package com.google.idea.blaze.java.fastbuild;
 
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toList;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.reflect.Reflection;
 import com.google.idea.blaze.base.logging.EventLoggingService;
 import com.google.idea.blaze.base.logging.EventLoggingService.Command;
@@ -39,6 +41,7 @@ import com.google.idea.blaze.java.fastbuild.FastBuildCompiler.CompileInstruction
 import com.google.idea.blaze.java.fastbuild.FastBuildJavac.CompilerOutput;
 import com.google.idea.blaze.java.fastbuild.FastBuildJavac.DiagnosticLine;
 import com.google.idea.blaze.java.fastbuild.FastBuildLogDataScope.FastBuildLogOutput;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.ide.plugins.IdeaPluginDescriptor;
 import com.intellij.ide.plugins.PluginManager;
 import com.intellij.openapi.diagnostic.Logger;
@@ -59,6 +62,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
 import java.util.function.Supplier;
 import javax.tools.Diagnostic;
 import javax.tools.Diagnostic.Kind;
@@ -71,31 +76,53 @@ final class FastBuildCompilerFactoryImpl implements FastBuildCompilerFactory {
       "com.google.idea.blaze.java.fastbuild.FastBuildJavacImpl";
   private static final Path FAST_BUILD_JAVAC_JAR = Paths.get("lib", "libfast_build_javac.jar");
 
+  private static final BoolExperiment residentJavacExperiment =
+      new BoolExperiment("blaze.fastbuild.resident.javac", false);
+
   private final BlazeProjectDataManager projectDataManager;
   private final Supplier<EventLoggingService> eventLoggerSupplier;
   private final Supplier<File> fastBuildJavacJarSupplier;
+  private final BooleanSupplier residentJavac;
+
+  /**
+   * Compilers kept loaded between compiles in resident mode, keyed by the jars they were loaded
+   * from.
+   */
+  private final Map<ImmutableList<File>, LoadedCompiler> residentCompilers =
+      new ConcurrentHashMap<>();
 
   @NonInjectable
   private FastBuildCompilerFactoryImpl(
       BlazeProjectDataManager projectDataManager,
       Supplier<EventLoggingService> eventLoggerSupplier,
-      Supplier<File> fastBuildJavacJarSupplier) {
+      Supplier<File> fastBuildJavacJarSupplier,
+      BooleanSupplier residentJavac) {
     this.projectDataManager = projectDataManager;
     this.eventLoggerSupplier = eventLoggerSupplier;
     this.fastBuildJavacJarSupplier = fastBuildJavacJarSupplier;
+    this.residentJavac = residentJavac;
   }
 
   FastBuildCompilerFactoryImpl(BlazeProjectDataManager projectDataManager) {
     this(
         projectDataManager,
         EventLoggingService::getInstance,
-        FastBuildCompilerFactoryImpl::findFastBuildJavacJar);
+        FastBuildCompilerFactoryImpl::findFastBuildJavacJar,
+        residentJavacExperiment::getValue);
   }
 
   static FastBuildCompilerFactoryImpl createForTest(
       BlazeProjectDataManager projectDataManager, File fastBuildJavacJar) {
+    return createForTest(projectDataManager, fastBuildJavacJar, /* residentJavac= */ false);
+  }
+
+  static FastBuildCompilerFactoryImpl createForTest(
+      BlazeProjectDataManager projectDataManager, File fastBuildJavacJar, boolean residentJavac) {
     return new FastBuildCompilerFactoryImpl(
-        projectDataManager, NoopEventLoggingService::new, () -> fastBuildJavacJar);
+        projectDataManager,
+        NoopEventLoggingService::new,
+        () -> fastBuildJavacJar,
+        () -> residentJavac);
   }
 
   @Override
@@ -148,23 +175,19 @@ final class FastBuildCompilerFactoryImpl implements FastBuildCompilerFactory {
 
   private Javac createCompiler(List<File> javacJars) throws FastBuildException {
     try {
-      Class<?> javacClass =
-          loadJavacClass(
-              FAST_BUILD_JAVAC_CLASS,
-              ImmutableList.<File>builder()
-                  .addAll(javacJars)
-                  .add(fastBuildJavacJarSupplier.get())
-                  .build());
-
-      Constructor<?> createMethod = javacClass.getConstructor();
-      Object javacInstance = createMethod.newInstance();
-
-      FastBuildJavac javaCompiler =
-          Reflection.newProxy(
-              FastBuildJavac.class, new MatchingMethodInvocationHandler(javacClass, javacInstance));
+      ImmutableList<File> jars =
+          ImmutableList.<File>builder()
+              .addAll(javacJars)
+              .add(fastBuildJavacJarSupplier.get())
+              .build();
+      boolean resident = residentJavac.getAsBoolean();
+      FastBuildJavac javaCompiler = resident ? getResidentCompiler(jars) : loadCompiler(jars).javac;
       return (context, javacArgs, files, writer) -> {
         Stopwatch timer = Stopwatch.createStarted();
-        Object[] rawOutput = javaCompiler.compile(javacArgs, files);
+        Object[] rawOutput =
+            resident
+                ? javaCompiler.compileResident(javacArgs, files)
+                : javaCompiler.compile(javacArgs, files);
         CompilerOutput output = CompilerOutput.decode(rawOutput);
         processDiagnostics(context, output);
         boolean result = output.result;
@@ -184,6 +207,54 @@ final class FastBuildCompilerFactoryImpl implements FastBuildCompilerFactory {
     }
   }
 
+  /**
+   * A compiler loaded in its own classloader. In resident mode, it's reused until one of the jars
+   * it was loaded from changes.
+   */
+  private static final class LoadedCompiler {
+    final FastBuildJavac javac;
+    final ImmutableMap<File, Long> jarTimestamps;
+
+    LoadedCompiler(FastBuildJavac javac, ImmutableMap<File, Long> jarTimestamps) {
+      this.javac = javac;
+      this.jarTimestamps = jarTimestamps;
+    }
+
+    boolean isUpToDate() {
+      return jarTimestamps.entrySet().stream()
+          .allMatch(e -> e.getKey().lastModified() == e.getValue());
+    }
+  }
+
+  private FastBuildJavac getResidentCompiler(ImmutableList<File> jars)
+      throws MalformedURLException, ReflectiveOperationException {
+    LoadedCompiler compiler = residentCompilers.get(jars);
+    if (compiler != null && compiler.isUpToDate()) {
+      return compiler.javac;
+    }
+    // the previous compiler's classloader isn't closed, as it may still be in use by a compile
+    // started before the jars changed
+    LoadedCompiler loaded = loadCompiler(jars);
+    residentCompilers.put(jars, loaded);
+    return loaded.javac;
+  }
+
+  private LoadedCompiler loadCompiler(ImmutableList<File> jars)
+      throws MalformedURLException, ReflectiveOperationException {
+    ImmutableMap<File, Long> timestamps =
+        jars.stream().distinct().collect(toImmutableMap(f -> f, File::lastModified));
+    URLClassLoader classLoader = createClassLoader(jars);
+    Class<?> javacClass = classLoader.loadClass(FAST_BUILD_JAVAC_CLASS);
+
+    Constructor<?> createMethod = javacClass.getConstructor();
+    Object javacInstance = createMethod.newInstance();
+
+    FastBuildJavac javaCompiler =
+        Reflection.newProxy(
+            FastBuildJavac.class, new MatchingMethodInvocationHandler(javacClass, javacInstance));
+    return new LoadedCompiler(javaCompiler, timestamps);
+  }
+
   private static File findFastBuildJavacJar() {
     IdeaPluginDescriptor blazePlugin =
         PluginManager.getPlugin(
@@ -193,14 +264,12 @@ final class FastBuildCompilerFactoryImpl implements FastBuildCompilerFactory {
         .toFile();
   }
 
-  private Class<?> loadJavacClass(String javaCompilerClass, List<File> jars)
-      throws MalformedURLException, ClassNotFoundException {
+  private static URLClassLoader createClassLoader(List<File> jars) throws MalformedURLException {
     URL[] urls = new URL[jars.size()];
     for (int i = 0; i < jars.size(); ++i) {
       urls[i] = jars.get(i).toURI().toURL();
     }
-    URLClassLoader urlClassLoader = new URLClassLoader(urls, /* parent= */ null);
-    return urlClassLoader.loadClass(javaCompilerClass);
+    return new URLClassLoader(urls, /* parent= */ null);
   }
 
   private static class JavacRunner implements FastBuildCompiler {
@@ -16,6 +16,7 @@
 package com.google.idea.blaze.java.fastbuild;
 
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
@@ -30,21 +31,45 @@ import com.google.idea.blaze.base.scope.output.PrintOutput;
 import com.google.idea.blaze.base.scope.output.StatusOutput;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.java.fastbuild.FastBuildAbiIndex.AbiChanges;
 import com.google.idea.blaze.java.fastbuild.FastBuildBlazeData.JavaInfo;
 import com.google.idea.blaze.java.fastbuild.FastBuildCompiler.CompileInstructions;
 import com.google.idea.blaze.java.fastbuild.FastBuildLogDataScope.FastBuildLogOutput;
 import com.google.idea.blaze.java.fastbuild.FastBuildState.BuildOutput;
 import com.google.idea.common.concurrency.ConcurrencyUtil;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.execution.ui.ConsoleViewContentType;
+import com.intellij.openapi.diagnostic.Logger;
 import java.io.File;
+import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
 final class FastBuildIncrementalCompilerImpl implements FastBuildIncrementalCompiler {
 
+  private static final Logger logger = Logger.getInstance(FastBuildIncrementalCompilerImpl.class);
+
+  /**
+   * Also recompile the sources that use a class whose signature changed, rather than only the
+   * modified sources.
+   */
+  static final BoolExperiment abiAwareRecompile =
+      new BoolExperiment("blaze.fastbuild.abi.aware.recompile", false);
+
+  /** The ABI index for each deploy jar, built the first time it's needed. */
+  private final Map<File, FastBuildAbiIndex> abiIndices = new ConcurrentHashMap<>();
+
   private final BlazeProjectDataManager projectDataManager;
   private final FastBuildCompilerFactory compilerFactory;
   private final BlazeConsoleService blazeConsoleService;
@@ -70,30 +95,24 @@ final class FastBuildIncrementalCompilerImpl implements FastBuildIncrementalComp
             () -> {
               BlazeConsoleWriter writer = new BlazeConsoleWriter(blazeConsoleService);
 
+              Map<File, Label> closureSources = new HashMap<>();
               ChangedSourceInfo changedSourceInfo =
-                  getPathsToCompile(context, label, buildOutput.blazeData(), modifiedFiles);
+                  getPathsToCompile(
+                      context, label, buildOutput.blazeData(), modifiedFiles, closureSources);
 
               if (!changedSourceInfo.pathsToCompile.isEmpty()) {
-                CompileInstructions instructions =
-                    CompileInstructions.builder()
-                        .outputDirectory(buildState.compilerOutputDirectory())
-                        .classpath(ImmutableList.of(buildOutput.deployJar()))
-                        .filesToCompile(changedSourceInfo.pathsToCompile)
-                        .annotationProcessorClassNames(
-                            changedSourceInfo.annotationProcessorClassNames)
-                        .annotationProcessorClasspath(
-                            changedSourceInfo.annotationProcessorClasspath)
-                        .outputWriter(writer)
-                        .build();
-
-                for (FastBuildCompilationModification modification :
-                    FastBuildCompilationModification.EP_NAME.getExtensions()) {
-                  instructions = modification.modifyInstructions(instructions);
+                long compileStart = System.currentTimeMillis();
+                compileSources(context, label, buildState, writer, changedSourceInfo);
+                if (abiAwareRecompile.getValue()) {
+                  recompileDependents(
+                      context,
+                      label,
+                      buildState,
+                      writer,
+                      closureSources,
+                      changedSourceInfo.pathsToCompile,
+                      compileStart);
                 }
-
-                compilerFactory
-                    .getCompilerFor(label, buildOutput.blazeData())
-                    .compile(context, instructions);
               } else {
                 context.output(new PrintOutput("No modified files to compile."));
               }
@@ -101,11 +120,213 @@ final class FastBuildIncrementalCompilerImpl implements FastBuildIncrementalComp
             });
   }
 
+  private void compileSources(
+      BlazeContext context,
+      Label label,
+      FastBuildState buildState,
+      Writer writer,
+      ChangedSourceInfo changedSourceInfo)
+      throws FastBuildException {
+    BuildOutput buildOutput = buildState.completedBuildOutput().get();
+    // Dependents are compiled against the classes that were just recompiled, matching the order of
+    // the runtime classpath.
+    ImmutableList<File> classpath =
+        abiAwareRecompile.getValue()
+            ? ImmutableList.of(buildState.compilerOutputDirectory(), buildOutput.deployJar())
+            : ImmutableList.of(buildOutput.deployJar());
+    CompileInstructions instructions =
+        CompileInstructions.builder()
+            .outputDirectory(buildState.compilerOutputDirectory())
+            .classpath(classpath)
+            .filesToCompile(changedSourceInfo.pathsToCompile)
+            .annotationProcessorClassNames(changedSourceInfo.annotationProcessorClassNames)
+            .annotationProcessorClasspath(changedSourceInfo.annotationProcessorClasspath)
+            .outputWriter(writer)
+            .build();
+
+    for (FastBuildCompilationModification modification :
+        FastBuildCompilationModification.EP_NAME.getExtensions()) {
+      instructions = modification.modifyInstructions(instructions);
+    }
+
+    compilerFactory.getCompilerFor(label, buildOutput.blazeData()).compile(context, instructions);
+  }
+
+  /**
+   * Recompiles the sources that depend on the ABI of the sources just compiled, until nothing else
+   * changes. Sources whose classes only changed inside method bodies don't affect any dependents.
+   *
+   * <p>The ABI index is only updated once every round has compiled, so a failed round is retried
+   * against the same baseline.
+   */
+  private void recompileDependents(
+      BlazeContext context,
+      Label label,
+      FastBuildState buildState,
+      Writer writer,
+      Map<File, Label> closureSources,
+      Set<File> compiledSources,
+      long compileStart)
+      throws FastBuildException {
+    Stopwatch timer = Stopwatch.createStarted();
+    BuildOutput buildOutput = buildState.completedBuildOutput().get();
+    Map<Label, FastBuildBlazeData> blazeData = buildOutput.blazeData();
+    SourcePathResolver resolver = new SourcePathResolver(closureSources.keySet());
+
+    FastBuildAbiIndex index = getAbiIndex(buildOutput.deployJar(), resolver);
+    if (index == null) {
+      return;
+    }
+
+    Set<File> compiled = new HashSet<>(compiledSources);
+    Set<File> round = compiledSources;
+    long roundStart = compileStart;
+    List<Runnable> indexUpdates = new ArrayList<>();
+    while (true) {
+      Set<File> roundSources = round;
+      ImmutableList<FastBuildClassAbi> compiledAbis;
+      try {
+        compiledAbis =
+            FastBuildAbiIndex.readClassFiles(buildState.compilerOutputDirectory(), roundStart);
+      } catch (IOException e) {
+        logger.warn("Couldn't read the ABI of the compiled classes", e);
+        return;
+      }
+      ImmutableList<FastBuildClassAbi> abis =
+          compiledAbis.stream()
+              .filter(abi -> roundSources.contains(resolver.resolve(abi.sourcePath())))
+              .collect(toImmutableList());
+      Predicate<String> isRoundSource =
+          sourcePath -> roundSources.contains(resolver.resolve(sourcePath));
+      AbiChanges changes = index.diff(abis, isRoundSource);
+      indexUpdates.add(() -> index.apply(abis, isRoundSource));
+
+      Set<File> dependents = new HashSet<>();
+      for (String sourcePath : index.sourcesReferencing(changes.changedClasses)) {
+        File source = resolver.resolve(sourcePath);
+        if (source != null) {
+          dependents.add(source);
+        }
+      }
+      if (!changes.changedConstants.isEmpty()) {
+        // Constants are inlined without a trace, so anything downstream might be using them.
+        Set<Label> owners = new HashSet<>();
+        for (String className : changes.changedConstants) {
+          File source = resolver.resolve(sourcePathOf(className, abis, index));
+          if (source != null && closureSources.containsKey(source)) {
+            owners.add(closureSources.get(source));
+          }
+        }
+        Set<Label> affected = reverseDependencies(blazeData, closureSources.values(), owners);
+        closureSources.forEach(
+            (source, target) -> {
+              if (affected.contains(target)) {
+                dependents.add(source);
+              }
+            });
+      }
+      dependents.removeAll(compiled);
+      dependents.removeIf(source -> !source.exists());
+      if (dependents.isEmpty()) {
+        break;
+      }
+
+      context.output(
+          new PrintOutput(
+              String.format(
+                  "Recompiling %d dependent source(s) of changed signatures", dependents.size())));
+      roundStart = System.currentTimeMillis();
+      compileSources(
+          context, label, buildState, writer, getSourceInfo(blazeData, closureSources, dependents));
+      compiled.addAll(dependents);
+      round = dependents;
+    }
+    indexUpdates.forEach(Runnable::run);
+
+    context.output(FastBuildLogOutput.milliseconds("abi_dependents_time_ms", timer));
+    context.output(
+        FastBuildLogOutput.keyValue(
+            "abi_dependent_sources",
+            Integer.toString(compiled.size() - compiledSources.size())));
+  }
+
+  @Nullable
+  private FastBuildAbiIndex getAbiIndex(File deployJar, SourcePathResolver resolver) {
+    FastBuildAbiIndex index = abiIndices.get(deployJar);
+    if (index != null && index.isUpToDate(deployJar)) {
+      return index;
+    }
+    try {
+      index = FastBuildAbiIndex.create(deployJar, resolver::containsPackage);
+    } catch (IOException e) {
+      logger.warn("Couldn't index the ABI of " + deployJar, e);
+      abiIndices.remove(deployJar);
+      return null;
+    }
+    abiIndices.put(deployJar, index);
+    return index;
+  }
+
+  @Nullable
+  private static String sourcePathOf(
+      String className, List<FastBuildClassAbi> abis, FastBuildAbiIndex index) {
+    for (FastBuildClassAbi abi : abis) {
+      if (abi.className().equals(className)) {
+        return abi.sourcePath();
+      }
+    }
+    return index.sourceOf(className);
+  }
+
+  /** Returns {@code targets} and every target in {@code closure} that depends on one of them. */
+  private static Set<Label> reverseDependencies(
+      Map<Label, FastBuildBlazeData> blazeData, Collection<Label> closure, Set<Label> targets) {
+    Set<Label> closureTargets = ImmutableSet.copyOf(closure);
+    Set<Label> affected = new HashSet<>(targets);
+    boolean added = !targets.isEmpty();
+    while (added) {
+      added = false;
+      for (Label target : closureTargets) {
+        FastBuildBlazeData data = blazeData.get(target);
+        if (!affected.contains(target)
+            && data != null
+            && data.dependencies().stream().anyMatch(affected::contains)) {
+          affected.add(target);
+          added = true;
+        }
+      }
+    }
+    return affected;
+  }
+
+  /** Collects the annotation processors of the targets that {@code sourceFiles} belong to. */
+  private ChangedSourceInfo getSourceInfo(
+      Map<Label, FastBuildBlazeData> blazeData,
+      Map<File, Label> closureSources,
+      Set<File> sourceFiles) {
+    ArtifactLocationDecoder artifactLocationDecoder =
+        projectDataManager.getBlazeProjectData().getArtifactLocationDecoder();
+    Set<Label> targets = new LinkedHashSet<>();
+    sourceFiles.forEach(source -> targets.add(closureSources.get(source)));
+    Set<String> annotationProcessorClassNames = new HashSet<>();
+    ImmutableSet.Builder<File> annotationProcessorsClasspath = ImmutableSet.builder();
+    for (Label target : targets) {
+      JavaInfo javaInfo = blazeData.get(target).javaInfo().get();
+      annotationProcessorClassNames.addAll(javaInfo.annotationProcessorClassNames());
+      for (ArtifactLocation artifactLocation : javaInfo.annotationProcessorClasspath()) {
+        annotationProcessorsClasspath.add(artifactLocationDecoder.decode(artifactLocation));
+      }
+    }
+    return new ChangedSourceInfo(
+        sourceFiles, annotationProcessorClassNames, annotationProcessorsClasspath.build());
+  }
+
   private ChangedSourceInfo getPathsToCompile(
       BlazeContext context,
       Label label,
       Map<Label, FastBuildBlazeData> blazeData,
-      Set<File> modifiedSinceBuild) {
+      Set<File> modifiedSinceBuild,
+      Map<File, Label> closureSources) {
 
     Stopwatch timer = Stopwatch.createStarted();
 
@@ -125,6 +346,7 @@ final class FastBuildIncrementalCompilerImpl implements FastBuildIncrementalComp
         annotationProcessorClassNames,
         annotationProcessorsClasspath,
         modifiedSinceBuild,
+        closureSources,
         affectedTargets);
 
     context.output(new StatusOutput("Calculated compilation paths in " + timer));
@@ -144,6 +366,7 @@ final class FastBuildIncrementalCompilerImpl implements FastBuildIncrementalComp
       Set<String> annotationProcessorClassNames,
       ImmutableSet.Builder<File> annotationProcessorsClasspath,
       Set<File> modifiedSinceBuild,
+      Map<File, Label> closureSources,
       AtomicInteger affectedTargets) {
     if (seenTargets.contains(label)) {
       return;
@@ -161,6 +384,9 @@ final class FastBuildIncrementalCompilerImpl implements FastBuildIncrementalComp
     boolean addedSources = false;
     for (ArtifactLocation sourceArtifact : javaInfo.sources()) {
       File sourceFile = artifactLocationDecoder.decode(sourceArtifact);
+      if (sourceFile.getName().endsWith(".java")) {
+        closureSources.putIfAbsent(sourceFile, label);
+      }
       if (sourceFile.getName().endsWith(".java")
           && modifiedSinceBuild.contains(sourceFile)
           && sourceFile.exists()) {
@@ -190,6 +416,7 @@ final class FastBuildIncrementalCompilerImpl implements FastBuildIncrementalComp
                     annotationProcessorClassNames,
                     annotationProcessorsClasspath,
                     modifiedSinceBuild,
+                    closureSources,
                     affectedTargets));
   }
 
@@ -214,6 +441,50 @@ final class FastBuildIncrementalCompilerImpl implements FastBuildIncrementalComp
     public void close() {}
   }
 
+  /**
+   * Maps the package-relative source paths recorded in class files back to the sources in the
+   * build's transitive closure.
+   */
+  private static class SourcePathResolver {
+    final Map<String, List<File>> sourcesByName = new HashMap<>();
+    final Set<String> directories = new HashSet<>();
+    final Map<String, Boolean> packageCache = new ConcurrentHashMap<>();
+
+    SourcePathResolver(Collection<File> sources) {
+      for (File source : sources) {
+        sourcesByName.computeIfAbsent(source.getName(), name -> new ArrayList<>()).add(source);
+        File parent = source.getParentFile();
+        if (parent != null) {
+          directories.add(parent.getPath().replace(File.separatorChar, '/'));
+        }
+      }
+    }
+
+    @Nullable
+    File resolve(@Nullable String sourcePath) {
+      if (sourcePath == null) {
+        return null;
+      }
+      String fileName = sourcePath.substring(sourcePath.lastIndexOf('/') + 1);
+      for (File source : sourcesByName.getOrDefault(fileName, ImmutableList.of())) {
+        String path = source.getPath().replace(File.separatorChar, '/');
+        if (path.equals(sourcePath) || path.endsWith("/" + sourcePath)) {
+          return source;
+        }
+      }
+      return null;
+    }
+
+    /** Whether any source lives in a directory matching the given package directory. */
+    boolean containsPackage(String packageDirectory) {
+      return packageCache.computeIfAbsent(
+          packageDirectory,
+          pkg ->
+              directories.stream()
+                  .anyMatch(directory -> directory.equals(pkg) || directory.endsWith("/" + pkg)));
+    }
+  }
+
   private static class ChangedSourceInfo {
     final Set<File> pathsToCompile;
     final Set<String> annotationProcessorClassNames;
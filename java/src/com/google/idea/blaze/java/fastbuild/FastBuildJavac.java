@@ -39,6 +39,12 @@ interface FastBuildJavac {
   /** Returns an encoded version of CompilerOutput. Call {@link CompilerOutput#decode} to decode. */
   Object[] compile(List<String> args, Collection<File> sources);
 
+  /**
+   * Like {@link #compile}, but keeps the file manager between calls, so classpath jars are only
+   * re-read after they've changed.
+   */
+  Object[] compileResident(List<String> args, Collection<File> sources);
+
   final class CompilerOutput {
     final boolean result;
     final List<DiagnosticLine> diagnostics;
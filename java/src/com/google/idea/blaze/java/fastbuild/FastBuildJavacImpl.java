@@ -25,11 +25,19 @@ import com.sun.tools.javac.util.JCDiagnostic;
 import com.sun.tools.javac.util.JavacMessages;
 import com.sun.tools.javac.util.Log;
 import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import javax.tools.Diagnostic;
 import javax.tools.DiagnosticListener;
 import javax.tools.JavaFileObject;
@@ -45,16 +53,41 @@ import javax.tools.JavaFileObject;
  * <p>So this class creates a compiler and captures the {@code Diagnostic} objects, attaching the
  * formatted message from the compiler before sending them on. This is the same approach that Blaze
  * uses in BlazeJavacMain.
+ *
+ * <p>Resident compiles share a single file manager, so classpath jars opened by one compile don't
+ * need to be re-opened and re-indexed by the next, unless they've changed in between.
  */
 public final class FastBuildJavacImpl implements FastBuildJavac {
 
+  /** Options whose values are classpaths. */
+  private static final List<String> CLASSPATH_OPTIONS =
+      Arrays.asList("-cp", "-classpath", "-bootclasspath", "-processorpath");
+
+  /** The file manager shared by resident compiles. Guarded by this. */
+  private JavacFileManager residentFileManager;
+
+  /** The timestamps of the jars opened by {@link #residentFileManager}. Guarded by this. */
+  private final Map<File, Long> residentJarTimestamps = new HashMap<>();
+
   @Override
   public Object[] compile(List<String> args, Collection<File> sources) {
+    return compile(args, sources, /* sharedFileManager= */ null);
+  }
+
+  @Override
+  public synchronized Object[] compileResident(List<String> args, Collection<File> sources) {
+    return compile(args, sources, getResidentFileManager(args));
+  }
+
+  private Object[] compile(
+      List<String> args, Collection<File> sources, JavacFileManager sharedFileManager) {
     Context context = new Context();
     DiagnosticsCollector collector = new DiagnosticsCollector(context);
     JavacTool javacTool = JavacTool.create();
     JavacFileManager fileManager =
-        javacTool.getStandardFileManager(collector, Locale.ENGLISH, StandardCharsets.UTF_8);
+        sharedFileManager != null
+            ? sharedFileManager
+            : javacTool.getStandardFileManager(collector, Locale.ENGLISH, StandardCharsets.UTF_8);
     Iterable<? extends JavaFileObject> filesToCompile =
         fileManager.getJavaFileObjects(sources.toArray(new File[] {}));
     JavacTask task =
@@ -71,6 +104,96 @@ public final class FastBuildJavacImpl implements FastBuildJavac {
     return results.encode();
   }
 
+  /**
+   * Returns the file manager for a resident compile, first discarding its cached contents of any
+   * classpath jars which have changed since they were opened.
+   */
+  private JavacFileManager getResidentFileManager(List<String> args) {
+    Map<File, Long> timestamps = getClasspathJarTimestamps(args);
+    if (residentFileManager != null) {
+      Set<File> changed = new HashSet<>();
+      for (Map.Entry<File, Long> entry : timestamps.entrySet()) {
+        Long previous = residentJarTimestamps.get(entry.getKey());
+        if (previous != null && !previous.equals(entry.getValue())) {
+          changed.add(entry.getKey());
+        }
+      }
+      if (!changed.isEmpty() && !evictArchives(residentFileManager, changed)) {
+        closeQuietly(residentFileManager);
+        residentFileManager = null;
+        residentJarTimestamps.clear();
+      }
+    }
+    if (residentFileManager == null) {
+      // diagnostics from the file manager itself go to stderr, as it outlives any single compile
+      residentFileManager =
+          JavacTool.create()
+              .getStandardFileManager(
+                  /* diagnosticListener= */ null, Locale.ENGLISH, StandardCharsets.UTF_8);
+    }
+    residentJarTimestamps.putAll(timestamps);
+    return residentFileManager;
+  }
+
+  private static Map<File, Long> getClasspathJarTimestamps(List<String> args) {
+    Map<File, Long> timestamps = new HashMap<>();
+    for (int i = 0; i < args.size() - 1; i++) {
+      if (!CLASSPATH_OPTIONS.contains(args.get(i))) {
+        continue;
+      }
+      for (String path : args.get(i + 1).split(File.pathSeparator)) {
+        if (path.endsWith(".jar")) {
+          File jar = new File(path).getAbsoluteFile();
+          timestamps.put(jar, jar.lastModified());
+        }
+      }
+    }
+    return timestamps;
+  }
+
+  /**
+   * Closes and removes the given jars from the file manager's archive cache, so they're re-read on
+   * next use. javac doesn't expose this, so the cache is accessed reflectively; returns false if
+   * that isn't possible with this version of javac.
+   */
+  private static boolean evictArchives(JavacFileManager fileManager, Set<File> jars) {
+    // the archive cache is called 'archives' in JDK 8, and 'containers' in later versions
+    for (String fieldName : new String[] {"containers", "archives"}) {
+      Field field;
+      try {
+        field = JavacFileManager.class.getDeclaredField(fieldName);
+      } catch (NoSuchFieldException e) {
+        continue;
+      }
+      try {
+        field.setAccessible(true);
+        Map<?, ?> cache = (Map<?, ?>) field.get(fileManager);
+        Iterator<? extends Map.Entry<?, ?>> iterator = cache.entrySet().iterator();
+        while (iterator.hasNext()) {
+          Map.Entry<?, ?> entry = iterator.next();
+          if (jars.contains(new File(entry.getKey().toString()).getAbsoluteFile())) {
+            closeQuietly(entry.getValue());
+            iterator.remove();
+          }
+        }
+        return true;
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  private static void closeQuietly(Object closeable) {
+    try {
+      Method close = closeable.getClass().getMethod("close");
+      close.setAccessible(true);
+      close.invoke(closeable);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // the archive will be garbage collected instead
+    }
+  }
+
   @Trusted
   private static final class DiagnosticsCollector implements DiagnosticListener<JavaFileObject> {
 
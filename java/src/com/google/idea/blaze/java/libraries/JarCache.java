@@ -29,6 +29,7 @@ import com.google.idea.blaze.base.command.buildresult.RemoteOutputArtifact;
 import com.google.idea.blaze.base.command.buildresult.SourceArtifact;
 import com.google.idea.blaze.base.filecache.FileCache;
 import com.google.idea.blaze.base.filecache.FileCacheDiffer;
+import com.google.idea.blaze.base.filecache.SharedArtifactStore;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
 import com.google.idea.blaze.base.io.FileOperationProvider;
@@ -195,6 +196,9 @@ public class JarCache {
       }
 
       Futures.allAsList(futures).get();
+      if (SharedArtifactStore.isEnabled()) {
+        SharedArtifactStore.getInstance().trimToSize();
+      }
       if (!updated.isEmpty()) {
         context.output(PrintOutput.log(String.format("Copied %d jars", updated.size())));
       }
@@ -271,6 +275,10 @@ public class JarCache {
   }
 
   private static void copyLocally(BlazeArtifact output, File destination) throws IOException {
+    if (SharedArtifactStore.isEnabled()) {
+      SharedArtifactStore.getInstance().materialize(output, destination);
+      return;
+    }
     if (output instanceof LocalFileArtifact) {
       File source = ((LocalFileArtifact) output).getFile();
       Files.copy(
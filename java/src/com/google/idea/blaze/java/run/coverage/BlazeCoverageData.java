@@ -20,12 +20,13 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import com.google.common.collect.ImmutableMap;
 import com.intellij.openapi.diagnostic.Logger;
 import gnu.trove.TIntIntHashMap;
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import javax.annotation.Nullable;
 
 /** Blaze coverage data class. Parsed from LCOV-formatted blaze output. */
 class BlazeCoverageData {
@@ -36,13 +37,32 @@ class BlazeCoverageData {
     return LcovParser.parse(inputStream);
   }
 
+  /**
+   * The coverage data for a single source file. Its 'DA:' records are kept as raw bytes until the
+   * line hits are first requested, so files can be decoded independently and in parallel.
+   */
   static class FileData {
     final String source;
-    final TIntIntHashMap lineHits;
+    @Nullable private byte[] records;
+    @Nullable private volatile TIntIntHashMap lineHits;
 
-    private FileData(String source, TIntIntHashMap lineHits) {
+    private FileData(String source, byte[] records) {
       this.source = source;
-      this.lineHits = lineHits;
+      this.records = records;
+    }
+
+    TIntIntHashMap lineHits() {
+      TIntIntHashMap hits = lineHits;
+      if (hits != null) {
+        return hits;
+      }
+      synchronized (this) {
+        if (lineHits == null) {
+          lineHits = LcovParser.parseHits(records);
+          records = null;
+        }
+        return lineHits;
+      }
     }
   }
 
@@ -52,48 +72,172 @@ class BlazeCoverageData {
     this.perFileData = perFileData;
   }
 
+  /**
+   * Splits an LCOV tracefile into per-file sections in a single pass over its bytes. Only the
+   * source paths are decoded as strings; numbers are parsed directly from the bytes.
+   */
   private static class LcovParser {
     // there are other valid lcov tracefile prefixes, but they're all ignored here
-    static final String SF = "SF:";
-    static final String DA = "DA:";
-    static final String END_OF_RECORD = "end_of_record";
+    static final byte[] SF = "SF:".getBytes(UTF_8);
+    static final byte[] DA = "DA:".getBytes(UTF_8);
+    static final byte[] END_OF_RECORD = "end_of_record".getBytes(UTF_8);
 
     private static BlazeCoverageData parse(InputStream inputStream) throws IOException {
       Map<String, FileData> map = new HashMap<>();
-      BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, UTF_8));
-      String line;
-      while ((line = reader.readLine()) != null) {
-        if (line.startsWith(SF)) {
-          String source = line.substring(SF.length());
-          TIntIntHashMap hits = parseHits(reader);
-          if (!hits.isEmpty()) {
-            map.put(source, new FileData(source, hits));
+      LineReader reader = new LineReader(inputStream);
+      ByteArrayOutputStream records = new ByteArrayOutputStream();
+      String source = null;
+      while (reader.next()) {
+        if (source == null) {
+          if (reader.startsWith(SF)) {
+            source = reader.decode(SF.length);
           }
+        } else if (reader.startsWith(END_OF_RECORD)) {
+          addFile(map, source, records);
+          source = null;
+        } else if (reader.startsWith(DA)) {
+          // DA:line,hits
+          reader.copyTo(records, DA.length);
+          records.write('\n');
         }
       }
+      if (source != null) {
+        addFile(map, source, records);
+      }
       return new BlazeCoverageData(ImmutableMap.copyOf(map));
     }
 
-    private static TIntIntHashMap parseHits(BufferedReader reader) throws IOException {
+    private static void addFile(
+        Map<String, FileData> map, String source, ByteArrayOutputStream records) {
+      if (records.size() > 0) {
+        map.put(source, new FileData(source, records.toByteArray()));
+      }
+      records.reset();
+    }
+
+    /** Parses newline-terminated 'line,hits' records. */
+    private static TIntIntHashMap parseHits(byte[] records) {
       TIntIntHashMap hits = new TIntIntHashMap();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        if (line.startsWith(END_OF_RECORD)) {
-          return hits;
-        }
-        if (line.startsWith(DA)) {
-          // DA:line,hits
-          int comma = line.indexOf(',');
-          try {
-            hits.put(
-                Integer.parseInt(line.substring(DA.length(), comma)),
-                Integer.parseInt(line.substring(comma + 1)));
-          } catch (NumberFormatException e) {
-            logger.warn("Cannot parse LCOV line: " + line, e);
+      int start = 0;
+      while (start < records.length) {
+        int end = indexOf(records, (byte) '\n', start, records.length);
+        int comma = indexOf(records, (byte) ',', start, end);
+        try {
+          if (comma == -1) {
+            throw new NumberFormatException("Missing ','");
           }
+          hits.put(parseInt(records, start, comma), parseInt(records, comma + 1, end));
+        } catch (NumberFormatException e) {
+          String line = new String(records, start, end - start, UTF_8);
+          logger.warn("Cannot parse LCOV line: DA:" + line, e);
         }
+        start = end + 1;
       }
       return hits;
     }
+
+    /** Parses a decimal int from the given range of bytes, without allocating. */
+    private static int parseInt(byte[] bytes, int start, int end) {
+      boolean negative = start < end && bytes[start] == '-';
+      int i = negative ? start + 1 : start;
+      if (i == end) {
+        throw new NumberFormatException("Missing number");
+      }
+      long value = 0;
+      for (; i < end; i++) {
+        int digit = bytes[i] - '0';
+        if (digit < 0 || digit > 9) {
+          throw new NumberFormatException("Invalid digit");
+        }
+        value = value * 10 + digit;
+        if (value > Integer.MAX_VALUE) {
+          throw new NumberFormatException("Out of range");
+        }
+      }
+      return (int) (negative ? -value : value);
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int start, int end) {
+      for (int i = start; i < end; i++) {
+        if (bytes[i] == b) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+  /** Reads lines from a stream into a reusable byte buffer. */
+  private static class LineReader {
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream inputStream;
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int limit = 0;
+    private int nextLineStart = 0;
+    private int lineStart = 0;
+    private int lineEnd = 0;
+
+    LineReader(InputStream inputStream) {
+      this.inputStream = inputStream;
+    }
+
+    /** Advances to the next line, returning false at the end of the stream. */
+    boolean next() throws IOException {
+      int scanned = nextLineStart;
+      while (true) {
+        int newline = LcovParser.indexOf(buffer, (byte) '\n', scanned, limit);
+        if (newline != -1) {
+          setLine(nextLineStart, newline);
+          nextLineStart = newline + 1;
+          return true;
+        }
+        // move the partial line to the start of the buffer, then read more
+        scanned = limit - nextLineStart;
+        System.arraycopy(buffer, nextLineStart, buffer, 0, scanned);
+        limit = scanned;
+        nextLineStart = 0;
+        if (limit == buffer.length) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = inputStream.read(buffer, limit, buffer.length - limit);
+        if (read == -1) {
+          if (limit == 0) {
+            return false;
+          }
+          setLine(0, limit);
+          nextLineStart = limit;
+          return true;
+        }
+        limit += read;
+      }
+    }
+
+    private void setLine(int start, int end) {
+      lineStart = start;
+      lineEnd = end > start && buffer[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    boolean startsWith(byte[] prefix) {
+      if (lineEnd - lineStart < prefix.length) {
+        return false;
+      }
+      for (int i = 0; i < prefix.length; i++) {
+        if (buffer[lineStart + i] != prefix[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /** Decodes the current line as a string, starting at the given offset. */
+    String decode(int offset) {
+      return new String(buffer, lineStart + offset, lineEnd - lineStart - offset, UTF_8);
+    }
+
+    /** Copies the current line to the given stream, starting at the given offset. */
+    void copyTo(ByteArrayOutputStream out, int offset) {
+      out.write(buffer, lineStart + offset, lineEnd - lineStart - offset);
+    }
   }
 }
@@ -33,6 +33,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Map;
+import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
 /** Loads coverage data when blaze invocation is complete. */
@@ -64,17 +66,24 @@ public class BlazeCoverageRunner extends CoverageRunner {
       throws IOException {
     ProjectData data = new ProjectData();
     BlazeCoverageData blazeData = BlazeCoverageData.parse(stream);
-    for (String filePath : blazeData.perFileData.keySet()) {
-      File file = pathResolver.resolveToFile(filePath);
+    // each file's line hits are decoded independently, so spread the work over the available cores
+    Map<String, LineData[]> linesPerFile =
+        blazeData.perFileData.values().parallelStream()
+            .filter(fileData -> !fileData.lineHits().isEmpty())
+            .collect(
+                Collectors.toMap(
+                    fileData -> fileData.source, BlazeCoverageRunner::fromFileData));
+    for (Map.Entry<String, LineData[]> entry : linesPerFile.entrySet()) {
+      File file = pathResolver.resolveToFile(entry.getKey());
       ClassData classData = data.getOrCreateClassData(file.getPath());
-      classData.setLines(fromFileData(blazeData.perFileData.get(filePath)));
+      classData.setLines(entry.getValue());
     }
     return data;
   }
 
   private static LineData[] fromFileData(FileData fileData) {
     LineData[] lines = new LineData[maxLineNumber(fileData) + 1];
-    fileData.lineHits.forEachEntry(
+    fileData.lineHits().forEachEntry(
         (line, hits) -> {
           LineData newLine = new LineData(line, null);
           newLine.setHits(hits);
@@ -85,7 +94,7 @@ public class BlazeCoverageRunner extends CoverageRunner {
   }
 
   private static int maxLineNumber(FileData fileData) {
-    return Ints.max(fileData.lineHits.keys());
+    return Ints.max(fileData.lineHits().keys());
   }
 
   @Override
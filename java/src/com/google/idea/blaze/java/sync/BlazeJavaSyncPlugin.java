@@ -56,6 +56,8 @@ import com.google.idea.blaze.java.sync.model.BlazeJavaImportResult;
 import com.google.idea.blaze.java.sync.model.BlazeJavaSyncData;
 import com.google.idea.blaze.java.sync.projectstructure.JavaSourceFolderProvider;
 import com.google.idea.blaze.java.sync.projectstructure.Jdks;
+import com.google.idea.blaze.java.sync.source.CachingJavaSourcePackageReader;
+import com.google.idea.blaze.java.sync.source.JavaSourcePackageState;
 import com.google.idea.blaze.java.sync.workingset.JavaWorkingSet;
 import com.google.idea.common.transactions.Transactions;
 import com.intellij.openapi.module.ModuleType;
@@ -147,13 +149,23 @@ public class BlazeJavaSyncPlugin implements BlazeSyncPlugin {
             jdepsMap,
             javaWorkingSet,
             artifactLocationDecoder);
+    CachingJavaSourcePackageReader sourcePackageReader =
+        CachingJavaSourcePackageReader.enabled.getValue()
+            ? new CachingJavaSourcePackageReader(
+                previousSyncState != null
+                    ? previousSyncState.get(JavaSourcePackageState.class)
+                    : null)
+            : null;
     BlazeJavaImportResult importResult =
         Scope.push(
             context,
             (childContext) -> {
               childContext.push(new TimingScope("JavaWorkspaceImporter", EventType.Other));
-              return blazeJavaWorkspaceImporter.importWorkspace(childContext);
+              return blazeJavaWorkspaceImporter.importWorkspace(childContext, sourcePackageReader);
             });
+    if (sourcePackageReader != null) {
+      syncStateBuilder.put(sourcePackageReader.getState());
+    }
     Glob.GlobSet excludedLibraries =
         new Glob.GlobSet(
             ImmutableList.<Glob>builder()
@@ -49,6 +49,7 @@ import com.google.idea.blaze.java.sync.jdeps.JdepsMap;
 import com.google.idea.blaze.java.sync.model.BlazeContentEntry;
 import com.google.idea.blaze.java.sync.model.BlazeJarLibrary;
 import com.google.idea.blaze.java.sync.model.BlazeJavaImportResult;
+import com.google.idea.blaze.java.sync.source.JavaPackageReader;
 import com.google.idea.blaze.java.sync.source.SourceArtifact;
 import com.google.idea.blaze.java.sync.source.SourceDirectoryCalculator;
 import com.google.idea.blaze.java.sync.workingset.JavaWorkingSet;
@@ -103,13 +104,23 @@ public final class BlazeJavaWorkspaceImporter {
   }
 
   public BlazeJavaImportResult importWorkspace(BlazeContext context) {
+    return importWorkspace(context, null);
+  }
+
+  /**
+   * Imports the workspace, reading the packages of java sources with the given reader (or the
+   * default {@link com.google.idea.blaze.java.sync.source.JavaSourcePackageReader} if null).
+   */
+  public BlazeJavaImportResult importWorkspace(
+      BlazeContext context, @Nullable JavaPackageReader sourcePackageReader) {
     WorkspaceBuilder workspaceBuilder = new WorkspaceBuilder();
     for (TargetIdeInfo target : sourceFilter.sourceTargets) {
       addTargetAsSource(
           workspaceBuilder, target, sourceFilter.targetToJavaSources.get(target.getKey()));
     }
 
-    SourceDirectoryCalculator sourceDirectoryCalculator = new SourceDirectoryCalculator();
+    SourceDirectoryCalculator sourceDirectoryCalculator =
+        new SourceDirectoryCalculator(sourcePackageReader);
     ImmutableList<BlazeContentEntry> contentEntries =
         sourceDirectoryCalculator.calculateContentEntries(
             project,
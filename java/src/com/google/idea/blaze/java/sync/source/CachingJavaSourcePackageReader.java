@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.source;
+
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.common.experiments.BoolExperiment;
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * Reads packages from java source files via {@link JavaSourcePackageReader}, reusing the result
+ * from the previous sync for files which haven't been modified since.
+ *
+ * <p>Thread-safe; a single instance is used for the duration of a sync.
+ */
+public final class CachingJavaSourcePackageReader extends JavaPackageReader {
+
+  public static final BoolExperiment enabled =
+      new BoolExperiment("blaze.sync.java.source.package.cache", false);
+
+  private final JavaSourcePackageState previousState;
+  private final Map<String, JavaSourcePackageState.Entry> entries = new ConcurrentHashMap<>();
+
+  public CachingJavaSourcePackageReader(@Nullable JavaSourcePackageState previousState) {
+    this.previousState = previousState != null ? previousState : JavaSourcePackageState.EMPTY;
+  }
+
+  @Nullable
+  @Override
+  String getDeclaredPackageOfJavaFile(
+      BlazeContext context,
+      ArtifactLocationDecoder artifactLocationDecoder,
+      SourceArtifact sourceArtifact) {
+    JavaSourcePackageReader delegate = JavaSourcePackageReader.getInstance();
+    if (sourceArtifact.artifactLocation.isGenerated()) {
+      return delegate.getDeclaredPackageOfJavaFile(
+          context, artifactLocationDecoder, sourceArtifact);
+    }
+    File file = artifactLocationDecoder.resolveSource(sourceArtifact.artifactLocation);
+    long modifiedTime =
+        file != null ? FileOperationProvider.getInstance().getFileModifiedTime(file) : 0;
+    if (modifiedTime == 0) {
+      // missing file, or an I/O error; don't cache anything
+      return delegate.getDeclaredPackageOfJavaFile(
+          context, artifactLocationDecoder, sourceArtifact);
+    }
+    String path = file.getPath();
+    JavaSourcePackageState.Entry entry = previousState.entries.get(path);
+    if (entry == null || entry.getModifiedTime() != modifiedTime) {
+      String packageName =
+          delegate.getDeclaredPackageOfJavaFile(context, artifactLocationDecoder, sourceArtifact);
+      if (packageName == null) {
+        return null;
+      }
+      entry = JavaSourcePackageState.Entry.create(modifiedTime, packageName);
+    }
+    entries.put(path, entry);
+    return entry.getPackageName();
+  }
+
+  /** Returns the packages of all source files read so far, to be reused by the next sync. */
+  public JavaSourcePackageState getState() {
+    return new JavaSourcePackageState(entries);
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.source;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.idea.blaze.base.model.SyncData;
+import java.util.Map;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * The declared packages of java-like source files read during the last sync, keyed by file path
+ * and modification time.
+ */
+public final class JavaSourcePackageState implements SyncData<ProjectData.JavaSourcePackageState> {
+
+  /** The declared package of a source file, and the file's modification time when it was read. */
+  @AutoValue
+  abstract static class Entry {
+    abstract long getModifiedTime();
+
+    abstract String getPackageName();
+
+    static Entry create(long modifiedTime, String packageName) {
+      return new AutoValue_JavaSourcePackageState_Entry(modifiedTime, packageName);
+    }
+  }
+
+  static final JavaSourcePackageState EMPTY = new JavaSourcePackageState(ImmutableMap.of());
+
+  /** Keyed by absolute file path. */
+  final ImmutableMap<String, Entry> entries;
+
+  JavaSourcePackageState(Map<String, Entry> entries) {
+    this.entries = ImmutableMap.copyOf(entries);
+  }
+
+  private static JavaSourcePackageState fromProto(ProjectData.JavaSourcePackageState proto) {
+    ImmutableMap.Builder<String, Entry> entries = ImmutableMap.builder();
+    for (ProjectData.JavaSourcePackageState.Entry entry : proto.getEntriesList()) {
+      entries.put(entry.getPath(), Entry.create(entry.getModifiedTime(), entry.getPackage()));
+    }
+    return new JavaSourcePackageState(entries.build());
+  }
+
+  @Override
+  public ProjectData.JavaSourcePackageState toProto() {
+    ProjectData.JavaSourcePackageState.Builder proto =
+        ProjectData.JavaSourcePackageState.newBuilder();
+    entries.forEach(
+        (path, entry) ->
+            proto.addEntries(
+                ProjectData.JavaSourcePackageState.Entry.newBuilder()
+                    .setPath(path)
+                    .setModifiedTime(entry.getModifiedTime())
+                    .setPackage(entry.getPackageName())));
+    return proto.build();
+  }
+
+  @Override
+  public void insert(ProjectData.SyncState.Builder builder) {
+    builder.setJavaSourcePackageState(toProto());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    JavaSourcePackageState that = (JavaSourcePackageState) o;
+    return Objects.equals(entries, that.entries);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(entries);
+  }
+
+  static class Extractor implements SyncData.Extractor<JavaSourcePackageState> {
+    @Nullable
+    @Override
+    public JavaSourcePackageState extract(ProjectData.SyncState syncState) {
+      return syncState.hasJavaSourcePackageState()
+          ? JavaSourcePackageState.fromProto(syncState.getJavaSourcePackageState())
+          : null;
+    }
+  }
+}
@@ -30,7 +30,7 @@ import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
@@ -72,7 +72,17 @@ public final class SourceDirectoryCalculator {
 
   private static final JavaPackageReader generatedFileJavaPackageReader =
       new FilePathJavaPackageReader();
-  private final ListeningExecutorService executorService = MoreExecutors.newDirectExecutorService();
+
+  /** Reads packages from source files, or null to use {@link JavaSourcePackageReader}. */
+  @Nullable private final JavaPackageReader sourcePackageReader;
+
+  public SourceDirectoryCalculator() {
+    this(null);
+  }
+
+  public SourceDirectoryCalculator(@Nullable JavaPackageReader sourcePackageReader) {
+    this.sourcePackageReader = sourcePackageReader;
+  }
 
   public ImmutableList<BlazeContentEntry> calculateContentEntries(
       Project project,
@@ -101,7 +111,9 @@ public final class SourceDirectoryCalculator {
     final List<JavaPackageReader> javaPackageReaders =
         Lists.newArrayList(
             manifestFilePackageReader,
-            JavaSourcePackageReader.getInstance(),
+            sourcePackageReader != null
+                ? sourcePackageReader
+                : JavaSourcePackageReader.getInstance(),
             generatedFileJavaPackageReader);
 
     Collection<SourceArtifact> nonGeneratedSources = filterGeneratedArtifacts(sources);
@@ -223,7 +235,8 @@ public final class SourceDirectoryCalculator {
 
     List<SourceRoot> sourceRootsPerFile = Lists.newArrayList();
 
-    // Get java sources
+    // Get java sources, reading their packages in parallel
+    ListeningExecutorService executorService = BlazeExecutor.getInstance().getExecutor();
     List<ListenableFuture<SourceRoot>> sourceRootFutures = Lists.newArrayList();
     for (final SourceArtifact sourceArtifact : javaArtifacts) {
       ListenableFuture<SourceRoot> future =
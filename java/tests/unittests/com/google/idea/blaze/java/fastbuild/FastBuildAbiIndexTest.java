@@ -0,0 +1,206 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.fastbuild;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.java.fastbuild.FastBuildAbiIndex.AbiChanges;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link FastBuildAbiIndex} and {@link FastBuildClassAbi}. */
+@RunWith(JUnit4.class)
+public final class FastBuildAbiIndexTest {
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void methodBodyChange_keepsAbi() throws IOException {
+    FastBuildClassAbi before =
+        compileClass("a/Foo", "package a; public class Foo { public int f() { return 1; } }");
+    FastBuildClassAbi after =
+        compileClass("a/Foo", "package a; public class Foo { public int f() { return 2; } }");
+
+    assertThat(after.abiHash()).isEqualTo(before.abiHash());
+    assertThat(after.constantsHash()).isEqualTo(before.constantsHash());
+  }
+
+  @Test
+  public void privateMemberChange_keepsAbi() throws IOException {
+    FastBuildClassAbi before = compileClass("a/Foo", "package a; public class Foo {}");
+    FastBuildClassAbi after =
+        compileClass(
+            "a/Foo", "package a; public class Foo { private int x; private void g(String s) {} }");
+
+    assertThat(after.abiHash()).isEqualTo(before.abiHash());
+  }
+
+  @Test
+  public void signatureChange_changesAbi() throws IOException {
+    FastBuildClassAbi before =
+        compileClass("a/Foo", "package a; public class Foo { public void f(int x) {} }");
+    FastBuildClassAbi after =
+        compileClass("a/Foo", "package a; public class Foo { public void f(long x) {} }");
+
+    assertThat(after.abiHash()).isNotEqualTo(before.abiHash());
+  }
+
+  @Test
+  public void constantChange_onlyChangesConstants() throws IOException {
+    FastBuildClassAbi before =
+        compileClass("a/Foo", "package a; public class Foo { public static final int X = 1; }");
+    FastBuildClassAbi after =
+        compileClass("a/Foo", "package a; public class Foo { public static final int X = 2; }");
+
+    assertThat(after.abiHash()).isEqualTo(before.abiHash());
+    assertThat(after.constantsHash()).isNotEqualTo(before.constantsHash());
+  }
+
+  @Test
+  public void readClass_recordsSourcePathAndReferences() throws IOException {
+    FastBuildClassAbi abi =
+        compileClass(
+            "a/b/Foo",
+            "package a.b; public class Foo { java.util.List<Integer> f() { return null; } }");
+
+    assertThat(abi.className()).isEqualTo("a/b/Foo");
+    assertThat(abi.sourcePath()).isEqualTo("a/b/Foo.java");
+    assertThat(abi.referencedClasses()).containsAllOf("java/lang/Object", "java/util/List");
+    assertThat(abi.referencedClasses()).doesNotContain("a/b/Foo");
+  }
+
+  @Test
+  public void diff_findsSourcesReferencingChangedClasses() throws IOException {
+    File classes =
+        compile(
+            "package a; public class Foo { public void f() {} }",
+            "package a; public class User { void g(Foo foo) { foo.f(); } }",
+            "package a; public class Other { void g() {} }");
+    File deployJar = jar(classes);
+    FastBuildAbiIndex index = FastBuildAbiIndex.create(deployJar, pkg -> pkg.equals("a"));
+
+    FastBuildClassAbi changed =
+        compileClass("a/Foo", "package a; public class Foo { public void f(int x) {} }");
+    AbiChanges changes =
+        index.diff(ImmutableList.of(changed), sourcePath -> sourcePath.equals("a/Foo.java"));
+
+    assertThat(changes.changedClasses).containsExactly("a/Foo");
+    assertThat(changes.changedConstants).isEmpty();
+    assertThat(index.sourcesReferencing(changes.changedClasses)).containsExactly("a/User.java");
+  }
+
+  @Test
+  public void diff_bodyOnlyChangeHasNoDependents() throws IOException {
+    File deployJar =
+        jar(
+            compile(
+                "package a; public class Foo { public int f() { return 1; } }",
+                "package a; public class User { int g(Foo foo) { return foo.f(); } }"));
+    FastBuildAbiIndex index = FastBuildAbiIndex.create(deployJar, pkg -> true);
+
+    FastBuildClassAbi changed =
+        compileClass("a/Foo", "package a; public class Foo { public int f() { return 2; } }");
+    AbiChanges changes =
+        index.diff(ImmutableList.of(changed), sourcePath -> sourcePath.equals("a/Foo.java"));
+
+    assertThat(changes.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void apply_replacesClassesOfRecompiledSources() throws IOException {
+    File deployJar =
+        jar(compile("package a; public class Foo { public static class Nested {} }"));
+    FastBuildAbiIndex index = FastBuildAbiIndex.create(deployJar, pkg -> true);
+    FastBuildClassAbi recompiled = compileClass("a/Foo", "package a; public class Foo {}");
+
+    AbiChanges changes =
+        index.diff(ImmutableList.of(recompiled), sourcePath -> sourcePath.equals("a/Foo.java"));
+    index.apply(ImmutableList.of(recompiled), sourcePath -> sourcePath.equals("a/Foo.java"));
+
+    assertThat(changes.changedClasses).containsExactly("a/Foo$Nested");
+    assertThat(index.sourceOf("a/Foo$Nested")).isNull();
+    assertThat(index.sourceOf("a/Foo")).isEqualTo("a/Foo.java");
+  }
+
+  @Test
+  public void create_skipsExcludedPackages() throws IOException {
+    File deployJar =
+        jar(compile("package a; public class Foo {}", "package b; public class Bar {}"));
+
+    FastBuildAbiIndex index = FastBuildAbiIndex.create(deployJar, pkg -> pkg.equals("a"));
+
+    assertThat(index.sourceOf("a/Foo")).isEqualTo("a/Foo.java");
+    assertThat(index.sourceOf("b/Bar")).isNull();
+  }
+
+  private FastBuildClassAbi compileClass(String className, String source) throws IOException {
+    File classes = compile(source);
+    Path classFile = new File(classes, className + ".class").toPath();
+    return FastBuildClassAbi.read(Files.readAllBytes(classFile));
+  }
+
+  /** Compiles each source, named after its first public class, and returns the output directory. */
+  private File compile(String... sources) throws IOException {
+    File sourceDir = folder.newFolder();
+    File outputDir = folder.newFolder();
+    ImmutableList.Builder<String> args = ImmutableList.builder();
+    args.add("-d", outputDir.getPath());
+    for (String source : sources) {
+      String packageName = source.substring("package ".length(), source.indexOf(';'));
+      int nameStart = source.indexOf("class ") + "class ".length();
+      String className = source.substring(nameStart, source.indexOf(' ', nameStart));
+      File file = new File(sourceDir, packageName.replace('.', '/') + "/" + className + ".java");
+      file.getParentFile().mkdirs();
+      Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+      args.add(file.getPath());
+    }
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    int result = javac.run(null, null, null, args.build().toArray(new String[0]));
+    assertThat(result).isEqualTo(0);
+    return outputDir;
+  }
+
+  private File jar(File classes) throws IOException {
+    File jar = folder.newFile("deploy.jar");
+    Path root = classes.toPath();
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        Stream<Path> paths = Files.walk(root)) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        if (Files.isRegularFile(path)) {
+          out.putNextEntry(new ZipEntry(root.relativize(path).toString().replace('\\', '/')));
+          out.write(Files.readAllBytes(path));
+          out.closeEntry();
+        }
+      }
+    }
+    return jar;
+  }
+}
@@ -17,6 +17,7 @@ package com.google.idea.blaze.java.fastbuild;
 
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.truth.Truth.assertThat;
+import static java.util.stream.Collectors.toList;
 import static org.junit.Assert.fail;
 
 import com.google.common.collect.ImmutableList;
@@ -35,6 +36,7 @@ import com.google.idea.blaze.java.fastbuild.FastBuildBlazeData.JavaInfo;
 import com.google.idea.blaze.java.fastbuild.FastBuildBlazeData.JavaToolchainInfo;
 import com.google.idea.blaze.java.fastbuild.FastBuildCompiler.CompileInstructions;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
@@ -42,7 +44,11 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -334,6 +340,96 @@ public final class FastBuildCompilerFactoryImplTest {
     }
   }
 
+  @Test
+  public void residentCompilerIsReused() throws IOException, FastBuildException {
+    useResidentCompiler();
+    String java =
+        ""
+            + "package com.google.idea.blaze.java.fastbuild;\n"
+            + "\n"
+            + "import com.google.common.collect.ImmutableSet;\n"
+            + "\n"
+            + "final class Main {\n"
+            + "  private static final ImmutableSet<String> SET = ImmutableSet.of();\n"
+            + "}\n";
+    for (int i = 0; i < 3; i++) {
+      StringWriter javacOutput = new StringWriter();
+      try {
+        compile(java, javacOutput, GUAVA_JAR);
+      } catch (FastBuildIncrementalCompileException e) {
+        throw new AssertionError("Compilation " + i + " failed:\n" + javacOutput, e);
+      }
+    }
+  }
+
+  @Test
+  public void residentCompilerRereadsChangedClasspathJars() throws IOException, FastBuildException {
+    useResidentCompiler();
+    File jar = Files.createTempFile("dependency", ".jar").toFile();
+    jar.deleteOnExit();
+    buildJar(jar, "package dep;\npublic class Dep {\n  public static void first() {}\n}\n");
+    String first =
+        "package com.google.idea.blaze.java.fastbuild;\n"
+            + "final class Main {\n"
+            + "  void run() { dep.Dep.first(); }\n"
+            + "}\n";
+    StringWriter javacOutput = new StringWriter();
+    try {
+      compile(first, javacOutput, jar);
+    } catch (FastBuildIncrementalCompileException e) {
+      throw new AssertionError("Compilation failed:\n" + javacOutput, e);
+    }
+
+    buildJar(jar, "package dep;\npublic class Dep {\n  public static void second() {}\n}\n");
+    jar.setLastModified(jar.lastModified() + 10_000);
+    String second =
+        "package com.google.idea.blaze.java.fastbuild;\n"
+            + "final class Main {\n"
+            + "  void run() { dep.Dep.second(); }\n"
+            + "}\n";
+    javacOutput = new StringWriter();
+    try {
+      compile(second, javacOutput, jar);
+    } catch (FastBuildIncrementalCompileException e) {
+      throw new AssertionError("Compilation failed:\n" + javacOutput, e);
+    }
+  }
+
+  private void useResidentCompiler() {
+    BlazeProjectData projectData =
+        MockBlazeProjectDataBuilder.builder()
+            .setArtifactLocationDecoder(new MockArtifactLocationDecoder())
+            .build();
+    compilerFactory =
+        FastBuildCompilerFactoryImpl.createForTest(
+            new MockBlazeProjectDataManager(projectData),
+            FAST_BUILD_JAVAC_JAR,
+            /* residentJavac= */ true);
+  }
+
+  /** Compiles the given source, and writes the resulting classes to a jar. */
+  private void buildJar(File jar, String source) throws IOException, FastBuildException {
+    StringWriter javacOutput = new StringWriter();
+    CompileInstructions instructions = createCompileInstructions(source, javacOutput).build();
+    try {
+      getCompiler().compile(createBlazeContext(javacOutput), instructions);
+    } catch (FastBuildIncrementalCompileException e) {
+      throw new AssertionError("Compilation failed:\n" + javacOutput, e);
+    }
+    Path classes = instructions.outputDirectory().toPath();
+    List<Path> classFiles;
+    try (Stream<Path> files = Files.walk(classes)) {
+      classFiles = files.filter(f -> f.toString().endsWith(".class")).collect(toList());
+    }
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+      for (Path classFile : classFiles) {
+        out.putNextEntry(new ZipEntry(classes.relativize(classFile).toString()));
+        out.write(Files.readAllBytes(classFile));
+        out.closeEntry();
+      }
+    }
+  }
+
   private void compile(String source, Writer javacOutput, File... classpath)
       throws IOException, FastBuildException {
     getCompiler()
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.fastbuild;
+
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.command.info.BlazeInfo;
+import com.google.idea.blaze.base.console.BlazeConsoleService;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataManager;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
+import com.google.idea.blaze.base.sync.workspace.MockArtifactLocationDecoder;
+import com.google.idea.blaze.java.fastbuild.FastBuildBlazeData.JavaInfo;
+import com.google.idea.blaze.java.fastbuild.FastBuildBlazeData.JavaToolchainInfo;
+import com.google.idea.blaze.java.fastbuild.FastBuildCompiler.CompileInstructions;
+import com.google.idea.blaze.java.fastbuild.FastBuildState.BuildOutput;
+import com.google.idea.common.experiments.ExperimentService;
+import com.google.idea.common.experiments.MockExperimentService;
+import com.intellij.execution.filters.Filter;
+import com.intellij.execution.filters.HyperlinkInfo;
+import com.intellij.execution.ui.ConsoleViewContentType;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.annotation.Nullable;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link FastBuildIncrementalCompilerImpl}. */
+@RunWith(JUnit4.class)
+public class FastBuildIncrementalCompilerImplTest extends BlazeTestCase {
+
+  private static final File FAST_BUILD_JAVAC_JAR =
+      new File(System.getProperty("fast_build_javac.jar"));
+  private static final File JDK_TOOLS_JAR = new File(System.getProperty("jdk_tools.jar"));
+  private static final String WORKSPACE_NAME = "io_bazel";
+
+  private static final Label APP = Label.create("//app:app");
+  private static final Label DEP = Label.create("//dep:dep");
+  private static final Label JDK = Label.create("//some/jdk:langtools");
+
+  private static final String DEP_SOURCE =
+      "package dep;\n"
+          + "public class Dep {\n"
+          + "  public static int value() { return 1; }\n"
+          + "}\n";
+  private static final String APP_SOURCE =
+      "package app;\n"
+          + "public class App {\n"
+          + "  public static long run() { return dep.Dep.value(); }\n"
+          + "}\n";
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private FastBuildCompilerFactory compilerFactory;
+  private FastBuildIncrementalCompiler incrementalCompiler;
+
+  @BeforeClass
+  public static void verifyJars() {
+    checkState(FAST_BUILD_JAVAC_JAR.exists());
+    checkState(JDK_TOOLS_JAR.exists());
+  }
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    MockExperimentService experimentService = new MockExperimentService();
+    experimentService.setExperiment(FastBuildIncrementalCompilerImpl.abiAwareRecompile, true);
+    applicationServices.register(ExperimentService.class, experimentService);
+    registerExtensionPoint(
+        FastBuildCompilationModification.EP_NAME, FastBuildCompilationModification.class);
+
+    BlazeProjectData projectData =
+        MockBlazeProjectDataBuilder.builder()
+            .setArtifactLocationDecoder(new MockArtifactLocationDecoder())
+            .build();
+    BlazeProjectDataManager projectDataManager = new MockBlazeProjectDataManager(projectData);
+    compilerFactory =
+        FastBuildCompilerFactoryImpl.createForTest(projectDataManager, FAST_BUILD_JAVAC_JAR);
+    incrementalCompiler =
+        new FastBuildIncrementalCompilerImpl(
+            projectDataManager, compilerFactory, new NoopConsoleService());
+  }
+
+  @Test
+  public void testRecompilesDependentsOfChangedSignature() throws Exception {
+    File depSource = writeSource("dep/Dep.java", DEP_SOURCE);
+    File appSource = writeSource("app/App.java", APP_SOURCE);
+    FastBuildState buildState = createBuild(depSource, appSource);
+
+    writeSource(
+        "dep/Dep.java",
+        "package dep;\n"
+            + "public class Dep {\n"
+            + "  public static long value() { return 2L; }\n"
+            + "}\n");
+    incrementalCompiler
+        .compile(new BlazeContext(), APP, buildState, ImmutableSet.of(depSource))
+        .get();
+
+    File outputDirectory = buildState.compilerOutputDirectory();
+    assertThat(new File(outputDirectory, "app/App.class").exists()).isTrue();
+    // the recompiled App must link against the recompiled Dep, not the one in the deploy jar
+    try (URLClassLoader classLoader =
+        new URLClassLoader(
+            new URL[] {
+              outputDirectory.toURI().toURL(),
+              buildState.completedBuildOutput().get().deployJar().toURI().toURL()
+            },
+            /* parent= */ null)) {
+      Object result = classLoader.loadClass("app.App").getMethod("run").invoke(null);
+      assertThat(result).isEqualTo(2L);
+    }
+  }
+
+  @Test
+  public void testDoesNotRecompileDependentsOfChangedMethodBody() throws Exception {
+    File depSource = writeSource("dep/Dep.java", DEP_SOURCE);
+    File appSource = writeSource("app/App.java", APP_SOURCE);
+    FastBuildState buildState = createBuild(depSource, appSource);
+
+    writeSource(
+        "dep/Dep.java",
+        "package dep;\n"
+            + "public class Dep {\n"
+            + "  public static int value() { return 3; }\n"
+            + "}\n");
+    incrementalCompiler
+        .compile(new BlazeContext(), APP, buildState, ImmutableSet.of(depSource))
+        .get();
+
+    File outputDirectory = buildState.compilerOutputDirectory();
+    assertThat(new File(outputDirectory, "dep/Dep.class").exists()).isTrue();
+    assertThat(new File(outputDirectory, "app/App.class").exists()).isFalse();
+  }
+
+  /** Compiles the sources into a deploy jar, as a full build would. */
+  private FastBuildState createBuild(File depSource, File appSource) throws Exception {
+    FastBuildBlazeData jdkData =
+        FastBuildBlazeData.builder()
+            .setLabel(JDK)
+            .setWorkspaceName(WORKSPACE_NAME)
+            .setJavaToolchainInfo(
+                JavaToolchainInfo.create(
+                    ImmutableList.of(artifact(JDK_TOOLS_JAR)),
+                    /* bootJars= */ ImmutableList.of(),
+                    /* sourceVersion= */ "8",
+                    /* targetVersion= */ "8"))
+            .build();
+    Map<Label, FastBuildBlazeData> blazeData =
+        ImmutableMap.of(
+            APP,
+            javaTarget(APP, appSource, DEP, JDK),
+            DEP,
+            javaTarget(DEP, depSource),
+            JDK,
+            jdkData);
+
+    File classes = tempFolder.newFolder("classes");
+    StringWriter javacOutput = new StringWriter();
+    try {
+      compilerFactory
+          .getCompilerFor(APP, blazeData)
+          .compile(
+              new BlazeContext(),
+              CompileInstructions.builder()
+                  .outputDirectory(classes)
+                  .filesToCompile(ImmutableList.of(depSource, appSource))
+                  .classpath(ImmutableList.of())
+                  .outputWriter(javacOutput)
+                  .build());
+    } catch (FastBuildIncrementalCompileException e) {
+      throw new AssertionError("Compilation failed:\n" + javacOutput, e);
+    }
+    File deployJar = new File(tempFolder.getRoot(), "app_deploy.jar");
+    writeJar(deployJar, classes.toPath());
+
+    BuildOutput buildOutput =
+        BuildOutput.create(
+            deployJar,
+            blazeData,
+            BlazeInfo.createMockBlazeInfo(
+                "/output_base", "/execroot", "/execroot/bin", "/execroot/genfiles", "/testlogs"));
+    return FastBuildState.create(
+            Futures.immediateFuture(buildOutput),
+            tempFolder.newFolder("compiler-output"),
+            FastBuildParameters.builder().setBlazeBinary("/usr/bin/blaze").build())
+        .withCompletedBuildOutput(buildOutput);
+  }
+
+  private static FastBuildBlazeData javaTarget(Label label, File source, Label... dependencies) {
+    return FastBuildBlazeData.builder()
+        .setLabel(label)
+        .setWorkspaceName(WORKSPACE_NAME)
+        .setDependencies(ImmutableSet.copyOf(dependencies))
+        .setJavaInfo(JavaInfo.builder().setSources(ImmutableList.of(artifact(source))).build())
+        .build();
+  }
+
+  private static ArtifactLocation artifact(File file) {
+    return ArtifactLocation.builder().setRelativePath(file.getPath()).build();
+  }
+
+  private File writeSource(String path, String contents) throws IOException {
+    File file = new File(tempFolder.getRoot(), "workspace/" + path);
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  private static void writeJar(File jar, Path classes) throws IOException {
+    List<Path> classFiles;
+    try (Stream<Path> files = Files.walk(classes)) {
+      classFiles = files.filter(f -> f.toString().endsWith(".class")).collect(toList());
+    }
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+      for (Path classFile : classFiles) {
+        out.putNextEntry(new ZipEntry(classes.relativize(classFile).toString()));
+        out.write(Files.readAllBytes(classFile));
+        out.closeEntry();
+      }
+    }
+  }
+
+  private static class NoopConsoleService implements BlazeConsoleService {
+    @Override
+    public void print(String text, ConsoleViewContentType contentType) {}
+
+    @Override
+    public void printHyperlink(String hyperlinkText, @Nullable HyperlinkInfo info) {}
+
+    @Override
+    public void clear() {}
+
+    @Override
+    public void setCustomFilters(List<Filter> filters) {}
+
+    @Override
+    public void setStopHandler(@Nullable Runnable runnable) {}
+
+    @Override
+    public void activateConsoleWindow() {}
+  }
+}
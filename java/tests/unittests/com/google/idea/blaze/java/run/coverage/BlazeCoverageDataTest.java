@@ -56,11 +56,11 @@ public class BlazeCoverageDataTest {
 
     FileData fileData = data.perFileData.get("path/to/file.txt");
     assertThat(fileData.source).isEqualTo("path/to/file.txt");
-    assertThat(toMap(fileData.lineHits)).containsExactly(4, 0, 8, 0, 9, 1, 23, 3);
+    assertThat(toMap(fileData.lineHits())).containsExactly(4, 0, 8, 0, 9, 1, 23, 3);
 
     fileData = data.perFileData.get("path/to/another/file.txt");
     assertThat(fileData.source).isEqualTo("path/to/another/file.txt");
-    assertThat(toMap(fileData.lineHits)).containsExactly(1, 1, 2, 2, 5, 0, 123, 1);
+    assertThat(toMap(fileData.lineHits())).containsExactly(1, 1, 2, 2, 5, 0, 123, 1);
   }
 
   @Test
@@ -81,6 +81,16 @@ public class BlazeCoverageDataTest {
     assertThat(data.perFileData.keySet()).containsExactly("path/to/another/file.txt");
   }
 
+  @Test
+  public void testParseWindowsLineEndingsAndUnterminatedRecord() throws IOException {
+    BlazeCoverageData data =
+        BlazeCoverageData.parse(
+            inputStream("SF:path/to/file.txt\r", "DA:4,0\r", "DA:23,3\r", "DA:24,x\r", "DA:25,7"));
+
+    FileData fileData = data.perFileData.get("path/to/file.txt");
+    assertThat(toMap(fileData.lineHits())).containsExactly(4, 0, 23, 3, 25, 7);
+  }
+
   private static ImmutableMap<Integer, Integer> toMap(TIntIntHashMap troveMap) {
     return Arrays.stream(troveMap.keys())
         .boxed()
@@ -155,6 +155,54 @@ public class SourceDirectoryCalculatorTest extends BlazeTestCase {
                 .build());
   }
 
+  @Test
+  public void testCachingPackageReaderReusesPackagesOfUnmodifiedFiles() {
+    mockInputStreamProvider.addFile(
+        "/root/java/com/google/Bla.java", "package com.google;\n public class Bla {}");
+    List<SourceArtifact> sourceArtifacts =
+        ImmutableList.of(
+            SourceArtifact.builder(TargetKey.forPlainTarget(LABEL))
+                .setArtifactLocation(
+                    ArtifactLocation.builder()
+                        .setRelativePath("java/com/google/Bla.java")
+                        .setIsSource(true))
+                .build());
+    ImportRoots importRoots =
+        buildImportRoots(
+            ImmutableList.of(new WorkspacePath("java/com/google")), ImmutableList.of());
+    CachingJavaSourcePackageReader firstSync = new CachingJavaSourcePackageReader(null);
+    new SourceDirectoryCalculator(firstSync)
+        .calculateContentEntries(
+            project, context, workspaceRoot, decoder, importRoots, sourceArtifacts, NO_MANIFESTS);
+    JavaSourcePackageState state = firstSync.getState();
+    assertThat(state.entries).containsKey("/root/java/com/google/Bla.java");
+
+    // the modification time is unchanged, so the file shouldn't be read again
+    mockInputStreamProvider.addFile(
+        "/root/java/com/google/Bla.java", "package com.other;\n public class Bla {}");
+    CachingJavaSourcePackageReader secondSync = new CachingJavaSourcePackageReader(state);
+    ImmutableList<BlazeContentEntry> result =
+        new SourceDirectoryCalculator(secondSync)
+            .calculateContentEntries(
+                project,
+                context,
+                workspaceRoot,
+                decoder,
+                importRoots,
+                sourceArtifacts,
+                NO_MANIFESTS);
+    assertThat(result)
+        .containsExactly(
+            BlazeContentEntry.builder("/root/java/com/google")
+                .addSource(
+                    BlazeSourceDirectory.builder("/root/java/com/google")
+                        .setPackagePrefix("com.google")
+                        .build())
+                .build());
+    assertThat(secondSync.getState()).isEqualTo(state);
+    issues.assertNoIssues();
+  }
+
   @Test
   public void testCalculatesPackageForSimpleCase() {
     mockInputStreamProvider.addFile(
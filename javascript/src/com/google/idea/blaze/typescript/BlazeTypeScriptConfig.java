@@ -47,6 +47,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.NotNullLazyValue;
 import com.intellij.openapi.util.NullableLazyValue;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiFileSystemItem;
@@ -112,6 +113,7 @@ class BlazeTypeScriptConfig implements TypeScriptConfigCompat {
   // end compilerOptions
   private final List<String> filesStrings = new ArrayList<>();
   private final NotNullLazyValue<List<VirtualFile>> files;
+  private final NotNullLazyValue<TypeScriptFileIncludeIndex.IncludeSet> includeSet;
 
   @Nullable
   static TypeScriptConfig getInstance(Project project, Label label) {
@@ -190,6 +192,9 @@ class BlazeTypeScriptConfig implements TypeScriptConfigCompat {
                   .collect(ImmutableList.toImmutableList());
             });
     this.files = NotNullLazyValue.createValue(this::resolveFilesList);
+    this.includeSet =
+        NotNullLazyValue.createValue(
+            () -> TypeScriptFileIncludeIndex.getInstance(project).getIncludeSet(getFilePaths()));
     this.dependencies =
         NotNullLazyValue.createValue(
             () -> {
@@ -405,7 +410,26 @@ class BlazeTypeScriptConfig implements TypeScriptConfigCompat {
     }
   }
 
+  /** Returns the absolute, normalized paths of the files list, before resolving symlinks. */
+  ImmutableList<String> getFilePaths() {
+    VirtualFile base = baseUrlFile.getValue();
+    if (base == null) {
+      return ImmutableList.of();
+    }
+    File baseFile = VfsUtil.virtualToIoFile(base);
+    return filesStrings.stream()
+        .map(f -> FileUtil.toCanonicalPath(new File(baseFile, f).getPath()))
+        .collect(ImmutableList.toImmutableList());
+  }
+
   private ImmutableList<VirtualFile> resolveFilesList() {
+    if (TypeScriptFileIncludeIndex.enabled.getValue()) {
+      return includeSet.getValue().getPaths().stream()
+          .map(File::new)
+          .map(VfsUtils::resolveVirtualFile)
+          .filter(Objects::nonNull)
+          .collect(ImmutableList.toImmutableList());
+    }
     VirtualFile base = baseUrlFile.getValue();
     if (base == null) {
       return ImmutableList.of();
@@ -430,6 +454,9 @@ class BlazeTypeScriptConfig implements TypeScriptConfigCompat {
 
   @Override
   public boolean accept(VirtualFile file) {
+    if (TypeScriptFileIncludeIndex.enabled.getValue()) {
+      return includeSet.getValue().contains(file);
+    }
     return getInclude().accept(file);
   }
 
@@ -537,6 +564,9 @@ class BlazeTypeScriptConfig implements TypeScriptConfigCompat {
 
   @Override
   public boolean isFromFileList(VirtualFile file) {
+    if (TypeScriptFileIncludeIndex.enabled.getValue()) {
+      return includeSet.getValue().contains(file);
+    }
     return getInclude().isFromFilesList(file);
   }
 
@@ -52,6 +52,7 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
 class BlazeTypeScriptConfigServiceImpl implements TypeScriptConfigServiceCompat {
@@ -72,6 +73,7 @@ class BlazeTypeScriptConfigServiceImpl implements TypeScriptConfigServiceCompat
 
   void clear() {
     configs = ImmutableMap.of();
+    TypeScriptFileIncludeIndex.getInstance(project).clear();
     configsHash.set(Objects.hash());
   }
 
@@ -84,8 +86,12 @@ class BlazeTypeScriptConfigServiceImpl implements TypeScriptConfigServiceCompat
    * @return whether there was a change to the typescript configs.
    */
   boolean update() {
+    ImmutableList<TypeScriptConfig> parsedConfigs = parseConfigs(project);
+    if (TypeScriptFileIncludeIndex.enabled.getValue()) {
+      resolveFilesLists(parsedConfigs);
+    }
     configs =
-        parseConfigs(project).stream()
+        parsedConfigs.stream()
             .collect(
                 ImmutableMap.toImmutableMap(TypeScriptConfig::getConfigFile, Functions.identity()));
     for (TypeScriptConfigsChangedListener listener : listeners) {
@@ -104,6 +110,21 @@ class BlazeTypeScriptConfigServiceImpl implements TypeScriptConfigServiceCompat
     return configsHash.getAndSet(newConfigsHash) != newConfigsHash;
   }
 
+  /** Resolves the symlinks in the files lists of all configs up front, in one parallel batch. */
+  private void resolveFilesLists(ImmutableList<TypeScriptConfig> configs) {
+    List<String> paths =
+        configs.stream()
+            .filter(BlazeTypeScriptConfig.class::isInstance)
+            .map(BlazeTypeScriptConfig.class::cast)
+            .flatMap(config -> config.getFilePaths().stream())
+            .collect(Collectors.toList());
+    try {
+      TypeScriptFileIncludeIndex.getInstance(project).resolveAll(paths);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   private ImmutableList<TypeScriptConfig> parseConfigs(Project project) {
     ProjectViewSet projectViewSet = ProjectViewManager.getInstance(project).getProjectViewSet();
     if (projectViewSet == null) {
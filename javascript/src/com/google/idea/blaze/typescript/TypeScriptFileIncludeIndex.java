@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.typescript;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Resolves the 'files' lists of tsconfigs to sets of file paths, so that {@link
+ * BlazeTypeScriptConfig#accept} is a single hash lookup.
+ *
+ * <p>Symlinks for all configs are resolved together, in parallel, when the configs are reloaded
+ * during sync. Resolved paths are shared between configs, as are the include sets of configs with
+ * identical files lists.
+ */
+final class TypeScriptFileIncludeIndex {
+  private static final Logger logger = Logger.getInstance(TypeScriptFileIncludeIndex.class);
+
+  static final BoolExperiment enabled =
+      new BoolExperiment("blaze.typescript.include.index", false);
+
+  private static final int RESOLVE_BATCH_SIZE = 1000;
+
+  static TypeScriptFileIncludeIndex getInstance(Project project) {
+    return ServiceManager.getService(project, TypeScriptFileIncludeIndex.class);
+  }
+
+  private final Interner<IncludeSet> includeSets = Interners.newWeakInterner();
+
+  /** Maps absolute (unresolved) paths from the files lists to their symlink-resolved paths. */
+  private volatile ImmutableMap<String, String> resolvedPaths = ImmutableMap.of();
+
+  /**
+   * Resolves the symlinks of all the given paths in parallel, replacing any previously resolved
+   * paths. This does file system operations, so should not be called on the EDT.
+   */
+  void resolveAll(Collection<String> paths) throws InterruptedException {
+    ImmutableList<String> uniquePaths = ImmutableSet.copyOf(paths).asList();
+    List<ListenableFuture<Map<String, String>>> futures =
+        Lists.partition(uniquePaths, RESOLVE_BATCH_SIZE).stream()
+            .map(batch -> BlazeExecutor.getInstance().submit(() -> resolveBatch(batch)))
+            .collect(toImmutableList());
+    ImmutableMap.Builder<String, String> resolved = ImmutableMap.builder();
+    try {
+      Futures.allAsList(futures).get().forEach(resolved::putAll);
+    } catch (ExecutionException e) {
+      logger.warn(e);
+      return;
+    }
+    resolvedPaths = resolved.build();
+  }
+
+  void clear() {
+    resolvedPaths = ImmutableMap.of();
+  }
+
+  /**
+   * Returns the include set for the given absolute paths. Paths not seen by the last call to {@link
+   * #resolveAll} are resolved on the calling thread.
+   */
+  IncludeSet getIncludeSet(List<String> paths) {
+    ImmutableMap<String, String> resolvedPaths = this.resolvedPaths;
+    ImmutableSet<String> resolved =
+        paths.stream()
+            .map(
+                path -> {
+                  String resolvedPath = resolvedPaths.get(path);
+                  return resolvedPath != null ? resolvedPath : resolve(path);
+                })
+            .collect(ImmutableSet.toImmutableSet());
+    return includeSets.intern(new IncludeSet(resolved));
+  }
+
+  private static Map<String, String> resolveBatch(List<String> paths) {
+    Map<String, String> resolved = new HashMap<>();
+    for (String path : paths) {
+      String resolvedPath = resolve(path);
+      // share the key string when the path isn't a symlink
+      resolved.put(path, resolvedPath.equals(path) ? path : resolvedPath);
+    }
+    return resolved;
+  }
+
+  private static String resolve(String path) {
+    FileOperationProvider fOps = FileOperationProvider.getInstance();
+    File file = new File(path);
+    try {
+      if (!fOps.isSymbolicLink(file)) {
+        return path;
+      }
+      File target = fOps.readSymbolicLink(file);
+      if (!target.isAbsolute()) {
+        target = new File(file.getParentFile(), target.getPath());
+      }
+      return FileUtil.toCanonicalPath(target.getPath());
+    } catch (IOException e) {
+      logger.warn(e);
+      return path;
+    }
+  }
+
+  /** The resolved paths of a single files list. */
+  static final class IncludeSet {
+    private final ImmutableSet<String> paths;
+
+    private IncludeSet(ImmutableSet<String> paths) {
+      this.paths = paths;
+    }
+
+    boolean contains(VirtualFile file) {
+      return paths.contains(file.getPath());
+    }
+
+    /** The resolved paths, in files list order. */
+    ImmutableSet<String> getPaths() {
+      return paths;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof IncludeSet && paths.equals(((IncludeSet) o).paths);
+    }
+
+    @Override
+    public int hashCode() {
+      return paths.hashCode();
+    }
+  }
+}
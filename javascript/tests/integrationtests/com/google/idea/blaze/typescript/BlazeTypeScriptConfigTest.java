@@ -31,6 +31,8 @@ import com.google.idea.blaze.base.projectview.ProjectView;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.projectview.section.ListSection;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
+import com.google.idea.common.experiments.ExperimentService;
+import com.google.idea.common.experiments.MockExperimentService;
 import com.google.idea.sdkcompat.typescript.TypeScriptConfigCompat;
 import com.google.idea.sdkcompat.typescript.TypeScriptConfigServiceCompat;
 import com.intellij.lang.javascript.frameworks.modules.JSModulePathSubstitution;
@@ -272,6 +274,29 @@ public class BlazeTypeScriptConfigTest extends BlazeIntegrationTestCase {
     assertThat(blazeConfig.hasFilesList()).isTrue();
   }
 
+  @Test
+  public void testFileListWithIncludeIndex() {
+    MockExperimentService experimentService = new MockExperimentService();
+    experimentService.setExperimentRaw("blaze.typescript.include.index", true);
+    registerApplicationComponent(ExperimentService.class, experimentService);
+    blazeConfigService.update();
+
+    TypeScriptConfigCompat blazeConfig =
+        (TypeScriptConfigCompat) blazeConfigService.getConfigs().get(0);
+    VirtualFile includedSource = vf("/src/workspace/project/foo/included.ts");
+    VirtualFile excludedSource = vf("/src/workspace/project/foo/excluded.ts");
+    assertThat(blazeConfig.accept(includedSource)).isTrue();
+    assertThat(blazeConfig.accept(excludedSource)).isFalse();
+    assertThat(blazeConfig.isFromFileList(includedSource)).isTrue();
+    assertThat(blazeConfig.isFromFileList(excludedSource)).isFalse();
+
+    assertThat(blazeConfig.getFileList())
+        .containsExactly(
+            vf("/src/workspace/project/foo/included.ts"),
+            vf(
+                "/src/out/execroot/bin/project/foo/tsconfig.runfiles/workspace/javascript/closure/base.d.ts"));
+  }
+
   @Test
   public void testDifferentOptions() {
     TypeScriptConfig blazeConfig = blazeConfigService.getConfigs().get(0);